@@ -43,6 +43,7 @@ public interface Constants {
     public static final String DF = "df";
     public static final String GCT = "gct";
     public static final String PCL = "pcl";
+    public static final String GCTB = "gctb";
     public static final String MAT = "mat";
     public static final String RNK = "rnk";
     public static final String DTGDS = "dtgds";
@@ -51,6 +52,7 @@ public interface Constants {
     public static final String DEF = "def";
     public static final String GMX = "gmx";
     public static final String GMT = "gmt";
+    public static final String GMTB = "gmtb";
     public static final String DFR = "dfr";
     public static final String EDB = "edb";
     public static final String CDT = "cdt";
@@ -91,6 +93,33 @@ public interface Constants {
 
     public static final String MAKE_REPORT_DIR_KEY = "mkdir";
 
+    /**
+     * -D system property that bounds (in MB) the estimated size of the objects held by the ParserFactory cache.
+     * Defaults to a quarter of the max heap.
+     */
+    public static final String OBJECT_CACHE_MAX_MB_KEY = "object_cache_max_mb";
+
+    /**
+     * -D system property that enables the on-disk cache of parsed GCT, TXT, GMT and CHIP files (under the GSEA home
+     * directory) and bounds its size in MB.  Off by default.
+     */
+    public static final String PARSE_CACHE_MAX_MB_KEY = "parse_cache_max_mb";
+
+    /**
+     * -D system property that has saved EDB results keep their real and random enrichment scores in a binary file
+     * beside the results.edb, which is memory-mapped when read back, rather than as text in it.  Off by default as
+     * other tools may read the scores from the results.edb.
+     */
+    public static final String EDB_BINARY_ES_KEY = "edb_binary_es";
+
+    /**
+     * -D system property that has a single-threaded gene_set permutation draw its random gene sets as ranks, each
+     * gene set from a stream of its own, as multi-threaded ones always do.  It is then much faster and its results
+     * are those of any number of threads, but differ from those of earlier versions for the same seed, which is why
+     * it is off by default.
+     */
+    public static final String RANK_SAMPLER_KEY = "gene_set_rank_sampler";
+
     public static final String GENE_SYMBOL_CHIP = GENE_SYMBOL + "." + CHIP;
     
     public static final String SEQ_ACCESSION_CHIP = SEQ_ACCESSION + "." + CHIP;
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2020 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg;
 
@@ -9,10 +9,15 @@ import edu.mit.broad.genome.objects.*;
 import java.util.*;
 
 /**
+ * The rows are ranked with primitive arrays only (no per-row DoubleElement) and the sort buffers are reused
+ * from one call to the next, so an instance is NOT thread-safe; use one per thread.
+ *
  * @author Aravind Subramanian
  */
 public class DatasetMetrics {
 
+    private final RadixIndexSorter fSorter = new RadixIndexSorter();
+
     public DatasetMetrics() {
     }
 
@@ -36,16 +41,59 @@ public class DatasetMetrics {
         }
         
         final int rows = ds.getNumRow();
-        final DoubleElement[] sorted = new DoubleElement[rows];
-                
-        for (int i = 0; i < rows; i++) {
-            double dist = metric.getScore(ds.getRow(i), template, metricParams);
-            final DoubleElement del = new DoubleElement(i, dist);
-            sorted[i] = del;
+        final double[] scores;
+
+        // The common two-class metrics are computed for all rows at once when the data can be worked on directly
+        final TwoClassMetricEngine engine = (TwoClassMetricEngine.isSupported(metric, template)) ? TwoClassMetricEngine.create(ds) : null;
+        if (engine != null) {
+            scores = engine.score(metric, template, metricParams);
+        } else {
+            scores = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                scores[i] = metric.getScore(ds.getRow(i), template, metricParams);
+            }
         }
         
-        Arrays.parallelSort(sorted, new DoubleElement.DoubleElementComparator(sort, order.isAscending()));
-        List<DoubleElement> dels = Arrays.asList(sorted);
-        return new ScoredDatasetImpl(new AddressedVector(dels), ds);
+        return toScoredDataset(scores, sort, order, ds);
+    }
+
+    /**
+     * Score AND sort/order a Dataset for the random template of a phenotype permutation.
+     * <p/>
+     * When the engine (from TwoClassMetricEngine.createForPermutations() on this same Dataset) supports the metric,
+     * the class statistics are derived from its row totals.  Otherwise this is the same as scoreDataset().
+     */
+    public ScoredDataset scoreDatasetForPermutation(final Metric metric, final SortMode sort, final Order order, 
+            final Map<String, Boolean> metricParams, final Dataset ds, final Template rndTemplate, 
+            final TwoClassMetricEngine permEngine_opt) {
+        if (permEngine_opt == null || !TwoClassMetricEngine.isSupportedByClassDeltas(metric, rndTemplate, metricParams)) {
+            return scoreDataset(metric, sort, order, metricParams, ds, rndTemplate);
+        }
+
+        if (ds == null) {
+            throw new IllegalArgumentException("Param ds cannot be null");
+        }
+        if (sort == null) {
+            throw new IllegalArgumentException("Param sort cannot be null");
+        }
+        if (order == null) {
+            throw new IllegalArgumentException("Param order cannot be null");
+        }
+        if (permEngine_opt.getNumRow() != ds.getNumRow()) {
+            throw new IllegalArgumentException("Engine does not match the Dataset: " + permEngine_opt.getNumRow() + " rows vs " + ds.getNumRow());
+        }
+
+        final double[] scores = permEngine_opt.scoreByClassDeltas(metric, rndTemplate, metricParams);
+        return toScoredDataset(scores, sort, order, ds);
+    }
+
+    // Same order as sorting DoubleElements with a DoubleElementComparator
+    private ScoredDataset toScoredDataset(final double[] scores, final SortMode sort, final Order order, final Dataset ds) {
+        final int[] rowIndices = fSorter.sortIndices(scores, sort, order);
+        final float[] rankedScores = new float[rowIndices.length];
+        for (int r = 0; r < rowIndices.length; r++) {
+            rankedScores[r] = (float) scores[rowIndices[r]];
+        }
+        return new ScoredDatasetImpl(new AddressedVector(rowIndices, rankedScores), ds);
     }
 }
\ No newline at end of file
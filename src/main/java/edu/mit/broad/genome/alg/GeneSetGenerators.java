@@ -50,6 +50,85 @@ public class GeneSetGenerators {
         return rndgsets;
     }
 
+    /**
+     * Primitive counterpart to createRandomGeneSetsFixedSize(): fills each row of rndRankSets with distinct random 
+     * ranks from 0 to rankPool.length (exclusive).  The length of each row is the number of members to sample.
+     * <p/>
+     * Uses a partial Fisher-Yates shuffle of rankPool, so each row costs only as many draws as it has members.  The 
+     * rankPool must hold the identity permutation (as from XMath.toIndices()); it is restored before returning so 
+     * that it can be reused for any number of calls.
+     */
+    public static void sampleRandomRankSets(final int[][] rndRankSets, final int[] rankPool, final RandomSeedGenerator rst) {
+        final Random rnd = rst.getRandom();
+        int[] swaps = new int[0];
+        for (int g = 0; g < rndRankSets.length; g++) {
+            final int nmembers = rndRankSets[g].length;
+            if (swaps.length < nmembers) { swaps = new int[nmembers]; }
+            sampleRankSet(rndRankSets[g], nmembers, rankPool, swaps, rnd);
+        }
+    }
+
+    // Fills the first nmembers of rankSet by a partial Fisher-Yates shuffle of rankPool, then undoes the swaps (kept
+    // in swaps) so that the pool is back to the identity permutation
+    private static void sampleRankSet(final int[] rankSet, final int nmembers, final int[] rankPool, final int[] swaps,
+            final Random rnd) {
+        final int poolSize = rankPool.length;
+        if (nmembers > poolSize) {
+            throw new IllegalArgumentException("Cannot pick more ranks (no replacement): " + nmembers + " than available: " + poolSize);
+        }
+
+        for (int i = 0; i < nmembers; i++) {
+            final int j = i + rnd.nextInt(poolSize - i);
+            swaps[i] = j;
+            final int rank = rankPool[j];
+            rankPool[j] = rankPool[i];
+            rankPool[i] = rank;
+            rankSet[i] = rank;
+        }
+
+        for (int i = nmembers - 1; i >= 0; i--) {
+            final int j = swaps[i];
+            final int rank = rankPool[j];
+            rankPool[j] = rankPool[i];
+            rankPool[i] = rank;
+        }
+    }
+
+    /**
+     * Draws random gene sets as ranks just as sampleRandomRankSets() does, but into buffers that are kept from one
+     * call to the next, so that a worker permuting many gene sets allocates only for the largest.  Not thread safe;
+     * use one per worker.
+     */
+    public static class RankSetSampler {
+        private final int[] fRankPool;
+        private int[] fSwaps = new int[0];
+        private int[][] fRankSets = new int[0][];
+
+        /**
+         * @param poolSize the ranks are drawn from 0 to poolSize (exclusive)
+         */
+        public RankSetSampler(final int poolSize) {
+            this.fRankPool = XMath.toIndices(poolSize);
+        }
+
+        /**
+         * @return numSets rows, the first nmembers of each holding distinct random ranks.  The rows may be longer
+         * than nmembers, and are overwritten by the next call.
+         */
+        public int[][] sample(final int numSets, final int nmembers, final RandomSeedGenerator rst) {
+            if (fRankSets.length != numSets || (numSets > 0 && fRankSets[0].length < nmembers)) {
+                fRankSets = new int[numSets][nmembers];
+            }
+            if (fSwaps.length < nmembers) { fSwaps = new int[nmembers]; }
+
+            final Random rnd = rst.getRandom();
+            for (int g = 0; g < numSets; g++) {
+                sampleRankSet(fRankSets[g], nmembers, fRankPool, fSwaps, rnd);
+            }
+            return fRankSets;
+        }
+    }
+
     private static GeneSet[] removeGeneSetsSmallerThan(final GeneSet[] gsets, final int cutoff) {
         List<GeneSet> list = new ArrayList<GeneSet>(gsets.length);
         for (int i = 0; i < gsets.length; i++) {
@@ -70,7 +149,7 @@ public class GeneSetGenerators {
             int num = gset.getNumMembers();
             if (num >= cutoff) { list.add(gset); }
 
-            // TODO: eval for performance.  See notes in GeneSetCohort(GeneSetScoringTable, RankedList, GeneSet[], GeneToGeneSetMap)
+            // TODO: eval for performance.  See notes in GeneSetCohort(GeneSetScoringTable, RankedList, GeneSet[])
             if (i != 0 && i % 500 == 0) {
                 System.out.println("Done removeGeneSetsSmallerThan: " + cutoff + " for: " + (i + 1) + " / " + ogsets.length);
             }
@@ -88,7 +167,7 @@ public class GeneSetGenerators {
             int num = AlgUtils.getNumOfMembers(rl, gset);
             if (num <= cutoff) { list.add(gset); }
 
-            // TODO: eval for performance.  See notes in GeneSetCohort(GeneSetScoringTable, RankedList, GeneSet[], GeneToGeneSetMap)
+            // TODO: eval for performance.  See notes in GeneSetCohort(GeneSetScoringTable, RankedList, GeneSet[])
             if (i != 0 && i % 500 == 0) {
                 System.out.println("Done removeGeneSetsLargerThan " + (i + 1) + " / " + ogsets.length);
             }
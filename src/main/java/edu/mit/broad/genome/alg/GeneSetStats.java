@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg;
 
@@ -46,6 +46,19 @@ public class GeneSetStats {
     // rec = number of unique 2mers / total number of possible 2 mers
     // NOT same as co-occurrence
     public RedStruc calcRedundancy(final GeneSet[] gsets, final boolean do2mersalso) {
+        //      * Sets as rows, genes as columns. Aligned
+        BitSetDataset bsd = new BitSetDataset(new DefaultGeneSetMatrix("foo", gsets));
+        return calcRedundancy(gsets, bsd.getOverlaps(), do2mersalso);
+    }
+
+    /**
+     * @param overlaps of the gene sets, in the same order
+     */
+    public RedStruc calcRedundancy(final GeneSet[] gsets, final BitSetDataset.Overlaps overlaps, final boolean do2mersalso) {
+        if (overlaps.getNumSets() != gsets.length) {
+            throw new IllegalArgumentException("Overlaps are of " + overlaps.getNumSets() + " sets but got: " + gsets.length);
+        }
+
         RedStruc rs = new RedStruc();
         if (do2mersalso) {
             rs.allFoundTwoMers = new HashSet();
@@ -59,9 +72,7 @@ public class GeneSetStats {
             }
         }
 
-        //      * Sets as rows, genes as columns. Aligned
-        BitSetDataset bsd = new BitSetDataset(new DefaultGeneSetMatrix("foo", gsets));
-        Dataset ds = bsd.and_by_or();
+        int n = overlaps.getNumSets();
 
         LabelledVector lv = getFeatureFrequency_lv(gsets);
         rs.featureFreq = lv.sort(SortMode.REAL, Order.DESCENDING);
@@ -69,18 +80,19 @@ public class GeneSetStats {
         float sum = 0;
         // @note IMP intentionally using hash set so that we dont have to worry about nums
         rs.jaccardDistrib = new TFloatIntHashMap();
-        for (int r = 0; r < ds.getNumRow(); r++) {
-            for (int c = 0; c < ds.getNumCol(); c++) {
-                sum += ds.getElement(r, c);
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                float jaccard = overlaps.getJaccard(r, c);
+                sum += jaccard;
                 if (r < c) {
-                    int curr = rs.jaccardDistrib.get(ds.getElement(r, c));
+                    int curr = rs.jaccardDistrib.get(jaccard);
                     curr++;
-                    rs.jaccardDistrib.put(ds.getElement(r, c), curr);
+                    rs.jaccardDistrib.put(jaccard, curr);
                 }
             }
         }
 
-        rs.jaccardMean = sum / (ds.getNumRow() * ds.getNumRow());
+        rs.jaccardMean = sum / (n * n);
 
         //log.info("Total possible: " + rs.totNumPairsPossible + " from sets: " + gsets.length + " total unique seen: " + rs.allFoundTwoMers.size());
 
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.XMath;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.MappedDataset;
+import edu.mit.broad.genome.objects.Template;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Computes the two-class Signal2Noise and tTest metrics for every row of a Dataset in one go.
+ * <p/>
+ * Rather than copying out each row and splitting it into a pair of per-class Vectors (as the Metric
+ * implementations do), this works down the columns of each class straight from the Matrix storage, accumulating
+ * the class statistics of a block of rows at a time.  A MappedDataset is read a block of rows at a time from its
+ * buffers instead, so that its values are never all copied onto the heap.  The accumulation order for any row is the same as over its
+ * per-class Vector so the scores are identical to those of Metrics.Signal2Noise and Metrics.tTest, including
+ * the handling of missing values and of the biased, median and fixlow parameters.
+ * <p/>
+ * This is plain scalar code: the inner loops are unit-stride passes over primitive arrays, which the JIT is free
+ * to auto-vectorize.
+ * <p/>
+ * For phenotype permutations, where every random template is just a relabelling of the same samples, an engine
+ * from createForPermutations() also holds the per-row totals over all samples.  The statistics of one class then
+ * come from a single pass over its columns and those of the other class by difference from the totals; see
+ * scoreByClassDeltas().
+ *
+ * @author David Eby
+ */
+public class TwoClassMetricEngine {
+    // Rows are processed in blocks so that the per-row accumulators stay in cache while streaming down the columns
+    private static final int ROW_BLOCK_SIZE = 2048;
+
+    // Relative bound on the rounding error of a sum of squares, per value summed
+    private static final double SUM_SQ_ROUNDING = 4 * Math.ulp(1.0);
+
+    // Column-major, shared with the Dataset's Matrix; or null when reading the rows of fMapped
+    private final float[] fData;
+    private final MappedDataset fMapped;
+    private final int fNumRow;
+    private final int fNumCol;
+    private final int fBlockRows;
+
+    // Per-row totals over all the samples, only for engines created for permutations.  The sums are of the
+    // deviations from fRowShifts (a value of the row) to limit cancellation error when the sums of squares are used
+    // for the variances.  Being a data value, the deviations of tied values from it are exact, so a class of tied
+    // values gets its value back as the mean.
+    private double[] fRowShifts;
+    private int[] fTotalCounts;
+    private double[] fTotalSums;
+    private double[] fTotalSumSqs;
+
+    private TwoClassMetricEngine(final float[] data, final MappedDataset mapped, final int numRow, final int numCol) {
+        this.fData = data;
+        this.fMapped = mapped;
+        this.fNumRow = numRow;
+        this.fNumCol = numCol;
+        // Blocks read from a MappedDataset are copied, so keep them to about a MB
+        this.fBlockRows = (mapped == null) ? ROW_BLOCK_SIZE
+                : Math.max(1, Math.min(ROW_BLOCK_SIZE, (1 << 18) / Math.max(1, numCol)));
+    }
+
+    /**
+     * @return an engine over the data of the Dataset, or null if its storage can't be worked on directly
+     */
+    public static TwoClassMetricEngine create(final Dataset ds) {
+        if (ds == null) { throw new IllegalArgumentException("Param ds cannot be null"); }
+
+        if (ds instanceof MappedDataset) {
+            return new TwoClassMetricEngine(null, (MappedDataset) ds, ds.getNumRow(), ds.getNumCol());
+        }
+
+        final Matrix matrix = ds.getMatrix();
+        final float[] data = matrix.getColumnMajorData();
+        if (data == null || data.length != matrix.getNumRow() * matrix.getNumCol()) { return null; }
+        return new TwoClassMetricEngine(data, null, matrix.getNumRow(), matrix.getNumCol());
+    }
+
+    /**
+     * As create(), additionally computing the per-row totals needed for scoreByClassDeltas().
+     * @return the engine, or null if the storage of the Dataset can't be worked on directly
+     */
+    public static TwoClassMetricEngine createForPermutations(final Dataset ds) {
+        final TwoClassMetricEngine engine = create(ds);
+        if (engine != null) { engine.computeRowTotals(); }
+        return engine;
+    }
+
+    public static boolean isSupported(final Metric metric, final Template template) {
+        return (metric instanceof Metrics.Signal2Noise || metric instanceof Metrics.tTest)
+                && template != null && template.isCategorical() && template.getNumClasses() == 2;
+    }
+
+    /**
+     * @return whether scoreByClassDeltas() applies; i.e. for the mean-based (not median) metrics
+     */
+    public static boolean isSupportedByClassDeltas(final Metric metric, final Template template, final Map<String, Boolean> params) {
+        return isSupported(metric, template) && !AlgMap.isMedian(params);
+    }
+
+    public int getNumRow() {
+        return fNumRow;
+    }
+
+    /**
+     * @return the score of every row of the Dataset, in Dataset row order
+     */
+    public double[] score(final Metric metric, final Template template, final Map<String, Boolean> params) {
+        if (!isSupported(metric, template)) {
+            throw new IllegalArgumentException("Unsupported metric: " + metric + " with template: " + template);
+        }
+
+        final boolean usebiased = AlgMap.isBiased(params);
+        final boolean usemedian = AlgMap.isMedian(params);
+
+        // Same class assignment as the Metric implementations: x is the class of interest
+        final int coiIndex = template.getClassOfInterestIndex();
+        final ClassStats x = computeClassStats(toColumns(template.getClass((coiIndex == 0) ? 0 : 1)), usebiased, usemedian);
+        final ClassStats y = computeClassStats(toColumns(template.getClass((coiIndex == 0) ? 1 : 0)), usebiased, usemedian);
+
+        return scoreRows(x, y, metric instanceof Metrics.tTest, usebiased, AlgMap.isFixLowVar(params), usemedian);
+    }
+
+    /**
+     * Scores as score(), but for an engine from createForPermutations() and only for the mean-based metrics.
+     * <p/>
+     * A single pass over the columns of the smaller class gives its count, sum and sum of squares for each row.
+     * Those of the other class are the differences from the row totals, so the work per permutation is roughly
+     * halved.  As the variances come from sums of squares rather than from a second pass over the deviations,
+     * the scores may differ from those of score() in the last few bits.  Falls back to score() if the template
+     * does not cover every column of the Dataset.
+     */
+    public double[] scoreByClassDeltas(final Metric metric, final Template template, final Map<String, Boolean> params) {
+        if (!isSupportedByClassDeltas(metric, template, params)) {
+            throw new IllegalArgumentException("Unsupported metric: " + metric + " with template: " + template + " and params: " + params);
+        }
+        if (fTotalSums == null) {
+            throw new IllegalStateException("Engine was not created for permutations -- no row totals available");
+        }
+
+        final boolean usebiased = AlgMap.isBiased(params);
+        final int coiIndex = template.getClassOfInterestIndex();
+        final int[] xCols = toColumns(template.getClass((coiIndex == 0) ? 0 : 1));
+        final int[] yCols = toColumns(template.getClass((coiIndex == 0) ? 1 : 0));
+
+        // The totals only stand in for the other class when the two classes make up the whole Dataset
+        if (xCols.length + yCols.length != fNumCol) { return score(metric, template, params); }
+
+        final ClassStats x, y;
+        if (xCols.length <= yCols.length) {
+            final ClassStats[] stats = computeClassStatsByDeltas(xCols, usebiased);
+            x = stats[0];
+            y = stats[1];
+        } else {
+            final ClassStats[] stats = computeClassStatsByDeltas(yCols, usebiased);
+            x = stats[1];
+            y = stats[0];
+        }
+
+        return scoreRows(x, y, metric instanceof Metrics.tTest, usebiased, AlgMap.isFixLowVar(params), false);
+    }
+
+    private double[] scoreRows(final ClassStats x, final ClassStats y, final boolean ttest, final boolean usebiased,
+            final boolean fixlow, final boolean usemedian) {
+        final double[] scores = new double[fNumRow];
+        for (int r = 0; r < fNumRow; r++) {
+            // Too few non-missing values in a class (i.e. none)
+            if (x.n[r] < 1 || y.n[r] < 1) {
+                scores[r] = 0.0;
+                continue;
+            }
+
+            final double numr = (usemedian) ? (double) x.median[r] - (double) y.median[r] : x.mean[r] - y.mean[r];
+            final double xStddev = x.stddev(r, fixlow, usemedian);
+            final double yStddev = y.stddev(r, fixlow, usemedian);
+            if (!ttest) {
+                scores[r] = numr / (xStddev + yStddev);
+            } else {
+                final double xVar = (fixlow) ? xStddev * xStddev : x.var[r];
+                final double yVar = (fixlow) ? yStddev * yStddev : y.var[r];
+                final double denr;
+                if (usebiased) {
+                    denr = Math.sqrt((xVar / (x.n[r] - 1)) + (yVar / (y.n[r] - 1)));
+                } else {
+                    denr = Math.sqrt((xVar / (x.n[r])) + (yVar / (y.n[r])));
+                }
+                scores[r] = numr / denr;
+            }
+        }
+
+        return scores;
+    }
+
+    private int[] toColumns(final Template.Class cl) {
+        final int[] cols = new int[cl.getSize()];
+        for (int p = 0; p < cols.length; p++) {
+            cols[p] = cl.getItem(p).getProfilePosition();
+            if (cols[p] < 0 || cols[p] >= fNumCol) {
+                throw new IllegalArgumentException("Template profile position: " + cols[p] + " is out of the dataset columns: " + fNumCol);
+            }
+        }
+        return cols;
+    }
+
+    // The values of a block of rows, column-major: row r of column c is at data[offset + c * stride + r]
+    private static class Block {
+        private float[] data;
+        private int offset;
+        private int stride;
+        private float[] row;
+    }
+
+    // For a Matrix the block is its own storage; for a MappedDataset the rows are read into the block's scratch
+    private Block readBlock(final int rowStart, final int rowEnd, final Block block) {
+        if (fMapped == null) {
+            block.data = fData;
+            block.offset = 0;
+            block.stride = fNumRow;
+            return block;
+        }
+
+        if (block.data == null) {
+            block.data = new float[fBlockRows * fNumCol];
+            block.row = new float[fNumCol];
+        }
+        final int numRows = rowEnd - rowStart;
+        block.offset = -rowStart;
+        block.stride = numRows;
+        for (int r = rowStart; r < rowEnd; r++) {
+            fMapped.copyRow(r, block.row);
+            for (int c = 0, i = r - rowStart; c < fNumCol; c++, i += numRows) {
+                block.data[i] = block.row[c];
+            }
+        }
+        return block;
+    }
+
+    // The statistics of one class for every row, as Vector would compute them over the NaN-less class values
+    private static class ClassStats {
+        private int[] n;
+        private double[] mean;
+        private double[] var; // the unadjusted variance (no fixlow), biased or not as requested
+        private boolean[] varSetsMean;
+        private float[] median;
+
+        // As Vector.stddev(biased, fixlow).  Note that fixlow works from the last mean *computed* on the Vector,
+        // which in median mode is only done as part of the variance (and so not at all for a single value when
+        // unbiased).
+        private double stddev(final int r, final boolean fixlow, final boolean usemedian) {
+            double stddev = Math.sqrt(var[r]);
+            if (fixlow) {
+                final double computedMean = (!usemedian || varSetsMean[r]) ? mean[r] : Float.NaN;
+                double minallowed = XMath.isNearlyZero(computedMean) ? 0.20 : (0.20 * Math.abs(computedMean));
+                stddev = Math.max(stddev, minallowed);
+            }
+            return stddev;
+        }
+    }
+
+    private ClassStats computeClassStats(final int[] cols, final boolean usebiased, final boolean usemedian) {
+        final ClassStats stats = new ClassStats();
+        stats.n = new int[fNumRow];
+        stats.mean = new double[fNumRow];
+        stats.var = new double[fNumRow];
+        stats.varSetsMean = new boolean[fNumRow];
+        final double[] sums = new double[fNumRow];
+        final double[] sumSqDevs = new double[fNumRow];
+        if (usemedian) { stats.median = new float[fNumRow]; }
+        final float[] vals = (usemedian) ? new float[cols.length] : null;
+        final Block block = new Block();
+
+        for (int rowStart = 0; rowStart < fNumRow; rowStart += fBlockRows) {
+            final int rowEnd = Math.min(rowStart + fBlockRows, fNumRow);
+            final float[] data = readBlock(rowStart, rowEnd, block).data;
+
+            for (int p = 0; p < cols.length; p++) {
+                final int base = block.offset + cols[p] * block.stride;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    final float val = data[base + r];
+                    if (!Float.isNaN(val)) {
+                        sums[r] += val;
+                        stats.n[r]++;
+                    }
+                }
+            }
+
+            for (int r = rowStart; r < rowEnd; r++) {
+                stats.mean[r] = sums[r] / stats.n[r];
+            }
+
+            for (int p = 0; p < cols.length; p++) {
+                final int base = block.offset + cols[p] * block.stride;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    final float val = data[base + r];
+                    if (!Float.isNaN(val)) {
+                        double tmp = val - stats.mean[r];
+                        sumSqDevs[r] += tmp * tmp;
+                    }
+                }
+            }
+
+            for (int r = rowStart; r < rowEnd; r++) {
+                final int len = (usebiased) ? stats.n[r] : stats.n[r] - 1;
+                // Variance of 1 point is 0 (as in Vector)
+                stats.varSetsMean[r] = len > 0;
+                stats.var[r] = (len > 0) ? sumSqDevs[r] / len : 0.0;
+            }
+
+            if (usemedian) {
+                for (int r = rowStart; r < rowEnd; r++) {
+                    int pos = 0;
+                    for (int p = 0; p < cols.length; p++) {
+                        final float val = data[block.offset + cols[p] * block.stride + r];
+                        if (!Float.isNaN(val)) { vals[pos++] = val; }
+                    }
+                    stats.median[r] = XMath.median(Arrays.copyOf(vals, pos));
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    private void computeRowTotals() {
+        fRowShifts = new double[fNumRow];
+        fTotalCounts = new int[fNumRow];
+        fTotalSums = new double[fNumRow];
+        fTotalSumSqs = new double[fNumRow];
+
+        final Block block = new Block();
+        for (int rowStart = 0; rowStart < fNumRow; rowStart += fBlockRows) {
+            final int rowEnd = Math.min(rowStart + fBlockRows, fNumRow);
+            final float[] data = readBlock(rowStart, rowEnd, block).data;
+
+            // The first non-missing value of each row
+            for (int r = rowStart; r < rowEnd; r++) {
+                for (int c = 0; c < fNumCol; c++) {
+                    final float val = data[block.offset + c * block.stride + r];
+                    if (!Float.isNaN(val)) {
+                        fRowShifts[r] = val;
+                        break;
+                    }
+                }
+            }
+
+            for (int c = 0; c < fNumCol; c++) {
+                final int base = block.offset + c * block.stride;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    final float val = data[base + r];
+                    if (!Float.isNaN(val)) {
+                        final double dev = val - fRowShifts[r];
+                        fTotalSums[r] += dev;
+                        fTotalSumSqs[r] += dev * dev;
+                        fTotalCounts[r]++;
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns the stats of the class given by cols and of all the other samples, in that order
+    private ClassStats[] computeClassStatsByDeltas(final int[] cols, final boolean usebiased) {
+        final int[] n = new int[fNumRow];
+        final double[] sums = new double[fNumRow];
+        final double[] sumSqs = new double[fNumRow];
+
+        final Block block = new Block();
+        for (int rowStart = 0; rowStart < fNumRow; rowStart += fBlockRows) {
+            final int rowEnd = Math.min(rowStart + fBlockRows, fNumRow);
+            final float[] data = readBlock(rowStart, rowEnd, block).data;
+            for (int p = 0; p < cols.length; p++) {
+                final int base = block.offset + cols[p] * block.stride;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    final float val = data[base + r];
+                    if (!Float.isNaN(val)) {
+                        final double dev = val - fRowShifts[r];
+                        sums[r] += dev;
+                        sumSqs[r] += dev * dev;
+                        n[r]++;
+                    }
+                }
+            }
+        }
+
+        final ClassStats stats = new ClassStats();
+        final ClassStats rest = new ClassStats();
+        stats.n = n;
+        rest.n = new int[fNumRow];
+        final double[] restSums = new double[fNumRow];
+        final double[] restSumSqs = new double[fNumRow];
+        for (int r = 0; r < fNumRow; r++) {
+            rest.n[r] = fTotalCounts[r] - n[r];
+            restSums[r] = fTotalSums[r] - sums[r];
+            restSumSqs[r] = fTotalSumSqs[r] - sumSqs[r];
+        }
+        fillFromSums(stats, sums, sumSqs, usebiased);
+        fillFromSums(rest, restSums, restSumSqs, usebiased);
+        return new ClassStats[] { stats, rest };
+    }
+
+    private void fillFromSums(final ClassStats stats, final double[] sums, final double[] sumSqs, final boolean usebiased) {
+        stats.mean = new double[fNumRow];
+        stats.var = new double[fNumRow];
+        stats.varSetsMean = new boolean[fNumRow];
+        for (int r = 0; r < fNumRow; r++) {
+            final int n = stats.n[r];
+            stats.mean[r] = fRowShifts[r] + sums[r] / n;
+            final int len = (usebiased) ? n : n - 1;
+            stats.varSetsMean[r] = len > 0;
+            if (len > 0) {
+                // Sum of squared deviations from the class mean.  Anything within the rounding error of the sums
+                // is taken as zero, so that a class of tied values has no variance, as with the two-pass score().
+                final double sumSqDevs = sumSqs[r] - (sums[r] * sums[r]) / n;
+                stats.var[r] = (sumSqDevs > SUM_SQ_ROUNDING * n * sumSqs[r]) ? sumSqDevs / len : 0.0;
+            }
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package edu.mit.broad.genome.alg.fdr;
 
@@ -95,6 +95,8 @@ public class FdrAlgs {
         // NOTE: need to determine how the sort call treats NaN / Infinity.  We want a particular sort here,
         // where these are NOT considered the greatest.  Note idea of storing Null instead...
         final RankedList real_scores_norm_sorted = real_scores_norm.sort(sort, order);
+        final int num_real_pos = real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY);
+        final int num_real_neg = real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY);
 
         for (int r = 0; r < real_scores.getSize(); r++) {
             final String name = real_scores.getLabel(r);
@@ -109,6 +111,8 @@ public class FdrAlgs {
                         rnd_scores_by_row_FULL.getRow(name), // @note fetching by name, not index
                         all_rnd_scores_norm_moded_pos,
                         all_rnd_scores_norm_moded_neg,
+                        num_real_pos,
+                        num_real_neg,
                         doPos);
                 map.add(name, fdr);
             } else if (!doPos && XMath.isNegative(real_score_of_name)) {
@@ -118,6 +122,8 @@ public class FdrAlgs {
                         rnd_scores_by_row_FULL.getRow(name), // // @note fetching by name, not index
                         all_rnd_scores_norm_moded_pos,
                         all_rnd_scores_norm_moded_neg,
+                        num_real_pos,
+                        num_real_neg,
                         doPos);
                 map.add(name, fdr);
             }
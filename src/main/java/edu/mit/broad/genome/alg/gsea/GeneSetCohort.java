@@ -1,19 +1,18 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg.gsea;
 
 import edu.mit.broad.genome.TraceUtils;
 import edu.mit.broad.genome.alg.GeneSetGenerators;
+import edu.mit.broad.genome.objects.Dataset;
 import edu.mit.broad.genome.objects.GeneSet;
 import edu.mit.broad.genome.objects.RankedList;
-import gnu.trove.THashSet;
 import xtools.api.param.BadParamException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,20 +24,29 @@ import org.slf4j.LoggerFactory;
 public class GeneSetCohort {
     private Logger log = LoggerFactory.getLogger(GeneSetCohort.class);
 
-    private GeneSet[] fGeneSets;
-    private THashSet[] fFastSets; // much much faster that gset.ismember!!!
-    private RankedList fRankedList;
-    // TODO: remove? Seems to be populated but unused 
-    private Map<String, GeneSet> fGeneSetNameGeneSetMap;
+    private String[] fGeneSetNames;
+
+    // The permutation-invariant part of the cohort: the ranked list the cohort was first built on and the rank of 
+    // every gene set member in it (in member order, -1 if not in the list).  This is shared by all cohorts rebound
+    // from it so that only the ranks, weights and scoring arrays need to be redone for each new ranked list.
+    private RankedList fStructureRankedList;
+    private int[][] fStructureMemberRanks;
 
-    private GeneToGeneSetMap fGeneToGeneSetMap;
+    private RankedList fRankedList;
 
     private GeneSetScoringTable[] fGeneSetScoringTables;
 
     private GeneSetScoringTable fOrigTable;
 
-    private GeneSetCohort(final GeneSetScoringTable scoringTable, final RankedList rl, final GeneSet[] gsets,
-    		final GeneToGeneSetMap g2gsetmap) {
+    // Compiled, primitive-only view of the cohort used by the KS inner loop.  For each gene set: the ranks of 
+    // its members in the ranked list (ascending) along with the hit and miss points at each of those ranks.
+    // The miss points at the final rank are kept separately as every gene set is caught up there.
+    private int[][] fMemberRanks;
+    private float[][] fHitPoints;
+    private float[][] fMissPoints;
+    private float[] fLastRankMissPoints;
+
+    private GeneSetCohort(final GeneSetScoringTable scoringTable, final RankedList rl, final GeneSet[] gsets) {
         if (rl == null) {
 		    throw new IllegalArgumentException("Parameter rl cannot be null");
 		}
@@ -50,19 +58,15 @@ public class GeneSetCohort {
 		}
 		
         this.fOrigTable = scoringTable;
-		this.fRankedList = rl;
-		this.fGeneSets = new GeneSet[gsets.length];
-		this.fFastSets = new THashSet[gsets.length];
-		this.fGeneSetNameGeneSetMap = new HashMap<String, GeneSet>();
+		this.fGeneSetNames = new String[gsets.length];
+		this.fStructureRankedList = rl;
+		this.fStructureMemberRanks = new int[gsets.length][];
 		
 		boolean atleastonewithits = false; // for a sanity check
 		for (int g1 = 0; g1 < gsets.length; g1++) {
-			this.fGeneSets[g1] = gsets[g1]; // trust that already qualified
-		
-			// TODO: remove trove
-		    this.fFastSets[g1] = new THashSet(fGeneSets[g1].getMembers());
-		    this.fGeneSetNameGeneSetMap.put(fGeneSets[g1].getName(), fGeneSets[g1]);
-		    if (!atleastonewithits && fGeneSets[g1].getNumMembers() > 0) {
+			this.fGeneSetNames[g1] = gsets[g1].getName(); // trust that already qualified
+		    this.fStructureMemberRanks[g1] = GeneSetScoringTables.rankMembers(gsets[g1], rl);
+		    if (!atleastonewithits && gsets[g1].getNumMembers() > 0) {
 		        atleastonewithits = true;
 		    }
 		
@@ -74,7 +78,7 @@ public class GeneSetCohort {
 			//      nextLogPoint += 500
 			//   }
 		    if (g1 >= 500 && g1 % 500 == 0) {
-		        System.out.println("GeneSetCohorted: " + (g1 + 1) + " / " + fGeneSets.length);
+		        System.out.println("GeneSetCohorted: " + (g1 + 1) + " / " + gsets.length);
 		    }
 		}
 		
@@ -84,18 +88,80 @@ public class GeneSetCohort {
 		    TraceUtils.showTrace();
 		    log.warn("No hits in the ranked list to any of the gene sets!");
 		}
-		
-		if (g2gsetmap == null) {
-		    this.fGeneToGeneSetMap = GeneToGeneSetMap.generateGeneToGenesetMap(fGeneSets);
-		} else {
-		    this.fGeneToGeneSetMap = g2gsetmap;
-		}
-        this.fGeneSetScoringTables = new GeneSetScoringTable[fGeneSets.length];
+
+		bind(rl, fStructureMemberRanks);
+    }
+
+    // Gene sets given directly by the ranks of their members in rl, as for random gene sets: the first nmembers of
+    // each row.  The ranks are copied.
+    private GeneSetCohort(final GeneSetScoringTable scoringTable, final RankedList rl, final int[][] memberRanks, 
+            final int nmembers, final String namePrefix) {
+        final int rlSize = rl.getSize();
+        this.fOrigTable = scoringTable;
+        this.fGeneSetNames = new String[memberRanks.length];
+        this.fStructureRankedList = rl;
+        this.fStructureMemberRanks = new int[memberRanks.length][];
+        for (int g = 0; g < memberRanks.length; g++) {
+            this.fGeneSetNames[g] = namePrefix + "_" + g;
+            if (memberRanks[g].length < nmembers) {
+                throw new IllegalArgumentException("Gene set: " + g + " has fewer than " + nmembers + " ranks");
+            }
+            this.fStructureMemberRanks[g] = Arrays.copyOf(memberRanks[g], nmembers);
+            for (int i = 0; i < nmembers; i++) {
+                if (memberRanks[g][i] < 0 || memberRanks[g][i] >= rlSize) {
+                    throw new IllegalArgumentException("Rank: " + memberRanks[g][i] + " is not in ranked list: " + rl.getName());
+                }
+            }
+        }
+
+        bind(rl, fStructureMemberRanks);
+    }
+
+    // Shares the invariant structure of the given cohort, binding it to a new ranked list
+    private GeneSetCohort(final GeneSetCohort structure, final RankedList rl) {
+        this.fOrigTable = structure.fOrigTable;
+        this.fGeneSetNames = structure.fGeneSetNames;
+        this.fStructureRankedList = structure.fStructureRankedList;
+        this.fStructureMemberRanks = structure.fStructureMemberRanks;
+
+        bind(rl, rankMembersIn(rl));
+    }
+
+    // Translates the invariant member ranks into ranks of the given list.  This costs one lookup per feature of the 
+    // list, in the already built index of the structure's ranked list, rather than one per gene set member along 
+    // with a full name index of the new list.  Members not in the structure's list are taken as not in the new one 
+    // either; the lists are expected to rank the same features.
+    private int[][] rankMembersIn(final RankedList rl) {
+        final int[] structureRankToRank = new int[fStructureRankedList.getSize()];
+        Arrays.fill(structureRankToRank, -1);
+        final int rlSize = rl.getSize();
+        for (int r = 0; r < rlSize; r++) {
+            final int structureRank = fStructureRankedList.getRank(rl.getRankName(r));
+            if (structureRank != -1) { structureRankToRank[structureRank] = r; }
+        }
+
+        final int[][] memberRanks = new int[fGeneSetNames.length][];
+        for (int g = 0; g < fGeneSetNames.length; g++) {
+            final int[] structureRanks = fStructureMemberRanks[g];
+            final int[] ranks = new int[structureRanks.length];
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = (structureRanks[i] != -1) ? structureRankToRank[structureRanks[i]] : -1;
+            }
+            memberRanks[g] = ranks;
+        }
+        return memberRanks;
+    }
+
+    // Sets up the per-ranked list part of the cohort: the scoring tables (weights) and the compiled scoring arrays.
+    // memberRanks are in member order.
+    private void bind(final RankedList rl, final int[][] memberRanks) {
+        this.fRankedList = rl;
+        this.fGeneSetScoringTables = new GeneSetScoringTable[fGeneSetNames.length];
 
         // populate the table
-        for (int g = 0; g < fGeneSets.length; g++) { // @note IMP to use the fgsets and it might have gotten clones
+        for (int g = 0; g < fGeneSetNames.length; g++) {
             // compute scoring scheme
-            fGeneSetScoringTables[g] = scoringTable.createTable(fGeneSets[g], rl, fOrigTable.getRankedList());
+            fGeneSetScoringTables[g] = fOrigTable.createTable(fGeneSetNames[g], memberRanks[g], rl, fOrigTable.getRankedList());
             
         	// TODO: eval for performance.
         	// Could use out.print() instead, to avoid String concat.  Could also try to avoid the modulo call:
@@ -105,27 +171,54 @@ public class GeneSetCohort {
         	//      nextLogPoint += 500
         	//   }
             if (g >= 500 && g % 500 == 0) {
-                System.out.println("GeneSetCohorted_scored: " + (g + 1) + " / " + fGeneSets.length);
+                System.out.println("GeneSetCohorted_scored: " + (g + 1) + " / " + fGeneSetNames.length);
             }
         }
-    }
 
-    // @note Justin Guinney's addition
-    public int[] genesetIndicesForGene(final String geneName) {
-        return fGeneToGeneSetMap.getGenesetIndicesForGene(geneName);
+        compileScoringArrays(memberRanks);
     }
 
-    public boolean isMember(int gsetNum, String name) {
-        //return fGeneSets[gsetNum].isMember(name); // @note faster??
-        return fFastSets[gsetNum].contains(name);
+    // Member names were looked up in the ranked list up-front so that scoring never needs to hash a String
+    private void compileScoringArrays(final int[][] memberRanks) {
+        final int numGeneSets = fGeneSetNames.length;
+        this.fMemberRanks = new int[numGeneSets][];
+        this.fHitPoints = new float[numGeneSets][];
+        this.fMissPoints = new float[numGeneSets][];
+        this.fLastRankMissPoints = new float[numGeneSets];
+        final int lastRank = fRankedList.getSize() - 1;
+
+        for (int g = 0; g < numGeneSets; g++) {
+            final int numMembers = memberRanks[g].length;
+            int[] ranks = new int[numMembers];
+            int numRanked = 0;
+            for (int i = 0; i < numMembers; i++) {
+                // Members missing from the ranked list are never visited when scoring
+                if (memberRanks[g][i] != -1) { ranks[numRanked++] = memberRanks[g][i]; }
+            }
+            if (numRanked != numMembers) { ranks = Arrays.copyOf(ranks, numRanked); }
+            Arrays.sort(ranks);
+
+            final GeneSetScoringTable table = fGeneSetScoringTables[g];
+            final float[] hitPoints = new float[numRanked];
+            final float[] missPoints = new float[numRanked];
+            for (int i = 0; i < numRanked; i++) {
+                hitPoints[i] = table.getHitScore(ranks[i]);
+                missPoints[i] = table.getMissScore(ranks[i]);
+            }
+
+            fMemberRanks[g] = ranks;
+            fHitPoints[g] = hitPoints;
+            fMissPoints[g] = missPoints;
+            if (lastRank >= 0) { fLastRankMissPoints[g] = table.getMissScore(lastRank); }
+        }
     }
 
     public int getNumGeneSets() {
-        return fGeneSets.length;
+        return fGeneSetNames.length;
     }
 
     public int getNumTrue(int gsetNum) {
-        return fGeneSets[gsetNum].getNumMembers();
+        return fStructureMemberRanks[gsetNum].length;
     }
 
     public int getNumLabels() {
@@ -137,7 +230,29 @@ public class GeneSetCohort {
     }
 
     public GeneSetCohort clone(final GeneSet[] gsets) {
-        return new GeneSetCohort(fOrigTable, getRankedList(), gsets, GeneToGeneSetMap.generateGeneToGenesetMap(gsets));
+        return new GeneSetCohort(fOrigTable, getRankedList(), gsets);
+    }
+
+    /**
+     * As clone(GeneSet[]) but for gene sets given only by the ranks of their members in this cohort's ranked list, 
+     * such as from GeneSetGenerators.RankSetSampler: the first nmembers of each row of memberRanks.  No GeneSet 
+     * objects (or member names) are involved.  The gene sets are named namePrefix_0, namePrefix_1, ...
+     * The ranks are copied, so the array may be reused once this returns.
+     */
+    public GeneSetCohort clone(final int[][] memberRanks, final int nmembers, final String namePrefix) {
+        if (memberRanks == null) { throw new IllegalArgumentException("Parameter memberRanks cannot be null"); }
+        return new GeneSetCohort(fOrigTable, getRankedList(), memberRanks, nmembers, namePrefix);
+    }
+
+    /**
+     * Creates a cohort of the same gene sets and scoring scheme for a different ranking of the same features, as
+     * with a phenotype permutation.  The gene set structure is shared rather than rebuilt; only the ranks and
+     * weights are redone.
+     * This cohort is only read, so many rebinds may run concurrently once it has been constructed.
+     */
+    public GeneSetCohort rebind(final RankedList rl) {
+        if (rl == null) { throw new IllegalArgumentException("Parameter rl cannot be null"); }
+        return new GeneSetCohort(this, rl);
     }
 
     public double getHitPoints(final int gsetNum, final String geneName) {
@@ -148,6 +263,31 @@ public class GeneSetCohort {
         return fGeneSetScoringTables[gsetNum].getMissScore(geneName);
     }
 
+    /**
+     * @return the ranks of the gene set's members in the ranked list, in ascending order.  Shared; do not modify.
+     */
+    public int[] getMemberRanks(final int gsetNum) {
+        return fMemberRanks[gsetNum];
+    }
+
+    /**
+     * @return the hit points at each of the ranks from getMemberRanks().  Shared; do not modify.
+     */
+    public float[] getHitPointsAtMemberRanks(final int gsetNum) {
+        return fHitPoints[gsetNum];
+    }
+
+    /**
+     * @return the miss points at each of the ranks from getMemberRanks().  Shared; do not modify.
+     */
+    public float[] getMissPointsAtMemberRanks(final int gsetNum) {
+        return fMissPoints[gsetNum];
+    }
+
+    public float getMissPointsAtLastRank(final int gsetNum) {
+        return fLastRankMissPoints[gsetNum];
+    }
+
     public static class Generator {
         private Logger log = LoggerFactory.getLogger(Generator.class);
         private int geneSetMinSize;
@@ -161,7 +301,6 @@ public class GeneSetCohort {
         }
 
         public GeneSetCohort createGeneSetCohort(final RankedList rl, final GeneSet[] gsets, final boolean realRl) {
-            GeneToGeneSetMap g2gsetMap = GeneToGeneSetMap.generateGeneToGenesetMap(gsets);
             if (realRl && origTable instanceof GeneSetScoringTables.WeightedDoubleSidedAs) {
                 log.warn("### SETTING REAL RL: " + rl.getName());
                 ((GeneSetScoringTables.WeightedDoubleSidedAs) origTable).setReal(rl);
@@ -172,7 +311,26 @@ public class GeneSetCohort {
                 ((GeneSetScoringTables.WeightedDoubleSidedAs1) origTable).setReal(rl);
             }
 
-            return new GeneSetCohort(origTable, rl, gsets, g2gsetMap);
+            return new GeneSetCohort(origTable, rl, gsets);
+        }
+
+        /**
+         * Restricts the gene sets to the features of the dataset and drops those left smaller than the min size.  
+         * The ranked list for any phenotype of the dataset has at most those features, so filterGeneSetsByMembersAndSize()
+         * gives the same sets from the result as from the originals; a batch of phenotypes can do this part once.  
+         * Sets larger than the max are kept as they may be within it for a ranked list with fewer features.
+         */
+        public GeneSet[] restrictGeneSetsToDataset(final Dataset ds, final GeneSet[] gsets) {
+            if (geneSetMinSize == geneSetMaxSize) { return gsets; } // no size filtering; see below
+
+            List<GeneSet> list = new ArrayList<GeneSet>(gsets.length);
+            for (int i = 0; i < gsets.length; i++) {
+                if (gsets[i].getNumMembers() < geneSetMinSize) { continue; }
+                GeneSet gset = gsets[i].cloneDeep(ds);
+                if (gset.getNumMembers() >= geneSetMinSize) { list.add(gset); }
+            }
+
+            return list.toArray(new GeneSet[list.size()]);
         }
 
         // The magic here is:
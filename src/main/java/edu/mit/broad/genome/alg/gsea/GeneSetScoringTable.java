@@ -17,8 +17,17 @@ public interface GeneSetScoringTable {
 
     public float getMissScore(final String name);
 
+    // Equivalent to the above for the feature at the given rank of this table's ranked list
+    public float getHitScore(final int rank);
+
+    public float getMissScore(final int rank);
+
     public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList);
 
+    // As above, with the ranks in rl of the gene set members (in member order) already looked up.  The gene set
+    // itself is then only needed by name.
+    public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList realRankedList);
+
     public RankedList getRankedList();
 
 }
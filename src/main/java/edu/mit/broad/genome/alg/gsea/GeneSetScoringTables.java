@@ -38,9 +38,24 @@ public class GeneSetScoringTables {
         throw new RuntimeException("Cannot lookup GeneSetScoringTable for: " + obj);
     }
 
+    /**
+     * @return the rank in the ranked list of each member of the gene set, in member order (-1 if not in the list)
+     */
+    public static int[] rankMembers(final GeneSet gset, final RankedList rl) {
+        final int[] memberRanks = new int[gset.getNumMembers()];
+        for (int i = 0; i < memberRanks.length; i++) {
+            memberRanks[i] = rl.getRank(gset.getMember(i));
+        }
+        return memberRanks;
+    }
+
     static abstract class AbstractScoringTable implements GeneSetScoringTable {
         public AbstractScoringTable() { }
 
+        public GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankedList realRankedList) {
+            return createTable(gset.getName(), rankMembers(gset, rl), rl, realRankedList);
+        }
+
         public int hashCode() { return getName().hashCode(); }
 
         public boolean equals(Object obj) {
@@ -67,9 +82,8 @@ public class GeneSetScoringTables {
         // total score of hits G (1 per hit)
         // total score of misses -G so that total total = 0
         // hence penalty per miss = G / (N-G)
-        Classic(GeneSet gset, RankedList rl) {
+        Classic(int ntrue, RankedList rl) {
             this.rankedList = rl;
-            int ntrue = gset.getNumMembers();
             int totSize = rl.getSize();
 
             // compute penalties
@@ -77,8 +91,8 @@ public class GeneSetScoringTables {
             this.misspoints = 1.0f / ((float) totSize - (float) ntrue);
         }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList) {
-            return new Classic(gset, rl);
+        public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList realRankedList) {
+            return new Classic(memberRanks.length, rl);
         }
 
         public String getName() { return NAME; }
@@ -89,6 +103,10 @@ public class GeneSetScoringTables {
 
         // misses are not weighted
         public float getMissScore(String name) { return misspoints; }
+
+        public float getHitScore(final int rank) { return hitpoints; }
+
+        public float getMissScore(final int rank) { return misspoints; }
     }
 
     // Needed as cdna give some nans for the class metric
@@ -96,6 +114,13 @@ public class GeneSetScoringTables {
         return (Float.isFinite(score)) ? Math.abs(score) : 0.01f;
     }
 
+    private static final float _memberScore(final String gsetName, final int[] memberRanks, final int i, final RankedList rl) {
+        if (memberRanks[i] == -1) {
+            throw new IllegalArgumentException("Member " + i + " of gene set: " + gsetName + " is not in ranked list: " + rl.getName());
+        }
+        return rl.getScore(memberRanks[i]);
+    }
+
     public static class Weighted extends AbstractScoringTable {
         private static final String NAME = "weighted";
 
@@ -103,20 +128,23 @@ public class GeneSetScoringTables {
         private float nhExpected;
         private float miss_score;
 
-        private GeneSet gset;
         private RankedList rankedList;
 
         public Weighted() { }
 
         public Weighted(final GeneSet gset, final RankedList rl) {
-            this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
+            this(gset.getName(), rankMembers(gset, rl), rl);
+        }
+
+        // memberRanks are the ranks of the gene set members in rl, in member order
+        Weighted(final String gsetName, final int[] memberRanks, final RankedList rl) {
+            this.nhExpected = memberRanks.length;
 
-            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName()); }
+            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gsetName); }
 
             this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
+            for (int i = 0; i < memberRanks.length; i++) {
+                float score = _memberScore(gsetName, memberRanks, i, rankedList);
                 totalWeight += _abs(score);
             }
 
@@ -128,18 +156,24 @@ public class GeneSetScoringTables {
 
         public RankedList getRankedList() { return rankedList; }
 
-        public GeneSetScoringTable createTable(final GeneSet gset, final RankedList rl, final RankedList realRankedList) {
-            return new Weighted(gset, rl);
+        public GeneSetScoringTable createTable(final String gsetName, final int[] memberRanks, final RankedList rl, final RankedList realRankedList) {
+            return new Weighted(gsetName, memberRanks, rl);
         }
 
         public float getHitScore(final String name) {
-            float score = rankedList.getScore(name);
-            score = _abs(score);
-            return score / totalWeight;
+            return getHitScore(rankedList.getRank(name));
         }
 
         // misses are not weighted
         public float getMissScore(String name) { return miss_score; }
+
+        public float getHitScore(final int rank) {
+            float score = rankedList.getScore(rank);
+            score = _abs(score);
+            return score / totalWeight;
+        }
+
+        public float getMissScore(final int rank) { return miss_score; }
     }
 
     public static class WeightedSquared extends AbstractScoringTable {
@@ -148,20 +182,23 @@ public class GeneSetScoringTables {
         private float totalWeight_sq;
         private float nhExpected;
         private float miss_score;
-        private GeneSet gset;
         private RankedList rankedList;
 
         public WeightedSquared() { }
 
         public WeightedSquared(final GeneSet gset, final RankedList rl) {
-            this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
+            this(gset.getName(), rankMembers(gset, rl), rl);
+        }
+
+        // memberRanks are the ranks of the gene set members in rl, in member order
+        WeightedSquared(final String gsetName, final int[] memberRanks, final RankedList rl) {
+            this.nhExpected = memberRanks.length;
 
-            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName()); }
+            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gsetName); }
 
             this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
+            for (int i = 0; i < memberRanks.length; i++) {
+                float score = _memberScore(gsetName, memberRanks, i, rankedList);
                 float score_pow = score * score;
                 totalWeight_sq += Float.isFinite(score_pow) ? score_pow : 0.000001f;
             }
@@ -174,18 +211,24 @@ public class GeneSetScoringTables {
 
         public RankedList getRankedList() { return rankedList; }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList) {
-            return new WeightedSquared(gset, rl);
+        public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList realRankedList) {
+            return new WeightedSquared(gsetName, memberRanks, rl);
         }
 
         public float getHitScore(String name) {
-            float score = rankedList.getScore(name);
-            float hitScore = (score * score) / totalWeight_sq;
-            return Float.isFinite(hitScore) ? hitScore : 0.000001f;
+            return getHitScore(rankedList.getRank(name));
         }
 
         // misses are not weighted
         public float getMissScore(String name) { return miss_score; }
+
+        public float getHitScore(final int rank) {
+            float score = rankedList.getScore(rank);
+            float hitScore = (score * score) / totalWeight_sq;
+            return Float.isFinite(hitScore) ? hitScore : 0.000001f;
+        }
+
+        public float getMissScore(final int rank) { return miss_score; }
     }
 
     public static class WeightedOnePointFive extends AbstractScoringTable {
@@ -194,19 +237,22 @@ public class GeneSetScoringTables {
         private float totalWeight_sq;
         private float nhExpected;
         private float miss_score;
-        private GeneSet gset;
         private RankedList rankedList;
 
         public WeightedOnePointFive() { }
 
         public WeightedOnePointFive(final GeneSet gset, final RankedList rl) {
-            this.gset = gset;
-            this.nhExpected = gset.getNumMembers();
-            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName()); }
+            this(gset.getName(), rankMembers(gset, rl), rl);
+        }
+
+        // memberRanks are the ranks of the gene set members in rl, in member order
+        WeightedOnePointFive(final String gsetName, final int[] memberRanks, final RankedList rl) {
+            this.nhExpected = memberRanks.length;
+            if (nhExpected == 0) { throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gsetName); }
 
             this.rankedList = rl;
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                float score = this.rankedList.getScore(gset.getMember(i));
+            for (int i = 0; i < memberRanks.length; i++) {
+                float score = _memberScore(gsetName, memberRanks, i, rankedList);
                 float score_pow = (float) Math.pow(Math.abs(score), 1.5);
                 totalWeight_sq += Float.isFinite(score_pow) ? score_pow : 0.000001f;
             }
@@ -219,19 +265,25 @@ public class GeneSetScoringTables {
 
         public RankedList getRankedList() { return rankedList; }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList realRankedList) {
-            return new WeightedOnePointFive(gset, rl);
+        public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList realRankedList) {
+            return new WeightedOnePointFive(gsetName, memberRanks, rl);
         }
 
         public float getHitScore(String name) {
-            float score = rankedList.getScore(name);
+            return getHitScore(rankedList.getRank(name));
+        }
+
+        // misses are not weighted
+        public float getMissScore(String name) { return miss_score; }
+
+        public float getHitScore(final int rank) {
+            float score = rankedList.getScore(rank);
             float ss = (float) Math.pow(score, 1.5);
             float hitScore = ss / totalWeight_sq;
             return Float.isFinite(hitScore) ? hitScore : 0.000001f;
         }
 
-        // misses are not weighted
-        public float getMissScore(String name) { return miss_score; }
+        public float getMissScore(final int rank) { return miss_score; }
     }
 
     public static class WeightedDoubleSidedAs extends AbstractScoringTable {
@@ -256,7 +308,6 @@ public class GeneSetScoringTables {
 
         private int maxPosRealRank;
 
-        private GeneSet gset;
         private RankedList rankedList;
 
         public void setReal(RankedList rl) {
@@ -269,13 +320,17 @@ public class GeneSetScoringTables {
         static int cnt = 0;
 
         public WeightedDoubleSidedAs(final GeneSet gset, final RankedList rl, final RankedList real) {
+            this(gset.getName(), rankMembers(gset, rl), rl, real);
+        }
+
+        // memberRanks are the ranks of the gene set members in rl, in member order
+        WeightedDoubleSidedAs(final String gsetName, final int[] memberRanks, final RankedList rl, final RankedList real) {
 
-            this.gset = gset;
             this.rankedList = rl;
-            this.nhExpected = gset.getNumMembers();
+            this.nhExpected = memberRanks.length;
 
             if (nhExpected == 0) {
-                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName());
+                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gsetName);
             }
 
             if (real == null) {
@@ -285,10 +340,9 @@ public class GeneSetScoringTables {
                 this.maxPosRealRank = real.getMetricWeightStruc().getTotalPosLength();
             }
 
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                String name = this.gset.getMember(i);
-                float score = rl.getScore(name);
-                int rank = rl.getRank(name);
+            for (int i = 0; i < memberRanks.length; i++) {
+                int rank = memberRanks[i];
+                float score = _memberScore(gsetName, memberRanks, i, rl);
 
                 if (XMath.isPositive(score)) {
                     // if the rank is beyond the max pos rank of the real list
@@ -343,8 +397,8 @@ public class GeneSetScoringTables {
 
         }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList real) {
-            return new WeightedDoubleSidedAs(gset, rl, real);
+        public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList real) {
+            return new WeightedDoubleSidedAs(gsetName, memberRanks, rl, real);
         }
 
         public String getName() {
@@ -356,9 +410,12 @@ public class GeneSetScoringTables {
         }
 
         public float getHitScore(final String name) {
+            return getHitScore(rankedList.getRank(name));
+        }
 
-            float score = rankedList.getScore(name);
-            int rank = rankedList.getRank(name);
+        public float getHitScore(final int rank) {
+
+            float score = rankedList.getScore(rank);
 
             float weight;
 
@@ -385,8 +442,12 @@ public class GeneSetScoringTables {
 
         // misses are not weighted
         public float getMissScore(String name) {
+            return getMissScore(rankedList.getRank(name));
+        }
+
+        public float getMissScore(final int rank) {
 
-            float score = rankedList.getScore(name);
+            float score = rankedList.getScore(rank);
 
             if (XMath.isPositive(score)) {
                 return miss_pos_score;
@@ -419,7 +480,6 @@ public class GeneSetScoringTables {
 
         private int maxPosRealRank;
 
-        private GeneSet gset;
         private RankedList rankedList;
 
         public void setReal(RankedList rl) {
@@ -432,13 +492,17 @@ public class GeneSetScoringTables {
         static int cnt = 0;
 
         public WeightedDoubleSidedAs1(final GeneSet gset, final RankedList rl, final RankedList real) {
+            this(gset.getName(), rankMembers(gset, rl), rl, real);
+        }
+
+        // memberRanks are the ranks of the gene set members in rl, in member order
+        WeightedDoubleSidedAs1(final String gsetName, final int[] memberRanks, final RankedList rl, final RankedList real) {
 
-            this.gset = gset;
             this.rankedList = rl;
-            this.nhExpected = gset.getNumMembers();
+            this.nhExpected = memberRanks.length;
 
             if (nhExpected == 0) {
-                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gset.getName());
+                throw new IllegalArgumentException("Number of members in gene set cannot be 0: " + gsetName);
             }
 
             if (real == null) {
@@ -449,10 +513,9 @@ public class GeneSetScoringTables {
             }
 
 
-            for (int i = 0; i < this.gset.getNumMembers(); i++) {
-                String name = this.gset.getMember(i);
-                float score = rl.getScore(name);
-                int rank = rl.getRank(name);
+            for (int i = 0; i < memberRanks.length; i++) {
+                int rank = memberRanks[i];
+                float score = _memberScore(gsetName, memberRanks, i, rl);
 
                 if (XMath.isPositive(score)) {
                     // if the rank is beyond the max pos rank of the real list
@@ -510,8 +573,8 @@ public class GeneSetScoringTables {
 
         }
 
-        public GeneSetScoringTable createTable(GeneSet gset, RankedList rl, RankedList real) {
-            return new WeightedDoubleSidedAs1(gset, rl, real);
+        public GeneSetScoringTable createTable(String gsetName, int[] memberRanks, RankedList rl, RankedList real) {
+            return new WeightedDoubleSidedAs1(gsetName, memberRanks, rl, real);
         }
 
         public String getName() {
@@ -523,9 +586,12 @@ public class GeneSetScoringTables {
         }
 
         public float getHitScore(final String name) {
+            return getHitScore(rankedList.getRank(name));
+        }
 
-            float score = rankedList.getScore(name);
-            int rank = rankedList.getRank(name);
+        public float getHitScore(final int rank) {
+
+            float score = rankedList.getScore(rank);
 
             float weight;
 
@@ -552,8 +618,12 @@ public class GeneSetScoringTables {
 
         // misses are not weighted
         public float getMissScore(String name) {
+            return getMissScore(rankedList.getRank(name));
+        }
+
+        public float getMissScore(final int rank) {
 
-            float score = rankedList.getScore(name);
+            float score = rankedList.getScore(rank);
 
             if (XMath.isPositive(score)) {
                 return miss_pos_score;
@@ -1,10 +1,8 @@
 /*
- * Copyright (c) 2003-2021 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg.gsea;
 
-import java.util.Arrays;
-
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.math.XMath;
 import edu.mit.broad.genome.objects.RankedList;
@@ -21,6 +19,8 @@ public class KSCore {
 
     // The common (gsea) way
     public EnrichmentScore[] calculateKSScore(final GeneSetCohort gcoh, final boolean storeDeep) {
+        if (!storeDeep) { return calculateKSScore_shallow(gcoh); }
+
         EnrichmentScoreCohort[] cohorts = calculateKSScore_all_modes(gcoh, storeDeep);
         EnrichmentScore[] ess = new EnrichmentScore[cohorts.length];
         for (int i = 0; i < ess.length; i++) {
@@ -29,223 +29,315 @@ public class KSCore {
         return ess;
     }
 
-    // Justin Guinneys implementation
-    // David Eby's attempt at documentation:
-    // - The idea is to iterator over each gene in the ranked list and only process the gene sets where it is a
-    //   member.  The running score for that gene gets incremented by the hitPoints for that gene.  *However*
-    //   before doing that we also account for all the misses between this hit and the previous (earlier) hit
-    //   in the ranked list.
-    // - We do that by tracking the rank of the last hit in the genesetJumps array.  When the rank of the current
-    //   hit is not the consecutive rank higher than the rank of the last hit, then it means there were misses
-    //   (genes *not* in the gene set) in between.  We can then find the total miss penalty to apply to the running
-    //   score as (gap * missPoints).
-    //   Note that we also track the individual misses in detail in scoresAtEachPoint for "smoother plots".  The code
-    //   always does this, but DE suspects that it's not actually necessary for the RND RLs.  There's a comment to that
-    //   effect even though the code is always triggered (it survived from refactoring based on inlining of constants).
-    //   Further testing is necessary to prove this, however.
-    // - The exception is that for the *final* gene in the ranked list we process *all* gene sets whether or not it's a
-    //   member.  This is to catch up the running score of every gene set; for those where it isn't a member there will
-    //   be a tail of misses from the final hit to the end of the ranked list.
-    //   A possible alternative would be to process this last gene the same as all the others, but then to do a loop
-    //   over all of the Gene Sets afterward and do this catch-up at that point based on genesetJumps.  It's not clear
-    //   whether or not that simplifies anything, though.
-    private EnrichmentScoreCohort[] calculateKSScore_all_modes(final GeneSetCohort gcoh, final boolean storeDeep) {
+    /**
+     * Scoring for the null distribution (permutations), where nothing but the ES of each gene set is used.
+     * Only the max deviation ES is computed: no running score profile, no hit indices, no alternate ES modes 
+     * and no per-gene set objects.  The ES values are exactly those of calculateKSScore().
+     */
+    public float[] calculateKSScore_null(final GeneSetCohort gcoh) {
+        if (gcoh == null) { throw new IllegalArgumentException("Param gcoh cannot be null"); }
+
+        final float[] ess = new float[gcoh.getNumGeneSets()];
+        calculateKSScore_maxdev(gcoh, ess, null);
+        return ess;
+    }
+
+    // Non-deep scores only ever carry the ES and where it was found, so there's no need for the full computation
+    private EnrichmentScore[] calculateKSScore_shallow(final GeneSetCohort gcoh) {
         if (gcoh == null) { throw new IllegalArgumentException("Param gcoh cannot be null"); }
 
-        TFloatArrayList[] scoresAtEachHitIndex = null;
         final int numGeneSets = gcoh.getNumGeneSets();
-        
-        final int[] rankAtMaxEs = new int[numGeneSets];
-        final float[] scoresAtMaxEs = new float[numGeneSets];
-        if (storeDeep) {
-            scoresAtEachHitIndex = new TFloatArrayList[numGeneSets];
-            // init
-            for (int g = 0; g < numGeneSets; g++) {
-                scoresAtEachHitIndex[g] = new TFloatArrayList();
-            }
-        }
+        final float[] ess = new float[numGeneSets];
+        final int[] ranksAtEs = new int[numGeneSets];
+        calculateKSScore_maxdev(gcoh, ess, ranksAtEs);
 
-        // Also store every point for nicer es plots when run from memory
-        Vector[] scoresAtEachPoint = new Vector[numGeneSets];
-        // init
-        int numLabels = gcoh.getNumLabels();
+        final RankedList rl = gcoh.getRankedList();
+        final EnrichmentScore[] scores = new EnrichmentScore[numGeneSets];
         for (int g = 0; g < numGeneSets; g++) {
-            scoresAtEachPoint[g] = new Vector(numLabels);
+            final EnrichmentScoreCohort cohort = new EnrichmentScoreCohort();
+            cohort.numHits = gcoh.getNumTrue(g);
+            // The score at the ES is always that of its rank (0 for both if the running score never moved)
+            final int rankAtEs = Math.max(ranksAtEs[g], 0);
+            final float scoreAtEs = (ranksAtEs[g] == -1) ? 0 : rl.getScore(rankAtEs);
+            cohort.es_maxdev_style = new EnrichmentScoreImplSlim(ess[g], rankAtEs, scoreAtEs, cohort);
+            scores[g] = cohort.es_maxdev_style;
         }
+        return scores;
+    }
 
-        // always filled as needed by mann whitney (even if it isnt saved after here)
-        final HitIndices[] hitIndices = new HitIndices[numGeneSets];
-        for (int g = 0; g < numGeneSets; g++) {
-            hitIndices[g] = new HitIndices(gcoh.getNumTrue(g));
-        }
+    // The max deviation part of calculateKSScore_all_modes() below, following it step for step so that the
+    // floating point results are identical.  Gap misses don't need to be backfilled one by one here.
+    // ranksAtEs_opt gets the rank where each ES was found, or -1 if the running score never left zero.
+    private static void calculateKSScore_maxdev(final GeneSetCohort gcoh, final float[] ess, final int[] ranksAtEs_opt) {
+        final int numGeneSets = gcoh.getNumGeneSets();
+        final int rlSize = gcoh.getRankedList().getSize();
+        final int lastRank = rlSize - 1;
 
-        final float[] ess_maxdev = new float[numGeneSets];
-        final double[] runningScores = new double[numGeneSets];
-        final int[] hitCnt = new int[numGeneSets];
+        for (int g = 0; g < numGeneSets; g++) {
+            final int[] memberRanks = gcoh.getMemberRanks(g);
+            final float[] hitPoints = gcoh.getHitPointsAtMemberRanks(g);
+            final float[] missPoints = gcoh.getMissPointsAtMemberRanks(g);
+            final float lastRankMissPoints = gcoh.getMissPointsAtLastRank(g);
+            final int numRanked = memberRanks.length;
+
+            float es_maxdev = 0;
+            int rankAtMaxEs = -1;
+            double runningScore = 0;
+            int genesetJump = -1;
+
+            final boolean lastRankIsMember = numRanked > 0 && memberRanks[numRanked - 1] == lastRank;
+            final int numSteps = (rlSize == 0) ? 0 : (lastRankIsMember ? numRanked : numRanked + 1);
+            for (int i = 0; i < numSteps; i++) {
+                final boolean isHit = i < numRanked;
+                final int r = (isHit) ? memberRanks[i] : lastRank;
+
+                int gap = r - genesetJump - 1;
+                if (gap > 0) {
+                    double gapMissPoints = (isHit) ? missPoints[i] : lastRankMissPoints;
+                    runningScore -= gap * gapMissPoints;
 
-        final float[] ess_pos_list = new float[numGeneSets];
-        
-        final int[] rankAtMaxEs_pos_list = new int[numGeneSets];
-        final float[] scoresAtMaxEs_pos_list = new float[numGeneSets];
+                    if (Math.abs(es_maxdev) < Math.abs(runningScore)) {
+                        es_maxdev = (float) runningScore;
+                        rankAtMaxEs = r - 1;
+                    }
+                }
 
-        final float[] ess_pos_list_maxdev = new float[numGeneSets];
-        final int[] rankAtMaxEs_pos_list_maxdev = new int[numGeneSets];
-        final float[] scoresAtMaxEs_pos_list_maxdev = new float[numGeneSets];
+                if (!isHit) {
+                    runningScore -= lastRankMissPoints;
+                } else {
+                    genesetJump = r;
+                    double sr = hitPoints[i];
+                    runningScore += sr;
+                }
 
-        final float[] ess_neg_list = new float[numGeneSets];
-        final int[] rankAtMaxEs_neg_list = new int[numGeneSets];
-        final float[] scoresAtMaxEs_neg_list = new float[numGeneSets];
+                if (Math.abs(es_maxdev) < Math.abs(runningScore)) {
+                    es_maxdev = (float) runningScore;
+                    rankAtMaxEs = r;
+                }
+            }
 
-        final float[] ess_neg_list_maxdev = new float[numGeneSets];
-        final int[] rankAtMaxEs_neg_list_maxdev = new int[numGeneSets];
-        final float[] scoresAtMaxEs_neg_list_maxdev = new float[numGeneSets];
+            ess[g] = es_maxdev;
+            if (ranksAtEs_opt != null) { ranksAtEs_opt[g] = rankAtMaxEs; }
+        }
+    }
 
-        final int[] genesetJumps = new int[numGeneSets];
-        Arrays.fill(genesetJumps, -1);
+    // Originally Justin Guinney's implementation, since reworked to run over the compiled (primitive) view of the cohort.
+    // David Eby's attempt at documentation:
+    // - The idea is to visit, for each gene set, only the ranks in the ranked list where one of its members is found.
+    //   The running score at that rank gets incremented by the hitPoints for that gene.  *However* before doing that
+    //   we also account for all the misses between this hit and the previous (earlier) hit in the ranked list.
+    // - We do that by tracking the rank of the last hit (genesetJump).  When the rank of the current hit is not the
+    //   consecutive rank higher than the rank of the last hit, then it means there were misses (genes *not* in the
+    //   gene set) in between.  We can then find the total miss penalty to apply to the running score as
+    //   (gap * missPoints).
+    //   The individual misses used to be tracked in detail here too, in a running score at every point for "smoother
+    //   plots".  That took a Vector the length of the ranked list for every gene set, though only the few sets
+    //   actually plotted ever use it, so now only the member ranks and the points are kept and the running score at
+    //   each point is replayed on request (replayRunningScores()).
+    // - The exception is that the *final* rank in the ranked list is visited for *all* gene sets whether or not it's a
+    //   member.  This is to catch up the running score of every gene set; for those where it isn't a member there will
+    //   be a tail of misses from the final hit to the end of the ranked list.
+    // - Each gene set's running score depends only on its own hits, so scoring set-by-set gives exactly the same
+    //   results (including floating point rounding) as the former rank-by-rank sweep across all the sets.  It also
+    //   never needs to look up a feature name: the member ranks and the hit & miss points were compiled up-front by
+    //   the GeneSetCohort.
+    private EnrichmentScoreCohort[] calculateKSScore_all_modes(final GeneSetCohort gcoh, final boolean storeDeep) {
+        if (gcoh == null) { throw new IllegalArgumentException("Param gcoh cannot be null"); }
 
+        final int numGeneSets = gcoh.getNumGeneSets();
         final RankedList rl = gcoh.getRankedList();
-
-        // START JG CHANGES //
-        // Note that this following loop has been found to be very important to overall
-        // performance, so be very careful about changes here.
-        
         final int rlSize = rl.getSize();
-        for (int r = 0; r < rlSize; r++) {
-            final boolean isLastRun = r == (rlSize - 1);
-
-            String rowName = rl.getRankName(r);
-            final float corr = rl.getScore(r);
-            boolean posList = XMath.isPositive(corr);
-
-            int[] genesetIndices = null;
-            if (isLastRun) {
-                // for the last run, we want to iterate over all genesets
-            	// DE note: this is to catch up all the misses at the end of those sets
-                genesetIndices = new int[numGeneSets];
-                for (int i = 0; i < genesetIndices.length; ++i) {
-                    genesetIndices[i] = i;
-                }
-            } else {
-                // otherwise, we only care about those genesets associated with this gene
-                genesetIndices = gcoh.genesetIndicesForGene(rowName);
-            }
+        final int lastRank = rlSize - 1;
 
-            // gene not in any geneset
-            if (genesetIndices == null) {
-                continue;
-            }
+        final EnrichmentScoreCohort[] cohorts = new EnrichmentScoreCohort[numGeneSets];
 
-            for (int i = 0; i < genesetIndices.length; i++) {
-                int g = genesetIndices[i];
-                int gap = r - genesetJumps[g] - 1;
+        // Note that this following loop has been found to be very important to overall
+        // performance, so be very careful about changes here.
+        for (int g = 0; g < numGeneSets; g++) {
+            final int[] memberRanks = gcoh.getMemberRanks(g);
+            final float[] hitPoints = gcoh.getHitPointsAtMemberRanks(g);
+            final float[] missPoints = gcoh.getMissPointsAtMemberRanks(g);
+            final int numRanked = memberRanks.length;
+
+            final TFloatArrayList scoresAtEachHitIndex = (storeDeep) ? new TFloatArrayList() : null;
+
+            // always filled as needed by mann whitney (even if it isnt saved after here)
+            final HitIndices hitIndices = new HitIndices(gcoh.getNumTrue(g));
+            int hitCnt = 0;
+
+            float es_maxdev = 0;
+            int rankAtMaxEs = 0;
+            float scoreAtMaxEs = 0;
+
+            float es_pos_list = 0;
+            int rankAtMaxEs_pos_list = 0;
+            float scoreAtMaxEs_pos_list = 0;
+
+            float es_pos_list_maxdev = 0;
+            int rankAtMaxEs_pos_list_maxdev = 0;
+            float scoreAtMaxEs_pos_list_maxdev = 0;
+
+            float es_neg_list = 0;
+            int rankAtMaxEs_neg_list = 0;
+            float scoreAtMaxEs_neg_list = 0;
+
+            float es_neg_list_maxdev = 0;
+            int rankAtMaxEs_neg_list_maxdev = 0;
+            float scoreAtMaxEs_neg_list_maxdev = 0;
+
+            double runningScore = 0;
+            int genesetJump = -1;
+
+            // Visit every member rank and then the final rank (unless it was itself a member)
+            final boolean lastRankIsMember = numRanked > 0 && memberRanks[numRanked - 1] == lastRank;
+            final int numSteps = (rlSize == 0) ? 0 : (lastRankIsMember ? numRanked : numRanked + 1);
+            for (int i = 0; i < numSteps; i++) {
+                final boolean isHit = i < numRanked;
+                final int r = (isHit) ? memberRanks[i] : lastRank;
+                final float corr = rl.getScore(r);
+                final boolean posList = XMath.isPositive(corr);
+
+                int gap = r - genesetJump - 1;
                 if (gap > 0) {
                 	// DE note: there is a formerly undocumented assumption here, that the missPoints *are constant*
                 	// for every missed gene in the gap.  In fact, all of the underlying scoring methods *do indeed*
                 	// respect this assumption so this is safe in the current code.
                 	// However, this would no longer work if the missPoints would be scaled by the score in some
                 	// future scoring method.
-                    double missPoints = gcoh.getMissPoints(g, rowName);
-
-                    // backfill - this typically only happens on 'real', not permutations
-                    // DE note: the above comment suggests that these values are not needed for the permutation RLs.
-                    // That makes sense and seems to be the case AFAICT, but we need more testing to prove it.  This
-                    // would make for a decent optimization if it holds.
-                    double trun = runningScores[g];
-                    for (int j = genesetJumps[g] + 1; j < r; j++) {
-                        trun -= missPoints;
-                        scoresAtEachPoint[g].setElement(j, trun);
-                    }
+                    double gapMissPoints = (isHit) ? missPoints[i] : gcoh.getMissPointsAtLastRank(g);
+
+                    // The running score at each missed gene is not kept; see replayRunningScores() below.
 
                     // DE note: Adjust the running score for all the misses at once via multiplication.
-                    runningScores[g] -= gap * missPoints;
+                    runningScore -= gap * gapMissPoints;
 
-                    if (Math.abs(ess_maxdev[g]) < Math.abs(runningScores[g])) { // @note abs here
-                        ess_maxdev[g] = (float) runningScores[g]; // @note no abs here!
-                        rankAtMaxEs[g] = r - 1; // @note the -1
-                        scoresAtMaxEs[g] = rl.getScore(r - 1); // @note the -1 effective when the score is NEG
+                    if (Math.abs(es_maxdev) < Math.abs(runningScore)) { // @note abs here
+                        es_maxdev = (float) runningScore; // @note no abs here!
+                        rankAtMaxEs = r - 1; // @note the -1
+                        scoreAtMaxEs = rl.getScore(r - 1); // @note the -1 effective when the score is NEG
                     }
                 }
 
-                if (isLastRun && !gcoh.isMember(i, rowName)) {
+                if (!isHit) {
                 	// DE note: catch up all the misses at the tail of any gene sets where this is not a member.
-                    runningScores[g] -= gcoh.getMissPoints(g, rowName);
+                    runningScore -= gcoh.getMissPointsAtLastRank(g);
                 } else {
                 	// DE note: flag this rank as the highest one processed so far, then add the corresponding hit points to the running score.
-                    genesetJumps[g] = r;
-                    double sr = gcoh.getHitPoints(g, rowName);
-                    runningScores[g] += sr;
+                    genesetJump = r;
+                    double sr = hitPoints[i];
+                    runningScore += sr;
 
-                    hitIndices[g].hitsIndices[hitCnt[g]++] = r;
+                    hitIndices.hitsIndices[hitCnt++] = r;
 
-                    if (storeDeep) { scoresAtEachHitIndex[g].add((float) runningScores[g]); } // Only store for hits
+                    if (storeDeep) { scoresAtEachHitIndex.add((float) runningScore); } // Only store for hits
                 }
-                // END JG CHANGES //
-
-                // @note OUTside the loop
-                scoresAtEachPoint[g].setElement(r, (float) runningScores[g]);
 
-                if (Math.abs(ess_maxdev[g]) < Math.abs(runningScores[g])) { // @note abs here
-                    ess_maxdev[g] = (float) runningScores[g]; // @note no abs here!
-                    rankAtMaxEs[g] = r;
-                    scoresAtMaxEs[g] = corr;
+                if (Math.abs(es_maxdev) < Math.abs(runningScore)) { // @note abs here
+                    es_maxdev = (float) runningScore; // @note no abs here!
+                    rankAtMaxEs = r;
+                    scoreAtMaxEs = corr;
                 }
 
                 // Then the by pos/neg list stuff
                 // @note NO abs in some cases - we want max POS (or NEG) deviations from zero
                 if (posList) {
-                    if (ess_pos_list[g] < runningScores[g]) { // @note NO abs
-                        ess_pos_list[g] = (float) runningScores[g];
-                        rankAtMaxEs_pos_list[g] = r;
-                        scoresAtMaxEs_pos_list[g] = corr;
+                    if (es_pos_list < runningScore) { // @note NO abs
+                        es_pos_list = (float) runningScore;
+                        rankAtMaxEs_pos_list = r;
+                        scoreAtMaxEs_pos_list = corr;
                     }
 
-                    if (Math.abs(ess_pos_list_maxdev[g]) < Math.abs(runningScores[g])) { // @note YES abs
-                        ess_pos_list_maxdev[g] = (float) runningScores[g];
-                        rankAtMaxEs_pos_list_maxdev[g] = r;
-                        scoresAtMaxEs_pos_list_maxdev[g] = corr;
+                    if (Math.abs(es_pos_list_maxdev) < Math.abs(runningScore)) { // @note YES abs
+                        es_pos_list_maxdev = (float) runningScore;
+                        rankAtMaxEs_pos_list_maxdev = r;
+                        scoreAtMaxEs_pos_list_maxdev = corr;
                     }
 
                 } else {
-                    if (ess_neg_list[g] > runningScores[g]) { // Note NO abs
-                        ess_neg_list[g] = (float) runningScores[g];
-                        rankAtMaxEs_neg_list[g] = r;
-                        scoresAtMaxEs_neg_list[g] = corr;
+                    if (es_neg_list > runningScore) { // Note NO abs
+                        es_neg_list = (float) runningScore;
+                        rankAtMaxEs_neg_list = r;
+                        scoreAtMaxEs_neg_list = corr;
                     }
 
-                    if (Math.abs(ess_neg_list_maxdev[g]) < Math.abs(runningScores[g])) { // @note abs
-                        ess_neg_list_maxdev[g] = (float) runningScores[g];
-                        rankAtMaxEs_neg_list_maxdev[g] = r;
-                        scoresAtMaxEs_neg_list_maxdev[g] = corr;
+                    if (Math.abs(es_neg_list_maxdev) < Math.abs(runningScore)) { // @note abs
+                        es_neg_list_maxdev = (float) runningScore;
+                        rankAtMaxEs_neg_list_maxdev = r;
+                        scoreAtMaxEs_neg_list_maxdev = corr;
                     }
                 }
             }
-        }
-
-        final EnrichmentScoreCohort[] cohorts = new EnrichmentScoreCohort[numGeneSets];
 
-        for (int g = 0; g < numGeneSets; g++) {
-            final float mw = (float) XMath.mannWhitney(hitIndices[g].hitsIndices, rlSize);
+            final float mw = (float) XMath.mannWhitney(hitIndices.hitsIndices, rlSize);
 
             cohorts[g] = new EnrichmentScoreCohort();
-            cohorts[g].es_maxdev_style = new EnrichmentScoreImplSlim(ess_maxdev[g], rankAtMaxEs[g], scoresAtMaxEs[g], cohorts[g]);
-            cohorts[g].es_on_pos_list = new EnrichmentScoreImplSlim(ess_pos_list[g], rankAtMaxEs_pos_list[g], scoresAtMaxEs_pos_list[g], cohorts[g]);
-            cohorts[g].es_on_pos_list_maxdev = new EnrichmentScoreImplSlim(ess_pos_list_maxdev[g], rankAtMaxEs_pos_list_maxdev[g], scoresAtMaxEs_pos_list_maxdev[g], cohorts[g]);
-            cohorts[g].es_on_neg_list = new EnrichmentScoreImplSlim(ess_neg_list[g], rankAtMaxEs_neg_list[g], scoresAtMaxEs_neg_list[g], cohorts[g]);
-            cohorts[g].es_on_neg_list_maxdev = new EnrichmentScoreImplSlim(ess_neg_list_maxdev[g], rankAtMaxEs_neg_list_maxdev[g], scoresAtMaxEs_neg_list_maxdev[g], cohorts[g]);
+            cohorts[g].es_maxdev_style = new EnrichmentScoreImplSlim(es_maxdev, rankAtMaxEs, scoreAtMaxEs, cohorts[g]);
+            cohorts[g].es_on_pos_list = new EnrichmentScoreImplSlim(es_pos_list, rankAtMaxEs_pos_list, scoreAtMaxEs_pos_list, cohorts[g]);
+            cohorts[g].es_on_pos_list_maxdev = new EnrichmentScoreImplSlim(es_pos_list_maxdev, rankAtMaxEs_pos_list_maxdev, scoreAtMaxEs_pos_list_maxdev, cohorts[g]);
+            cohorts[g].es_on_neg_list = new EnrichmentScoreImplSlim(es_neg_list, rankAtMaxEs_neg_list, scoreAtMaxEs_neg_list, cohorts[g]);
+            cohorts[g].es_on_neg_list_maxdev = new EnrichmentScoreImplSlim(es_neg_list_maxdev, rankAtMaxEs_neg_list_maxdev, scoreAtMaxEs_neg_list_maxdev, cohorts[g]);
 
             cohorts[g].mw = mw;
             cohorts[g].numHits = gcoh.getNumTrue(g);
 
             if (storeDeep) {
-                cohorts[g].fHitIndices_opt = hitIndices[g].hitsIndices;
-                cohorts[g].scoresAtEachHitIndex_opt = new Vector(scoresAtEachHitIndex[g]);
+                cohorts[g].fHitIndices_opt = hitIndices.hitsIndices;
+                cohorts[g].scoresAtEachHitIndex_opt = new Vector(scoresAtEachHitIndex);
+
+                // Enough to replay the running score at every point (only ever wanted for the sets that get
+                // plotted) without holding a Vector the length of the ranked list for every set.
+                cohorts[g].memberRanks_opt = memberRanks;
+                cohorts[g].hitPoints_opt = hitPoints;
+                cohorts[g].missPoints_opt = missPoints;
+                cohorts[g].lastRankMissPoints = gcoh.getMissPointsAtLastRank(g);
+                cohorts[g].rlSize = rlSize;
+            }
+        }
+
+        return cohorts;
+    }
+
+    // The running score at every point in the ranked list, as it is found by calculateKSScore_all_modes() above.
+    // The steps (and so the floating point results) are exactly the same, but with the misses in each gap filled
+    // in one by one.
+    private static Vector replayRunningScores(final int rlSize, final int[] memberRanks, final float[] hitPoints, 
+            final float[] missPoints, final float lastRankMissPoints) {
+        final float[] scoresAtEachPoint = new float[rlSize];
+        final int lastRank = rlSize - 1;
+        final int numRanked = memberRanks.length;
+
+        double runningScore = 0;
+        int genesetJump = -1;
+
+        final boolean lastRankIsMember = numRanked > 0 && memberRanks[numRanked - 1] == lastRank;
+        final int numSteps = (rlSize == 0) ? 0 : (lastRankIsMember ? numRanked : numRanked + 1);
+        for (int i = 0; i < numSteps; i++) {
+            final boolean isHit = i < numRanked;
+            final int r = (isHit) ? memberRanks[i] : lastRank;
+
+            int gap = r - genesetJump - 1;
+            if (gap > 0) {
+                double gapMissPoints = (isHit) ? missPoints[i] : lastRankMissPoints;
+                double trun = runningScore;
+                for (int j = genesetJump + 1; j < r; j++) {
+                    trun -= gapMissPoints;
+                    scoresAtEachPoint[j] = (float) trun;
+                }
+                runningScore -= gap * gapMissPoints;
             }
 
-            cohorts[g].scoresAtEachPoint_opt = scoresAtEachPoint[g]; //new Vector(scoresAtEachPoint[g]);
+            if (!isHit) {
+                runningScore -= lastRankMissPoints;
+            } else {
+                genesetJump = r;
+                double sr = hitPoints[i];
+                runningScore += sr;
+            }
 
+            scoresAtEachPoint[r] = (float) runningScore;
         }
 
-        return cohorts;
+        return new Vector(scoresAtEachPoint, true);
     }
 
     protected static class HitIndices {
@@ -274,9 +366,14 @@ public class KSCore {
 
         private Vector scoresAtEachHitIndex_opt;
 
-        // @note this is redundant (but has more info) with the scoresAtEachHitIndex_opt var
-        // usefil for richer plots
-        private Vector scoresAtEachPoint_opt;
+        // @note deep only; the running score at each point (redundant with, but has more info than, the
+        // scoresAtEachHitIndex_opt var; useful for richer plots) is rebuilt from these on request.
+        // The arrays are shared with the GeneSetCohort.
+        private int[] memberRanks_opt;
+        private float[] hitPoints_opt;
+        private float[] missPoints_opt;
+        private float lastRankMissPoints;
+        private int rlSize;
 
         private boolean hasDeepInfo() {
             return scoresAtEachHitIndex_opt != null;
@@ -290,8 +387,10 @@ public class KSCore {
 
         private Vector getESProfile_full() {
             ensureDeep();
-            scoresAtEachPoint_opt.setImmutable();
-            return scoresAtEachPoint_opt;
+            final Vector scoresAtEachPoint = replayRunningScores(rlSize, memberRanks_opt, hitPoints_opt, missPoints_opt,
+                    lastRankMissPoints);
+            scoresAtEachPoint.setImmutable();
+            return scoresAtEachPoint;
         }
 
         private int getNumHits() {
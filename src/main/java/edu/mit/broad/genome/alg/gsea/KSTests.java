@@ -3,6 +3,7 @@
  */
 package edu.mit.broad.genome.alg.gsea;
 
+import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.MismatchedSizeException;
 import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.alg.*;
@@ -13,6 +14,7 @@ import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.*;
 import edu.mit.broad.genome.objects.strucs.DatasetTemplate;
 import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import edu.mit.broad.genome.utils.SystemUtils;
 import edu.mit.broad.vdb.chip.Chip;
 import xtools.api.param.BadParamException;
 
@@ -24,6 +26,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Kolmogorov-Smirnov Enrichment Test related methods
@@ -40,16 +48,37 @@ public class KSTests {
 
     private static final int LOG_FREQ = 5;
 
+    // Number of permutations handed to each worker per batch.  Results are committed in permutation order
+    // at the end of every batch, so this bounds the number of random ranked lists held in memory at once.
+    private static final int PERMS_PER_THREAD_BATCH = 4;
+
+    // Whether a single-threaded gene_set permutation draws its random gene sets as ranks, as the multi-threaded one
+    // always does (see Constants.RANK_SAMPLER_KEY)
+    private static final boolean kRankSampler = Boolean.parseBoolean(
+            SystemUtils.getProperty(Constants.RANK_SAMPLER_KEY, false));
+
     private PrintStream sout;
 
+    private final int fNumThreads;
+
     /**
      * Class Constructor.
      * Almost Stateless
      * os -> for quick stdout NOT for logging
      */
     public KSTests(final PrintStream os) {
+        this(os, 1);
+    }
+
+    /**
+     * Class Constructor.
+     * numThreads -> number of worker threads used for the permutations; 1 runs everything on the calling thread
+     */
+    public KSTests(final PrintStream os, final int numThreads) {
+        if (numThreads < 1) { throw new IllegalArgumentException("Number of threads must be at least 1; got: " + numThreads); }
         this.sout = os;
         this.core = new KSCore();
+        this.fNumThreads = numThreads;
     }
 
     public EnrichmentDb executeGsea(final DatasetTemplate dt, final GeneSet[] origGeneSets, final int nperm, final Metric metric,
@@ -133,40 +162,51 @@ public class KSTests {
             rndEss[g] = new Vector(rndTemplates.length);
         }
 
+        // The random templates are all relabellings of the same samples, so the per-row totals are computed once
+        // here and each permutation derives one class's statistics from them.  Null if not applicable.
+        final TwoClassMetricEngine permEngine = 
+                (TwoClassMetricEngine.isSupportedByClassDeltas(metric, template, metricParams)) 
+                ? TwoClassMetricEngine.createForPermutations(ds) : null;
+
         boolean warnPermutationValues = false;
         // Each row is a "geneset", and each column a randomization
-        for (int c = 0; c < rndTemplates.length; c++) {
-            ScoredDataset rndRl = dm.scoreDataset(metric, sort, order, metricParams, ds, rndTemplates[c]);
-            rndRl = filterRankedListIfNecessary(rndRl, ds, markerScores);
-            if (!warnPermutationValues) { warnPermutationValues = checkRankedListForInfinityOrNaN(rndRl); }
-            
-            if (store_rnd_ranked_lists_here_opt != null) { store_rnd_ranked_lists_here_opt.add(rndRl); }
-
-        	// TODO: eval for performance.
-        	// Could use sout.print() instead, to avoid String concat.  Could also try to avoid the modulo call:
-        	//   int nextLogPoint = LOG_FREQ; // outside loop
-        	//   if (c == nextLogPoint) { // inside loop
-        	//      // print message
-        	//      nextLogPoint += LOG_FREQ
-        	//   }
-            if (c % LOG_FREQ == 0) {
-                StringBuffer ib = new StringBuffer("Iteration: ").append(c + 1).append('/').append(rndTemplates.length);
-                ib.append(" for ").append(dstName);
-                //sout.println(ib.toString());    // dont use log!
-                System.out.println(ib.toString());
+        if (fNumThreads == 1) {
+            for (int c = 0; c < rndTemplates.length; c++) {
+                RndPermutation perm = scorePermutation(dm, metric, sort, order, metricParams, ds, rndTemplates[c], 
+                        permEngine, gcoh, markerScores);
+                warnPermutationValues |= commitPermutation(c, perm, rndTemplates, dstName, rndEss, ptest, 
+                        store_rnd_ranked_lists_here_opt);
             }
-
-            // DO THE RND CALC
-            // @note better to just clone the existing real gcoh rather than generate a whole new one
-            // as only the ranked list has changed and not the feature or gene set content
-            final GeneSetCohort gcohRnd = gcohgen.createGeneSetCohort(rndRl, gsets, false);
-            final EnrichmentScore[] rndScores = core.calculateKSScore(gcohRnd, false);
-
-            for (int g = 0; g < gsets.length; g++) {
-                rndEss[g].setElement(c, rndScores[g].getES());
+        } else {
+            // Lazily built lookups on the shared real objects must be in place before the workers start.
+            rlReal.getMetricWeightStruc();
+            ds.getRowIndex(ds.getRowName(0));
+
+            // DatasetMetrics reuses its sort buffers, so one per worker
+            final ThreadLocal<DatasetMetrics> workerMetrics = ThreadLocal.withInitial(DatasetMetrics::new);
+
+            // Permutations are scored concurrently in batches, then committed strictly in permutation order so 
+            // the results are identical to the sequential path for a given seed.
+            final ExecutorService pool = Executors.newFixedThreadPool(fNumThreads);
+            try {
+                final int batchSize = fNumThreads * PERMS_PER_THREAD_BATCH;
+                final List<Future<RndPermutation>> batch = new ArrayList<Future<RndPermutation>>(batchSize);
+                for (int start = 0; start < rndTemplates.length; start += batchSize) {
+                    final int end = Math.min(start + batchSize, rndTemplates.length);
+                    batch.clear();
+                    for (int c = start; c < end; c++) {
+                        final Template rndTemplate = rndTemplates[c];
+                        batch.add(pool.submit(() -> scorePermutation(workerMetrics.get(), metric, sort, order, metricParams, 
+                                ds, rndTemplate, permEngine, gcoh, markerScores)));
+                    }
+                    for (int c = start; c < end; c++) {
+                        warnPermutationValues |= commitPermutation(c, awaitResult(batch.get(c - start)), rndTemplates, 
+                                dstName, rndEss, ptest, store_rnd_ranked_lists_here_opt);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
             }
-
-            ptest.addRnd(rndTemplates[c], rndRl);
         }
 
         // 1 result for every gene set
@@ -197,6 +237,70 @@ public class KSTests {
         return enrichmentDb;
     }
 
+    // The results of scoring a single random template.  Computed independently per permutation (possibly on
+    // a worker thread) and committed afterward, in order, by commitPermutation().
+    private static class RndPermutation {
+        private ScoredDataset rndRl;
+        private float[] rndScores;
+        private boolean hasInfinityOrNaN;
+    }
+
+    private RndPermutation scorePermutation(final DatasetMetrics dm, final Metric metric, final SortMode sort, final Order order,
+            final Map<String, Boolean> metricParams, final Dataset ds, final Template rndTemplate, 
+            final TwoClassMetricEngine permEngine_opt, final GeneSetCohort gcohReal, 
+            final Map<String, TwoClassMarkerStats> markerScores) {
+        final RndPermutation perm = new RndPermutation();
+        ScoredDataset rndRl = dm.scoreDatasetForPermutation(metric, sort, order, metricParams, ds, rndTemplate, permEngine_opt);
+        perm.rndRl = filterRankedListIfNecessary(rndRl, ds, markerScores);
+        perm.hasInfinityOrNaN = checkRankedListForInfinityOrNaN(perm.rndRl);
+
+        // DO THE RND CALC
+        // Rebind the real gcoh rather than generate a whole new one as only the ranked list has changed and not 
+        // the feature or gene set content
+        final GeneSetCohort gcohRnd = gcohReal.rebind(perm.rndRl);
+        perm.rndScores = core.calculateKSScore_null(gcohRnd);
+        return perm;
+    }
+
+    // Returns whether the permutation's ranked list had Infinity or NaN scores
+    private boolean commitPermutation(final int c, final RndPermutation perm, final Template[] rndTemplates, 
+            final String dstName, final Vector[] rndEss, final PermutationTest ptest, 
+            final List<RankedList> store_rnd_ranked_lists_here_opt) {
+        if (store_rnd_ranked_lists_here_opt != null) { store_rnd_ranked_lists_here_opt.add(perm.rndRl); }
+
+    	// TODO: eval for performance.
+    	// Could use sout.print() instead, to avoid String concat.  Could also try to avoid the modulo call:
+    	//   int nextLogPoint = LOG_FREQ; // outside loop
+    	//   if (c == nextLogPoint) { // inside loop
+    	//      // print message
+    	//      nextLogPoint += LOG_FREQ
+    	//   }
+        if (c % LOG_FREQ == 0) {
+            StringBuffer ib = new StringBuffer("Iteration: ").append(c + 1).append('/').append(rndTemplates.length);
+            ib.append(" for ").append(dstName);
+            //sout.println(ib.toString());    // dont use log!
+            System.out.println(ib.toString());
+        }
+
+        for (int g = 0; g < rndEss.length; g++) {
+            rndEss[g].setElement(c, perm.rndScores[g]);
+        }
+
+        ptest.addRnd(rndTemplates[c], perm.rndRl);
+        return perm.hasInfinityOrNaN;
+    }
+
+    private static <T> T awaitResult(final Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof Exception) { throw (Exception) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw ee;
+        }
+    }
+
     // this is the CORE method
     private EnrichmentResult[] shuffleGeneSet_precannedRankedList(final int nperm, final RankedList rlReal, 
     		final Template t_opt, final GeneSet[] gsetsReal, final Chip chip_opt, final GeneSetCohort.Generator gcohgen,
@@ -206,37 +310,125 @@ public class KSTests {
 
         final EnrichmentScore[] real_scores = core.calculateKSScore(gcohReal, true); // @note usually always store deep for the real one
 
-        // The make rnd gene sets for every real one
-        for (int g = 0; g < gsetsReal.length; g++) {
-        	// TODO: eval for performance.
-        	// Could use sout.print() instead, to avoid String concat.  Could also try to avoid the modulo call:
-        	//   int nextLogPoint = LOG_FREQ; // outside loop
-        	//   if (g == nextLogPoint) { // inside loop
-        	//      // print message
-        	//      nextLogPoint += LOG_FREQ
-        	//   }
-            if (g % LOG_FREQ == 0) {
-                sout.println("shuffleGeneSet for GeneSet " + (g + 1) + "/" + gsetsReal.length + " nperm: " + nperm);
+        if (fNumThreads == 1 && !kRankSampler) {
+            // The make rnd gene sets for every real one
+            for (int g = 0; g < gsetsReal.length; g++) {
+                results[g] = shuffleGeneSet_one(g, nperm, rlReal, t_opt, gsetsReal, chip_opt, gcohReal, real_scores, rst, 
+                        null);
+            }
+        } else {
+            // Each gene set gets its own child stream, derived up-front and in order, so the null distributions
+            // do not depend on the number of threads or on how the tasks get scheduled.  Note that this does
+            // give different random gene sets than the single-threaded path (which shares one stream for all).
+            // For the same reason, the random gene sets are drawn here with the primitive rank sampler, whose
+            // buffers each worker keeps from one gene set to the next.  With RANK_SAMPLER_KEY set, a single thread
+            // runs this way too, and gives the same results as any number of threads.
+            final RandomSeedGenerator[] childRsts = RandomSeedGenerators.createChildren(rst, gsetsReal.length);
+            final int rlSize = rlReal.getSize();
+            final ThreadLocal<GeneSetGenerators.RankSetSampler> samplers = 
+                    ThreadLocal.withInitial(() -> new GeneSetGenerators.RankSetSampler(rlSize));
+
+            // Lazily built lookups on the shared real objects must be in place before the workers start.
+            rlReal.getRank(rlReal.getRankName(0));
+            rlReal.getMetricWeightStruc();
+
+            final ForkJoinPool pool = new ForkJoinPool(fNumThreads);
+            try {
+                pool.invoke(new ShuffleGeneSetTask(0, gsetsReal.length, nperm, rlReal, t_opt, gsetsReal, chip_opt, gcohReal, 
+                        real_scores, childRsts, samplers, results));
+            } finally {
+                pool.shutdownNow();
             }
+        }
+
+        return results;
+    }
+
+    private EnrichmentResult shuffleGeneSet_one(final int g, final int nperm, final RankedList rlReal, final Template t_opt, 
+            final GeneSet[] gsetsReal, final Chip chip_opt, final GeneSetCohort gcohReal, final EnrichmentScore[] real_scores, 
+            final RandomSeedGenerator rst, final ThreadLocal<GeneSetGenerators.RankSetSampler> samplers_opt) {
+    	// TODO: eval for performance.
+    	// Could use sout.print() instead, to avoid String concat.  Could also try to avoid the modulo call:
+    	//   int nextLogPoint = LOG_FREQ; // outside loop
+    	//   if (g == nextLogPoint) { // inside loop
+    	//      // print message
+    	//      nextLogPoint += LOG_FREQ
+    	//   }
+        if (g % LOG_FREQ == 0) {
+            sout.println("shuffleGeneSet for GeneSet " + (g + 1) + "/" + gsetsReal.length + " nperm: " + nperm);
+        }
 
-            // now create random GeneSets and calc the ksscore for every rnd GeneSet
-            Vector rndEss;
-            if (nperm > 0) {
+        // now create random GeneSets and calc the ksscore for every rnd GeneSet
+        Vector rndEss;
+        if (nperm > 0) {
+            final GeneSetCohort gcohRnd;
+            if (samplers_opt == null) {
                 final GeneSet[] rndgsets = GeneSetGenerators.createRandomGeneSetsFixedSize(nperm, rlReal, gsetsReal[g], rst);
-                final GeneSetCohort gcohRnd = gcohReal.clone(rndgsets);
-                rndEss = new Vector(rndgsets.length);
-                final EnrichmentScore[] rnds = core.calculateKSScore(gcohRnd, false); // never store deep for rnds
-                for (int r = 0; r < rndgsets.length; r++) {
-                    rndEss.setElement(r, rnds[r].getES());
-                }
+                gcohRnd = gcohReal.clone(rndgsets);
             } else {
-                rndEss = new Vector(0);
+                // Random gene sets as rank arrays only: no GeneSet objects or member names are created
+                final int nmembers = gsetsReal[g].getNumMembers(rlReal);
+                final int[][] rndRankSets = samplers_opt.get().sample(nperm, nmembers, rst);
+                gcohRnd = gcohReal.clone(rndRankSets, nmembers, NamingConventions.removeExtension(gsetsReal[g]));
+            }
+            rndEss = new Vector(nperm);
+            final float[] rnds = core.calculateKSScore_null(gcohRnd); // never store deep for rnds
+            for (int r = 0; r < nperm; r++) {
+                rndEss.setElement(r, rnds[r]);
             }
+        } else {
+            rndEss = new Vector(0);
+        }
+
+        return new EnrichmentResult(rlReal, t_opt, gsetsReal[g], chip_opt, real_scores[g], rndEss, null);
+    }
 
-            results[g] = new EnrichmentResult(rlReal, t_opt, gsetsReal[g], chip_opt, real_scores[g], rndEss, null);
+    // Fork/join task for the gene_set permutations: splits the range of gene sets until each task covers a
+    // single gene set, leaving the pool to balance the (very uneven) per-set work by stealing.
+    private class ShuffleGeneSetTask extends RecursiveAction {
+        private final int from, to, nperm;
+        private final RankedList rlReal;
+        private final Template t_opt;
+        private final GeneSet[] gsetsReal;
+        private final Chip chip_opt;
+        private final GeneSetCohort gcohReal;
+        private final EnrichmentScore[] real_scores;
+        private final RandomSeedGenerator[] childRsts;
+        private final ThreadLocal<GeneSetGenerators.RankSetSampler> samplers;
+        private final EnrichmentResult[] results;
+
+        private ShuffleGeneSetTask(final int from, final int to, final int nperm, final RankedList rlReal, final Template t_opt,
+                final GeneSet[] gsetsReal, final Chip chip_opt, final GeneSetCohort gcohReal, final EnrichmentScore[] real_scores,
+                final RandomSeedGenerator[] childRsts, final ThreadLocal<GeneSetGenerators.RankSetSampler> samplers, 
+                final EnrichmentResult[] results) {
+            this.from = from;
+            this.to = to;
+            this.nperm = nperm;
+            this.rlReal = rlReal;
+            this.t_opt = t_opt;
+            this.gsetsReal = gsetsReal;
+            this.chip_opt = chip_opt;
+            this.gcohReal = gcohReal;
+            this.real_scores = real_scores;
+            this.childRsts = childRsts;
+            this.samplers = samplers;
+            this.results = results;
         }
 
-        return results;
+        private ShuffleGeneSetTask subTask(final int subFrom, final int subTo) {
+            return new ShuffleGeneSetTask(subFrom, subTo, nperm, rlReal, t_opt, gsetsReal, chip_opt, gcohReal, real_scores,
+                    childRsts, samplers, results);
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(subTask(from, mid), subTask(mid, to));
+            } else if (to > from) {
+                results[from] = shuffleGeneSet_one(from, nperm, rlReal, t_opt, gsetsReal, chip_opt, gcohReal, real_scores,
+                        childRsts[from], samplers);
+            }
+        }
     }
 
     private EnrichmentDb shuffleGeneSet(final int nperm, final Metric metric, final SortMode sort, final Order order,
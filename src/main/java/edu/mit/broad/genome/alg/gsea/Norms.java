@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg.gsea;
 
@@ -13,6 +13,7 @@ import edu.mit.broad.genome.objects.LabelledVector;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * @author Aravind Subramanian
@@ -51,41 +52,142 @@ public class Norms {
         public Dataset normRnd;
     }
 
+    // Rows normalized together, so that each pass over a column of the null touches a contiguous run of values
+    private static final int ROW_BLOCK_SIZE = 256;
+
     // This is the key API
+    // The normalized null is written directly into the storage of a new Matrix, in parallel by blocks of rows, 
+    // with the same arithmetic as the Norm classes below (which remain for single vectors).
     public static Struc normalize(final String normName, final LabelledVector realScores, final Dataset rndScores_full) {
 
-        final Vector normRealScores = new Vector(realScores.getSize());
-        final String[] labels = new String[realScores.getSize()];
-        final List<String> labels_list = new ArrayList<String>();
-
-        // @note end ds may have more rows that in the real scores
-        // we pick only those that we want
+        if (normName == null) {
+            throw new IllegalArgumentException("Param normName cannot be null");
+        }
 
-        final Matrix normRndScoresMatrix = new Matrix(realScores.getSize(), rndScores_full.getNumCol());
+        final boolean meanDiv;
+        if (normName.equals(NONE)) {
+            meanDiv = false;
+        } else if (normName.equals(MEANDIV_POS_NEG_SEPERATE)) {
+            meanDiv = true;
+        } else {
+            throw new IllegalArgumentException("Unknown norm mode: " + normName);
+        }
 
-        for (int r = 0; r < realScores.getSize(); r++) {
+        final int numSets = realScores.getSize();
+        final int numPerms = rndScores_full.getNumCol();
+        final String[] labels = new String[numSets];
+        final List<String> labels_list = new ArrayList<String>(numSets);
+        final float[] reals = new float[numSets];
 
+        // @note end ds may have more rows that in the real scores
+        // we pick only those that we want
+        final int[] rndRows = new int[numSets];
+        for (int r = 0; r < numSets; r++) {
             final String rowName = realScores.getLabel(r);
-            final float real = realScores.getScore(rowName);
-            final Norm norm = Norms.createNorm(normName, real, rndScores_full.getRow(rowName));
-
-            // Note from Pablo:
-            // I think the NES with NaN (because of the skewness) should ... 
-            // be excluded from the computation of p-values or FDRs.
-            
-            normRndScoresMatrix.setRow(r, norm.getRandomNorm());
-            normRealScores.setElement(r, norm.getRealNorm());
+            rndRows[r] = rndScores_full.getRowIndex(rowName);
+            if (rndRows[r] == -1) {
+                throw new IllegalArgumentException("No random scores for: " + rowName);
+            }
+            reals[r] = realScores.getScore(r);
             labels[r] = rowName;
             labels_list.add(rowName);
         }
 
+        final int numRndRows = rndScores_full.getNumRow();
+        final float[] rndData = toColumnMajorData(rndScores_full);
+
+        final Matrix normRndScoresMatrix = new Matrix(numSets, numPerms);
+        final float[] normRndData = normRndScoresMatrix.getColumnMajorData();
+        final float[] normReals = new float[numSets];
+
+        // Note from Pablo:
+        // I think the NES with NaN (because of the skewness) should ... 
+        // be excluded from the computation of p-values or FDRs.
+        final int numBlocks = (numSets + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        IntStream.range(0, numBlocks).parallel().forEach(b -> {
+            final int rowStart = b * ROW_BLOCK_SIZE;
+            final int rowEnd = Math.min(rowStart + ROW_BLOCK_SIZE, numSets);
+            if (meanDiv) {
+                normalizeMeanDiv(rowStart, rowEnd, rndRows, reals, rndData, numRndRows, numPerms, normRndData, numSets, normReals);
+            } else {
+                for (int c = 0; c < numPerms; c++) {
+                    for (int r = rowStart; r < rowEnd; r++) {
+                        normRndData[c * numSets + r] = rndData[c * numRndRows + rndRows[r]];
+                    }
+                }
+                System.arraycopy(reals, rowStart, normReals, rowStart, rowEnd - rowStart);
+            }
+        });
+
         Struc struc = new Struc();
-        struc.normReal = new LabelledVector(realScores.getName() + "_norm", labels, normRealScores);
+        struc.normReal = new LabelledVector(realScores.getName() + "_norm", labels, new Vector(normReals, true));
         struc.normRnd = new DefaultDataset("norm", normRndScoresMatrix, labels_list, rndScores_full.getColumnNames(), rndScores_full.getAnnot());
 
         return struc;
     }
 
+    private static float[] toColumnMajorData(final Dataset ds) {
+        final float[] data = ds.getMatrix().getColumnMajorData();
+        if (data != null) { return data; }
+
+        final int numRow = ds.getNumRow();
+        final float[] copy = new float[numRow * ds.getNumCol()];
+        for (int c = 0; c < ds.getNumCol(); c++) {
+            for (int r = 0; r < numRow; r++) {
+                copy[c * numRow + r] = ds.getElement(r, c);
+            }
+        }
+        return copy;
+    }
+
+    // As MeanDivPosNegSeperate, for the rows [rowStart, rowEnd).  The positive and negative means come from a
+    // single pass over the null; note that zeros count toward both and NaNs toward neither.
+    private static void normalizeMeanDiv(final int rowStart, final int rowEnd, final int[] rndRows, final float[] reals,
+            final float[] rndData, final int numRndRows, final int numPerms, final float[] normRndData, final int numSets,
+            final float[] normReals) {
+        final int len = rowEnd - rowStart;
+        final double[] sumPos = new double[len];
+        final double[] sumNeg = new double[len];
+        final int[] numPos = new int[len];
+        final int[] numNeg = new int[len];
+        for (int c = 0; c < numPerms; c++) {
+            final int base = c * numRndRows;
+            for (int r = rowStart; r < rowEnd; r++) {
+                final float orig = rndData[base + rndRows[r]];
+                if (XMath.isPositive(orig)) {
+                    sumPos[r - rowStart] += orig;
+                    numPos[r - rowStart]++;
+                }
+                if (XMath.isNegative(orig)) {
+                    sumNeg[r - rowStart] += orig;
+                    numNeg[r - rowStart]++;
+                }
+            }
+        }
+
+        // As Vector.mean(), an empty side gives a NaN mean
+        final float[] meanPos = new float[len];
+        final float[] absMeanNeg = new float[len];
+        for (int i = 0; i < len; i++) {
+            meanPos[i] = (numPos[i] == 0) ? Float.NaN : (float) (sumPos[i] / numPos[i]);
+            absMeanNeg[i] = Math.abs((numNeg[i] == 0) ? Float.NaN : (float) (sumNeg[i] / numNeg[i]));
+        }
+
+        for (int c = 0; c < numPerms; c++) {
+            final int base = c * numRndRows;
+            final int normBase = c * numSets;
+            for (int r = rowStart; r < rowEnd; r++) {
+                final float orig = rndData[base + rndRows[r]];
+                normRndData[normBase + r] = (XMath.isPositive(orig)) ? orig / meanPos[r - rowStart] : orig / absMeanNeg[r - rowStart];
+            }
+        }
+
+        for (int r = rowStart; r < rowEnd; r++) {
+            final float real = reals[r];
+            normReals[r] = (XMath.isPositive(real)) ? real / meanPos[r - rowStart] : real / absMeanNeg[r - rowStart];
+        }
+    }
+
     private abstract static class AbstractNormOne implements Norm {
         float real_orig;
         float realNorm;
@@ -1,9 +1,8 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.alg.gsea;
 
-import edu.mit.broad.genome.alg.DatasetGenerators;
 import edu.mit.broad.genome.alg.fdr.FdrAlgs;
 import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.Dataset;
@@ -61,19 +60,18 @@ public class PValueCalculatorImpls {
                                                       final EnrichmentResult[] prev_results) {
         klog.debug("Started calcFdrs_skewed");
 
-        // the rnd maybe a superset of the null needed for the real ess's
-        // so qualify (dont need to do this for the rnd ess as its users are  already
-        // name (and not index) aware
+        // The normalized null from Norms.normalize() already has exactly the rows of the real ess's, in the same
+        // order, so it is used as is rather than extracting (copying) those rows again.
         // TODO: track down NaNs in the following calls (via rndNESS)
         // Question here is how to represent these bubbling up to later stages.  Could be enough to just
         // let everything calc to NaN or Infinity as it naturally would, and then just deal with those
         // possible values in the later stages.
         // Or, could store them as Null and detect that elsewhere.
-        final Dataset rndNESS = new DatasetGenerators().extractRows(rndNESS_full, realESS.getLabels());
-        final DatasetModed all_rnd_scores_norm_moded_pos = new DatasetModed(rndNESS, ScoreMode.POS_ONLY, SortMode.REAL, Order.DESCENDING);
-        final DatasetModed all_rnd_scores_norm_moded_neg = new DatasetModed(rndNESS, ScoreMode.NEG_ONLY, SortMode.REAL, Order.ASCENDING);
+        final Dataset rndNESS = rndNESS_full;
+        final DatasetModed all_rnd_scores_norm_moded_pos = new DatasetModed(rndNESS, ScoreMode.POS_ONLY);
+        final DatasetModed all_rnd_scores_norm_moded_neg = new DatasetModed(rndNESS, ScoreMode.NEG_ONLY);
 
-        // @note this takes a few seconds to compute <++++ culprit for most time
+        // @note this formerly took a few seconds to compute; the moded nulls above are now sorted up front
         // TODO: track down NaNs in the following call (via realNESS & all_rnd_scores_moded_{pos|neg})
         final FdrAlgs.FdrMap fdrMap = FdrAlgs.calcFdrs_skewed(realESS,
                 rndESS_full,
@@ -87,6 +85,9 @@ public class PValueCalculatorImpls {
 
         final EnrichmentResult[] results = new EnrichmentResult[prev_results.length];
 
+        // The extremes of each permutation are the same for every gene set, so they're found and sorted just once
+        final FWERCalculator fwerCalculator = new FWERCalculator(rndNESS_full.getMatrix());
+
         klog.debug("Started core calcFdrs in _calcGseaMethod for results: {}", prev_results.length);
         for (int r = 0; r < prev_results.length; r++) {
 
@@ -106,7 +107,7 @@ public class PValueCalculatorImpls {
 
             // TODO: track down NaNs in the following call (via nes, rndNESS_full)
             // Or skip as per above
-            final float fwer = XMath.getFWERTwoTailed(nes, rndNESS_full.getMatrix()); // FWER
+            final float fwer = fwerCalculator.getFWERTwoTailed(nes); // FWER
 
             float fdr_value = fdrStruc.getFdr();
 
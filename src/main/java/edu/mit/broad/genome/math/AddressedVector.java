@@ -125,6 +125,21 @@ public class AddressedVector {
         init(v, addr);
     }
 
+    /**
+     * Class Constructor.
+     * Data is NOT copied - the arrays are taken over and must not be changed afterward.
+     *
+     * @param addresses the address of each score
+     * @param scores    the scores, in the same order as the addresses
+     */
+    public AddressedVector(final int[] addresses, final float[] scores) {
+        if (scores == null) {
+            throw new IllegalArgumentException("Param scores cannot be null");
+        }
+
+        init(new Vector(scores, true), addresses);
+    }
+
     // things must already be duplicated (if necessary) before calling here
     private void init(final Vector v, final int[] addresses) {
 
@@ -1,29 +1,35 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package edu.mit.broad.genome.math;
 
 import edu.mit.broad.genome.objects.Dataset;
-import gnu.trove.TIntObjectHashMap;
+
+import java.util.Arrays;
 
 /**
- * @author Aravind Subramanian
+ * The columns of a Dataset, each extracted to the positive or negative scores only.
+ * <p/>
+ * All columns are extracted up front and pooled into a single primitive array, each column sorted and found
+ * through an offset.  The counts against a column are then binary searches rather than scans.
+ *
+ * @author Aravind Subramanian, David Eby
  */
 public class DatasetModed {
 
-    private Dataset fOrigDataset;
+    private final int fNumCol;
 
-    private TIntObjectHashMap fColIndexExtractedVectorMap; // @todo can make it a weak map later if needed
+    private final int fDimOrig;
 
-    private ScoreMode fScoreMode;
+    // Each column's extracted values in ascending order; column c is [fOffsets[c], fOffsets[c + 1])
+    private final float[] fValues;
 
-    private SortMode fSort;
-    private Order fOrder;
+    private final int[] fOffsets;
 
-    public DatasetModed(final Dataset orig,
-                        final ScoreMode smode,
-                        final SortMode sort,
-                        final Order order) {
+    /**
+     * @param smode POS_ONLY or NEG_ONLY
+     */
+    public DatasetModed(final Dataset orig, final ScoreMode smode) {
 
         if (orig == null) {
             throw new IllegalArgumentException("Param orig cannot be null");
@@ -33,41 +39,75 @@ public class DatasetModed {
             throw new IllegalArgumentException("Param smode cannot be null");
         }
 
-        this.fOrigDataset = orig;
-        this.fScoreMode = smode;
-        this.fColIndexExtractedVectorMap = new TIntObjectHashMap();
-        this.fSort = sort;
-        this.fOrder = order;
+        if (!smode.isPostiveOnly() && !smode.isNegativeOnly()) {
+            throw new IllegalArgumentException("Only positive or negative score modes are supported, got: " + smode.getName());
+        }
+
+        this.fNumCol = orig.getNumCol();
+        this.fDimOrig = orig.getDim();
+        this.fOffsets = new int[fNumCol + 1];
+
+        // NaNs are never extracted (they are neither positive nor negative), so the columns are NaN-free.
+        final Vector[] extracted = new Vector[fNumCol];
+        for (int c = 0; c < fNumCol; c++) {
+            extracted[c] = orig.getColumn(c).extract(smode);
+            fOffsets[c + 1] = fOffsets[c] + extracted[c].getSize();
+        }
+
+        this.fValues = new float[fOffsets[fNumCol]];
+        for (int c = 0; c < fNumCol; c++) {
+            System.arraycopy(extracted[c].elementData, 0, fValues, fOffsets[c], extracted[c].getSize());
+            Arrays.sort(fValues, fOffsets[c], fOffsets[c + 1]);
+        }
     }
 
     public int getNumCol() {
-        return fOrigDataset.getNumCol();
+        return fNumCol;
     }
 
     public int getDim_orig() {
-        return fOrigDataset.getDim();
+        return fDimOrig;
     }
 
-    // lazilly filled
-    // NOTE: there's no point in doing this lazily since it's only used in one place and is populated
-    // completely in one pass shortly after.
-    // However, the bigger issue here is that the v.sort() call is going to treat NaN as *greater than*
-    // every other element, when in fact we want those to be least where this is used.  At least this is
-    // How it looks.
-    // Probably better to rename this class to make this sort of thing clear.
-    // OR: can we take care of it in FdrAlgs._calc_Fdrs_skewed()?  Maybe that's enough?
-    public Vector getColumn_sorted(final int col) {
-        Object obj = fColIndexExtractedVectorMap.get(col);
-        if (obj == null) {
-            Vector v = fOrigDataset.getColumn(col);
-            v = v.extract(fScoreMode);
-            v.sort(fSort, fOrder);
-            obj = v;
-            fColIndexExtractedVectorMap.put(col, v);
-        }
+    public int getColumnSize(final int col) {
+        return fOffsets[col + 1] - fOffsets[col];
+    }
 
-        return (Vector) obj;
+    /**
+     * Same as XMath.getMoreThanCount() on the column sorted from high to low, i.e. the number of values not
+     * less than the specified value (all of them for a NaN value).
+     */
+    public int getMoreThanCount(final int col, final float value) {
+        // First position not less than value
+        int lo = fOffsets[col];
+        int hi = fOffsets[col + 1];
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (fValues[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return fOffsets[col + 1] - lo;
     }
 
+    /**
+     * Same as XMath.getLessThanCount() on the column sorted from low to high, i.e. the number of values not
+     * more than the specified value (all of them for a NaN value).
+     */
+    public int getLessThanCount(final int col, final float value) {
+        // First position more than value
+        int lo = fOffsets[col];
+        int hi = fOffsets[col + 1];
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (value < fValues[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo - fOffsets[col];
+    }
 }
-
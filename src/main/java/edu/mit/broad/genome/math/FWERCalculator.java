@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import java.util.Arrays;
+
+/**
+ * Answers XMath.getFWERTwoTailed() for many real scores against the same matrix of random scores.
+ * <p/>
+ * The best (max and min) score of each permutation is found once and sorted, so each FWER is then a binary search
+ * rather than a scan of the whole matrix.  The numbers are identical to those of XMath.getFWERTwoTailed().
+ *
+ * @author David Eby
+ */
+public class FWERCalculator {
+
+    private final int fNumPerms;
+
+    // Ascending, with any NaNs dropped as they never count toward the FWER
+    private final float[] fSortedColMaxes;
+    private final float[] fSortedColMins;
+
+    /**
+     * @param rndScores each row a gene set and each column a permutation
+     */
+    public FWERCalculator(final Matrix rndScores) {
+        if (rndScores == null) {
+            throw new IllegalArgumentException("Param rndScores cannot be null");
+        }
+
+        this.fNumPerms = rndScores.getNumCol();
+
+        // Same extremes as the XMath calls: the maxes from the Matrix and the mins column by column through Vector
+        final float[] colMins = new float[fNumPerms];
+        for (int c = 0; c < fNumPerms; c++) {
+            colMins[c] = rndScores.getColumnV(c).min();
+        }
+        this.fSortedColMaxes = sortedWithoutNaN(rndScores.getColumnMaxes().elementData);
+        this.fSortedColMins = sortedWithoutNaN(colMins);
+    }
+
+    private static float[] sortedWithoutNaN(final float[] values) {
+        final float[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted); // NaNs are sorted to the end
+        int len = sorted.length;
+        while (len > 0 && Float.isNaN(sorted[len - 1])) { len--; }
+        return (len == sorted.length) ? sorted : Arrays.copyOf(sorted, len);
+    }
+
+    public float getFWERTwoTailed(final float realScore) {
+        if (XMath.isPositive(realScore)) {
+            return (float) (((double) countMore(realScore)) / (double) fNumPerms);
+        } else {
+            return (float) (((double) countLess(realScore)) / (double) fNumPerms);
+        }
+    }
+
+    // Number of column maxes > score; none for a NaN score
+    private int countMore(final float score) {
+        int lo = 0;
+        int hi = fSortedColMaxes.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (fSortedColMaxes[mid] > score) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return fSortedColMaxes.length - lo;
+    }
+
+    // Number of column mins < score; none for a NaN score
+    private int countLess(final float score) {
+        int lo = 0;
+        int hi = fSortedColMins.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (fSortedColMins[mid] < score) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
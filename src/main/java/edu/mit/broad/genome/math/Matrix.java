@@ -221,6 +221,19 @@ public class Matrix extends AbstractObject {
         this.ourMatrix.setFloat(value, row, column);
     }
 
+    /**
+     * Direct access to the backing data for callers that want to work over the whole Matrix at once.  The layout 
+     * is column-major: the element at (row, column) is at [column * getNumRow() + row].
+     * This is NOT a copy and must not be modified, other than to fill a newly created Matrix before it is shared.
+     * Returns null if the backing storage has no such array.
+     */
+    public float[] getColumnMajorData() {
+        if (ourMatrix instanceof DefaultDenseFloatMatrix2D) {
+            return ((DefaultDenseFloatMatrix2D) ourMatrix).getFloatArray();
+        }
+        return null;
+    }
+
     /**
      * A safe copy is returned.
      * but note efficient as directly copied into Vectors array
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import java.util.Arrays;
+
+/**
+ * Orders the indices of an array of double values without boxing them into DoubleElements, by an LSD radix sort
+ * on the bits of the values.
+ * <p/>
+ * The ordering is exactly that of Arrays.parallelSort() with a DoubleElement.DoubleElementComparator:
+ * the sort is stable (ties keep their index order), -0.0 and 0.0 are equal, and NaNs are always least (so they
+ * come first when ascending and last when descending).
+ * <p/>
+ * The scratch buffers are kept and reused from one call to the next, so an instance is NOT thread-safe; use one
+ * per thread.
+ *
+ * @author David Eby
+ */
+public class RadixIndexSorter {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int NUM_PASSES = Long.SIZE / RADIX_BITS;
+
+    private long[] fKeys = new long[0];
+    private long[] fKeysTmp = new long[0];
+    private int[] fIndicesTmp = new int[0];
+    private final int[] fCounts = new int[NUM_PASSES * RADIX];
+
+    /**
+     * @return a new array of the indices of values, in sorted order
+     */
+    public int[] sortIndices(final double[] values, final SortMode sort, final Order order) {
+        if (values == null) {
+            throw new IllegalArgumentException("Param values cannot be null");
+        }
+        if (sort == null) {
+            throw new IllegalArgumentException("Param sort cannot be null");
+        }
+        if (order == null) {
+            throw new IllegalArgumentException("Param order cannot be null");
+        }
+
+        final int n = values.length;
+        ensureCapacity(n);
+        final boolean absolute = sort.isAbsolute();
+        final boolean ascending = order.isAscending();
+
+        long[] keys = fKeys;
+        long[] keysTmp = fKeysTmp;
+        int[] indices = new int[n];
+        int[] indicesTmp = fIndicesTmp;
+        for (int i = 0; i < n; i++) {
+            keys[i] = toKey(values[i], absolute, ascending);
+            indices[i] = i;
+        }
+
+        // All the digit histograms in one pass; any digit shared by every key needs no pass of its own
+        final int[] counts = fCounts;
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < n; i++) {
+            final long key = keys[i];
+            for (int p = 0; p < NUM_PASSES; p++) {
+                counts[p * RADIX + (int) ((key >>> (p * RADIX_BITS)) & (RADIX - 1))]++;
+            }
+        }
+
+        for (int p = 0; p < NUM_PASSES; p++) {
+            final int offset = p * RADIX;
+            final int shift = p * RADIX_BITS;
+            if (n == 0 || counts[offset + (int) ((keys[0] >>> shift) & (RADIX - 1))] == n) { continue; }
+
+            // Counts to starting positions
+            int pos = 0;
+            for (int d = 0; d < RADIX; d++) {
+                final int count = counts[offset + d];
+                counts[offset + d] = pos;
+                pos += count;
+            }
+
+            for (int i = 0; i < n; i++) {
+                final long key = keys[i];
+                final int dest = counts[offset + (int) ((key >>> shift) & (RADIX - 1))]++;
+                keysTmp[dest] = key;
+                indicesTmp[dest] = indices[i];
+            }
+
+            final long[] swapKeys = keys;
+            keys = keysTmp;
+            keysTmp = swapKeys;
+            final int[] swapIndices = indices;
+            indices = indicesTmp;
+            indicesTmp = swapIndices;
+        }
+
+        // After an odd number of passes the result is in the scratch array; hand out a fresh one instead
+        if (indices == fIndicesTmp) {
+            final int[] result = new int[n];
+            System.arraycopy(indices, 0, result, 0, n);
+            return result;
+        }
+        return indices;
+    }
+
+    // Maps the value to a key whose unsigned order is the wanted order of the values
+    private static long toKey(double value, final boolean absolute, final boolean ascending) {
+        if (Double.isNaN(value)) { return (ascending) ? 0L : -1L; }
+        if (absolute) { value = Math.abs(value); }
+        if (value == 0.0) { value = 0.0; } // -0.0 ties with 0.0 as in the comparator
+
+        long bits = Double.doubleToRawLongBits(value);
+        // Negative values have all bits flipped and positive values only the sign bit, giving an unsigned order
+        // of the bits matching the numeric order of the values.  Non-NaN values never map to 0 or -1.
+        bits ^= (bits >> 63) | Long.MIN_VALUE;
+        return (ascending) ? bits : ~bits;
+    }
+
+    private void ensureCapacity(final int n) {
+        if (fKeys.length < n) {
+            fKeys = new long[n];
+            fKeysTmp = new long[n];
+            fIndicesTmp = new int[n];
+        }
+    }
+}
@@ -64,6 +64,22 @@ public class RandomSeedGenerators {
         return new RandomSeedGenerators.Custom(seed.longValue());
     }
 
+    /**
+     * Derive independent child generators from the parent's stream, e.g. one per parallel task.  The child seeds
+     * are drawn in order from the parent so the children depend only on the parent's seed and not on how the
+     * tasks are later scheduled.  The seeds are non-negative, so one reported for a child can be given back as
+     * -rnd_seed on the command line.
+     */
+    public static RandomSeedGenerator[] createChildren(final RandomSeedGenerator parent, final int num) {
+        if (parent == null) { throw new IllegalArgumentException("Param parent cannot be null"); }
+        final Random rnd = parent.getRandom();
+        final RandomSeedGenerator[] children = new RandomSeedGenerator[num];
+        for (int i = 0; i < num; i++) {
+            children[i] = new RandomSeedGenerators.Custom(rnd.nextLong() & Long.MAX_VALUE);
+        }
+        return children;
+    }
+
     public static class Standard implements RandomSeedGenerator {
         private long fSeed;
         private Random fRandom;
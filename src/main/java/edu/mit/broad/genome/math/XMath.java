@@ -103,7 +103,7 @@ public class XMath {
         return x <= 0;
     }
 
-    private static int[] toIndices(final int maxIndex) {
+    public static int[] toIndices(final int maxIndex) {
         if (maxIndex <= 0) {
             throw new IllegalArgumentException("Specified max for indices must be more than 0, got: " + maxIndex);
         }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.objects;
 
@@ -8,12 +8,16 @@ import edu.mit.broad.genome.math.Matrix;
 import edu.mit.broad.genome.parsers.AuxUtils;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * @author Aravind Subramanian
  */
 public class BitSetDataset extends AbstractObject {
 
+    // Bitsets compared a tile at a time, so the words of both tiles stay in cache
+    private static final int TILE_ROWS = 64;
+
     // @note BitSet does not seem to work like an array - it has no max index etc
     // so cant work with its length/size as with a normal arrays
     // each BitSet is like a ROW
@@ -32,6 +36,8 @@ public class BitSetDataset extends AbstractObject {
      */
     private List<String> frBitSetNames;
 
+    private Overlaps fOverlaps;
+
     public BitSetDataset(final GeneSetMatrix gm) {
 
         // the UNION (
@@ -46,13 +52,16 @@ public class BitSetDataset extends AbstractObject {
             bitSetNames.add(AuxUtils.getAuxNameOnlyNoHash(gm.getGeneSetName(i)));
         }
 
+        // Set the bits from each set's members rather than testing every name against every set
+        Map<String, Integer> bitIndices = new HashMap<String, Integer>(bitNames.size() * 2);
         for (int i = 0; i < bitNames.size(); i++) {
-            String name = bitNames.get(i).toString();
-            for (int g = 0; g < gm.getNumGeneSets(); g++) {
-                GeneSet gset = gm.getGeneSet(g);
-                if (gset.isMember(name)) {
-                    bss[g].set(i);
-                }
+            bitIndices.put(bitNames.get(i), i);
+        }
+
+        for (int g = 0; g < gm.getNumGeneSets(); g++) {
+            GeneSet gset = gm.getGeneSet(g);
+            for (int m = 0; m < gset.getNumMembers(); m++) {
+                bss[g].set(bitIndices.get(gset.getMember(m)));
             }
         }
 
@@ -185,44 +194,30 @@ public class BitSetDataset extends AbstractObject {
         return fBitSets.length + "x" + fcBitNames.size();
     }
 
-    public Matrix orMatrix() {
-
-        Matrix matrix = new Matrix(getNumBitSets(), getNumBitSets());
-
-        // @todo can optimize the loop as symmetrical if needed
-        for (int r = 0; r < getNumBitSets(); r++) {
-            for (int c = 0; c < getNumBitSets(); c++) {
-                BitSet bs = getBitSet(r); // receives a safe copy
-                bs.or(fBitSets[c]); // this op modifies bs but not fBitSets[c]
-                matrix.setElement(r, c, bs.cardinality());
-            }
+    /**
+     * Sizes of the intersection and union of every pair of bitsets; computed on first call
+     */
+    public synchronized Overlaps getOverlaps() {
+        if (fOverlaps == null) {
+            fOverlaps = new Overlaps(fBitSets, getNumBits());
         }
+        return fOverlaps;
+    }
 
-        return matrix;
+    public Matrix orMatrix() {
+        final Overlaps overlaps = getOverlaps();
+        return toPairMatrix((r, c) -> overlaps.getUnion(r, c));
     }
 
     public Matrix andMatrix(boolean fractionalize) {
-
-        Matrix matrix = new Matrix(getNumBitSets(), getNumBitSets());
-
-        for (int r = 0; r < getNumBitSets(); r++) {
-            for (int c = 0; c < getNumBitSets(); c++) {
-                BitSet bs = getBitSet(r); // receives a safe copy
-                float size = bs.cardinality();
-                bs.and(fBitSets[c]);
-
-                float num = bs.cardinality();
-                if (fractionalize) {
-                    num = num / size;
-                }
-                matrix.setElement(r, c, num);
-            }
+        final Overlaps overlaps = getOverlaps();
+        if (fractionalize) {
+            return toPairMatrix((r, c) -> overlaps.getIntersection(r, c) / (float) overlaps.getSize(r));
+        } else {
+            return toPairMatrix((r, c) -> overlaps.getIntersection(r, c));
         }
-
-        return matrix;
     }
 
-
     public Dataset and_by_or() {
         log.debug("Doing and_by_or");
         return and_by_or(getName() + "AND_BY_OR");
@@ -232,11 +227,34 @@ public class BitSetDataset extends AbstractObject {
         return new DefaultDataset(name, and_by_orMatrix(), frBitSetNames, frBitSetNames, null);
     }
 
+    /**
+     * @return the Jaccard index of every pair of bitsets, 0 where both are empty
+     */
     public Matrix and_by_orMatrix() {
-        Matrix mOr = orMatrix();
-        Matrix mAnd = new Matrix(andMatrix(false));
-        mAnd.divide(mOr, true);
-        return mAnd;
+        final Overlaps overlaps = getOverlaps();
+        return toPairMatrix((r, c) -> overlaps.getJaccard(r, c));
+    }
+
+    private interface PairValue {
+        float get(int r, int c);
+    }
+
+    private Matrix toPairMatrix(final PairValue value) {
+        final int n = getNumBitSets();
+        final Matrix m = new Matrix(n, n);
+        final float[] colMajor = m.getColumnMajorData();
+
+        for (int c = 0; c < n; c++) {
+            for (int r = 0; r < n; r++) {
+                if (colMajor != null) {
+                    colMajor[c * n + r] = value.get(r, c);
+                } else {
+                    m.setElement(r, c, value.get(r, c));
+                }
+            }
+        }
+
+        return m;
     }
 
     private Matrix toMatrix() {
@@ -256,4 +274,128 @@ public class BitSetDataset extends AbstractObject {
         // dont set as immutable
         return m;
     }
+
+    /**
+     * The bitsets are packed into contiguous rows of words and only the upper triangle of pairs is compared, a tile
+     * of rows against a tile of columns at a time, with the tiles split across cores.  Unions follow from the
+     * intersections and the sizes of the sets.
+     */
+    public static class Overlaps {
+
+        private final int fNumSets;
+
+        private final int[] fSizes;
+
+        // upper triangle with the diagonal, by row
+        private final int[] fIntersections;
+
+        // the index of each set in the arrays above, or null if in the same order
+        private final int[] fOrder_opt;
+
+        private Overlaps(final Overlaps overlaps, final int[] order) {
+            this.fNumSets = overlaps.fNumSets;
+            this.fSizes = overlaps.fSizes;
+            this.fIntersections = overlaps.fIntersections;
+            this.fOrder_opt = order;
+        }
+
+        private Overlaps(final BitSet[] bss, final int numBits) {
+            final int n = bss.length;
+            final long numPairs = (long) n * (n + 1) / 2;
+            if (numPairs > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too many bitsets to compare: " + n);
+            }
+
+            final int wordsPerRow = (numBits + 63) >>> 6;
+            final long[] words = new long[Math.multiplyExact(n, wordsPerRow)];
+            this.fNumSets = n;
+            this.fOrder_opt = null;
+            this.fSizes = new int[n];
+            for (int r = 0; r < n; r++) {
+                long[] row = bss[r].toLongArray();
+                System.arraycopy(row, 0, words, r * wordsPerRow, row.length);
+                fSizes[r] = bss[r].cardinality();
+            }
+
+            this.fIntersections = new int[(int) numPairs];
+
+            final int numTiles = (n + TILE_ROWS - 1) / TILE_ROWS;
+            final int[] tileRows = new int[numTiles * (numTiles + 1) / 2];
+            final int[] tileCols = new int[tileRows.length];
+            for (int ti = 0, t = 0; ti < numTiles; ti++) {
+                for (int tj = ti; tj < numTiles; tj++, t++) {
+                    tileRows[t] = ti;
+                    tileCols[t] = tj;
+                }
+            }
+
+            // Each pair is written by just the one tile
+            IntStream.range(0, tileRows.length).parallel().forEach(t -> {
+                final int rowEnd = Math.min((tileRows[t] + 1) * TILE_ROWS, n);
+                final int colEnd = Math.min((tileCols[t] + 1) * TILE_ROWS, n);
+                for (int r = tileRows[t] * TILE_ROWS; r < rowEnd; r++) {
+                    final int rowStart = r * wordsPerRow;
+                    for (int c = Math.max(r, tileCols[t] * TILE_ROWS); c < colEnd; c++) {
+                        final int colStart = c * wordsPerRow;
+                        int cnt = 0;
+                        for (int w = 0; w < wordsPerRow; w++) {
+                            cnt += Long.bitCount(words[rowStart + w] & words[colStart + w]);
+                        }
+                        fIntersections[index(r, c)] = cnt;
+                    }
+                }
+            });
+        }
+
+        private int index(final int r, final int c) {
+            return (int) ((long) r * fNumSets - (long) r * (r - 1) / 2 + (c - r));
+        }
+
+        /**
+         * The same overlaps with the sets in another order, such as that of a clustering; nothing is recomputed.
+         *
+         * @param order the index in this Overlaps of each set, in the new order
+         */
+        public Overlaps reorder(final int[] order) {
+            if (order == null) {
+                throw new IllegalArgumentException("Param order cannot be null");
+            }
+
+            final int[] indices = new int[order.length];
+            final BitSet seen = new BitSet(getNumSets());
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] < 0 || order[i] >= getNumSets() || seen.get(order[i])) {
+                    throw new IllegalArgumentException("Bad or repeated set index: " + order[i] + " at: " + i);
+                }
+                seen.set(order[i]);
+                indices[i] = (fOrder_opt == null) ? order[i] : fOrder_opt[order[i]];
+            }
+            return new Overlaps(this, indices);
+        }
+
+        public int getNumSets() {
+            return (fOrder_opt == null) ? fNumSets : fOrder_opt.length;
+        }
+
+        public int getSize(final int r) {
+            return fSizes[(fOrder_opt == null) ? r : fOrder_opt[r]];
+        }
+
+        public int getIntersection(int r, int c) {
+            if (fOrder_opt != null) {
+                r = fOrder_opt[r];
+                c = fOrder_opt[c];
+            }
+            return (r <= c) ? fIntersections[index(r, c)] : fIntersections[index(c, r)];
+        }
+
+        public int getUnion(final int r, final int c) {
+            return getSize(r) + getSize(c) - getIntersection(r, c);
+        }
+
+        public float getJaccard(final int r, final int c) {
+            final int union = getUnion(r, c);
+            return (union == 0) ? 0 : (float) getIntersection(r, c) / union;
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.objects;
 
@@ -69,6 +69,29 @@ public class GeneSet extends AbstractObject implements PersistentObject, Version
         init(name, null, members, true);
     }
 
+    /**
+     * Class Constructor.
+     * Members are given by their ids in the SymbolTable, in order; any duplicates are kept, as they
+     * are above when not checking for duplicates.
+     * Data is shared: the ids are NOT copied
+     *
+     * @param msigDBVersion if null an unknown version is made as with the other constructors
+     */
+    public GeneSet(final String name, final String nameEnglish, final SymbolTable symbols, final int[] memberIds, final MSigDBVersion msigDBVersion) {
+        if (symbols == null) {
+            throw new IllegalArgumentException("Param symbols cannot be null");
+        }
+
+        if (memberIds == null) {
+            throw new NullPointerException("Param memberIds cant be null");
+        }
+
+        super.initialize(name, nameEnglish);
+        this.fMembers = symbols.asList(memberIds);
+        this.fMembersSet = symbols.asSet(memberIds);
+        this.msigDBVersion = (msigDBVersion != null) ? msigDBVersion : MSigDBVersion.createUnknownTrackingVersion(name);
+    }
+
     /**
      * Data is NOT shared
      *
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.Vector;
+import gnu.trove.TObjectIntHashMap;
+
+import java.nio.FloatBuffer;
+import java.util.*;
+
+/**
+ * A Dataset whose values stay in a FloatBuffer, usually one memory-mapped from a binary dataset file
+ * (see BinaryDatasetParser), rather than being parsed into a Matrix.
+ * <p/>
+ * The values are row-major, split into segments of whole rows as a single buffer can't address more than 2GB.
+ * Rows, columns and elements are read from the buffers on request with absolute gets, so concurrent reads are safe
+ * and nothing is loaded onto the heap until asked for.  Callers that work over all the values should read them a
+ * row at a time through copyRow(); a Matrix is only made (once) for the callers that need one through getMatrix(),
+ * which copies every value onto the heap.
+ * <p/>
+ * Dataset is immutable after creation.
+ *
+ * @author David Eby
+ */
+public class MappedDataset extends AbstractObject implements Dataset {
+    // Segment i holds rows [i * fRowsPerSegment, (i + 1) * fRowsPerSegment)
+    private final FloatBuffer[] fSegments;
+    private final int fRowsPerSegment;
+
+    private final int fNumRow;
+    private final int fNumCol;
+
+    private final List<String> fRowNames;
+    private final List<String> fColNames;
+    private GeneSet rowNamesGeneSet; // lazilly filled
+
+    private Annot fAnn;
+
+    private TObjectIntHashMap fRowIndexNameHashMap; // lazilly filled
+
+    private Matrix fMatrix; // lazilly filled
+
+    /**
+     * @param data   numRow * numCol values, row-major, from index 0 of the buffer
+     * @param annOpt made from the row and column names if null
+     */
+    public MappedDataset(final String name,
+                         final FloatBuffer data,
+                         final List<String> rowNames,
+                         final List<String> colNames,
+                         final Annot annOpt) {
+        this(name, new FloatBuffer[] { data }, Math.max(1, rowNames.size()), rowNames, colNames, annOpt);
+    }
+
+    /**
+     * @param segments       the values, row-major, rowsPerSegment rows to each buffer (fewer in the last)
+     * @param rowsPerSegment the rows in each segment
+     * @param annOpt         made from the row and column names if null
+     */
+    public MappedDataset(final String name,
+                         final FloatBuffer[] segments,
+                         final int rowsPerSegment,
+                         final List<String> rowNames,
+                         final List<String> colNames,
+                         final Annot annOpt) {
+
+        if (segments == null) {
+            throw new IllegalArgumentException("Param segments cannot be null");
+        }
+
+        if (rowsPerSegment <= 0) {
+            throw new IllegalArgumentException("Param rowsPerSegment must be positive: " + rowsPerSegment);
+        }
+
+        if (rowNames == null) {
+            throw new IllegalArgumentException("Param rowNames cannot be null");
+        }
+
+        if (colNames == null) {
+            throw new IllegalArgumentException("Param colNames cannot be null");
+        }
+
+        super.initialize(name);
+
+        long size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            final long rows = Math.min(rowsPerSegment, rowNames.size() - (long) i * rowsPerSegment);
+            if (rows < 0 || segments[i].limit() != rows * colNames.size()) {
+                throw new IllegalArgumentException("Segment " + i + " size: " + segments[i].limit()
+                        + " does not match its rows in rownames: " + rowNames.size() + " by colnames: " + colNames.size());
+            }
+            size += segments[i].limit();
+        }
+        if ((long) rowNames.size() * colNames.size() != size) {
+            throw new IllegalArgumentException("Data size: " + size + " does not match rownames: "
+                    + rowNames.size() + " by colnames: " + colNames.size());
+        }
+
+        this.fSegments = segments;
+        this.fRowsPerSegment = rowsPerSegment;
+        this.fNumRow = rowNames.size();
+        this.fNumCol = colNames.size();
+        this.fRowNames = Collections.unmodifiableList(rowNames);
+        this.fColNames = Collections.unmodifiableList(colNames);
+
+        final Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < fNumCol; i++) {
+            if (!seen.add(fColNames.get(i))) {
+                throw new IllegalArgumentException("Duplicate COL names are NOT allowed in Datasets. The offending entry was: " + fColNames.get(i) + " at pos: " + i);
+            }
+        }
+
+        if (annOpt != null && annOpt.getFeatureAnnot().getNumFeatures() < fNumRow) {
+            throw new IllegalArgumentException("Annot features is less than dataset rowNames: " + annOpt.getFeatureAnnot().getNumFeatures() + " " + fNumRow);
+        }
+        this.fAnn = annOpt;
+    }
+
+    //Made lazily
+    public Annot getAnnot() {
+        if (fAnn == null) {
+            final FeatureAnnot fann = new FeatureAnnot(getName(), fRowNames, null);
+            final SampleAnnot sann = new SampleAnnot(getName(), getColumnNames());
+            this.fAnn = new Annot(fann, sann);
+        }
+
+        return fAnn;
+    }
+
+    public String getRowName(final int rown) {
+        return fRowNames.get(rown);
+    }
+
+    public List<String> getRowNames() {
+        return fRowNames;
+    }
+
+    public synchronized int getRowIndex(final String rowName) {
+
+        if (rowName == null) {
+            throw new IllegalArgumentException("rowName cannot be null: " + rowName);
+        }
+
+        if (fRowIndexNameHashMap == null) {
+            fRowIndexNameHashMap = new TObjectIntHashMap();
+            for (int r = 0; r < fNumRow; r++) {
+                fRowIndexNameHashMap.put(fRowNames.get(r), r);
+            }
+        }
+
+        final int index = fRowIndexNameHashMap.get(rowName);
+        if (index == 0 && !fRowIndexNameHashMap.containsKey(rowName)) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    public List<String> getColumnNames() {
+        return fColNames;
+    }
+
+    public GeneSet getRowNamesGeneSet() {
+        if (rowNamesGeneSet == null) {
+            rowNamesGeneSet = new GeneSet(getName(), new HashSet<String>(fRowNames));
+        }
+        return rowNamesGeneSet;
+    }
+
+    public int getColumnIndex(final String colName) {
+        return fColNames.indexOf(colName);
+    }
+
+    public String getColumnName(final int coln) {
+        return fColNames.get(coln);
+    }
+
+    public int getNumRow() {
+        return fNumRow;
+    }
+
+    public int getNumCol() {
+        return fNumCol;
+    }
+
+    public Vector getRow(final String rowName) {
+        return getRow(getRowIndex(rowName));
+    }
+
+    public Vector[] getRows(final GeneSet gset) {
+        final Vector[] vss = new Vector[gset.getNumMembers()];
+        for (int i = 0; i < gset.getNumMembers(); i++) {
+            vss[i] = getRow(gset.getMember(i));
+        }
+
+        return vss;
+    }
+
+    public float getElement(final int rown, final int coln) {
+        checkRow(rown);
+        if (coln < 0 || coln >= fNumCol) {
+            throw new ArrayIndexOutOfBoundsException("col: " + coln + " not in [0, " + fNumCol + ")");
+        }
+        return fSegments[rown / fRowsPerSegment].get((rown % fRowsPerSegment) * fNumCol + coln);
+    }
+
+    public Vector getRow(final int rown) {
+        final float[] row = new float[fNumCol];
+        copyRow(rown, row);
+        return new Vector(row, true);
+    }
+
+    /**
+     * Copies the values of a row into the first getNumCol() elements of dest
+     */
+    public void copyRow(final int rown, final float[] dest) {
+        checkRow(rown);
+        fSegments[rown / fRowsPerSegment].get((rown % fRowsPerSegment) * fNumCol, dest, 0, fNumCol);
+    }
+
+    public Vector getColumn(final int coln) {
+        if (coln < 0 || coln >= fNumCol) {
+            throw new ArrayIndexOutOfBoundsException("col: " + coln + " not in [0, " + fNumCol + ")");
+        }
+        final float[] col = new float[fNumRow];
+        for (int r = 0; r < fNumRow; r++) {
+            col[r] = fSegments[r / fRowsPerSegment].get((r % fRowsPerSegment) * fNumCol + coln);
+        }
+        return new Vector(col, true);
+    }
+
+    private void checkRow(final int rown) {
+        if (rown < 0 || rown >= fNumRow) {
+            throw new ArrayIndexOutOfBoundsException("row: " + rown + " not in [0, " + fNumRow + ")");
+        }
+    }
+
+    public int getDim() {
+        return fNumRow * fNumCol;
+    }
+
+    /**
+     * @return An immutable Matrix of the values, copied from the buffers on the first call.  This puts the whole
+     * dataset on the heap, so prefer copyRow() where the rows can be worked on one at a time.
+     */
+    public synchronized Matrix getMatrix() {
+        if (fMatrix == null) {
+            final Matrix matrix = new Matrix(fNumRow, fNumCol);
+            final float[] colMajor = matrix.getColumnMajorData();
+            final float[] row = new float[fNumCol];
+            for (int r = 0; r < fNumRow; r++) {
+                copyRow(r, row);
+                if (colMajor != null) {
+                    for (int c = 0, i = r; c < fNumCol; c++, i += fNumRow) {
+                        colMajor[i] = row[c];
+                    }
+                } else {
+                    matrix.setRow(r, row);
+                }
+            }
+            matrix.setImmutable();
+            this.fMatrix = matrix;
+        }
+
+        return fMatrix;
+    }
+
+    public String getQuickInfo() {
+        return new StringBuilder().append(fNumRow).append('x').append(fNumCol).toString();
+    }
+}
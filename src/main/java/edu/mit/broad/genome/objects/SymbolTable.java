@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of GeneSet member names (gene symbols, probe ids, ...), each stored once and known by an int id.
+ * <p/>
+ * GeneSets parsed from gene set files hold the ids of their members in the shared table rather than their own
+ * Strings and HashSet, so a symbol found in thousands of gene sets, from any number of files, is one String in
+ * memory and each membership costs an int or two.  Ids are never reused, so a table only grows; the shared one is
+ * only weakly held here, so it is dropped with the last of the gene sets that refer to it and the next parse
+ * starts a new one.
+ * <p/>
+ * Thread-safe.  Looking up a symbol already in the table takes no lock.
+ *
+ * @author David Eby
+ */
+public final class SymbolTable {
+    private static WeakReference<SymbolTable> kShared = new WeakReference<SymbolTable>(null);
+
+    /**
+     * @return the table that all gene set parsers intern into, made anew if the last one was dropped
+     */
+    public static synchronized SymbolTable getShared() {
+        SymbolTable shared = kShared.get();
+        if (shared == null) {
+            shared = new SymbolTable();
+            kShared = new WeakReference<SymbolTable>(shared);
+        }
+        return shared;
+    }
+
+    private final Map<String, Integer> fIds = new ConcurrentHashMap<String, Integer>();
+
+    // Written under the lock; fSize is written last so reads of any id below it see its symbol
+    private volatile String[] fSymbols = new String[1024];
+    private volatile int fSize;
+
+    /**
+     * @return the id of the symbol, adding it to the table if new
+     */
+    public int intern(final String symbol) {
+        if (symbol == null) {
+            throw new IllegalArgumentException("Param symbol cannot be null");
+        }
+
+        final Integer id = fIds.get(symbol);
+        if (id != null) { return id; }
+
+        synchronized (this) {
+            final Integer existing = fIds.get(symbol);
+            if (existing != null) { return existing; }
+
+            final int newId = fSize;
+            String[] symbols = fSymbols;
+            if (newId == symbols.length) {
+                symbols = Arrays.copyOf(symbols, symbols.length * 2);
+                this.fSymbols = symbols;
+            }
+            symbols[newId] = symbol;
+            this.fSize = newId + 1;
+            fIds.put(symbol, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * @return the id of the symbol, or -1 if it is not in the table
+     */
+    public int getId(final String symbol) {
+        final Integer id = fIds.get(symbol);
+        return (id == null) ? -1 : id;
+    }
+
+    public String getSymbol(final int id) {
+        if (id < 0 || id >= fSize) {
+            throw new IllegalArgumentException("No symbol with id: " + id);
+        }
+        return fSymbols[id];
+    }
+
+    public int getSize() {
+        return fSize;
+    }
+
+    /**
+     * @return an unmodifiable List of the symbols of the ids, in order.  The ids are NOT copied
+     */
+    public List<String> asList(final int[] ids) {
+        return new SymbolList(ids);
+    }
+
+    /**
+     * @return an unmodifiable Set of the symbols of the ids.  The ids are NOT copied; a sorted copy is made on the
+     * first membership test
+     */
+    public Set<String> asSet(final int[] ids) {
+        return new SymbolSet(ids);
+    }
+
+    private class SymbolList extends AbstractList<String> implements RandomAccess {
+        private final int[] fIdsOfList;
+
+        private SymbolList(final int[] ids) {
+            this.fIdsOfList = ids;
+        }
+
+        public String get(final int index) {
+            return getSymbol(fIdsOfList[index]);
+        }
+
+        public int size() {
+            return fIdsOfList.length;
+        }
+    }
+
+    private class SymbolSet extends AbstractSet<String> {
+        private final int[] fIdsOfSet;
+
+        private volatile int[] fSortedIds; // lazilly filled, without duplicates
+
+        private SymbolSet(final int[] ids) {
+            this.fIdsOfSet = ids;
+        }
+
+        private int[] sortedIds() {
+            int[] sorted = fSortedIds;
+            if (sorted == null) {
+                sorted = fIdsOfSet.clone();
+                Arrays.sort(sorted);
+                int n = 0;
+                for (int i = 0; i < sorted.length; i++) {
+                    if (n == 0 || sorted[i] != sorted[n - 1]) { sorted[n++] = sorted[i]; }
+                }
+                sorted = (n == sorted.length) ? sorted : Arrays.copyOf(sorted, n);
+                this.fSortedIds = sorted;
+            }
+            return sorted;
+        }
+
+        public boolean contains(final Object o) {
+            if (!(o instanceof String)) { return false; }
+            final int id = getId((String) o);
+            return id >= 0 && Arrays.binarySearch(sortedIds(), id) >= 0;
+        }
+
+        public Iterator<String> iterator() {
+            final int[] sorted = sortedIds();
+            return new Iterator<String>() {
+                private int fIndex;
+
+                public boolean hasNext() {
+                    return fIndex < sorted.length;
+                }
+
+                public String next() {
+                    if (fIndex >= sorted.length) { throw new NoSuchElementException(); }
+                    return getSymbol(sorted[fIndex++]);
+                }
+            };
+        }
+
+        public int size() {
+            return sortedIds().length;
+        }
+    }
+}
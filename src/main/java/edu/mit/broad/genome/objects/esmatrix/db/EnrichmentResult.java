@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.objects.esmatrix.db;
 
@@ -30,6 +30,10 @@ public class EnrichmentResult {
 
     private FdrStruc fFdr;
 
+    // Set instead of fRndESS for a result whose random scores are read on request
+    private EsMatrix fEsMatrix;
+    private int fEsMatrixRow;
+
     // TODO: track possible NaNs creeping in via the es object. 
     public EnrichmentResult(final RankedList rl, final Template t_opt, final GeneSet gset, final Chip chip,
     		final EnrichmentScore es, final Vector rndEss, final FdrStruc fdr) {
@@ -50,6 +54,21 @@ public class EnrichmentResult {
         this.fFdr = fdr;
     }
 
+    /**
+     * For a result whose random scores stay in the EsMatrix until asked for, e.g. one read from a saved EDB.  They 
+     * are not kept, so each call to getRndESS() reads them again.
+     */
+    public EnrichmentResult(final RankedList rl, final Template t_opt, final GeneSet gset, final Chip chip,
+            final EnrichmentScore es, final EsMatrix esMatrix, final int esMatrixRow, final FdrStruc fdr) {
+        this(rl, t_opt, gset, chip, es, (Vector) null, fdr);
+        if (esMatrix == null) {
+            throw new IllegalArgumentException("Param esMatrix cannot be null");
+        }
+
+        this.fEsMatrix = esMatrix;
+        this.fEsMatrixRow = esMatrixRow;
+    }
+
     private GeneSetSignal fSignal;
 
     public GeneSetSignal getSignal() {
@@ -61,9 +80,19 @@ public class EnrichmentResult {
     }
 
     public Vector getRndESS() {
+        if (fEsMatrix != null) {
+            return fEsMatrix.getRndESS(fEsMatrixRow);
+        }
         return fRndESS;
     }
 
+    /**
+     * @return true if the random scores are read from an EsMatrix on request rather than held
+     */
+    public boolean isRndESSLazy() {
+        return fEsMatrix != null;
+    }
+
     public FdrStruc getFDR() {
         return fFdr;
     }
@@ -95,6 +124,9 @@ public class EnrichmentResult {
     }
 
     public int getNumPerms() {
+        if (fEsMatrix != null) {
+            return fEsMatrix.getNumPerms();
+        }
         return fRndESS.getSize();
     }
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package edu.mit.broad.genome.objects.esmatrix.db;
 
@@ -25,6 +25,9 @@ public class EnrichmentScoreImpl implements EnrichmentScore {
     private Vector fESProfile_point_by_point;
     private int[] fHitIndices;
 
+    // Where the point by point profile comes from, if not given outright; it can be large so it's only made on request
+    private EnrichmentScore fESProfileSource_opt;
+
     /**
      * Class constructor
      *
@@ -68,7 +71,8 @@ public class EnrichmentScoreImpl implements EnrichmentScore {
                                final float fdr,
                                final float fwer) {
         init(es.getES(), es.getRankAtES(), es.getRankScoreAtES(),
-                nes, np, fdr, fwer, es.getNumHits(), es.getHitIndices(), es.getESProfile(), es.getESProfile_point_by_point_opt());
+                nes, np, fdr, fwer, es.getNumHits(), es.getHitIndices(), es.getESProfile(), null);
+        this.fESProfileSource_opt = es;
     }
 
     protected void init(
@@ -137,6 +141,9 @@ public class EnrichmentScoreImpl implements EnrichmentScore {
     }
 
     public Vector getESProfile_point_by_point_opt() {
+        if (fESProfile_point_by_point == null && fESProfileSource_opt != null) {
+            return fESProfileSource_opt.getESProfile_point_by_point_opt();
+        }
         return fESProfile_point_by_point;
     }
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects.esmatrix.db;
+
+import edu.mit.broad.genome.math.Vector;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The real and random enrichment scores of the results of an EnrichmentDb, kept in a FloatBuffer (usually one
+ * memory-mapped from the binary file beside a saved EDB) rather than in a Vector per result.
+ * <p/>
+ * The real ES of each result are in one buffer, and the random ES of each result in turn (numPerms each) in
+ * segments of whole results, as a single buffer can't address more than 2GB.  They are read with absolute gets on
+ * request, so concurrent reads are safe and only the results asked for are copied onto the heap.
+ *
+ * @author David Eby
+ */
+public class EsMatrix {
+    private final FloatBuffer fRealES;
+
+    // Segment i holds the random ES of results [i * fResultsPerSegment, (i + 1) * fResultsPerSegment)
+    private final FloatBuffer[] fRndSegments;
+    private final int fResultsPerSegment;
+
+    private final int fNumResults;
+    private final int fNumPerms;
+
+    /**
+     * @param data numResults real ES followed by numResults * numPerms random ES, from index 0 of the buffer
+     */
+    public EsMatrix(final FloatBuffer data, final int numResults, final int numPerms) {
+        this(_slice(data, 0, numResults), new FloatBuffer[] { _slice(data, numResults, (long) numResults * numPerms) },
+                Math.max(1, numResults), numResults, numPerms);
+    }
+
+    /**
+     * @param realES            the numResults real ES, from index 0 of the buffer
+     * @param rndSegments       the random ES, numPerms to each result, resultsPerSegment results to each buffer (fewer
+     *                          in the last)
+     * @param resultsPerSegment the results in each segment
+     */
+    public EsMatrix(final FloatBuffer realES, final FloatBuffer[] rndSegments, final int resultsPerSegment,
+                    final int numResults, final int numPerms) {
+        if (realES == null) {
+            throw new IllegalArgumentException("Param realES cannot be null");
+        }
+        if (rndSegments == null) {
+            throw new IllegalArgumentException("Param rndSegments cannot be null");
+        }
+        if (resultsPerSegment <= 0) {
+            throw new IllegalArgumentException("Param resultsPerSegment must be positive: " + resultsPerSegment);
+        }
+        if (realES.capacity() < numResults) {
+            throw new IllegalArgumentException("Buffer of " + realES.capacity() + " is too small for " + numResults
+                    + " results");
+        }
+        if ((long) rndSegments.length * resultsPerSegment < numResults) {
+            throw new IllegalArgumentException(rndSegments.length + " segments of " + resultsPerSegment
+                    + " are too few for " + numResults + " results");
+        }
+        for (int i = 0; i < rndSegments.length; i++) {
+            final long results = Math.min(resultsPerSegment, numResults - (long) i * resultsPerSegment);
+            if (results > 0 && rndSegments[i].capacity() < results * numPerms) {
+                throw new IllegalArgumentException("Segment " + i + " of " + rndSegments[i].capacity()
+                        + " is too small for " + results + " results with " + numPerms + " permutations");
+            }
+        }
+
+        this.fRealES = realES;
+        this.fRndSegments = rndSegments;
+        this.fResultsPerSegment = resultsPerSegment;
+        this.fNumResults = numResults;
+        this.fNumPerms = numPerms;
+    }
+
+    private static FloatBuffer _slice(final FloatBuffer data, final int from, final long length) {
+        if (data == null) {
+            throw new IllegalArgumentException("Param data cannot be null");
+        }
+        if (data.capacity() < from + length) {
+            throw new IllegalArgumentException("Buffer of " + data.capacity() + " is too small for " + (from + length)
+                    + " scores");
+        }
+        return data.duplicate().position(from).limit((int) (from + length)).slice();
+    }
+
+    public int getNumResults() {
+        return fNumResults;
+    }
+
+    public int getNumPerms() {
+        return fNumPerms;
+    }
+
+    public float getRealES(final int result) {
+        checkResult(result);
+        return fRealES.get(result);
+    }
+
+    /**
+     * @return a new Vector each call
+     */
+    public Vector getRndESS(final int result) {
+        checkResult(result);
+        final float[] rnd = new float[fNumPerms];
+        fRndSegments[result / fResultsPerSegment].get((result % fResultsPerSegment) * fNumPerms, rnd, 0, fNumPerms);
+        return new Vector(rnd, true);
+    }
+
+    private void checkResult(final int result) {
+        if (result < 0 || result >= fNumResults) {
+            throw new ArrayIndexOutOfBoundsException("result: " + result + " not in [0, " + fNumResults + ")");
+        }
+    }
+}
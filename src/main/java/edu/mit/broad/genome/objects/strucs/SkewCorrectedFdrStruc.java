@@ -1,11 +1,10 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package edu.mit.broad.genome.objects.strucs;
 
 import edu.mit.broad.genome.MismatchedSizeException;
 import edu.mit.broad.genome.math.DatasetModed;
-import edu.mit.broad.genome.math.ScoreMode;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.math.XMath;
 import edu.mit.broad.genome.objects.RankedList;
@@ -34,10 +33,11 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
      * @param real_score_of_name
      * @param real_score_norm_of_name
      * @param rnd_scores
-     * @param all_rnd_scores_norm_sorted
-     * @param moreRealThan
-     * @param totRealCnt
-     * @param order
+     * @param all_rnd_scores_norm_by_col_pos
+     * @param all_rnd_scores_norm_by_col_neg
+     * @param num_real_pos the number of positive scores in all_real_scores_norm_sorted
+     * @param num_real_neg the number of negative scores in all_real_scores_norm_sorted
+     * @param doPos
      */
     public SkewCorrectedFdrStruc(final String name,
                                  final float real_score_of_name,
@@ -45,6 +45,8 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
                                  final Vector rnd_scores_of_name_only,
                                  final DatasetModed all_rnd_scores_norm_by_col_pos,
                                  final DatasetModed all_rnd_scores_norm_by_col_neg,
+                                 final int num_real_pos,
+                                 final int num_real_neg,
                                  final boolean doPos) {
 
         // checks
@@ -101,13 +103,11 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
             float moreOrLessThan;
             float size;
             if (pos) {
-                Vector rndColNorm_sorted = all_rnd_scores_norm_by_col_pos.getColumn_sorted(c);
-                size = rndColNorm_sorted.getSize();
-                moreOrLessThan = XMath.getMoreThanCount(real_score_norm_of_name, rndColNorm_sorted);
+                size = all_rnd_scores_norm_by_col_pos.getColumnSize(c);
+                moreOrLessThan = all_rnd_scores_norm_by_col_pos.getMoreThanCount(c, real_score_norm_of_name);
             } else {
-                Vector rndColNorm_sorted = all_rnd_scores_norm_by_col_neg.getColumn_sorted(c);
-                size = rndColNorm_sorted.getSize();
-                moreOrLessThan = XMath.getLessThanCount(real_score_norm_of_name, rndColNorm_sorted);
+                size = all_rnd_scores_norm_by_col_neg.getColumnSize(c);
+                moreOrLessThan = all_rnd_scores_norm_by_col_neg.getLessThanCount(c, real_score_norm_of_name);
             }
 
             totalRndCnt_used += size;
@@ -132,9 +132,9 @@ public class SkewCorrectedFdrStruc implements FdrStruc {
         final float numr = col_mean_sum / ncols_actual;
         final float numSets;
         if (pos) {
-            numSets = all_real_scores_norm_sorted.getSize(ScoreMode.POS_ONLY);
+            numSets = num_real_pos;
         } else {
-            numSets = all_real_scores_norm_sorted.getSize(ScoreMode.NEG_ONLY);
+            numSets = num_real_neg;
         }
 
         final float denr = ((float) moreRealThan) / numSets;
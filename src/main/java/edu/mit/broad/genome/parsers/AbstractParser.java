@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -259,45 +259,19 @@ public abstract class AbstractParser implements Parser {
         }
     }
 
-    protected List parseTextMatrixToDataset(String objName, List<String> lines, List<String> colNames, boolean hasDesc) throws Exception {
-        final int lineCount = lines.size();
-        List<String> rowNames = new ArrayList<String>(lineCount);
-        List<String> rowDescs = hasDesc ? new ArrayList<String>(lineCount) : null;
-        List<float[]> data = new ArrayList<float[]>(lineCount);
-        int skippedMissingRows = 0, partialMissingRows = 0;
-        boolean foundInfiniteValues = false;
-
-        int startPos = (hasDesc) ? 2 : 1;
-        int expFields = colNames.size() + startPos;
-        for (int i = 0; i < lineCount; i++) {
-            String currLine = lines.get(i);
-            List<String> fields = string2stringsV2(currLine, expFields); // spaces allowed in name & desc field so DONT tokenize them
-            String rowname = parseRowname(fields.get(0).trim(), i);
-
-            float[] dataRow = parseFieldsIntoFloatArray(fields, i, startPos, rowname);
-            int countMissing = countMissingValues(dataRow, i, rowname);
-            if (countMissing < dataRow.length) {
-                if (countMissing > 0) { partialMissingRows++; }
-                data.add(dataRow);
-                rowNames.add(rowname);
-
-                if (hasDesc) {
-                    String desc = fields.get(1).trim();
-                    if (desc.length() == 0) { desc = Constants.NA; }
-                    rowDescs.add(desc);
-                }
-            } else {
-                skippedMissingRows++;
-            }
-            foundInfiniteValues |= checkForInfiniteValues(dataRow, i, rowname);
-        }
+    /**
+     * Makes the Dataset of data lines read by a TextMatrixReader, with the warnings for missing and infinite values
+     */
+    protected List parseTextMatrixToDataset(String objName, TextMatrixReader.Data data, List<String> colNames, boolean hasDesc) throws Exception {
+        final List<String> rowNames = data.getRowNames();
+        final List<String> rowDescs = hasDesc ? data.getRowDescs() : null;
+        final int skippedMissingRows = data.getSkippedMissingRows();
+        final int partialMissingRows = data.getPartialMissingRows();
+        final boolean foundInfiniteValues = data.foundInfiniteValues();
 
-        if (data.isEmpty()) { throw new ParserException("Data was missing in all rows!"); }
+        if (rowNames.isEmpty()) { throw new ParserException("Data was missing in all rows!"); }
 
-        Matrix matrix = new Matrix(data.size(), colNames.size());
-        for (int i = 0; i < data.size(); i++) {
-            matrix.setRow(i, data.get(i));
-        }
+        final Matrix matrix = data.getMatrix();
         
         final FeatureAnnot ann = new FeatureAnnot(objName, rowNames, rowDescs);
         ann.addComment(fComment.toString());
@@ -305,8 +279,8 @@ public abstract class AbstractParser implements Parser {
 
         final Dataset ds = new DefaultDataset(objName, matrix, rowNames, colNames, new Annot(ann, sann));
         ds.addComment(fComment.toString());
-        if (data.size() <= 2000) {
-            String warning = "Loaded dataset with " + data.size() 
+        if (rowNames.size() <= 2000) {
+            String warning = "Loaded dataset with " + rowNames.size() 
                 + " features.  This may be too few for GSEA, which expects data for all expressed genes for a proper analysis.";
             log.warn(warning);
             ds.addWarning(warning);
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.objects.MSigDBSpecies;
+import edu.mit.broad.genome.objects.MSigDBVersion;
+import edu.mit.broad.genome.objects.PersistentObject;
+import edu.mit.broad.vdb.chip.Chip;
+import edu.mit.broad.vdb.chip.Probe;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Parses a binary snapshot of a Chip, as written by export().  Used by the disk parse cache so that a chip file
+ * read before is not parsed from text again; there is no user-facing file format.
+ * <p/>
+ * Format, all big-endian, each string an int byte count followed by UTF-8 bytes:
+ * <p/>
+ * int magic, int version, species, MSigDB version (both empty if unknown)
+ * int nprobes, then per probe: name, symbol, title
+ * <p/>
+ * As with the ChipParser, the chip is named for the source path it is parsed from.
+ *
+ * @author David Eby
+ */
+public class BinaryChipParser extends AbstractParser {
+    private static final int MAGIC = 0x43485042; // "CHPB"
+    private static final int VERSION = 1;
+
+    public BinaryChipParser() { super(Chip.class); }
+
+    /**
+     * Only accepts Chip
+     */
+    public void export(final PersistentObject pob, final File file) throws Exception {
+        if (file == null) {
+            throw new IllegalArgumentException("Parameter file cannot be null");
+        }
+
+        export(pob, new FileOutputStream(file));
+    }
+
+    public void export(final PersistentObject pob, final OutputStream os) throws Exception {
+        if (pob == null) {
+            throw new IllegalArgumentException("Parameter pob cannot be null");
+        }
+
+        final Chip chip = (Chip) pob;
+        if (!isSilentMode()) { log.debug("Exporting: {} to binary {}", pob.getName(), pob.getClass()); }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            final MSigDBVersion version = chip.getMSigDBVersion();
+            final boolean known = version != null && !version.isUnknownVersion();
+            writeString(out, known ? version.getMsigDBSpecies().name() : "");
+            writeString(out, known ? version.getVersionString() : "");
+
+            final int numProbes = chip.getNumProbes();
+            out.writeInt(numProbes);
+            for (int i = 0; i < numProbes; i++) {
+                final Probe probe = chip.getProbe(i);
+                writeString(out, probe.getName());
+                writeString(out, probe.getSymbol());
+                writeString(out, probe.getTitle());
+            }
+        }
+    }
+
+    /**
+     * @returns 1 Chip object
+     * @see above for format
+     */
+    public List parse(final String sourcepath, final InputStream is) throws Exception {
+        startImport(sourcepath);
+
+        final ByteBuffer buf;
+        try (InputStream in = is) {
+            buf = ByteBuffer.wrap(in.readAllBytes());
+        }
+
+        try {
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+                throw new ParserException("Not a binary chip file: " + sourcepath);
+            }
+            final int version = buf.getInt();
+            if (version != VERSION) {
+                throw new ParserException("Unsupported binary chip version: " + version + " in: " + sourcepath);
+            }
+
+            final String species = readString(buf);
+            final String versionString = readString(buf);
+            final MSigDBVersion msigDBVersion = (versionString.length() == 0)
+                    ? MSigDBVersion.createUnknownTrackingVersion(sourcepath)
+                    : new MSigDBVersion(MSigDBSpecies.byName(species), versionString);
+
+            final Probe[] probes = new Probe[buf.getInt()];
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = new Probe(readString(buf), readString(buf), readString(buf));
+            }
+
+            return unmodlist(new Chip(FilenameUtils.getName(sourcepath), sourcepath, probes, msigDBVersion));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new ParserException("Binary chip file is truncated or corrupt: " + sourcepath, e);
+        } finally {
+            doneImport();
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final int length = buf.getInt();
+        final String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
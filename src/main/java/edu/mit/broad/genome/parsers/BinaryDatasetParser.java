@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.Constants;
+import edu.mit.broad.genome.NamingConventions;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a binary (gctb) formatted dataset, as written by export() from any Dataset.
+ * <p/>
+ * Format, all little-endian:
+ * <p/>
+ * int magic, int version, int nrows, int ncols, long data offset, int flags (1 = row descriptions present)
+ * ncols column names, nrows row names, [nrows row descriptions], int nwarnings, nwarnings warnings, comment
+ * -- each string an int byte count followed by UTF-8 bytes --
+ * padding up to the data offset (a multiple of 8)
+ * nrows * ncols floats, row-major
+ * <p/>
+ * The row descriptions are only written for a Dataset with native descriptions (e.g. from the Description column of
+ * a GCT), so that it reads back the same; the comment is that of the Dataset.  Version 1 files have no comment.
+ * <p/>
+ * When parsed from a local file the float block is memory-mapped and the Dataset (a MappedDataset) reads its rows
+ * straight from the mapping, so there is no text to parse and the values are not loaded onto the heap up front.
+ * The mapping is made in segments of whole rows, each under 2GB.  Otherwise (e.g. for a URL) the float block is
+ * read into heap buffers segmented the same way.
+ *
+ * @author David Eby
+ */
+public class BinaryDatasetParser extends AbstractParser {
+    private static final int MAGIC = 0x42544347; // "GCTB" as little-endian bytes
+    private static final int VERSION = 2;
+    private static final int FIXED_HEADER_SIZE = 28;
+    private static final int FLAG_HAS_DESCS = 1;
+
+    public BinaryDatasetParser() { super(Dataset.class); }
+
+    /**
+     * Export a Dataset to file in binary format
+     * Only works with Datasets
+     *
+     * @see "Above for format"
+     */
+    public void export(final PersistentObject pob, final File file) throws Exception {
+        if (file == null) {
+            throw new IllegalArgumentException("Parameter file cannot be null");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            _export(pob, channel);
+        }
+    }
+
+    public void export(final PersistentObject pob, final OutputStream os) throws Exception {
+        try (WritableByteChannel channel = Channels.newChannel(os)) {
+            _export(pob, channel);
+        }
+    }
+
+    private void _export(final PersistentObject pob, final WritableByteChannel channel) throws IOException {
+        if (pob == null) {
+            throw new IllegalArgumentException("Parameter pob cannot be null");
+        }
+
+        final Dataset ds = (Dataset) pob;
+        if (!isSilentMode()) { log.debug("Exporting: {} to binary {}", pob.getName(), pob.getClass()); }
+
+        FeatureAnnot ann = null;
+        if (ds.getAnnot() != null) {
+            ann = ds.getAnnot().getFeatureAnnot();
+        }
+
+        final int nrows = ds.getNumRow();
+        final int ncols = ds.getNumCol();
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        for (int c = 0; c < ncols; c++) {
+            strings.add(toBytes(ds.getColumnName(c)));
+        }
+        for (int r = 0; r < nrows; r++) {
+            strings.add(toBytes(ds.getRowName(r)));
+        }
+
+        // Only native descriptions, as they were parsed; those made from the chip are made again on reading
+        final boolean hasDescs = ann != null && ann.hasNativeDescriptions();
+        if (hasDescs) {
+            for (int r = 0; r < nrows; r++) {
+                String desc = ann.getNativeDesc(ds.getRowName(r));
+                if (desc == null) { desc = Constants.NA; }
+                strings.add(toBytes(desc));
+            }
+        }
+        final int nnames = strings.size();
+
+        final List<String> warnings = ds.getWarnings();
+        final int nwarnings = (warnings == null) ? 0 : warnings.size();
+        for (int i = 0; i < nwarnings; i++) {
+            strings.add(toBytes(warnings.get(i)));
+        }
+        strings.add(toBytes(ds.getComment()));
+
+        long headerSize = FIXED_HEADER_SIZE + 4;
+        for (byte[] bytes : strings) {
+            headerSize += 4 + bytes.length;
+        }
+        final long dataOffset = (headerSize + 7) & ~7L;
+        if (dataOffset > Integer.MAX_VALUE) {
+            throw new IOException("Row and column names of " + pob.getName() + " are too large for the binary format");
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nrows).putInt(ncols).putLong(dataOffset)
+                .putInt(hasDescs ? FLAG_HAS_DESCS : 0);
+        for (int i = 0; i < nnames; i++) {
+            putString(header, strings.get(i));
+        }
+        header.putInt(nwarnings);
+        for (int i = nnames; i < strings.size(); i++) {
+            putString(header, strings.get(i));
+        }
+        header.position(0);
+        writeFully(channel, header);
+
+        // Stream the values out a block of rows at a time
+        final int rowsPerBlock = Math.max(1, (1 << 16) / Math.max(1, ncols));
+        final ByteBuffer block = ByteBuffer.allocate(rowsPerBlock * ncols * 4).order(ByteOrder.LITTLE_ENDIAN);
+        final FloatBuffer floats = block.asFloatBuffer();
+        for (int r = 0; r < nrows; ) {
+            floats.clear();
+            final int end = Math.min(nrows, r + rowsPerBlock);
+            for (; r < end; r++) {
+                final Vector row = ds.getRow(r);
+                for (int c = 0; c < ncols; c++) {
+                    floats.put(row.getElement(c));
+                }
+            }
+            block.position(0).limit(floats.position() * 4);
+            writeFully(channel, block);
+        }
+    }
+
+    /**
+     * Memory-maps the values of the file rather than streaming it
+     */
+    public List parse(final String objname, final File file) throws Exception {
+        startImport(file.getPath());
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final Header header = readHeader(objname, channel);
+            final long numBytes = header.numBytes();
+            if (header.dataOffset + numBytes > channel.size()) {
+                throw new ParserException("Binary dataset is truncated: expected " + (header.dataOffset + numBytes)
+                        + " bytes but found " + channel.size());
+            }
+
+            // The mappings remain valid after the channel is closed
+            final int rowsPerSegment = header.rowsPerSegment();
+            final FloatBuffer[] segments = new FloatBuffer[header.numSegments(rowsPerSegment)];
+            for (int i = 0; i < segments.length; i++) {
+                final long bytes = header.segmentBytes(i, rowsPerSegment);
+                final long offset = header.dataOffset + (long) i * rowsPerSegment * header.ncols * 4;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            return toDataset(header, segments, rowsPerSegment);
+        }
+    }
+
+    /**
+     * @returns 1 Dataset object
+     * @see above for format
+     */
+    public List parse(final String sourcepath, final InputStream is) throws Exception {
+        startImport(sourcepath);
+
+        try (ReadableByteChannel channel = Channels.newChannel(is)) {
+            final Header header = readHeader(sourcepath, channel);
+            final int rowsPerSegment = header.rowsPerSegment();
+            final FloatBuffer[] segments = new FloatBuffer[header.numSegments(rowsPerSegment)];
+            for (int i = 0; i < segments.length; i++) {
+                final ByteBuffer data = ByteBuffer.allocate((int) header.segmentBytes(i, rowsPerSegment))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, data, "data");
+                data.flip();
+                segments[i] = data.asFloatBuffer();
+            }
+            return toDataset(header, segments, rowsPerSegment);
+        }
+    }
+
+    private List toDataset(final Header header, final FloatBuffer[] segments, final int rowsPerSegment) {
+        final FeatureAnnot ann = new FeatureAnnot(header.objName, header.rowNames, header.rowDescs);
+        final SampleAnnot sann = new SampleAnnot(header.objName, header.colNames);
+
+        final Dataset ds = new MappedDataset(header.objName, segments, rowsPerSegment, header.rowNames,
+                header.colNames, new Annot(ann, sann));
+        // As the text parsers do
+        if (header.comment != null) {
+            ann.addComment(header.comment);
+            ds.addComment(header.comment);
+        }
+        for (String warning : header.warnings) {
+            log.warn(warning);
+            ds.addWarning(warning);
+        }
+        doneImport();
+        return unmodlist(new PersistentObject[]{ds});
+    }
+
+    private static class Header {
+        String objName;
+        int nrows;
+        int ncols;
+        long dataOffset;
+        List<String> colNames;
+        List<String> rowNames;
+        List<String> rowDescs;
+        List<String> warnings;
+        String comment;
+
+        long numBytes() {
+            return 4L * nrows * ncols;
+        }
+
+        // Whole rows in under 2GB; a single row can't be larger as the columns are counted in an int
+        int rowsPerSegment() {
+            return (int) Math.max(1, Math.min(Math.max(1, nrows), (Integer.MAX_VALUE / 4) / Math.max(1, ncols)));
+        }
+
+        int numSegments(final int rowsPerSegment) {
+            return Math.max(1, (nrows + rowsPerSegment - 1) / rowsPerSegment);
+        }
+
+        long segmentBytes(final int segment, final int rowsPerSegment) {
+            return 4L * ncols * Math.min(rowsPerSegment, nrows - (long) segment * rowsPerSegment);
+        }
+    }
+
+    // Leaves the channel positioned at the data offset
+    private Header readHeader(final String sourcepath, final ReadableByteChannel channel) throws IOException, ParserException {
+        final ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, fixed, "header");
+        fixed.flip();
+
+        if (fixed.getInt() != MAGIC) {
+            throw new ParserException("Not a binary dataset (" + Constants.GCTB + ") file: " + sourcepath);
+        }
+        final int version = fixed.getInt();
+        if (version != VERSION && version != 1) {
+            throw new ParserException("Unsupported binary dataset version: " + version + " in: " + sourcepath);
+        }
+
+        final Header header = new Header();
+        header.objName = NamingConventions.removeExtension(sourcepath);
+        header.nrows = fixed.getInt();
+        header.ncols = fixed.getInt();
+        header.dataOffset = fixed.getLong();
+        final int flags = fixed.getInt();
+        if (header.nrows < 0 || header.ncols < 0 || header.dataOffset < FIXED_HEADER_SIZE || header.dataOffset > Integer.MAX_VALUE) {
+            throw new ParserException("Binary dataset with bad header: " + header.nrows + " rows, " + header.ncols
+                    + " cols, data at " + header.dataOffset);
+        }
+        if (4L * header.ncols > Integer.MAX_VALUE) {
+            throw new ParserException("Binary dataset rows are too large to map: " + header.ncols + " cols");
+        }
+
+        final ByteBuffer rest = ByteBuffer.allocate((int) header.dataOffset - FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, rest, "header");
+        rest.flip();
+        try {
+            header.colNames = getStrings(rest, header.ncols);
+            header.rowNames = getStrings(rest, header.nrows);
+            header.rowDescs = ((flags & FLAG_HAS_DESCS) != 0) ? getStrings(rest, header.nrows) : null;
+            header.warnings = getStrings(rest, rest.getInt());
+            header.comment = (version >= 2) ? getStrings(rest, 1).get(0) : null;
+        } catch (RuntimeException e) {
+            throw new ParserException("Binary dataset with bad row/col names: " + sourcepath, e);
+        }
+
+        return header;
+    }
+
+    private static byte[] toBytes(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(final ByteBuffer buf, final byte[] bytes) {
+        buf.putInt(bytes.length).put(bytes);
+    }
+
+    private static List<String> getStrings(final ByteBuffer buf, final int count) {
+        final List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            strings.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+
+    private static void readFully(final ReadableByteChannel channel, final ByteBuffer buf, final String what)
+            throws IOException, ParserException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new ParserException("Binary dataset is truncated: unexpected end of file in the " + what);
+            }
+        }
+    }
+
+    private static void writeFully(final WritableByteChannel channel, final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
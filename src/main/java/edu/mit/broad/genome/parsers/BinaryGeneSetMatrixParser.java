@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.Constants;
+import edu.mit.broad.genome.objects.*;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses a binary (gmtb) snapshot of a GeneSetMatrix, as written by export() from any GeneSetMatrix.
+ * <p/>
+ * The members are stored pre-indexed: a table of the distinct symbols followed by each gene set's members as
+ * ids into that table.  Reloading interns each distinct symbol once into the shared SymbolTable and then only
+ * remaps ids, so no member text is tokenized or hashed per gene set.
+ * <p/>
+ * Format, all big-endian, each string an int byte count followed by UTF-8 bytes:
+ * <p/>
+ * int magic, int version, species, MSigDB version (both empty if unknown)
+ * int nsymbols, nsymbols symbols
+ * int nsets, then per set: name, description, int nmembers, nmembers int symbol ids
+ * <p/>
+ * Gene set names are stored without the file name prefix and are given that of the snapshot on reading, as the
+ * GmtParser does.
+ *
+ * @author David Eby
+ */
+public class BinaryGeneSetMatrixParser extends AbstractParser {
+    private static final int MAGIC = 0x474D5442; // "GMTB"
+    private static final int VERSION = 1;
+
+    public BinaryGeneSetMatrixParser() { super(GeneSetMatrix.class); }
+
+    /**
+     * Only accepts GeneSetMatrix
+     */
+    public void export(final PersistentObject pob, final File file) throws Exception {
+        if (file == null) {
+            throw new IllegalArgumentException("Parameter file cannot be null");
+        }
+
+        export(pob, new FileOutputStream(file));
+    }
+
+    public void export(final PersistentObject pob, final OutputStream os) throws Exception {
+        if (pob == null) {
+            throw new IllegalArgumentException("Parameter pob cannot be null");
+        }
+
+        final GeneSetMatrix gm = (GeneSetMatrix) pob;
+        if (!isSilentMode()) { log.debug("Exporting: {} to binary {}", pob.getName(), pob.getClass()); }
+
+        // Local ids in order of first appearance
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        final List<String> symbols = new ArrayList<String>();
+        final int[][] memberIds = new int[gm.getNumGeneSets()][];
+        for (int g = 0; g < memberIds.length; g++) {
+            final GeneSet gset = gm.getGeneSet(g);
+            memberIds[g] = new int[gset.getNumMembers()];
+            for (int m = 0; m < memberIds[g].length; m++) {
+                final String member = gset.getMember(m);
+                Integer id = ids.get(member);
+                if (id == null) {
+                    id = symbols.size();
+                    ids.put(member, id);
+                    symbols.add(member);
+                }
+                memberIds[g][m] = id;
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            final MSigDBVersion version = gm.getMSigDBVersion();
+            final boolean known = version != null && !version.isUnknownVersion();
+            writeString(out, known ? version.getMsigDBSpecies().name() : "");
+            writeString(out, known ? version.getVersionString() : "");
+
+            out.writeInt(symbols.size());
+            for (String symbol : symbols) {
+                writeString(out, symbol);
+            }
+
+            out.writeInt(memberIds.length);
+            for (int g = 0; g < memberIds.length; g++) {
+                final GeneSet gset = gm.getGeneSet(g);
+                writeString(out, gset.getName(true));
+                String ne = gset.getNameEnglish();
+                if (isNullorNa(ne)) { ne = Constants.NA; }
+                writeString(out, ne);
+                out.writeInt(memberIds[g].length);
+                for (int id : memberIds[g]) {
+                    out.writeInt(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * @returns 1 GeneSetMatrix object
+     * @see above for format
+     */
+    public List parse(final String sourcepath, final InputStream is) throws Exception {
+        startImport(sourcepath);
+
+        final String fileName = new File(sourcepath).getName();
+        final ByteBuffer buf;
+        try (InputStream in = is) {
+            buf = ByteBuffer.wrap(in.readAllBytes());
+        }
+
+        try {
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC) {
+                throw new ParserException("Not a binary gene set (" + Constants.GMTB + ") file: " + sourcepath);
+            }
+            final int version = buf.getInt();
+            if (version != VERSION) {
+                throw new ParserException("Unsupported binary gene set version: " + version + " in: " + sourcepath);
+            }
+
+            final String species = readString(buf);
+            final String versionString = readString(buf);
+            final MSigDBVersion msigDBVersion = (versionString.length() == 0)
+                    ? MSigDBVersion.createUnknownTrackingVersion(sourcepath)
+                    : new MSigDBVersion(MSigDBSpecies.byName(species), versionString);
+
+            // Stored ids to those of the shared table
+            final SymbolTable table = SymbolTable.getShared();
+            final int[] toTable = new int[buf.getInt()];
+            for (int i = 0; i < toTable.length; i++) {
+                toTable[i] = table.intern(readString(buf));
+            }
+
+            final GeneSet[] gsets = new GeneSet[buf.getInt()];
+            for (int g = 0; g < gsets.length; g++) {
+                final String name = fileName.concat("#").concat(readString(buf));
+                final String nameEnglish = readString(buf);
+                final int[] ids = new int[buf.getInt()];
+                buf.asIntBuffer().get(ids);
+                buf.position(buf.position() + 4 * ids.length);
+                for (int m = 0; m < ids.length; m++) {
+                    ids[m] = toTable[ids[m]];
+                }
+                gsets[g] = new GeneSet(name, nameEnglish, table, ids, msigDBVersion);
+            }
+
+            return unmodlist(new DefaultGeneSetMatrix(fileName, gsets, msigDBVersion, false));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new ParserException("Binary gene set file is truncated or corrupt: " + sourcepath, e);
+        } finally {
+            doneImport();
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final int length = buf.getInt();
+        final String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
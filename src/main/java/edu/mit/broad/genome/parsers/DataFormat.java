@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -66,6 +66,13 @@ public class DataFormat extends DataType implements Constants {
             "Stanford Format for a Dataset", "pcl",
             JarResources.getIcon("Pcl.gif"), PclParser.class);
 
+    /**
+     * Binary format for datasets, memory-mapped on reading
+     */
+    public static final DataFormat GCTB_FORMAT = new DataFormat(Dataset.class, "Dataset",
+            "Binary Format for a Dataset", GCTB,
+            JarResources.getIcon("Gct16.gif"), BinaryDatasetParser.class);
+
     /**
      * MIT cls format for class vectors
      */
@@ -91,6 +98,14 @@ public class DataFormat extends DataType implements Constants {
             "MIT format for a Matrix of Gene Sets",
             Constants.GMT, JarResources.getIcon("Gmt.png"), GmtParser.class);
 
+    /**
+     * Binary snapshot of a Matrix of Gene Sets, with the members pre-indexed
+     */
+    public static final DataFormat GMTB_FORMAT = new DataFormat(GeneSetMatrix.class,
+            "GeneSetMatrix_Binary",
+            "Binary Format for a Matrix of Gene Sets",
+            Constants.GMTB, JarResources.getIcon("Gmt.png"), BinaryGeneSetMatrixParser.class);
+
     public static final DataFormat EDB_FORMAT = new DataFormat(EnrichmentDb.class,
             "Enrichment-Database",
             "MIT format for an enrichment database",
@@ -110,9 +125,9 @@ public class DataFormat extends DataType implements Constants {
 
     // imp to not expose
     private static final DataFormat[] ALL = new DataFormat[]{
-            RES_FORMAT, GCT_FORMAT, TXT_DATASET_FORMAT, PCL_FORMAT,
+            RES_FORMAT, GCT_FORMAT, TXT_DATASET_FORMAT, PCL_FORMAT, GCTB_FORMAT,
             CLS_FORMAT,
-            GRP_FORMAT, GMT_FORMAT, GMX_FORMAT,
+            GRP_FORMAT, GMT_FORMAT, GMX_FORMAT, GMTB_FORMAT,
             RNK_FORMAT,
             RPT_FORMAT,
             EDB_FORMAT,
@@ -124,10 +139,10 @@ public class DataFormat extends DataType implements Constants {
      * @maint
      */
     public static final DataFormat[] ALL_DATASET_FORMATS = new DataFormat[]
-            {GCT_FORMAT, RES_FORMAT, TXT_DATASET_FORMAT, PCL_FORMAT};
+            {GCT_FORMAT, RES_FORMAT, TXT_DATASET_FORMAT, PCL_FORMAT, GCTB_FORMAT};
 
     public static final DataFormat[] ALL_GENESETMATRIX_FORMATS = new DataFormat[]
-            {GMX_FORMAT, GMT_FORMAT};  // Seems like GRP should be here...
+            {GMX_FORMAT, GMT_FORMAT, GMTB_FORMAT};  // Seems like GRP should be here...
 
     static class ParsableFileView extends FileView {
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.objects.PersistentObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cache on disk of parsed local files, kept in binary form so that reading the same file again (in this run or a
+ * later one) skips parsing the text.
+ * <p/>
+ * Entries are keyed by a SHA-256 hash of the text parser's class, the cache VERSION, the name handed to the parser
+ * (objects take their names, and sometimes their MSigDB version, from it) and the file's content.  Any change to
+ * the file gives a new key, so stale entries are never read; they are left to age out.  An entry that can't be read
+ * back (truncated, or written by an older binary format) is discarded and the file parsed again.
+ * <p/>
+ * The directory is bounded by size: after each new entry the least recently used ones are deleted until the total
+ * is within the max.  Reads bump an entry's last-modified time to mark its use.  Entries are written to a temp file
+ * and then moved into place, so concurrent runs sharing the directory never see a partial entry.
+ *
+ * @author David Eby
+ */
+final class DiskParseCache {
+    private static final Logger klog = LoggerFactory.getLogger(DiskParseCache.class);
+
+    /**
+     * Bump this whenever a cached parser changes what it makes of a file, to invalidate all existing entries
+     */
+    private static final int VERSION = 2;
+
+    private static final int HASH_BUFFER_SIZE = 1 << 20;
+
+    private final File fDir;
+    private final long fMaxBytes;
+
+    /**
+     * @param maxBytes the cache is disabled if not positive
+     */
+    DiskParseCache(final File dir, final long maxBytes) {
+        if (dir == null) {
+            throw new IllegalArgumentException("Param dir cannot be null");
+        }
+        this.fDir = dir;
+        this.fMaxBytes = maxBytes;
+    }
+
+    boolean isEnabled() {
+        return fMaxBytes > 0;
+    }
+
+    /**
+     * @param name         as handed to both parsers
+     * @param binaryParser reads and writes the binary form of what the textParser makes
+     * @return the objects parsed from the file, read from the cache if there
+     */
+    List parse(final File file, final String name, final Parser textParser, final Parser binaryParser,
+               final String binaryExt) throws Exception {
+        final File entry = new File(fDir, createKey(file, name, textParser) + "." + binaryExt);
+
+        if (entry.isFile()) {
+            try {
+                final List list = binaryParser.parse(name, entry);
+                entry.setLastModified(System.currentTimeMillis());
+                klog.info("Read {} from the parse cache", file.getPath());
+                return list;
+            } catch (Exception e) {
+                klog.warn("Discarding unreadable parse cache entry {}: {}", entry.getName(), e.getMessage());
+                entry.delete();
+            }
+        }
+
+        final List list = textParser.parse(name, file);
+        try {
+            store((PersistentObject) list.get(0), binaryParser, entry);
+        } catch (Exception e) {
+            // Not being able to cache is never an error in reading the file
+            klog.warn("Could not add {} to the parse cache: {}", file.getPath(), e.getMessage());
+        }
+        return list;
+    }
+
+    private String createKey(final File file, final String name, final Parser textParser) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((textParser.getClass().getName() + '\0' + VERSION + '\0' + name + '\0').getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buf = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+
+        final StringBuilder key = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    private void store(final PersistentObject pob, final Parser binaryParser, final File entry) throws Exception {
+        if (!fDir.isDirectory() && !fDir.mkdirs()) {
+            throw new IOException("Could not make the parse cache directory: " + fDir);
+        }
+
+        final File tmp = File.createTempFile(entry.getName(), ".tmp", fDir);
+        try {
+            binaryParser.export(pob, tmp);
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            klog.debug("Added {} to the parse cache as {}", pob.getName(), entry.getName());
+        } catch (FileAlreadyExistsException e) {
+            // Another run added the same entry first
+        } finally {
+            tmp.delete();
+        }
+
+        prune();
+    }
+
+    // Deletes the least recently used entries until within the max size.  Temp files of other runs are left alone.
+    private void prune() {
+        final File[] entries = fDir.listFiles(f -> f.isFile() && !f.getName().endsWith(".tmp"));
+        if (entries == null) { return; }
+
+        long total = 0;
+        for (File f : entries) {
+            total += f.length();
+        }
+        if (total <= fMaxBytes) { return; }
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length && total > fMaxBytes; i++) {
+            final long length = entries[i].length();
+            // May fail for an entry still mapped by some run on Windows; it goes on a later prune
+            if (entries[i].delete()) {
+                total -= length;
+                klog.debug("Pruned {} from the parse cache", entries[i].getName());
+            }
+        }
+    }
+}
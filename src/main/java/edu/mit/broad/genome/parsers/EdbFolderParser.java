@@ -1,8 +1,9 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
+import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.Errors;
 import edu.mit.broad.genome.Headers;
 import edu.mit.broad.genome.NamingConventions;
@@ -13,16 +14,19 @@ import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.math.Vector;
 import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.*;
+import edu.mit.broad.genome.utils.SystemUtils;
 import edu.mit.broad.vdb.VdbRuntimeResources;
 import edu.mit.broad.vdb.chip.Chip;
-import org.dom4j.Attribute;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
 import java.io.*;
 import java.util.*;
 
@@ -51,6 +55,10 @@ public class EdbFolderParser extends AbstractParser {
     private static final String RANK_SCORE_AT_ES = "RANK_SCORE_AT_ES";
     private static final String ES_PROFILE = "ES_PROFILE";
 
+    // Set instead of RND_ES when the scores are in an EsMatrixFile
+    private static final String ES_MATRIX = "ES_MATRIX";
+    private static final String ES_ROW = "ES_ROW";
+
     // well known file names
     private static final String EDB_FILE_NAME = "results.edb";
 
@@ -58,8 +66,18 @@ public class EdbFolderParser extends AbstractParser {
         super(EnrichmentDb.class);
     }
 
-    // @note duplicated code below
     protected EnrichmentDb parseEdb(final File gseaResultDir) throws Exception {
+        return parseEdb(gseaResultDir, null);
+    }
+
+    /**
+     * The edb file is streamed rather than read into a document, and each result made as its DTG element is read.
+     * Templates, gene set files and chips shared by the results are read once.
+     *
+     * @param gsetNames_opt if not null, only the results for these gene sets (names without the aux part) are made;
+     *                      the other DTG elements are skipped without parsing their scores
+     */
+    protected EnrichmentDb parseEdb(final File gseaResultDir, final Set<String> gsetNames_opt) throws Exception {
 
         final File edb_dir = _getEdbDir(gseaResultDir);
 
@@ -68,82 +86,118 @@ public class EdbFolderParser extends AbstractParser {
             throw new IllegalArgumentException("edb file not found: " + edb_file);
         }
 
-        InputStream is = new FileInputStream(edb_file);
-        SAXReader reader = new SAXReader();
-        Document document = reader.read(is);
-        Element root = document.getRootElement();
-
-        // first ensure that the meg exists
-        SortMode sort = SortMode.lookup(root.attribute(Headers.SORT_MODE).getValue());
-        Order order = Order.lookup(root.attribute(Headers.ORDER).getValue());
-        Metric metric = Metrics.lookupMetric(root.attribute(Headers.METRIC).getValue());
-        int numPerms = Integer.parseInt(root.attribute(Headers.NUM_PERMS).getValue());
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
 
-        // then onto the elements
+        SortMode sort = null;
+        Order order = null;
+        Metric metric = null;
+        int numPerms = 0;
+        EsMatrix esMatrix = null;
+        Map<String, Boolean> mps = new HashMap<String, Boolean>();
         List<EnrichmentResult> dtgs = new ArrayList<EnrichmentResult>();
 
-        int cnt = 0;
-        // each element is converted into a Edb.Data Object
-        for (Iterator<Element> i = getDomIterator(root); i.hasNext();) {
-            Element el = (Element) i.next();
-
-            // @note template na if pre-ranked
-            Template template_opt = null;
+        final Map<String, Template> templates = new HashMap<String, Template>();
+        final Map<String, GeneSetMatrix> geneSetMatrices = new HashMap<String, GeneSetMatrix>();
+        final Map<String, Chip> chips = new HashMap<String, Chip>();
 
+        int cnt = 0;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(edb_file))) {
+            final XMLStreamReader reader = factory.createXMLStreamReader(is);
             try {
-                template_opt = ParserFactory.readTemplate(_toFile(Headers.TEMPLATE, el, edb_dir), true, false, true); // small so save in cache
-            } catch (Throwable t) {
-
-            }
-
-            GeneSet gset = ParserFactory.readGeneSet(_toFile(Headers.GENESET, el, edb_dir), true, false); // small so save in cache
-            RankedList rl = _readRankedList(el, edb_dir);
-
-            float es = Float.parseFloat(el.attribute(ES).getValue());
-            float nes = Float.parseFloat(el.attribute(NES).getValue());
-            float np = Float.parseFloat(el.attribute(NP).getValue());
-            float fdr = Float.parseFloat(el.attribute(FDR).getValue());
-            float fwer = Float.parseFloat(el.attribute(FWER).getValue());
-            float corrAtES = Float.parseFloat(el.attribute(RANK_SCORE_AT_ES).getValue());
-            int rankAtES = (int) Float.parseFloat(el.attribute(RANK_AT_ES).getValue());
-            //System.out.println(">> " + rankAtES + " " + corrAtES);
-            final Vector rndESS = _toVectorReqd(RND_ES, el);
-            final Vector esProfile = _toVectorReqd(ES_PROFILE, el);
-            final int[] hitIndices = ParseUtils.string2ints(el.attribute(HIT_INDICES).getValue(), DELIM);
-
-            Chip chip = null;
-            Attribute chip_name = el.attribute(CHIP);
-            if (chip_name != null && chip_name.getValue() != null && chip_name.getValue().length() > 0) {
-                chip = VdbRuntimeResources.getChip(chip_name.getValue());
-            }
+                if (reader.nextTag() != XMLStreamConstants.START_ELEMENT || !EDB.equals(reader.getLocalName())) {
+                    throw new ParserException("Expected a root " + EDB + " element in: " + edb_file);
+                }
 
-            EnrichmentScore score = new EnrichmentScoreImpl(es, rankAtES,
-                    corrAtES, nes, np, fdr, fwer, hitIndices.length, hitIndices, esProfile, null);
+                sort = SortMode.lookup(_attr(reader, Headers.SORT_MODE));
+                order = Order.lookup(_attr(reader, Headers.ORDER));
+                metric = Metrics.lookupMetric(_attr(reader, Headers.METRIC));
+                numPerms = Integer.parseInt(_attr(reader, Headers.NUM_PERMS));
 
-            dtgs.add(new EnrichmentResult(rl, template_opt, gset, chip, score, rndESS, null));
+                // The scores may be in a binary file, which is mapped rather than read
+                String es_matrix_name = reader.getAttributeValue(null, ES_MATRIX);
+                if (es_matrix_name != null) {
+                    esMatrix = EsMatrixFile.map(new File(edb_dir, es_matrix_name));
+                }
 
-            if (cnt % 500 == 0) {
-                System.out.println("read in from edb dtg: " + (cnt + 1));
+                _putBoolean(mps, reader, Headers.USE_MEDIAN);
+                _putBoolean(mps, reader, Headers.FIX_LOW);
+                _putBoolean(mps, reader, Headers.USE_BIASED);
+
+                // then onto the elements, each converted into an EnrichmentResult
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT || !DTG.equals(reader.getLocalName())) {
+                        continue;
+                    }
+
+                    final String gsetPath = _attr(reader, Headers.GENESET);
+                    if (gsetNames_opt != null && !gsetNames_opt.contains(_toGeneSetName(gsetPath))) {
+                        continue;
+                    }
+
+                    // @note template na if pre-ranked
+                    final String templateName = _attr(reader, Headers.TEMPLATE);
+                    if (!templates.containsKey(templateName)) {
+                        Template template = null;
+                        try {
+                            template = ParserFactory.readTemplate(new File(edb_dir, templateName), true, false, true); // small so save in cache
+                        } catch (Throwable t) {
+
+                        }
+                        templates.put(templateName, template);
+                    }
+                    final Template template_opt = templates.get(templateName);
+
+                    GeneSet gset = _readGeneSet(gsetPath, edb_dir, geneSetMatrices);
+                    RankedList rl = _readRankedList(_attr(reader, Headers.RANKED_LIST), edb_dir);
+
+                    final int esRow = (esMatrix != null) ? Integer.parseInt(_attr(reader, ES_ROW)) : -1;
+                    float es = (esMatrix != null) ? esMatrix.getRealES(esRow) : Float.parseFloat(_attr(reader, ES));
+                    float nes = Float.parseFloat(_attr(reader, NES));
+                    float np = Float.parseFloat(_attr(reader, NP));
+                    float fdr = Float.parseFloat(_attr(reader, FDR));
+                    float fwer = Float.parseFloat(_attr(reader, FWER));
+                    float corrAtES = Float.parseFloat(_attr(reader, RANK_SCORE_AT_ES));
+                    int rankAtES = (int) Float.parseFloat(_attr(reader, RANK_AT_ES));
+                    final Vector esProfile = new Vector(_toFloats(ES_PROFILE, reader), true);
+                    final int[] hitIndices = _toInts(_attr(reader, HIT_INDICES));
+
+                    Chip chip = null;
+                    String chip_name = reader.getAttributeValue(null, CHIP);
+                    if (chip_name != null && chip_name.length() > 0) {
+                        chip = chips.get(chip_name);
+                        if (chip == null) {
+                            chip = VdbRuntimeResources.getChip(chip_name);
+                            chips.put(chip_name, chip);
+                        }
+                    }
+
+                    EnrichmentScore score = new EnrichmentScoreImpl(es, rankAtES,
+                            corrAtES, nes, np, fdr, fwer, hitIndices.length, hitIndices, esProfile, null);
+
+                    if (esMatrix != null) {
+                        dtgs.add(new EnrichmentResult(rl, template_opt, gset, chip, score, esMatrix, esRow, null));
+                    } else {
+                        dtgs.add(new EnrichmentResult(rl, template_opt, gset, chip, score, new Vector(_toFloats(RND_ES, reader), true), null));
+                    }
+
+                    if (cnt % 500 == 0) {
+                        System.out.println("read in from edb dtg: " + (cnt + 1));
+                    }
+
+                    cnt++;
+                }
+            } finally {
+                reader.close();
             }
-
-            cnt++;
         }
 
-        Map<String, Boolean> mps = new HashMap<String, Boolean>();
-
-        Boolean use_median = _boolean(root, Headers.USE_MEDIAN);
-        if (use_median != null) {
-            mps.put(Headers.USE_MEDIAN, use_median);
-        }
-
-        Boolean fix_low = _boolean(root, Headers.FIX_LOW);
-        if (fix_low != null) {
-            mps.put(Headers.FIX_LOW, fix_low);
-        }
-
-        Boolean use_biased = _boolean(root, Headers.USE_BIASED);
-        if (use_biased != null) {
-            mps.put(Headers.USE_BIASED, use_biased);
+        if (dtgs.isEmpty()) {
+            if (gsetNames_opt != null) {
+                throw new ParserException("None of the gene sets " + gsetNames_opt + " have results in: " + edb_file);
+            }
+            throw new ParserException("No results in: " + edb_file);
         }
 
         final EnrichmentResult[] results = dtgs.toArray(new EnrichmentResult[dtgs.size()]);
@@ -157,12 +211,6 @@ public class EdbFolderParser extends AbstractParser {
         return edb;
     }
 
-    // Lifted this call just to isolate the unchecked warning
-    @SuppressWarnings("unchecked")
-	private final Iterator<Element> getDomIterator(Element root) {
-		return root.elementIterator(DTG);
-	}
-
 	private RankedList _rl_shared(final EnrichmentResult[] results) {
 
 		final Errors errors = new Errors();
@@ -229,15 +277,83 @@ public class EdbFolderParser extends AbstractParser {
         return edb_dir;
     }
 
-    private static edu.mit.broad.genome.math.Vector _toVectorReqd(String attName, Element el) throws ParserException {
-        barfIfMissing(attName, el);
-        return ParseUtils.string2Vector((el.attribute(attName).getValue()), DELIM);
+    private static String _attr(final XMLStreamReader reader, final String attName) throws ParserException {
+        final String value = reader.getAttributeValue(null, attName);
+        if (value == null) {
+            throw new ParserException("Missing attribute " + attName + " in element: " + reader.getLocalName()
+                    + " at line: " + reader.getLocation().getLineNumber());
+        }
+        return value;
     }
 
-    private static void barfIfMissing(String attName, Element el) throws ParserException {
-        if (el.attribute(attName).getValue() == null || el.attribute(attName).getValue().length() == 0) {
-            throw new ParserException("Missing attribute " + attName + " in element: " + el.getName());
+    private static float[] _toFloats(final String attName, final XMLStreamReader reader) throws ParserException {
+        final String s = _attr(reader, attName);
+        if (s.length() == 0) {
+            throw new ParserException("Missing attribute " + attName + " in element: " + reader.getLocalName());
+        }
+
+        final float[] values = new float[_countTokens(s)];
+        int start = 0;
+        for (int i = 0; i < values.length; i++) {
+            while (s.charAt(start) == DELIM) { start++; }
+            int end = s.indexOf(DELIM, start);
+            if (end < 0) { end = s.length(); }
+            values[i] = Float.parseFloat(s.substring(start, end));
+            start = end;
         }
+        return values;
+    }
+
+    private static int[] _toInts(final String s) {
+        final int[] values = new int[_countTokens(s)];
+        int start = 0;
+        for (int i = 0; i < values.length; i++) {
+            while (s.charAt(start) == DELIM) { start++; }
+            int end = s.indexOf(DELIM, start);
+            if (end < 0) { end = s.length(); }
+            values[i] = Integer.parseInt(s, start, end, 10);
+            start = end;
+        }
+        return values;
+    }
+
+    // Runs of the delimiter count as one, as with a StringTokenizer
+    private static int _countTokens(final String s) {
+        int cnt = 0;
+        boolean inToken = false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == DELIM) {
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    private static String _toGeneSetName(final String gsetPath) {
+        if (AuxUtils.isAux(gsetPath)) {
+            return AuxUtils.getAuxNameOnlyNoHash(gsetPath);
+        } else {
+            return NamingConventions.removeExtension(gsetPath);
+        }
+    }
+
+    // Gene sets are saved in a single gmt, so read that just once rather than for each result
+    private static GeneSet _readGeneSet(final String gsetPath, final File edb_dir,
+                                        final Map<String, GeneSetMatrix> geneSetMatrices) throws Exception {
+        if (!AuxUtils.isAux(gsetPath)) {
+            return ParserFactory.readGeneSet(new File(edb_dir, gsetPath), true, false);
+        }
+
+        final String gmPath = AuxUtils.getBaseStringFromAux(gsetPath);
+        GeneSetMatrix gm = geneSetMatrices.get(gmPath);
+        if (gm == null) {
+            gm = ParserFactory.readGeneSetMatrix(new File(edb_dir, gmPath), true, false);
+            geneSetMatrices.put(gmPath, gm);
+        }
+        return gm.getGeneSet(AuxUtils.getAuxNameOnlyNoHash(gsetPath));
     }
 
     // The top level gsea result dir
@@ -344,6 +460,18 @@ public class EdbFolderParser extends AbstractParser {
             root.addAttribute(Headers.USE_BIASED, use_biased.toString());
         }
 
+        if (edb_file_name.endsWith("edb") == false) {
+            edb_file_name = edb_file_name + ".edb";
+        }
+
+        // Save the scores in binary if asked, leaving the edb file with just the metadata
+        String es_matrix_name = null;
+        if (Boolean.parseBoolean(SystemUtils.getProperty(Constants.EDB_BINARY_ES_KEY, false))) {
+            es_matrix_name = NamingConventions.removeExtension(edb_file_name) + "." + EsMatrixFile.EXT;
+            EsMatrixFile.write(edb, new File(saveInThisDir, es_matrix_name));
+            root.addAttribute(ES_MATRIX, es_matrix_name);
+        }
+
         for (int i = 0; i < edb.getNumResults(); i++) {
             final EnrichmentResult dtg = edb.getResult(i);
             EnrichmentScore score = dtg.getScore();
@@ -383,17 +511,17 @@ public class EdbFolderParser extends AbstractParser {
                 el.addAttribute(CHIP, dtg.getChip().getName());
             }
 
-            el.addAttribute(RND_ES, Printf.format(dtg.getRndESS(), DELIM));
+            if (es_matrix_name != null) {
+                el.addAttribute(ES_ROW, Integer.toString(i));
+            } else {
+                el.addAttribute(RND_ES, Printf.format(dtg.getRndESS(), DELIM));
+            }
             el.addAttribute(HIT_INDICES, Printf.format(score.getHitIndices(), DELIM));
             el.addAttribute(ES_PROFILE, Printf.format(score.getESProfile(), DELIM));
             el.addAttribute(RANK_AT_ES, "" + Printf.format(score.getRankAtES()));
             el.addAttribute(RANK_SCORE_AT_ES, "" + Printf.format(score.getRankScoreAtES()));
         }
 
-        if (edb_file_name.endsWith("edb") == false) {
-            edb_file_name = edb_file_name + ".edb";
-        }
-
         File edb_file = new File(saveInThisDir, edb_file_name);
         PrintWriter pw = new PrintWriter(new FileOutputStream(edb_file));
         //OutputFormat format = OutputFormat.createCompactFormat();
@@ -418,22 +546,21 @@ public class EdbFolderParser extends AbstractParser {
 
     private Map<String, RankedList> rankedListNameRankedListObject;
 
-    private RankedList _readRankedList(final Element el, final File edb_dir) throws Exception {
+    private RankedList _readRankedList(final String name, final File edb_dir) throws Exception {
         if (rankedListNameRankedListObject == null) {
             rankedListNameRankedListObject = new HashMap<String, RankedList>();
         }
 
-        String name = el.attribute(Headers.RANKED_LIST).getValue();
-        if (name == null || name.length() == 0) {
-            throw new IllegalArgumentException("No ranked list element in the xml: " + el);
+        if (name.length() == 0) {
+            throw new IllegalArgumentException("No ranked list attribute in the xml");
         }
 
         RankedList rankedList = rankedListNameRankedListObject.get(name);
         if (rankedList == null) {
             File file = new File(edb_dir, NamingConventions.createSafeFileName(name));
             rankedList = new RankedListJITImpl(file);
+            rankedListNameRankedListObject.put(name, rankedList);
         }
-        rankedListNameRankedListObject.put(name, rankedList);
 
         return rankedList;
     }
@@ -478,17 +605,10 @@ public class EdbFolderParser extends AbstractParser {
         return file;
     }
 
-    private static Boolean _boolean(final Element el, final String attrName) {
-        final Attribute attr = el.attribute(attrName);
-        if (attr == null) {
-            return null;
-        } else {
-            return Boolean.valueOf(attr.getValue());
+    private static void _putBoolean(final Map<String, Boolean> mps, final XMLStreamReader reader, final String attName) {
+        final String value = reader.getAttributeValue(null, attName);
+        if (value != null) {
+            mps.put(attName, Boolean.valueOf(value));
         }
     }
-
-
-    private static File _toFile(String attName, Element el, File inDir) {
-        return new File(inDir, el.attribute(attName).getValue());
-    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EsMatrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary file saved beside an EDB (see EdbFolderParser) with the real and random enrichment scores of its
+ * results, read back as a memory-mapped EsMatrix.
+ * <p/>
+ * Format, all little-endian:
+ * <p/>
+ * int magic, int version, int nresults, int nperms
+ * nresults floats, the real ES of each result
+ * nresults * nperms floats, the random ES of each result in turn
+ * <p/>
+ * The random ES are mapped in segments of whole results, each under 2GB.
+ *
+ * @author David Eby
+ */
+final class EsMatrixFile {
+    static final String EXT = "esm";
+
+    private static final int MAGIC = 0x424D5345; // "ESMB" as little-endian bytes
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private EsMatrixFile() { }
+
+    static void write(final EnrichmentDb edb, final File file) throws IOException {
+        final int nresults = edb.getNumResults();
+        final int nperms = (nresults == 0) ? 0 : edb.getResult(0).getNumPerms();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(nresults).putInt(nperms).flip();
+            writeFully(channel, header);
+
+            final ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            final FloatBuffer floats = block.asFloatBuffer();
+            for (int r = 0; r < nresults; r++) {
+                if (!floats.hasRemaining()) { flush(channel, block, floats); }
+                floats.put(edb.getResult(r).getScore().getES());
+            }
+
+            // Streamed a result at a time; a row can be larger than the block
+            for (int r = 0; r < nresults; r++) {
+                final Vector rnd = edb.getResult(r).getRndESS();
+                if (rnd.getSize() != nperms) {
+                    throw new IllegalArgumentException("Result " + r + " has " + rnd.getSize() + " random scores; expected " + nperms);
+                }
+                for (int p = 0; p < nperms; p++) {
+                    if (!floats.hasRemaining()) { flush(channel, block, floats); }
+                    floats.put(rnd.getElement(p));
+                }
+            }
+            flush(channel, block, floats);
+        }
+    }
+
+    /**
+     * The mapping remains valid after the file is closed
+     */
+    static EsMatrix map(final File file) throws IOException, ParserException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new ParserException("ES matrix file is truncated: " + file);
+                }
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new ParserException("Not an ES matrix file: " + file);
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new ParserException("Unsupported ES matrix version: " + version + " in: " + file);
+            }
+            final int nresults = header.getInt();
+            final int nperms = header.getInt();
+            if (nresults < 0 || nperms < 0) {
+                throw new ParserException("ES matrix with bad header: " + nresults + " results, " + nperms + " permutations");
+            }
+
+            final long numBytes = 4L * nresults * (nperms + 1L);
+            if (HEADER_SIZE + numBytes > channel.size()) {
+                throw new ParserException("ES matrix file is truncated: expected " + (HEADER_SIZE + numBytes)
+                        + " bytes but found " + channel.size());
+            }
+            // Each of these must be under 2GB to be mapped in one piece
+            if (4L * nresults > Integer.MAX_VALUE || 4L * nperms > Integer.MAX_VALUE) {
+                throw new ParserException("ES matrix is too large to map: " + nresults + " results, " + nperms + " permutations");
+            }
+
+            final FloatBuffer realES = _map(channel, HEADER_SIZE, 4L * nresults);
+
+            final int resultsPerSegment = resultsPerSegment(nresults, nperms);
+            final FloatBuffer[] rndSegments = new FloatBuffer[Math.max(1, (nresults + resultsPerSegment - 1) / resultsPerSegment)];
+            final long rndOffset = HEADER_SIZE + 4L * nresults;
+            for (int i = 0; i < rndSegments.length; i++) {
+                final long results = Math.min(resultsPerSegment, nresults - (long) i * resultsPerSegment);
+                rndSegments[i] = _map(channel, rndOffset + 4L * i * resultsPerSegment * nperms, 4L * results * nperms);
+            }
+            return new EsMatrix(realES, rndSegments, resultsPerSegment, nresults, nperms);
+        }
+    }
+
+    // Whole results in under 2GB
+    static int resultsPerSegment(final int nresults, final int nperms) {
+        return Math.max(1, Math.min(Math.max(1, nresults), (Integer.MAX_VALUE / 4) / Math.max(1, nperms)));
+    }
+
+    private static FloatBuffer _map(final FileChannel channel, final long offset, final long numBytes) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, numBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer block, final FloatBuffer floats) throws IOException {
+        block.position(0).limit(floats.position() * 4);
+        writeFully(channel, block);
+        block.clear();
+        floats.clear();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
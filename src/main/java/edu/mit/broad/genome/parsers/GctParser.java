@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2021 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -8,7 +8,6 @@ import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -99,46 +98,56 @@ public class GctParser extends AbstractParser {
     public List parse(String sourcepath, InputStream is) throws Exception {
         startImport(sourcepath);
 
-        try (BufferedReader bin = new BufferedReader(new InputStreamReader(is))) {
-            String objName = NamingConventions.removeExtension(sourcepath);
-            String currLine = nextLine(bin);
-    
-            // 1st  non-empty, non-comment line is numrows and numcols
-            int[] nstuff = ParseUtils.string2ints(currLine, " \t");
-            if (nstuff.length != 2) {
-                throw new ParserException("Gct file with bad row/col info on line 2: " + currLine);
-            }
-    
-            int nrows = nstuff[0];
-            int ncols = nstuff[1];
-    
-            // First 2 fields name and desc are to be ignored
-            currLine = nextLine(bin);
-            List<String> colnames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
-    
-            colnames.remove(0);                                 // first elem is always nonsense
-            colnames.remove(0);
-    
-            if (colnames.size() != ncols) {
-                throw new ParserException("Bad gct format -- expected ncols from specification on header line: " + ncols + " but found in data: " + colnames.size());
-            }
-    
-            // At this point, currLine should contain the first data line
-            // data line: <row name> <tab> <ex1> <tab> <ex2> <tab>
-            List<String> lines = new ArrayList<String>();
-        
-            // save all rows so that we can determine how many rows exist
-            currLine = nextLineTrimless(bin);
-            while (currLine != null) {
-                lines.add(currLine);
-                currLine = nextLineTrimless(bin); /// imp for mv datasets -> last col(s) can be a tab
-            }
-    
-            if (lines.size() != nrows) {
-                throw new ParserException("Bad gct format -- exepcted nrows from specification on header line: " + nrows + " but found in data: " + lines.size());
-            }
+        try (TextMatrixReader reader = new TextMatrixReader(this, is)) {
+            return parse(sourcepath, reader);
+        }
+    }
 
-            return parseTextMatrixToDataset(objName, lines, colnames, true);
+    /**
+     * Reads the file directly, in parallel if it is large
+     */
+    public List parse(String objname, File file) throws Exception {
+        startImport(objname);
+
+        try (TextMatrixReader reader = new TextMatrixReader(this, file)) {
+            return parse(objname, reader);
+        }
+    }
+
+    private List parse(String sourcepath, TextMatrixReader reader) throws Exception {
+        String objName = NamingConventions.removeExtension(sourcepath);
+        String currLine = reader.nextLine();
+
+        // 1st  non-empty, non-comment line is numrows and numcols
+        int[] nstuff = ParseUtils.string2ints(currLine, " \t");
+        if (nstuff.length != 2) {
+            throw new ParserException("Gct file with bad row/col info on line 2: " + currLine);
+        }
+
+        int nrows = nstuff[0];
+        int ncols = nstuff[1];
+        if (nrows < 0 || ncols < 0) {
+            throw new ParserException("Gct file with bad row/col info on line 2: " + currLine);
         }
+
+        // First 2 fields name and desc are to be ignored
+        currLine = reader.nextLine();
+        List<String> colnames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
+
+        colnames.remove(0);                                 // first elem is always nonsense
+        colnames.remove(0);
+
+        if (colnames.size() != ncols) {
+            throw new ParserException("Bad gct format -- expected ncols from specification on header line: " + ncols + " but found in data: " + colnames.size());
+        }
+
+        // The rest are data lines: <row name> <tab> <desc> <tab> <ex1> <tab> <ex2> <tab>
+        // Storage is sized from the header, and the number of lines checked once all are read
+        TextMatrixReader.Data data = reader.readData(ncols, true, nrows);
+        if (data.getNumLines() != nrows) {
+            throw new ParserException("Bad gct format -- exepcted nrows from specification on header line: " + nrows + " but found in data: " + data.getNumLines());
+        }
+
+        return parseTextMatrixToDataset(objName, data, colnames, true);
     }
 }
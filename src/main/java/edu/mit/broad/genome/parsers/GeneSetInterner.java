@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.MSigDBVersion;
+import edu.mit.broad.genome.objects.SymbolTable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Makes GeneSets whose members are interned in a SymbolTable.
+ * <p/>
+ * Duplicate members are found by id rather than with a HashSet per gene set, and are passed back so that the
+ * parser can report them in file order.  Not thread-safe: use one per thread.
+ *
+ * @author David Eby
+ */
+final class GeneSetInterner {
+    private final SymbolTable fSymbols;
+
+    // The number of the last gene set each id was seen in
+    private int[] fLastSeenIn = new int[1024];
+    private int fNumGeneSets;
+
+    GeneSetInterner(final SymbolTable symbols) {
+        if (symbols == null) {
+            throw new IllegalArgumentException("Param symbols cannot be null");
+        }
+        this.fSymbols = symbols;
+    }
+
+    /**
+     * @param duplicates_opt if checking for duplicates and not null, any members left out as duplicates are added
+     */
+    GeneSet create(final String name, final String nameEnglish, final List<String> members,
+                   final boolean checkForDuplicates, final MSigDBVersion msigDBVersion, final List<String> duplicates_opt) {
+        final int setNum = ++fNumGeneSets;
+        int[] ids = new int[members.size()];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            final String member = members.get(i);
+            final int id = fSymbols.intern(member);
+            if (checkForDuplicates) {
+                if (id >= fLastSeenIn.length) {
+                    fLastSeenIn = Arrays.copyOf(fLastSeenIn, Math.max(id + 1, fLastSeenIn.length * 2));
+                }
+                if (fLastSeenIn[id] == setNum) {
+                    if (duplicates_opt != null) { duplicates_opt.add(member); }
+                    continue;
+                }
+                fLastSeenIn[id] = setNum;
+            }
+            ids[n++] = id;
+        }
+        if (n < ids.length) { ids = Arrays.copyOf(ids, n); }
+
+        return new GeneSet(name, nameEnglish, fSymbols, ids, msigDBVersion);
+    }
+}
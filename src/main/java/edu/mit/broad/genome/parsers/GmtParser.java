@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -9,8 +9,13 @@ import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -36,6 +41,9 @@ import org.apache.commons.lang3.StringUtils;
  * @author Aravind Subramanian, David Eby
  */
 public class GmtParser extends AbstractParser {
+    // Only files of at least twice this many gene sets are parsed in parallel
+    private static final int MIN_LINES_PER_CHUNK = 2000;
+
     public GmtParser() { super(GeneSetMatrix.class); }
 
     /**
@@ -88,41 +96,106 @@ public class GmtParser extends AbstractParser {
 
         String fileName = new File(sourcepath).getName();
         try (final BufferedReader bin = new BufferedReader(new InputStreamReader(is))) {
+            // All lines are read first (with the comments) and then made into gene sets in parallel
+            final List<String> lines = new ArrayList<String>();
             String currLine = nextLine(bin);
-
-            int row = 0;
-            final List<GeneSet> gsets = new ArrayList<GeneSet>();
-
             while (currLine != null) {
-                StringTokenizer tok = new StringTokenizer(currLine, "\t"); // dont split on whitespace??
-                int cnt = tok.countTokens();
-                if (cnt <= 1) { throw new ParserException("Empty gene line: " + currLine + " at row: " + row); }
-
-                // TODO: is it really necessary to force Gene Set names to uppercase?
-                String gsetName = tok.nextToken().trim().toUpperCase(); // @note the UC'ing
-                String gsetname_english = tok.nextToken().trim();
-                List<String> geneNames = new ArrayList<String>();
+                lines.add(currLine);
+                currLine = nextLine(bin);
+            }
 
-                while (tok.hasMoreTokens()) {
-                    String geneName = tok.nextToken().trim();
+            // Members of all the gene sets of the file are interned in the shared table, which the chunks share
+            final SymbolTable symbols = SymbolTable.getShared();
+            final GeneSet[] gsets = new GeneSet[lines.size()];
+            final int numChunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), lines.size() / MIN_LINES_PER_CHUNK));
+            final List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+            for (int i = 0; i < numChunks; i++) {
+                chunks.add(new Chunk(lines, i * lines.size() / numChunks, (i + 1) * lines.size() / numChunks, fileName, msigDBVersion, symbols, gsets));
+            }
 
-                    // dont really expect null, but for consistency
-                    if (!isNull(geneName)) { geneNames.add(geneName); }
+            if (numChunks == 1) {
+                chunks.get(0).call();
+            } else {
+                final ExecutorService pool = Executors.newFixedThreadPool(numChunks);
+                try {
+                    for (Future<Object> future : pool.invokeAll(chunks)) {
+                        future.get();
+                    }
+                } finally {
+                    pool.shutdownNow();
                 }
+            }
 
-                //@note convention
-                String fname = fileName.concat("#").concat(gsetName);
-                GeneSet gset = new GeneSet(fname, gsetname_english, geneNames, true, msigDBVersion);
-
-                gsets.add(gset);
-                row++;
-                currLine = nextLine(bin);
+            // Reported in file order, as if parsed line by line
+            for (Chunk chunk : chunks) {
+                for (String duplicate : chunk.fDuplicates) {
+                    log.warn("Duplicate GeneSet member: {}", duplicate);
+                }
+                if (chunk.fFailure != null) { throw chunk.fFailure; }
             }
 
-            DefaultGeneSetMatrix geneSetMatrix = new DefaultGeneSetMatrix(fileName, gsets, msigDBVersion);
+            DefaultGeneSetMatrix geneSetMatrix = new DefaultGeneSetMatrix(fileName, Arrays.asList(gsets), msigDBVersion);
             return unmodlist(geneSetMatrix);
         } finally {
             doneImport();
         }
     }
+
+    /**
+     * Consecutive lines made into gene sets, with members interned in the shared SymbolTable
+     */
+    private class Chunk implements Callable<Object> {
+        private final List<String> fLines;
+        private final int fFrom;
+        private final int fTo;
+        private final String fFileName;
+        private final MSigDBVersion fMSigDBVersion;
+        private final SymbolTable fSymbols;
+        private final GeneSet[] fGeneSets;
+
+        private final List<String> fDuplicates = new ArrayList<String>();
+        private Exception fFailure;
+
+        private Chunk(final List<String> lines, final int from, final int to, final String fileName,
+                      final MSigDBVersion msigDBVersion, final SymbolTable symbols, final GeneSet[] gsets) {
+            this.fLines = lines;
+            this.fFrom = from;
+            this.fTo = to;
+            this.fFileName = fileName;
+            this.fMSigDBVersion = msigDBVersion;
+            this.fSymbols = symbols;
+            this.fGeneSets = gsets;
+        }
+
+        public Object call() {
+            final GeneSetInterner interner = new GeneSetInterner(fSymbols);
+            try {
+                for (int row = fFrom; row < fTo; row++) {
+                    String currLine = fLines.get(row);
+                    StringTokenizer tok = new StringTokenizer(currLine, "\t"); // dont split on whitespace??
+                    int cnt = tok.countTokens();
+                    if (cnt <= 1) { throw new ParserException("Empty gene line: " + currLine + " at row: " + row); }
+
+                    // TODO: is it really necessary to force Gene Set names to uppercase?
+                    String gsetName = tok.nextToken().trim().toUpperCase(); // @note the UC'ing
+                    String gsetname_english = tok.nextToken().trim();
+                    List<String> geneNames = new ArrayList<String>(cnt - 2);
+
+                    while (tok.hasMoreTokens()) {
+                        String geneName = tok.nextToken().trim();
+
+                        // dont really expect null, but for consistency
+                        if (!isNull(geneName)) { geneNames.add(geneName); }
+                    }
+
+                    //@note convention
+                    String fname = fFileName.concat("#").concat(gsetName);
+                    fGeneSets[row] = interner.create(fname, gsetname_english, geneNames, true, fMSigDBVersion, fDuplicates);
+                }
+            } catch (Exception e) {
+                this.fFailure = e;
+            }
+            return null;
+        }
+    }
 }
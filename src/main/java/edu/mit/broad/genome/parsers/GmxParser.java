@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -185,12 +185,19 @@ public class GmxParser extends AbstractParser {
         bin.close();
 
 
+        // Members are interned in the SymbolTable shared with the gene sets of other files
+        final GeneSetInterner interner = new GeneSetInterner(SymbolTable.getShared());
+        final List<String> duplicates = new ArrayList<String>();
         final GeneSet[] gsets = new GeneSet[members.length];
         for (int i = 0; i < members.length; i++) {
             //@note convention
             // TODO: is it really necessary to force Gene Set names to uppercase?
             final String gsetName = sourcepath.concat("#").concat(gsetNames[i].toUpperCase()); // @note the UC'ing 
-            gsets[i] = new GeneSet(gsetName, namesEnglish[i], members[i], fCheckForDuplicates);
+            gsets[i] = interner.create(gsetName, namesEnglish[i], members[i], fCheckForDuplicates, null, duplicates);
+            for (String duplicate : duplicates) {
+                log.warn("Duplicate GeneSet member: {}", duplicate);
+            }
+            duplicates.clear();
         }
 
         doneImport();
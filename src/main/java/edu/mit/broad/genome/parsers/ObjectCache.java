@@ -1,15 +1,19 @@
 /*
- * Copyright (c) 2003-2023 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
-import edu.mit.broad.genome.objects.GeneSetMatrix;
-import edu.mit.broad.genome.objects.PersistentObject;
-import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.Constants;
+import edu.mit.broad.genome.objects.*;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
 import edu.mit.broad.genome.reports.api.Report;
 import edu.mit.broad.genome.swing.ProxyComboBoxModel;
 import edu.mit.broad.genome.swing.ProxyTreeModel;
+import edu.mit.broad.genome.utils.SystemUtils;
+import edu.mit.broad.vdb.chip.Chip;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,14 +25,32 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.File;
+import java.lang.ref.SoftReference;
 import java.util.*;
 
 /**
+ * Cache of the objects read by the ParserFactory, and the models through which the desktop shows them.
+ * <p/>
+ * The cache is bounded by the estimated footprint of the objects it holds (see OBJECT_CACHE_MAX_MB_KEY).  When
+ * over, the least recently used objects are evicted: large ones are kept behind a SoftReference, so that they can
+ * still be had again until the GC needs the memory, and the rest are dropped.  Objects selected in the UI (in a box
+ * model made here, or reported through setPinned()) are pinned and never evicted; the others are evicted whether
+ * shown or not, and drop out of the models when they are.  Source paths are held weakly, so they remain known for
+ * as long as an evicted object is still in use.
+ *
  * @author Aravind Subramanian
+ * @author David Eby
  */
 public class ObjectCache {
     private final Logger log = LoggerFactory.getLogger(ObjectCache.class);
 
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Objects estimated at this size or more are held softly rather than dropped when evicted
+     */
+    private static final long LARGE_FOOTPRINT = 4 * MB;
+
     /**
      * key-> class names, value -> DefaultMutableTreeNode
      */
@@ -44,9 +66,25 @@ public class ObjectCache {
     private Map fIdCachesExtra = new HashMap(); // stores as elements al models (resricted to just the id)
 
     /**
-     * Key -> PathClass, Value ->the object
+     * Key -> PathClass, Value -> the Entry holding the object.  In access order, least recently used first
      */
-    private final Map fPathClassObjectMap = new HashMap();
+    private final LinkedHashMap<PathClass, Entry> fEntries = new LinkedHashMap<PathClass, Entry>(16, 0.75f, true);
+
+    /**
+     * Key -> an owner in the UI (a box model, a tree), Value -> the objects it has selected, which are pinned.  Weak
+     * so that an owner no longer in use stops pinning
+     */
+    private final Map<Object, Collection<?>> fPinnedByOwner = new WeakHashMap<Object, Collection<?>>();
+
+    private final long fMaxFootprint;
+
+    // Estimated size of the objects held strongly
+    private long fFootprint;
+
+    private long fHits;
+    private long fSoftHits;
+    private long fMisses;
+    private long fEvictions;
 
     // key -> template, value -> source file
     // needed as continuous templates are clobberred by the other map
@@ -54,15 +92,16 @@ public class ObjectCache {
 
     /**
      * Value -> the object, Value ->the path string to where the object is from (eg file path)
+     * Weak so that evicted objects are not held
      */
-    private final Map fObjectPathStringMap = new HashMap();
+    private final Map fObjectPathStringMap = new WeakHashMap();
 
     /**
      * pobs bot visible in the usual cache containers,. but still accessible (as the last check)
      * via get source file
      * Usually used for auxe's
      */
-    private final Map fInvisiblePobFileMap = new HashMap();
+    private final Map fInvisiblePobFileMap = new WeakHashMap();
 
     /**
      * Utility fields for the event firing mechanism
@@ -93,19 +132,55 @@ public class ObjectCache {
     }
 
     private ObjectCache(final String rootNodeLabel) {
+        this(rootNodeLabel, getMaxFootprintProperty());
+    }
+
+    /**
+     * @param maxFootprint the estimated size in bytes of the objects to hold before evicting
+     */
+    ObjectCache(final String rootNodeLabel, final long maxFootprint) {
         fRootNode = new DefaultMutableTreeNode(rootNodeLabel);
         fTreeModel = new DefaultTreeModel(fRootNode, true);
+        fMaxFootprint = maxFootprint;
+    }
+
+    private static long getMaxFootprintProperty() {
+        final long mb = NumberUtils.toLong(SystemUtils.getProperty(Constants.OBJECT_CACHE_MAX_MB_KEY, false), -1);
+        return (mb >= 0) ? mb * MB : Runtime.getRuntime().maxMemory() / 4;
     }
 
+    /**
+     * Counts as a cache lookup.  Note that the object may be evicted by another thread before a get() that follows;
+     * use getCached() to look it up and use it.
+     */
     public boolean isCached(final String path, final Class cl) {
-        return fPathClassObjectMap.containsKey(new PathClass(path, cl));
+        return getCached(path, cl) != null;
+    }
+
+    /**
+     * Looks up the object to be used, counting the cache hit or miss: an object held softly is held strongly again.
+     *
+     * @return Null if not cached
+     */
+    public synchronized Object getCached(final String path, final Class cl) {
+        final PersistentObject pob = lookup(new PathClass(path, cl));
+        if (pob != null) {
+            fHits++;
+        } else {
+            fMisses++;
+        }
+        return pob;
+    }
+
+    public Object getCached(final File file, final Class cl) {
+        return getCached(file.getPath(), cl);
     }
 
     public boolean isCached(final File file, final Class cl) {
         return isCached(file.getPath(), cl);
     }
 
-    public boolean isCached(PersistentObject pob) {
+    public synchronized boolean isCached(PersistentObject pob) {
 
         if (fObjectPathStringMap.containsKey(pob)) {
             return true;
@@ -120,19 +195,43 @@ public class ObjectCache {
      * @param file
      * @return Null if file not cached
      */
-    public Object get(final String path, final Class cl) {
-        return fPathClassObjectMap.get(new PathClass(path, cl));
+    public synchronized Object get(final String path, final Class cl) {
+        return lookup(new PathClass(path, cl));
     }
 
     public Object get(final File file, final Class cl) {
-        return fPathClassObjectMap.get(new PathClass(file.getPath(), cl));
+        return get(file.getPath(), cl);
+    }
+
+    // Moves the entry to most recently used, and holds it strongly (and shown) again if it had been evicted
+    private PersistentObject lookup(final PathClass pc) {
+        final Entry entry = fEntries.get(pc);
+        if (entry == null) { return null; }
+
+        if (entry.fObject != null) { return entry.fObject; }
+
+        final PersistentObject pob = entry.fSoftObject.get();
+        if (pob == null) {
+            fEntries.remove(pc);
+            return null;
+        }
+
+        fSoftHits++;
+        entry.fObject = pob;
+        entry.fSoftObject = null;
+        entry.fFootprint = estimateFootprint(pob);
+        fFootprint += entry.fFootprint;
+        show(pc.path, pob, pc.cl, false);
+        if (entry.fHadAuxSets) { hackAddAuxSets((GeneSetMatrix) pob); }
+        evictOverMax(entry);
+        return pob;
     }
 
     /**
      * @param pob
      * @return file that the object was parsed from, null if not known
      */
-    public String getSourcePath(final Object pob) {
+    public synchronized String getSourcePath(final Object pob) {
 
         if (pob == null) {
             throw new IllegalArgumentException("Parameter obj cannot be null");
@@ -185,7 +284,7 @@ public class ObjectCache {
      * @param pob
      * @param cl
      */
-    protected void add(String path, PersistentObject pob, Class cl, boolean fireAction) {
+    protected synchronized void add(String path, PersistentObject pob, Class cl, boolean fireAction) {
 
         PathClass fc = new PathClass(path, cl);
 
@@ -193,9 +292,28 @@ public class ObjectCache {
             if (log.isDebugEnabled()) { log.debug("Already cached object: {} in: {}", pob, fObjectPathStringMap.get(pob)); }
         }
 
-        fPathClassObjectMap.put(fc, pob);
+        final Entry entry = new Entry(pob, estimateFootprint(pob));
+        final Entry replaced = fEntries.put(fc, entry);
+        if (replaced != null && replaced.fObject != null) { fFootprint -= replaced.fFootprint; }
+        fFootprint += entry.fFootprint;
         fObjectPathStringMap.put(pob, path);
 
+        show(path, pob, cl, fireAction);
+
+        // Finally add to any sub-caches if neccessary
+        for (Iterator iterator = fIdCachesExtra.keySet().iterator(); iterator.hasNext();) {
+            Object key = iterator.next();
+            ExtraCache ex = (ExtraCache) fIdCachesExtra.get(key);
+            if (ex.isMember(path)) {
+                ex.fExCache.add(path, pob, cl, fireAction);
+            }
+        }
+
+        evictOverMax(entry);
+    }
+
+    // Adds the object to the tree and box models
+    private void show(String path, PersistentObject pob, Class cl, boolean fireAction) {
         String cn = cl.getName();
 
         // first update the tree model
@@ -245,16 +363,181 @@ public class ObjectCache {
                 }
             }
         }
+    }
 
-        // Finally add to any sub-caches if neccessary
-        for (Iterator iterator = fIdCachesExtra.keySet().iterator(); iterator.hasNext();) {
-            Object key = iterator.next();
-            ExtraCache ex = (ExtraCache) fIdCachesExtra.get(key);
-            if (ex.isMember(path)) {
-                ex.fExCache.add(path, pob, cl, fireAction);
+    // Removes the object from the tree and box models
+    // @return true if the object was a GeneSetMatrix with its sets in the aux sets model
+    private boolean hide(PersistentObject pob, Class cl) {
+        DefaultMutableTreeNode objclassNode = (DefaultMutableTreeNode) fClassNameNodeMap.get(cl.getName());
+        if (objclassNode != null) {
+            for (int i = 0; i < objclassNode.getChildCount(); i++) {
+                if (((DefaultMutableTreeNode) objclassNode.getChildAt(i)).getUserObject() == pob) {
+                    objclassNode.remove(i);
+                    break;
+                }
             }
         }
 
+        PobBoxModel model = (PobBoxModel) fClassNameBoxModelMap.get(cl.getName());
+        if (model != null) {
+            model.removeElement(pob);
+        }
+
+        return (pob instanceof GeneSetMatrix) && (auxsetsmodel != null)
+                && auxsetsmodel.removeElements(((GeneSetMatrix) pob).getGeneSetsL());
+    }
+
+    /**
+     * Pins the objects selected by owner in the UI, in place of those it had selected before.  They are unpinned
+     * when owner selects others, or once it is no longer referenced.
+     *
+     * @param pobs empty to unpin all those of owner
+     */
+    public synchronized void setPinned(final Object owner, final Collection<?> pobs) {
+        if (owner == null) {
+            throw new IllegalArgumentException("Param owner cannot be null");
+        }
+
+        if (pobs == null || pobs.isEmpty()) {
+            fPinnedByOwner.remove(owner);
+        } else {
+            fPinnedByOwner.put(owner, new ArrayList<Object>(pobs));
+        }
+    }
+
+    private Set<Object> getPinned() {
+        final Set<Object> pinned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Collection<?> pobs : fPinnedByOwner.values()) {
+            pinned.addAll(pobs);
+        }
+        return pinned;
+    }
+
+    // The entry's object is selected in the UI; a GeneSetMatrix also when one of its sets is the aux set selected
+    private boolean isPinned(final PersistentObject pob, final Set<Object> pinned) {
+        if (pinned.contains(pob)) { return true; }
+
+        if (pob instanceof GeneSetMatrix && auxsetsmodel != null && auxsetsmodel.getSelectedItem() != null) {
+            final Object selectedSet = auxsetsmodel.getSelectedItem();
+            for (Object gset : ((GeneSetMatrix) pob).getGeneSetsL()) {
+                if (gset == selectedSet) { return true; }
+            }
+        }
+        return false;
+    }
+
+    // Evicts the least recently used objects that are not pinned until within the max footprint.  The entry
+    // just added or looked up is always kept, as its object is about to be used
+    private void evictOverMax(final Entry keep) {
+        if (fFootprint <= fMaxFootprint) { return; }
+
+        final Set<Object> pinned = getPinned();
+        for (Iterator<Map.Entry<PathClass, Entry>> it = fEntries.entrySet().iterator(); it.hasNext() && fFootprint > fMaxFootprint;) {
+            final Map.Entry<PathClass, Entry> me = it.next();
+            final Entry entry = me.getValue();
+            final PersistentObject pob = entry.fObject;
+            if (entry == keep) { continue; }
+            if (pob == null) {
+                if (entry.fSoftObject.get() == null) { it.remove(); }
+                continue;
+            }
+
+            if (isPinned(pob, pinned)) { continue; }
+
+            final Class cl = me.getKey().cl;
+
+            fFootprint -= entry.fFootprint;
+            fEvictions++;
+            entry.fHadAuxSets = hide(pob, cl);
+            if (entry.fFootprint >= LARGE_FOOTPRINT) {
+                entry.fObject = null;
+                entry.fSoftObject = new SoftReference<PersistentObject>(pob);
+            } else {
+                it.remove();
+            }
+        }
+
+        if (log.isDebugEnabled()) { log.debug(getStatistics()); }
+    }
+
+    /**
+     * @return a one line summary of the cache's size and of its hits and misses
+     */
+    public synchronized String getStatistics() {
+        int numSoft = 0;
+        for (Entry entry : fEntries.values()) {
+            if (entry.fObject == null) { numSoft++; }
+        }
+
+        return "Object cache: " + fEntries.size() + " objects (" + numSoft + " held softly), ~" + (fFootprint / MB)
+                + " of " + (fMaxFootprint / MB) + " MB; " + fHits + " hits (" + fSoftHits + " from soft), "
+                + fMisses + " misses, " + fEvictions + " evictions";
+    }
+
+    public synchronized long getNumHits() {
+        return fHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return fMisses;
+    }
+
+    public synchronized long getNumEvictions() {
+        return fEvictions;
+    }
+
+    /**
+     * A rough estimate, in bytes, of the memory taken by the object: its numbers and names, not the exact JVM layout
+     */
+    static long estimateFootprint(final Object pob) {
+        if (pob instanceof Dataset) {
+            final Dataset ds = (Dataset) pob;
+            final long names = 64L * (ds.getNumRow() + ds.getNumCol());
+            // The values of a MappedDataset are not on the heap
+            return (pob instanceof MappedDataset) ? names : names + 4L * ds.getNumRow() * ds.getNumCol();
+        }
+
+        if (pob instanceof GeneSetMatrix) {
+            long size = 0;
+            final GeneSetMatrix gm = (GeneSetMatrix) pob;
+            for (int i = 0; i < gm.getNumGeneSets(); i++) {
+                size += estimateFootprint(gm.getGeneSet(i));
+            }
+            return size;
+        }
+
+        if (pob instanceof GeneSet) {
+            return 128 + 8L * ((GeneSet) pob).getNumMembers();
+        }
+
+        if (pob instanceof RankedList) {
+            return 68L * ((RankedList) pob).getSize();
+        }
+
+        if (pob instanceof EnrichmentDb) {
+            final EnrichmentDb edb = (EnrichmentDb) pob;
+            long size = (edb.getRankedList() == null) ? 0 : estimateFootprint(edb.getRankedList());
+            if (edb.getDataset() != null) { size += estimateFootprint(edb.getDataset()); }
+            for (int i = 0; i < edb.getNumResults(); i++) {
+                final EnrichmentResult result = edb.getResult(i);
+                size += 256 + estimateFootprint(result.getGeneSet());
+                // The random scores of a lazy result are not on the heap
+                if (!result.isRndESSLazy() && result.getRndESS() != null) { size += 4L * result.getRndESS().getSize(); }
+            }
+            return size;
+        }
+
+        if (pob instanceof Chip) {
+            final Chip chip = (Chip) pob;
+            try {
+                // The probes are read lazilly; the quick info is null until they are
+                if (chip.getQuickInfo() != null) { return 1024 + 192L * chip.getNumProbes(); }
+            } catch (Exception e) {
+                // fall through to the default
+            }
+        }
+
+        return 1024;
     }
 
     // remove existing entities similar to the one we are abut to add
@@ -318,9 +601,9 @@ public class ObjectCache {
         PobBoxModel real = _createBoxModel(cl);
         if (addNotSpecifiedObject) {
             // @todo
-            return new ProxyComboBoxModel(real);
+            return new PinningBoxModel(real);
         } else {
-            return new ProxyComboBoxModel(real);
+            return new PinningBoxModel(real);
         }
     }
 
@@ -367,19 +650,58 @@ public class ObjectCache {
             models[i] = _createBoxModel(classes[i]);
         }
 
-        return new PobBoxModels(models);
+        return new PobBoxModels(models) {
+            public void setSelectedItem(Object obj) {
+                super.setSelectedItem(obj);
+                setPinned(this, (obj == null) ? Collections.emptyList() : Collections.singletonList(obj));
+            }
+        };
+    }
+
+    /**
+     * A box model over the real one that pins the object it has selected.  It keeps to that object as others are
+     * added and removed, where the proxy alone keeps to its index.
+     */
+    private class PinningBoxModel extends ProxyComboBoxModel {
+        private final PobBoxModel fReal;
+        private Object fSelected;
+
+        private PinningBoxModel(final PobBoxModel real) {
+            super(real);
+            this.fReal = real;
+        }
+
+        public Object getSelectedItem() {
+            if (fSelected != null && fReal.getIndexOf(fSelected) != -1) { return fSelected; }
+
+            // Nothing selected yet, or the selection is gone: as shown, the item at the proxy's index
+            final Object shown = super.getSelectedItem();
+            pin(shown);
+            return shown;
+        }
+
+        public void setSelectedItem(final Object obj) {
+            super.setSelectedItem(obj);
+            pin(obj);
+        }
+
+        private void pin(final Object obj) {
+            fSelected = obj;
+            setPinned(this, (obj == null) ? Collections.emptyList() : Collections.singletonList(obj));
+        }
     }
 
     // NOT an immutbale list!! --can be sorted etc by caller
     // @todo this mechanism doesnt work with multiple objects of same class and same file path
-    public List getCachedObjectsL(Class pobClass) {
+    public synchronized List getCachedObjectsL(Class pobClass) {
         List pobs = new ArrayList();
 
-        Iterator it = fPathClassObjectMap.keySet().iterator();
-        while (it.hasNext()) {
-            PathClass pc = (PathClass) it.next();
-            if (pc.cl.equals(pobClass)) {
-                pobs.add(fPathClassObjectMap.get(pc));
+        for (Map.Entry<PathClass, Entry> me : fEntries.entrySet()) {
+            if (me.getKey().cl.equals(pobClass)) {
+                PersistentObject pob = me.getValue().get();
+                if (pob != null) {
+                    pobs.add(pob);
+                }
             }
         }
 
@@ -460,7 +782,24 @@ public class ObjectCache {
         makeVisible(new PersistentObject[]{pob}, cl);
     }
 
-    public void makeVisible(PersistentObject[] pobs, Class cl) {
+    // An object in the cache, held strongly or, once evicted, softly
+    private static class Entry {
+        private PersistentObject fObject;
+        private SoftReference<PersistentObject> fSoftObject;
+        private long fFootprint;
+        private boolean fHadAuxSets;
+
+        private Entry(final PersistentObject pob, final long footprint) {
+            this.fObject = pob;
+            this.fFootprint = footprint;
+        }
+
+        private PersistentObject get() {
+            return (fObject != null) ? fObject : fSoftObject.get();
+        }
+    }
+
+    public synchronized void makeVisible(PersistentObject[] pobs, Class cl) {
         for (int i = 0; i < pobs.length; i++) {
             Object file = fInvisiblePobFileMap.get(pobs[i]);
             if (file != null) {
@@ -472,7 +811,7 @@ public class ObjectCache {
         this.sortModel(cl);
     }
 
-    protected void addInvisibly(File file, PersistentObject pob) {
+    protected synchronized void addInvisibly(File file, PersistentObject pob) {
         if (file == null) {
             throw new IllegalArgumentException("Parameter file cannot be null");
         }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2024 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -10,9 +10,11 @@ import edu.mit.broad.genome.objects.*;
 import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
 import edu.mit.broad.genome.reports.api.Report;
 import edu.mit.broad.genome.utils.FileUtils;
+import edu.mit.broad.genome.utils.SystemUtils;
 import edu.mit.broad.vdb.chip.Chip;
 import edu.mit.broad.xbench.core.api.Application;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +57,12 @@ public class ParserFactory implements Constants {
 
     private static final ObjectCache kDefaultObjectCache = new ObjectCache();
 
+    // Off unless given a max size
+    private static final DiskParseCache kDiskParseCache = new DiskParseCache(new File(fileCacheDir, "parsed"),
+            NumberUtils.toLong(SystemUtils.getProperty(Constants.PARSE_CACHE_MAX_MB_KEY, false), 0) * 1024 * 1024);
+
+    private static final String CHIP_BINARY_EXT = "chipb";
+
     // The default one is the generic NON-application related cache
     //additionally there are application specific classes
     static ObjectCache _getCache() {
@@ -93,10 +101,11 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param file cannot be null");
         }
 
-        if (useCache && (_getCache().isCached(path, Dataset.class))) {
+        final Dataset cached = (useCache) ? (Dataset) _getCache().getCached(path, Dataset.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (Dataset) _getCache().get(path, Dataset.class);
+            return cached;
         }
 
         // as a help to make datasets ext agnostic
@@ -109,6 +118,10 @@ public class ParserFactory implements Constants {
             return readDatasetPcl(path, is, useCache, add2cache);
         }
 
+        if (ext.equals(Constants.GCTB)) {
+            return readDatasetBinary(path, is, useCache, add2cache);
+        }
+
         Dataset ds;
         Parser parser = new ResParser();
         parser.setSilentMode(false);
@@ -140,8 +153,9 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
 
-        if (useCache && (_getCache().isCached(path, Dataset.class))) {
-            return (Dataset) _getCache().get(path, Dataset.class);
+        final Dataset cached = (useCache) ? (Dataset) _getCache().getCached(path, Dataset.class) : null;
+        if (cached != null) {
+            return cached;
         }
 
         // as a help to make datasets ext agnostic
@@ -156,7 +170,44 @@ public class ParserFactory implements Constants {
 
         GctParser parser = new GctParser();
         parser.setSilentMode(false);
-        List list = parser.parse(toName(path), is);
+        // Large local files are read in parallel
+        List list = parseLocalFileOrStream(parser, new BinaryDatasetParser(), GCTB, toName(path), path, is);
+
+        Dataset ds = (Dataset) list.get(0);
+
+        if (add2cache) {
+            _getCache().add(path, ds, Dataset.class);
+        }
+
+        // TODO: very likely should be handled in try/finally
+        is.close();
+        return ds;
+    }
+
+    private static Dataset readDatasetBinary(String path, InputStream is, boolean useCache) throws Exception {
+        return readDatasetBinary(path, is, useCache, true);
+    }
+
+    private static Dataset readDatasetBinary(String path, InputStream is,
+                                            boolean useCache,
+                                            boolean add2cache) throws Exception {
+        if (path == null) {
+            throw new IllegalArgumentException("Param file cannot be null");
+        }
+
+        if (is == null) {
+            throw new IllegalArgumentException("Param is cannot be null");
+        }
+
+        final Dataset cached = (useCache) ? (Dataset) _getCache().getCached(path, Dataset.class) : null;
+        if (cached != null) {
+            is.close();
+            return cached;
+        }
+
+        BinaryDatasetParser parser = new BinaryDatasetParser();
+        parser.setSilentMode(false);
+        List list = parseLocalFileOrStream(parser, path, is); // Map a local file rather than reading the stream
 
         Dataset ds = (Dataset) list.get(0);
 
@@ -169,6 +220,27 @@ public class ParserFactory implements Constants {
         return ds;
     }
 
+    // Parsers that can do better with the file itself get it (the stream is closed) if the path is of a local file
+    private static List parseLocalFileOrStream(Parser parser, String path, InputStream is) throws Exception {
+        return parseLocalFileOrStream(parser, null, null, toName(path), path, is);
+    }
+
+    // As above, with local files also going through the disk parse cache (when enabled) in the binary format of
+    // binaryParser_opt
+    private static List parseLocalFileOrStream(Parser parser, Parser binaryParser_opt, String binaryExt,
+                                               String name, String path, InputStream is) throws Exception {
+        File file = new File(path);
+        if (!NamingConventions.isURL(path) && file.isFile()) {
+            is.close();
+            if (binaryParser_opt != null && kDiskParseCache.isEnabled()) {
+                return kDiskParseCache.parse(file, name, parser, binaryParser_opt, binaryExt);
+            }
+            return parser.parse(name, file);
+        } else {
+            return parser.parse(name, is);
+        }
+    }
+
     private static Dataset readDatasetTXT(String path, InputStream is, boolean useCache) throws Exception {
         if (path == null) {
             throw new IllegalArgumentException("Param file cannot be null");
@@ -178,8 +250,9 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
         
-        if (useCache && (_getCache().isCached(path, Dataset.class))) {
-            return (Dataset) _getCache().get(path, Dataset.class);
+        final Dataset cached = (useCache) ? (Dataset) _getCache().getCached(path, Dataset.class) : null;
+        if (cached != null) {
+            return cached;
         }
         
         // as a help to make datasets ext agnostic
@@ -198,7 +271,8 @@ public class ParserFactory implements Constants {
         
         TxtDatasetParser parser = new TxtDatasetParser();
         parser.setSilentMode(false);
-        List list = parser.parse(toName(path), is);
+        // Large local files are read in parallel
+        List list = parseLocalFileOrStream(parser, new BinaryDatasetParser(), GCTB, toName(path), path, is);
         Dataset ds = (Dataset) list.get(0);
         
         _getCache().add(path, ds, Dataset.class);
@@ -222,8 +296,9 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
 
-        if (useCache && (_getCache().isCached(path, Dataset.class))) {
-            return (Dataset) _getCache().get(path, Dataset.class);
+        final Dataset cached = (useCache) ? (Dataset) _getCache().getCached(path, Dataset.class) : null;
+        if (cached != null) {
+            return cached;
         }
 
         // as a help to make datasets ext agnostic
@@ -322,9 +397,9 @@ public class ParserFactory implements Constants {
         String base_path = AuxUtils.getBasePathFromAuxPath(path);
         basefile = new File(base_path);
 
-        if (useCache && _getCache().isCached(base_path, Template.class)) {
-            Object obj = _getCache().get(base_path, Template.class);
-            baseTemplates.add(obj);
+        final Object cachedTemplate = (useCache) ? _getCache().getCached(base_path, Template.class) : null;
+        if (cachedTemplate != null) {
+            baseTemplates.add(cachedTemplate);
             // TODO: very likely should be handled in try/finally
             is.close();
         } else {
@@ -420,10 +495,11 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
 
-        if ((useCache) && (_getCache().isCached(path, GeneSet.class))) {
+        final GeneSet cached = (useCache) ? (GeneSet) _getCache().getCached(path, GeneSet.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (GeneSet) _getCache().get(path, GeneSet.class);
+            return cached;
         }
 
         GeneSet gset;
@@ -477,10 +553,11 @@ public class ParserFactory implements Constants {
         }
 
 
-        if ((useCache) && (_getCache().isCached(path, Report.class))) {
+        final Report cached = (useCache) ? (Report) _getCache().getCached(path, Report.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (Report) _getCache().get(path, Report.class);
+            return cached;
         }
 
         //log.debug("Parsing Report from: " + path);
@@ -511,15 +588,16 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
 
-        if ((useCache) && (_getCache().isCached(path, Chip.class))) {
+        final Chip cached = (useCache) ? (Chip) _getCache().getCached(path, Chip.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (Chip) _getCache().get(path, Chip.class);
+            return cached;
         }
 
         //log.debug("Parsing Report from: " + path);
         Parser parser = new ChipParser();
-        Chip chip = (Chip) parser.parse(path, is).get(0);
+        Chip chip = (Chip) parseLocalFileOrStream(parser, new BinaryChipParser(), CHIP_BINARY_EXT, path, path, is).get(0);
 
         if (useCache) {
             _getCache().add(path, chip, Chip.class);
@@ -544,10 +622,11 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param is cannot be null");
         }
         
-        if (useCache && (_getCache().isCached(path, RankedList.class))) {
+        final RankedList cached = (useCache) ? (RankedList) _getCache().getCached(path, RankedList.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (RankedList) _getCache().get(path, RankedList.class);
+            return cached;
         }
         
         //log.debug("Parsing Report from: " + path);
@@ -572,18 +651,42 @@ public class ParserFactory implements Constants {
             throw new IllegalArgumentException("Param gseaResultDir cannot be null");
         }
 
-        if (useCache && (_getCache().isCached(gseaResultDir, EnrichmentDb.class))) {
-            return (EnrichmentDb) _getCache().get(gseaResultDir, EnrichmentDb.class);
+        final EnrichmentDb cached = (useCache) ? (EnrichmentDb) _getCache().getCached(gseaResultDir, EnrichmentDb.class) : null;
+        if (cached != null) {
+            return cached;
         }
 
         EdbFolderParser folderParser = new EdbFolderParser();
         folderParser.setSilentMode(silentMode);
 
-        final EnrichmentDb edb = new EdbFolderParser().parseEdb(gseaResultDir);
+        final EnrichmentDb edb = folderParser.parseEdb(gseaResultDir);
         _getCache().add(gseaResultDir, edb, EnrichmentDb.class);
         return edb;
     }
 
+    /**
+     * Reads only the results for the named gene sets, skipping the rest of the edb.  The partial edb is not cached,
+     * but a whole one already in the cache is used if present.
+     *
+     * @param gsetNames names without the aux part
+     */
+    public static EnrichmentDb readEdb(final File gseaResultDir, final String[] gsetNames) throws Exception {
+        if (gseaResultDir == null) {
+            throw new IllegalArgumentException("Param gseaResultDir cannot be null");
+        }
+
+        if (gsetNames == null) {
+            throw new IllegalArgumentException("Param gsetNames cannot be null");
+        }
+
+        final EnrichmentDb cached = (EnrichmentDb) _getCache().getCached(gseaResultDir, EnrichmentDb.class);
+        if (cached != null) {
+            return cached;
+        }
+
+        return new EdbFolderParser().parseEdb(gseaResultDir, new HashSet<String>(Arrays.asList(gsetNames)));
+    }
+
     /**
      * supports aux mechanism
      *
@@ -599,8 +702,9 @@ public class ParserFactory implements Constants {
         if (AuxUtils.isAux(path)) { path = AuxUtils.getBaseStringFromAux(path); }
         if (useCache) {
             String ext = NamingConventions.getExtension(path);
-            if (!(ext.equals(Constants.GRP)) && (_getCache().isCached(path, GeneSetMatrix.class))) {
-                return (GeneSetMatrix) _getCache().get(path, GeneSetMatrix.class);
+            if (!(ext.equals(Constants.GRP))) {
+                final GeneSetMatrix cached = (GeneSetMatrix) _getCache().getCached(path, GeneSetMatrix.class);
+                if (cached != null) { return cached; }
             }
         }
         
@@ -611,6 +715,10 @@ public class ParserFactory implements Constants {
         return readGeneSetMatrix(path, is, useCache, true, true);
     }
 
+    static GeneSetMatrix readGeneSetMatrix(File file, boolean useCache, boolean add2Cache) throws Exception {
+        return readGeneSetMatrix(file.getPath(), createInputStream(file), useCache, true, add2Cache);
+    }
+
     private static GeneSetMatrix readGeneSetMatrix(String path,
                                                    final InputStream is,
                                                    final boolean useCache,
@@ -636,15 +744,20 @@ public class ParserFactory implements Constants {
             return readGeneSetMatrixT(path, is, useCache, checkforduplicates, add2Cache);
         }
 
+        if (ext.equals(Constants.GMTB)) {
+            return readGeneSetMatrixBinary(path, is, useCache, add2Cache);
+        }
+
         if (ext.equals(Constants.GRP)) {
             GeneSet gset = readGeneSet(path, is, useCache, add2Cache);
             return new DefaultGeneSetMatrix(toName(path), new GeneSet[]{gset});
         }
 
-        if (useCache && (_getCache().isCached(path, GeneSetMatrix.class))) {
+        final GeneSetMatrix cached = (useCache) ? (GeneSetMatrix) _getCache().getCached(path, GeneSetMatrix.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (GeneSetMatrix) _getCache().get(path, GeneSetMatrix.class);
+            return cached;
         }
 
         GmxParser parser = new GmxParser();
@@ -700,20 +813,25 @@ public class ParserFactory implements Constants {
             return readGeneSetMatrix(path, is, useCache, checkForDuplicates, add2Cache);
         }
 
+        if (ext.equals(Constants.GMTB)) {
+            return readGeneSetMatrixBinary(path, is, useCache, add2Cache);
+        }
+
         String path_name = toName(path);
         if (ext.equals(Constants.GRP)) {
             GeneSet gset = readGeneSet(path, is, useCache);
             return new DefaultGeneSetMatrix(path_name, new GeneSet[]{gset});
         }
 
-        if (useCache && (_getCache().isCached(path, GeneSetMatrix.class))) {
+        final GeneSetMatrix cached = (useCache) ? (GeneSetMatrix) _getCache().getCached(path, GeneSetMatrix.class) : null;
+        if (cached != null) {
             // TODO: very likely should be handled in try/finally
             is.close();
-            return (GeneSetMatrix) _getCache().get(path, GeneSetMatrix.class);
+            return cached;
         }
 
         Parser parser = new GmtParser();
-        GeneSetMatrix gmx = (GeneSetMatrix) parser.parse(path, is).get(0);
+        GeneSetMatrix gmx = (GeneSetMatrix) parseLocalFileOrStream(parser, new BinaryGeneSetMatrixParser(), GMTB, path, path, is).get(0);
 
         _getCache().add(path, gmx, GeneSetMatrix.class);
 
@@ -732,6 +850,45 @@ public class ParserFactory implements Constants {
         return gmx;
     }
 
+    private static GeneSetMatrix readGeneSetMatrixBinary(String path,
+                                                         InputStream is,
+                                                         boolean useCache,
+                                                         boolean add2Cache) throws Exception {
+
+        if (path == null) {
+            throw new IllegalArgumentException("Param file cannot be null");
+        }
+
+        if (is == null) {
+            throw new IllegalArgumentException("Param is cannot be null");
+        }
+
+        final GeneSetMatrix cached = (useCache) ? (GeneSetMatrix) _getCache().getCached(path, GeneSetMatrix.class) : null;
+        if (cached != null) {
+            is.close();
+            return cached;
+        }
+
+        Parser parser = new BinaryGeneSetMatrixParser();
+        GeneSetMatrix gmx = (GeneSetMatrix) parser.parse(path, is).get(0);
+
+        if (add2Cache) {
+            _getCache().add(path, gmx, GeneSetMatrix.class);
+
+            // IMP also add all gsets in the gmx to cache, as for gmt
+            File parentFile = new File(path).getParentFile();
+            for (int i = 0; i < gmx.getNumGeneSets(); i++) {
+                File pseudo = new File(parentFile, gmx.getGeneSet(i).getName());
+                _getCache().addInvisibly(pseudo, gmx.getGeneSet(i));
+            }
+
+            _getCache().hackAddAuxSets(gmx);
+        }
+
+        is.close();
+        return gmx;
+    }
+
     public static PersistentObject read(final String path, final InputStream is) throws Exception {
         return read(path, is, true);
     }
@@ -759,6 +916,8 @@ public class ParserFactory implements Constants {
                 return readDatasetTXT(path, is, useCache);
             } else if (ext.equalsIgnoreCase(PCL)) {
                 return readDatasetPcl(path, is, useCache);
+            } else if (ext.equalsIgnoreCase(GCTB)) {
+                return readDatasetBinary(path, is, useCache);
             } else if (ext.startsWith(CLS)) { // IMP note -- special for the aux hash
                 // TODO: fix CLS caching bug.
                 // We should really set add2cache=true here, but that causes us to have multiple
@@ -768,6 +927,8 @@ public class ParserFactory implements Constants {
                 return readGeneSet(path, is, useCache);
             } else if (ext.equalsIgnoreCase(RNK)) {
                 return readRankedList(path, is, useCache);
+            } else if (ext.equalsIgnoreCase(GMTB)) {
+                return readGeneSetMatrixBinary(path, is, useCache, true);
             } else if (ext.startsWith(GMX)) {// IMP note -- special for the aux hash
                 return readGeneSetMatrix(path, is, useCache);
             } else if (ext.startsWith(GMT)) {// IMP note -- special for the aux hash
@@ -894,6 +1055,34 @@ public class ParserFactory implements Constants {
         return save(ds,toFile);
     }
 
+    /**
+     * Saves in the binary (gctb) format, which is memory-mapped when read back
+     *
+     * @param ds
+     * @param toFile
+     * @throws Exception
+     */
+    public static File saveBinary(final Dataset ds, final File toFile) throws Exception {
+        BinaryDatasetParser parser = new BinaryDatasetParser();
+        parser.export(ds, toFile);
+        _getCache().add(toFile, ds, Dataset.class);
+        return toFile;
+    }
+
+    /**
+     * Saves a binary snapshot of the gene sets, with the members pre-indexed
+     *
+     * @param gm
+     * @param toFile
+     * @throws Exception
+     */
+    public static File saveBinary(final GeneSetMatrix gm, final File toFile) throws Exception {
+        BinaryGeneSetMatrixParser parser = new BinaryGeneSetMatrixParser();
+        parser.export(gm, toFile);
+        _getCache().add(toFile, gm, GeneSetMatrix.class);
+        return toFile;
+    }
+
     public static void saveInvisibly2Cache(IDataframe idf, File toFile) throws Exception {
         if (idf instanceof Dataframe) {
             saveInvisibly2Cache((Dataframe) idf, toFile);
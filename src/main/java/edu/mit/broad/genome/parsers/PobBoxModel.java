@@ -1,12 +1,15 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package edu.mit.broad.genome.parsers;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.DefaultComboBoxModel;
 
@@ -70,6 +73,23 @@ public class PobBoxModel extends DefaultComboBoxModel<PersistentObject> {
         fireIntervalRemoved(this, index, index);
     }
 
+    /**
+     * Removes the objects in one pass rather than searching the list for each.  Objects are matched by identity.
+     *
+     * @return true if any were removed
+     */
+    public boolean removeElements(Collection<? extends PersistentObject> toRemove) {
+        final Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        set.addAll(toRemove);
+        if (!persistentObjects.removeIf(set::contains)) return false;
+
+        if (selected != null && set.contains(selected)) {
+            selected = null;
+        }
+        fireContentsChanged(this, -1, -1);
+        return true;
+    }
+
     @Override
     public void removeAllElements() {
         if (persistentObjects.isEmpty()) return;
@@ -0,0 +1,735 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import edu.mit.broad.genome.Constants;
+import edu.mit.broad.genome.math.Matrix;
+import org.apache.commons.io.input.ReaderInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Single-pass reader of the tab-delimited text matrices of the GCT and TXT dataset formats.
+ * <p/>
+ * Lines are scanned as bytes in a reused buffer and the values parsed straight into the float storage of the
+ * Matrix, so no String is made per line or per value (only for the row names and descriptions).  Large local
+ * files are split into byte ranges on line boundaries and the ranges parsed concurrently, after a quick first pass
+ * counting the data lines of each range so that every range knows where its rows go.
+ * <p/>
+ * The results are those of the line-by-line parsing this replaces: the same fields (see string2stringsV2),
+ * values (Float.parseFloat, empty and NA as NaN, double-quotes removed), comments, skipped rows and the same
+ * warnings logged in row order.
+ *
+ * @author David Eby
+ */
+final class TextMatrixReader implements Closeable {
+
+    // Ranges are no smaller than this, so only large files are split
+    private static final long MIN_RANGE_BYTES = 32L << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final long MAX_VALUES = Integer.MAX_VALUE - 8;
+
+    // Storage made from a header's row count before any line is read; it grows up to that count as lines come
+    private static final long MAX_UNREAD_VALUES = 1L << 24;
+
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final AbstractParser fParser;
+
+    private final Charset fCharset;
+
+    // Either the file (read by ranges) or null if reading a stream
+    private final File fFile_opt;
+
+    private final ReadableByteChannel fChannel;
+
+    private final LineReader fReader;
+
+    private final long fMinRangeBytes;
+
+    private final int fMaxRanges;
+
+    TextMatrixReader(final AbstractParser parser, final InputStream is) throws IOException {
+        this(parser, null, is, MIN_RANGE_BYTES, Runtime.getRuntime().availableProcessors());
+    }
+
+    TextMatrixReader(final AbstractParser parser, final File file) throws IOException {
+        this(parser, file, null, MIN_RANGE_BYTES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * For splitting small files too
+     */
+    TextMatrixReader(final AbstractParser parser, final File file, final long minRangeBytes, final int maxRanges) throws IOException {
+        this(parser, file, null, minRangeBytes, maxRanges);
+    }
+
+    private TextMatrixReader(final AbstractParser parser, final File file_opt, final InputStream is_opt,
+                             final long minRangeBytes, final int maxRanges) throws IOException {
+        if (parser == null) {
+            throw new IllegalArgumentException("Param parser cannot be null");
+        }
+
+        this.fParser = parser;
+        this.fMinRangeBytes = Math.max(1, minRangeBytes);
+        this.fMaxRanges = Math.max(1, maxRanges);
+        final Charset cs = Charset.defaultCharset();
+        if (isAsciiCompatible(cs)) {
+            this.fCharset = cs;
+            this.fFile_opt = file_opt;
+            this.fChannel = (file_opt != null) ? FileChannel.open(file_opt.toPath(), StandardOpenOption.READ)
+                    : Channels.newChannel(is_opt);
+        } else {
+            // Tabs and line ends can't be found among the bytes, so decode as before and scan the text as UTF-8
+            final InputStream is = (file_opt != null) ? new FileInputStream(file_opt) : is_opt;
+            this.fCharset = StandardCharsets.UTF_8;
+            this.fFile_opt = null;
+            this.fChannel = Channels.newChannel(new ReaderInputStream(new InputStreamReader(is, cs), StandardCharsets.UTF_8));
+        }
+        this.fReader = new LineReader(fChannel, Long.MAX_VALUE, 0);
+    }
+
+    // The bytes of tabs, line ends and numbers must be those of ASCII, and no multi-byte char may contain them
+    private static boolean isAsciiCompatible(final Charset cs) {
+        if (cs.equals(StandardCharsets.UTF_8)) { return true; }
+        if (!cs.canEncode() || cs.newEncoder().maxBytesPerChar() != 1f) { return false; }
+        final String probe = "\t\r\n #\".+-0123456789eENA";
+        return Arrays.equals(probe.getBytes(cs), probe.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public void close() throws IOException {
+        fChannel.close();
+    }
+
+    /**
+     * Same as AbstractParser.nextLine(): the next trimmed line that is neither empty nor a comment, with any
+     * comments passed over added to the parser's comment.  For the header lines.
+     */
+    String nextLine() throws IOException {
+        while (fReader.nextLine()) {
+            final String line = fReader.lineString(fCharset).trim();
+            if (line.startsWith(Constants.COMMENT_CHAR)) {
+                fParser.fComment.add(line);
+            } else if (line.length() != 0) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses all the remaining lines as data lines.
+     *
+     * @param numRows_opt the number of data lines expected, or -1 if not known.  Only used to size the storage,
+     *                    which is bounded by the size of the input and grows to this count as the lines are read;
+     *                    it is up to the caller to check the number of lines actually read.
+     */
+    Data readData(final int numCols, final boolean hasDesc, final int numRows_opt) throws Exception {
+        final long dataStart = fReader.position();
+        final long size = (fFile_opt != null) ? ((FileChannel) fChannel).size() : -1;
+        final int numRanges = (size < 0) ? 1
+                : (int) Math.max(1, Math.min(fMaxRanges, (size - dataStart) / fMinRangeBytes));
+
+        final Data data = new Data(numCols);
+        final List<Range> ranges = new ArrayList<Range>(numRanges);
+        if (numRanges == 1) {
+            final Range range = new Range(dataStart, Long.MAX_VALUE, hasDesc);
+            ranges.add(range);
+            // No more rows than data lines fit in the bytes left (a char and a line end each), whatever the header says
+            final long numRows = (size >= 0) ? Math.min(numRows_opt, (size - dataStart + 1) / 2) : numRows_opt;
+            if (numRows >= 0 && numRows * numCols <= MAX_VALUES) {
+                data.allocate((int) Math.min(numRows, Math.max(1024, MAX_UNREAD_VALUES / Math.max(1, numCols))), (int) numRows);
+                range.parse(fReader, data, true);
+            } else {
+                range.parse(fReader, data, false);
+                data.allocate(range.fNumLines, range.fNumLines);
+                range.copyRows(data);
+            }
+        } else {
+            final FileChannel channel = (FileChannel) fChannel;
+            long start = dataStart;
+            for (int i = 1; i <= numRanges; i++) {
+                final long end = (i == numRanges) ? size : lineStartAfter(channel, dataStart + (size - dataStart) * i / numRanges, size);
+                if (end > start) { ranges.add(new Range(start, end, hasDesc)); }
+                start = Math.max(start, end);
+            }
+
+            final ExecutorService pool = Executors.newFixedThreadPool(ranges.size());
+            try {
+                // The data lines of each range are counted first so each knows the index of its first row
+                final List<Future<Integer>> counts = new ArrayList<Future<Integer>>(ranges.size());
+                for (final Range range : ranges) {
+                    counts.add(pool.submit(() -> range.countLines(fFile_opt)));
+                }
+                int numLines = 0;
+                for (int i = 0; i < ranges.size(); i++) {
+                    ranges.get(i).fFirstLine = numLines;
+                    numLines += awaitResult(counts.get(i));
+                }
+
+                data.allocate(numLines, numLines);
+                final List<Future<Object>> parses = new ArrayList<Future<Object>>(ranges.size());
+                for (final Range range : ranges) {
+                    parses.add(pool.submit(() -> {
+                        try (FileChannel rangeChannel = FileChannel.open(fFile_opt.toPath(), StandardOpenOption.READ)) {
+                            rangeChannel.position(range.fStart);
+                            range.parse(new LineReader(rangeChannel, range.fEnd - range.fStart, range.fStart), data, true);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<Object> parse : parses) {
+                    awaitResult(parse);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        // Everything logged and thrown in line order, as if read line by line
+        for (Range range : ranges) {
+            range.report(data);
+        }
+        data.finish();
+        return data;
+    }
+
+    // Offset of the first line that starts at or after the given one
+    private static long lineStartAfter(final FileChannel channel, final long offset, final long size) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long pos = offset - 1;
+        boolean afterCR = false;
+        while (pos < size) {
+            buf.clear();
+            final int n = channel.read(buf, pos);
+            if (n <= 0) { break; }
+            for (int i = 0; i < n; i++, pos++) {
+                final byte b = buf.get(i);
+                if (afterCR) {
+                    return (b == '\n') ? pos + 1 : pos;
+                }
+                if (b == '\n') { return pos + 1; }
+                afterCR = (b == '\r');
+            }
+        }
+        return size;
+    }
+
+    private static <T> T awaitResult(final Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof Exception) { throw (Exception) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw ee;
+        }
+    }
+
+    /**
+     * The parsed data lines
+     */
+    static final class Data {
+        private final int fNumCols;
+
+        private Matrix fMatrix;
+        private float[] fColMajor_opt;
+        private int fCapacity;
+        private int fMaxRows;
+
+        private int fNumLines;
+        private final BitSet fSkippedLines = new BitSet();
+        private final List<String> fRowNames = new ArrayList<String>();
+        private final List<String> fRowDescs = new ArrayList<String>();
+
+        private int fSkippedMissingRows;
+        private int fPartialMissingRows;
+        private boolean fFoundInfiniteValues;
+
+        private Data(final int numCols) {
+            this.fNumCols = numCols;
+        }
+
+        private void allocate(final int numRows, final int maxRows) {
+            this.fCapacity = numRows;
+            this.fMaxRows = maxRows;
+            this.fMatrix = new Matrix(numRows, fNumCols);
+            this.fColMajor_opt = fMatrix.getColumnMajorData();
+        }
+
+        // Makes room for the given line if it is within the rows expected; only while a single range is parsed
+        private boolean ensureCapacity(final int line) {
+            if (line < fCapacity) { return true; }
+            if (line >= fMaxRows) { return false; }
+
+            final int capacity = (int) Math.min(fMaxRows, Math.max(line + 1L, 2L * fCapacity));
+            final Matrix matrix = new Matrix(capacity, fNumCols);
+            final float[] colMajor = matrix.getColumnMajorData();
+            if (fColMajor_opt != null && colMajor != null) {
+                for (int c = 0; c < fNumCols; c++) {
+                    System.arraycopy(fColMajor_opt, c * fCapacity, colMajor, c * capacity, fCapacity);
+                }
+            } else {
+                final float[] row = new float[fNumCols];
+                for (int r = 0; r < fCapacity; r++) {
+                    for (int c = 0; c < fNumCols; c++) {
+                        row[c] = fMatrix.getElement(r, c);
+                    }
+                    matrix.setRow(r, row);
+                }
+            }
+            this.fMatrix = matrix;
+            this.fCapacity = capacity;
+            this.fColMajor_opt = colMajor;
+            return true;
+        }
+
+        // Rows are stored at their line index; lines from different ranges never share a row
+        private void setRow(final int line, final float[] row) {
+            if (fColMajor_opt != null) {
+                for (int c = 0, i = line; c < fNumCols; c++, i += fCapacity) {
+                    fColMajor_opt[i] = row[c];
+                }
+            } else {
+                fMatrix.setRow(line, row);
+            }
+        }
+
+        // Drops the rows of skipped lines and any capacity left unused
+        private void finish() {
+            final int numRows = fRowNames.size();
+            if (numRows == fCapacity || numRows == 0) { return; }
+
+            final Matrix matrix = new Matrix(numRows, fNumCols);
+            final float[] colMajor = matrix.getColumnMajorData();
+            final float[] row = new float[fNumCols];
+            for (int line = 0, r = 0; r < numRows; line++) {
+                if (fSkippedLines.get(line)) { continue; }
+                if (fColMajor_opt != null && colMajor != null) {
+                    for (int c = 0, from = line, to = r; c < fNumCols; c++, from += fCapacity, to += numRows) {
+                        colMajor[to] = fColMajor_opt[from];
+                    }
+                } else {
+                    for (int c = 0; c < fNumCols; c++) {
+                        row[c] = fMatrix.getElement(line, c);
+                    }
+                    matrix.setRow(r, row);
+                }
+                r++;
+            }
+            this.fMatrix = matrix;
+            this.fCapacity = numRows;
+            this.fColMajor_opt = colMajor;
+        }
+
+        int getNumLines() { return fNumLines; }
+
+        Matrix getMatrix() { return fMatrix; }
+
+        List<String> getRowNames() { return fRowNames; }
+
+        List<String> getRowDescs() { return fRowDescs; }
+
+        int getSkippedMissingRows() { return fSkippedMissingRows; }
+
+        int getPartialMissingRows() { return fPartialMissingRows; }
+
+        boolean foundInfiniteValues() { return fFoundInfiniteValues; }
+    }
+
+    private static final int ALL_MISSING = 0;
+    private static final int SOME_MISSING = 1;
+    private static final int INFINITE = 2;
+
+    /**
+     * A run of whole lines of the data, and what was found in them to be reported once all are parsed
+     */
+    private final class Range {
+        private final long fStart;
+        private final long fEnd;
+        private final boolean fHasDesc;
+        private int fFirstLine;
+
+        private int fNumLines;
+        private final List<String> fComments = new ArrayList<String>();
+        private final List<String> fRowNames = new ArrayList<String>();
+        private final List<String> fRowDescs = new ArrayList<String>();
+        private final BitSet fSkippedLines = new BitSet();
+        private int fPartialMissingRows;
+
+        // The lines, kinds and row names of the warnings, in order
+        private final List<int[]> fEvents = new ArrayList<int[]>();
+        private final List<String> fEventRowNames = new ArrayList<String>();
+
+        // Rows of an unknown number of lines, kept until the storage is made
+        private float[] fRows;
+
+        // The first failure; thrown after the warnings of the lines before it are logged
+        private Exception fFailure;
+        private int fFailedLine;
+        private String fFailedRowName;
+        private String fFailedValue;
+
+        private Range(final long start, final long end, final boolean hasDesc) {
+            this.fStart = start;
+            this.fEnd = end;
+            this.fHasDesc = hasDesc;
+        }
+
+        private int countLines(final File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.position(fStart);
+                final LineReader reader = new LineReader(channel, fEnd - fStart, fStart);
+                int count = 0;
+                while (reader.nextLine()) {
+                    if (reader.isDataLine()) { count++; }
+                }
+                return count;
+            }
+        }
+
+        private void parse(final LineReader reader, final Data data, final boolean direct) throws IOException {
+            final int numCols = data.fNumCols;
+            final int startPos = fHasDesc ? 2 : 1;
+            final int expFields = numCols + startPos;
+            final float[] row = new float[numCols];
+            if (!direct) { fRows = new float[Math.max(16, numCols) * 16]; }
+
+            while (reader.nextLine()) {
+                if (!reader.isDataLine()) {
+                    if (reader.isCommentLine()) { fComments.add(reader.lineString(fCharset)); }
+                    continue;
+                }
+
+                final int local = fNumLines++;
+                final int line = fFirstLine + local;
+                if (fFailure != null || (direct && !data.ensureCapacity(line))) { continue; } // just counting
+
+                final byte[] buf = reader.fBuf;
+                final int lineEnd = reader.fLineEnd;
+                int pos = reader.fLineStart;
+                String rowName = null;
+                String desc = null;
+                int numValues = 0;
+                int countMissing = 0;
+                boolean infinite = false;
+
+                // Fields are the trimmed runs between tabs; missing ones are empty and empty extra ones are dropped
+                int field = 0;
+                for (; field == 0 || pos <= lineEnd; field++) {
+                    int end = pos;
+                    while (end < lineEnd && buf[end] != '\t') { end++; }
+                    int s = pos;
+                    int e = end;
+                    while (s < e && (buf[s] & 0xff) <= ' ') { s++; }
+                    while (e > s && (buf[e - 1] & 0xff) <= ' ') { e--; }
+                    pos = end + 1;
+
+                    if (field == 0) {
+                        try {
+                            rowName = fParser.parseRowname(new String(buf, s, e - s, fCharset), line);
+                        } catch (ParserException pe) {
+                            fail(pe, local, null, null);
+                            break;
+                        }
+                    } else if (field < startPos) {
+                        desc = (e > s) ? new String(buf, s, e - s, fCharset) : Constants.NA;
+                    } else if (field < expFields || e > s) {
+                        final float value;
+                        try {
+                            value = parseFloat(buf, s, e);
+                        } catch (NumberFormatException nfe) {
+                            fail(nfe, local, rowName, new String(buf, s, e - s, fCharset));
+                            break;
+                        }
+                        if (field < expFields) { row[field - startPos] = value; }
+                        numValues++;
+                        if (Float.isNaN(value)) { countMissing++; }
+                        infinite |= Float.isInfinite(value);
+                    }
+                }
+                if (fFailure != null) { continue; }
+                if (field == 1 && startPos == 2) { desc = Constants.NA; } // no desc field at all
+                for (; field < expFields; field++) {
+                    if (field >= startPos) {
+                        row[field - startPos] = Float.NaN;
+                        numValues++;
+                        countMissing++;
+                    }
+                }
+
+                if (countMissing < numValues) {
+                    if (countMissing > 0) {
+                        fPartialMissingRows++;
+                        event(local, SOME_MISSING, rowName);
+                    }
+                    fRowNames.add(rowName);
+                    if (fHasDesc) { fRowDescs.add(desc); }
+                    if (direct) {
+                        data.setRow(line, row);
+                    } else {
+                        keepRow(local, row);
+                    }
+                } else {
+                    event(local, ALL_MISSING, rowName);
+                    fSkippedLines.set(local);
+                    if (!direct) { keepRow(local, row); }
+                }
+                if (infinite) { event(local, INFINITE, rowName); }
+            }
+        }
+
+        private void keepRow(final int local, final float[] row) {
+            final int numCols = row.length;
+            if ((long) (local + 1) * numCols > fRows.length) {
+                fRows = Arrays.copyOf(fRows, (int) Math.min(MAX_VALUES, Math.max((long) (local + 1) * numCols, 2L * fRows.length)));
+            }
+            System.arraycopy(row, 0, fRows, local * numCols, numCols);
+        }
+
+        private void copyRows(final Data data) {
+            if (fFailure != null) { return; } // to be thrown by report()
+            final int numCols = data.fNumCols;
+            final float[] row = new float[numCols];
+            for (int local = 0; local < fNumLines; local++) {
+                System.arraycopy(fRows, local * numCols, row, 0, numCols);
+                data.setRow(fFirstLine + local, row);
+            }
+            fRows = null;
+        }
+
+        private void event(final int local, final int kind, final String rowName) {
+            fEvents.add(new int[]{local, kind});
+            fEventRowNames.add(rowName);
+        }
+
+        private void fail(final Exception e, final int local, final String rowName, final String value) {
+            this.fFailure = e;
+            this.fFailedLine = local;
+            this.fFailedRowName = rowName;
+            this.fFailedValue = value;
+        }
+
+        private void report(final Data data) throws Exception {
+            for (String comment : fComments) {
+                fParser.fComment.add(comment);
+            }
+
+            for (int i = 0; i < fEvents.size(); i++) {
+                final int[] event = fEvents.get(i);
+                final int row = fFirstLine + event[0] + 1;
+                final String rowName = fEventRowNames.get(i);
+                switch (event[1]) {
+                    case ALL_MISSING:
+                        fParser.log.warn("All values missing in row {} of the data matrix with Name '{}'.  Row will be ignored.", row, rowName);
+                        break;
+                    case SOME_MISSING:
+                        fParser.log.warn("Missing values found in row {} of the data matrix with Name '{}'.", row, rowName);
+                        break;
+                    default:
+                        fParser.log.warn("Infinite values found in row {} of the data matrix with Name '{}'.", row, rowName);
+                        data.fFoundInfiniteValues = true;
+                        break;
+                }
+            }
+
+            if (fFailure != null) {
+                if (fFailure instanceof NumberFormatException) {
+                    fParser.log.error("Could not parse '{}' as a floating point number in row {} of the data matrix with Name '{}'.",
+                            fFailedValue, (fFirstLine + fFailedLine + 1), fFailedRowName);
+                }
+                throw fFailure;
+            }
+
+            data.fNumLines += fNumLines;
+            data.fRowNames.addAll(fRowNames);
+            data.fRowDescs.addAll(fRowDescs);
+            data.fSkippedMissingRows += fSkippedLines.cardinality();
+            data.fPartialMissingRows += fPartialMissingRows;
+            for (int i = fSkippedLines.nextSetBit(0); i >= 0; i = fSkippedLines.nextSetBit(i + 1)) {
+                data.fSkippedLines.set(fFirstLine + i);
+            }
+        }
+    }
+
+    /**
+     * Same as AbstractParser.parseStringToFloat() for the (trimmed) bytes
+     */
+    private float parseFloat(final byte[] buf, final int start, final int end) {
+        if (start == end) { return Float.NaN; }
+
+        final float value = parseSimpleDecimal(buf, start, end);
+        if (!Float.isNaN(value)) { return value; }
+
+        return fParser.parseStringToFloat(new String(buf, start, end - start, fCharset), true);
+    }
+
+    /**
+     * Converts plain decimals ([+-]digits[.digits][(e|E)[+-]digits]) of up to 15 or so significant digits
+     * without making a String, or returns NaN for anything else (NA, quoted values, hex, etc).
+     * <p/>
+     * The digits and the power of ten are then both exact doubles, so one double multiply or divide gives the
+     * correctly rounded double.  Rounding that to float gives the same as Float.parseFloat() unless the double
+     * falls exactly halfway between two floats (or is subnormal as a float), and those are left to it.
+     */
+    static float parseSimpleDecimal(final byte[] buf, final int start, final int end) {
+        int i = start;
+        final boolean neg = i < end && buf[i] == '-';
+        if (neg || (i < end && buf[i] == '+')) { i++; }
+
+        long mantissa = 0;
+        int numDigits = 0;
+        int exp10 = 0;
+        boolean anyDigits = false;
+        for (; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+            anyDigits = true;
+            if (mantissa == 0 && buf[i] == '0') { continue; }
+            if (++numDigits > 18) { return Float.NaN; }
+            mantissa = mantissa * 10 + (buf[i] - '0');
+        }
+        if (i < end && buf[i] == '.') {
+            for (i++; i < end && buf[i] >= '0' && buf[i] <= '9'; i++) {
+                anyDigits = true;
+                exp10--;
+                if (mantissa == 0 && buf[i] == '0') { continue; }
+                if (++numDigits > 18) { return Float.NaN; }
+                mantissa = mantissa * 10 + (buf[i] - '0');
+            }
+        }
+        if (!anyDigits) { return Float.NaN; }
+        if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            final boolean negExp = i < end && buf[i] == '-';
+            if (negExp || (i < end && buf[i] == '+')) { i++; }
+            final int expStart = i;
+            int exp = 0;
+            for (; i < end && buf[i] >= '0' && buf[i] <= '9' && i - expStart < 4; i++) {
+                exp = exp * 10 + (buf[i] - '0');
+            }
+            if (i == expStart) { return Float.NaN; }
+            exp10 += negExp ? -exp : exp;
+        }
+        if (i != end) { return Float.NaN; }
+
+        if (mantissa == 0) { return neg ? -0f : 0f; }
+        while (mantissa % 10 == 0) {
+            mantissa /= 10;
+            exp10++;
+        }
+        if (mantissa >= (1L << 53) || exp10 < -22 || exp10 > 22) { return Float.NaN; }
+
+        final double d = (exp10 >= 0) ? mantissa * POW10[exp10] : mantissa / POW10[-exp10];
+        if (d < Float.MIN_NORMAL || (Double.doubleToRawLongBits(d) & 0x1FFFFFFFL) == 0x10000000L) { return Float.NaN; }
+
+        return neg ? -(float) d : (float) d;
+    }
+
+    /**
+     * Lines of bytes from a channel, ended as by BufferedReader.readLine() (\n, \r or \r\n), in a reused buffer
+     */
+    private static final class LineReader {
+        private final ReadableByteChannel fChannel;
+        private long fRemaining;
+
+        private byte[] fBuf = new byte[BUFFER_SIZE];
+        private int fPos;
+        private int fLimit;
+        private long fBufOffset; // of fBuf[0] in the channel
+        private boolean fEof;
+
+        private int fLineStart;
+        private int fLineEnd;
+
+        private LineReader(final ReadableByteChannel channel, final long maxBytes, final long offset) {
+            this.fChannel = channel;
+            this.fRemaining = maxBytes;
+            this.fBufOffset = offset;
+        }
+
+        long position() {
+            return fBufOffset + fPos;
+        }
+
+        boolean nextLine() throws IOException {
+            int scan = fPos;
+            while (true) {
+                for (; scan < fLimit; scan++) {
+                    final byte b = fBuf[scan];
+                    if (b == '\n' || b == '\r') {
+                        if (b == '\r' && scan + 1 == fLimit && !fEof) { break; } // need to see past it
+                        fLineStart = fPos;
+                        fLineEnd = scan;
+                        fPos = (b == '\r' && scan + 1 < fLimit && fBuf[scan + 1] == '\n') ? scan + 2 : scan + 1;
+                        return true;
+                    }
+                }
+                if (fEof) {
+                    if (fPos == fLimit) { return false; }
+                    fLineStart = fPos;
+                    fLineEnd = fLimit;
+                    fPos = fLimit;
+                    return true;
+                }
+                scan -= fPos;
+                fill();
+            }
+        }
+
+        // Keeps the unfinished line, making room for more
+        private void fill() throws IOException {
+            final int kept = fLimit - fPos;
+            if (fPos == 0 && fLimit == fBuf.length) {
+                fBuf = Arrays.copyOf(fBuf, fBuf.length * 2);
+            } else if (fPos > 0) {
+                System.arraycopy(fBuf, fPos, fBuf, 0, kept);
+                fBufOffset += fPos;
+            }
+            fPos = 0;
+            fLimit = kept;
+
+            while (fLimit < fBuf.length && !fEof) {
+                final int want = (int) Math.min(fBuf.length - fLimit, fRemaining);
+                final int n = (want == 0) ? -1 : fChannel.read(ByteBuffer.wrap(fBuf, fLimit, want));
+                if (n < 0) {
+                    fEof = true;
+                } else {
+                    fLimit += n;
+                    fRemaining -= n;
+                    if (n > 0) { break; }
+                }
+            }
+        }
+
+        // As nextLineTrimless(): anything but empty lines and comments
+        boolean isDataLine() {
+            return fLineEnd > fLineStart && fBuf[fLineStart] != '#';
+        }
+
+        boolean isCommentLine() {
+            return fLineEnd > fLineStart && fBuf[fLineStart] == '#';
+        }
+
+        String lineString(final Charset cs) {
+            return new String(fBuf, fLineStart, fLineEnd - fLineStart, cs);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.parsers;
 
@@ -8,7 +8,6 @@ import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.objects.*;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -75,37 +74,42 @@ public class TxtDatasetParser extends AbstractParser {
     public List parse(String sourcepath, InputStream is) throws Exception {
         startImport(sourcepath);
 
-        try (BufferedReader bin = new BufferedReader(new InputStreamReader(is))) {
-            String objName = NamingConventions.removeExtension(sourcepath);
-            String currLine = nextLine(bin);
-    
-            // 1st  non-empty, non-comment line are the column names
-            List<String> colnames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
-    
-            colnames.remove(0);                                 // first elem is always nonsense
-    
-            boolean hasDesc = false;
-            String possibleDescToken = colnames.get(0).toString();
-            if (possibleDescToken.equalsIgnoreCase(Constants.DESCRIPTION) || possibleDescToken.equalsIgnoreCase("DESC")) {
-                colnames.remove(0);
-                hasDesc = true;
-            }
-    
-            log.debug("HAS DESC: {}", hasDesc);
-    
-            // At this point, currLine should contain the first data line
-            // data line: <row name> <tab> <ex1> <tab> <ex2> <tab>
-            List<String> lines = new ArrayList<String>();
-    
-            currLine = nextLineTrimless(bin);
-    
-            // save all rows so that we can determine how many rows exist
-            while (currLine != null) {
-                lines.add(currLine);
-                //currLine = nextLine(bin);
-                currLine = nextLineTrimless(bin); /// imp for mv datasets -> last col(s) can be a tab
-            }
-            return parseTextMatrixToDataset(objName, lines, colnames, hasDesc);
+        try (TextMatrixReader reader = new TextMatrixReader(this, is)) {
+            return parse(sourcepath, reader);
         }
     }
+
+    /**
+     * Reads the file directly, in parallel if it is large
+     */
+    public List parse(String objname, File file) throws Exception {
+        startImport(objname);
+
+        try (TextMatrixReader reader = new TextMatrixReader(this, file)) {
+            return parse(objname, reader);
+        }
+    }
+
+    private List parse(String sourcepath, TextMatrixReader reader) throws Exception {
+        String objName = NamingConventions.removeExtension(sourcepath);
+        String currLine = reader.nextLine();
+
+        // 1st  non-empty, non-comment line are the column names
+        List<String> colnames = ParseUtils.string2stringsList(currLine, "\t"); // colnames can have spaces
+
+        colnames.remove(0);                                 // first elem is always nonsense
+
+        boolean hasDesc = false;
+        String possibleDescToken = colnames.get(0).toString();
+        if (possibleDescToken.equalsIgnoreCase(Constants.DESCRIPTION) || possibleDescToken.equalsIgnoreCase("DESC")) {
+            colnames.remove(0);
+            hasDesc = true;
+        }
+
+        log.debug("HAS DESC: {}", hasDesc);
+
+        // The rest are data lines: <row name> <tab> <ex1> <tab> <ex2> <tab>
+        TextMatrixReader.Data data = reader.readData(colnames.size(), hasDesc, -1);
+        return parseTextMatrixToDataset(objName, data, colnames, hasDesc);
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2023 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.reports;
 
@@ -72,6 +72,12 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 /**
  * Several enrichemnt related reports
@@ -114,22 +120,23 @@ public class EnrichmentReports {
 
     public static Ret createGseaLikeReport(final EnrichmentDb edb_original, final PrintStream out, final CollapsedDetails cd, final HtmlPage reportIndexPage, final ToolReport report, 
     		final int topXSets, final int minSize, final int maxSize, final boolean makeGeneSetsReport, final boolean makeZippedFile, final boolean createSvgs, final boolean createGcts,
-            final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName) {
+            final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName, final int numThreads) {
         FeatureAnnot fann = null;
         if (edb_original.getDataset() != null && edb_original.getDataset().getAnnot() != null) {
             fann = edb_original.getDataset().getAnnot().getFeatureAnnot();
         }
 
         return createGseaLikeReport(edb_original, out, cd, reportIndexPage, report.getReportDir(), report, topXSets, minSize, maxSize,
-                makeGeneSetsReport, makeZippedFile, createSvgs, createGcts, origGeneSets_opt, metricName, normModeName, fann);
+                makeGeneSetsReport, makeZippedFile, createSvgs, createGcts, origGeneSets_opt, metricName, normModeName, fann, numThreads);
     }
 
     public static Ret createGseaLikeReport(final EnrichmentDb edb_original, final PrintStream out, final CollapsedDetails cd, final HtmlPage reportIndexPage, final ToolReport report, 
     		final int topXSets, final int minSize, final int maxSize, final boolean makeGeneSetsReport, final boolean makeZippedFile, final boolean createSvgs, 
-    		final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName, final FeatureAnnot fann_opt) {
+    		final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName, final FeatureAnnot fann_opt, 
+    		final int numThreads) {
         // Note we never create GCTs for this call; this corresponds to Preranked, which has no heatmaps in the report.
         return createGseaLikeReport(edb_original, out, cd, reportIndexPage, report.getReportDir(), report, topXSets, minSize, maxSize,
-                makeGeneSetsReport, makeZippedFile, createSvgs, false, origGeneSets_opt, metricName, normModeName, fann_opt);
+                makeGeneSetsReport, makeZippedFile, createSvgs, false, origGeneSets_opt, metricName, normModeName, fann_opt, numThreads);
     }
 
     private static String _createPhenotypeName(EnrichmentDb edb) {
@@ -153,7 +160,8 @@ public class EnrichmentReports {
     // @note this is the CORE CORE CORE CORE report making method
     public static Ret createGseaLikeReport(final EnrichmentDb edb_original, final PrintStream out, final CollapsedDetails cd, final HtmlPage reportIndexPage, final File saveInThisDir, 
     		final ToolReport report, final int topXSets, final int minSize, final int maxSize, final boolean makeGeneSetsReport, final boolean makeZippedFile, final boolean createSvgs, 
-    		final boolean createGcts, final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName, final FeatureAnnot fann_opt) {
+    		final boolean createGcts, final GeneSet[] origGeneSets_opt, final String metricName, final String normModeName, final FeatureAnnot fann_opt,
+    		final int numThreads) {
         if (normModeName == null) {
             throw new IllegalArgumentException("Param normModeName cannot be null");
         }
@@ -263,12 +271,12 @@ public class EnrichmentReports {
         klog.info("Creating FDR reports ...");
         final EnrichmentResult[] results_pos = edb.getResults(true);
         final BasicReportStruc pos_basic = createReport(results_pos, name, phenotypeName, classA_name_opt, classB_name_opt, rlReal, template, fann_opt,
-                "Gene sets enriched in phenotype <b>" + classA_name_long + "<b>", topXSets, makeGeneSetsReport, createSvgs, createGcts, saveInThisDir);
+                "Gene sets enriched in phenotype <b>" + classA_name_long + "<b>", topXSets, makeGeneSetsReport, createSvgs, createGcts, saveInThisDir, out, numThreads);
         klog.info("Done FDR reports for positive phenotype");
 
         final EnrichmentResult[] results_neg = edb.getResults(false);
         final BasicReportStruc neg_basic = createReport(results_neg, name, phenotypeName, classA_name_opt, classB_name_opt, rlReal, template, fann_opt,
-                "Gene sets enriched in phenotype <b>" + classB_name_long + "<b>", topXSets, makeGeneSetsReport, createSvgs, createGcts, saveInThisDir);
+                "Gene sets enriched in phenotype <b>" + classB_name_long + "<b>", topXSets, makeGeneSetsReport, createSvgs, createGcts, saveInThisDir, out, numThreads);
         klog.info("Done FDR reports for negative phenotype");
 
         // Ok done calcs; begin formatting and outputting reports
@@ -519,7 +527,9 @@ public class EnrichmentReports {
                                                 final boolean makeDetailsPage,
                                                 final boolean createSvgs,
                                                 final boolean createGcts,
-                                                final File saveDetailFilesInDir) {
+                                                final File saveDetailFilesInDir,
+                                                final PrintStream out,
+                                                final int numThreads) {
 
         // check if there are *any* that are pos
         // actually assume that are are some
@@ -531,6 +541,49 @@ public class EnrichmentReports {
         // for the bg shading of the hit plot -- just needs to be made once for all sets on this rl
         final IntervalMarker[] markers = _markers(rl);
 
+        // The details pages (the slow part) are made first, then the table is filled in below
+        final int numDetails = (makeDetailsPage) ? Math.max(0, Math.min(showDetailsForTopXSets, results.length)) : 0;
+        final HtmlPage[] detailPages = new HtmlPage[numDetails];
+        final EnrichmentReport[] detailReports = new EnrichmentReport[numDetails];
+        final IntConsumer detailsMaker = r -> {
+            final EnrichmentResult dtg = results[r];
+            final String gsetName = dtg.getGeneSet().getName(true);
+            final HtmlPage htmlPage = new HtmlPage(gsetName, "Details for gene set " + gsetName + "[GSEA]");
+            final MyEnrichmentReportImpl mer = createReport(dsName, phenotypeName, phenoClassAName_opt, phenoClassBName_opt, rl, 
+            		template_opt, dtg.getGeneSet(), dtg.getScore().getHitIndices(), dtg.getScore().getESProfile(), 
+            		dtg.getScore().getESProfile_point_by_point_opt(), dtg.getScore().getES(), dtg.getScore().getNES(), 
+            		dtg.getScore().getNP(), dtg.getScore().getFDR(), dtg.getScore().getFWER(), dtg.getRndESS(), htmlPage, 
+            		fannx, createSvgs, createGcts, markers, saveDetailFilesInDir);
+            detailPages[r] = htmlPage;
+
+            // dont do this as it saves the pages in memory
+            //report.savePage(pages[0]);
+            //report.savePage(pages[1]);
+            try {
+                File htmlFile = new File(saveDetailFilesInDir, mer.fHtmlPage.getName() + ".html");
+                htmlPage.write(new FileOutputStream(htmlFile));
+                mer.fTsvPage.write(new FileOutputStream(new File(saveDetailFilesInDir, 
+                        mer.fTsvPage.getName() + "." + Constants.TSV)));
+                PicFile[] pfs = htmlPage.getPicFiles();
+                File plotFile = pfs[0].getFile(); // because image write likes to rename stuff
+
+                // @note IMP IMP dont re-use as want this to be light (just files)
+                detailReports[r] = new EnrichmentReportImpl(htmlFile, plotFile);
+            } catch (Throwable thr) {
+                klog.error("Error making details: {}", gsetName);
+                klog.error(thr.getMessage(), thr);
+            }
+        };
+
+        if (numThreads <= 1 || numDetails <= 1) {
+            for (int r = 0; r < numDetails; r++) {
+                detailsMaker.accept(r);
+                _reportDetailsProgress(out, r + 1, numDetails);
+            }
+        } else {
+            _createDetailsPagesConcurrently(numDetails, numThreads, rl, results, detailPages, detailsMaker, out);
+        }
+
         List<EnrichmentReport> ereports = new ArrayList<EnrichmentReport>();
         for (int r = 0; r < results.length; r++) {
             int coln = 0;
@@ -539,31 +592,10 @@ public class EnrichmentReports {
             HtmlPage htmlPage = null;
             sm.setElement(r, coln++, gsetNames[r]);
 
-            if (makeDetailsPage && r < showDetailsForTopXSets) {
-                final EnrichmentResult dtg = results[r];
-                htmlPage = new HtmlPage(gsetNames[r], "Details for gene set " + gsetNames[r] + "[GSEA]");
-                final MyEnrichmentReportImpl mer = createReport(dsName, phenotypeName, phenoClassAName_opt, phenoClassBName_opt, rl, 
-                		template_opt, dtg.getGeneSet(), dtg.getScore().getHitIndices(), dtg.getScore().getESProfile(), 
-                		dtg.getScore().getESProfile_point_by_point_opt(), result.getScore().getES(), result.getScore().getNES(), 
-                		result.getScore().getNP(), result.getScore().getFDR(), result.getScore().getFWER(), dtg.getRndESS(), htmlPage, 
-                		fannx, createSvgs, createGcts, markers, saveDetailFilesInDir);
-
-                // dont do this as it saves the pages in memory
-                //report.savePage(pages[0]);
-                //report.savePage(pages[1]);
-                try {
-                    File htmlFile = new File(saveDetailFilesInDir, mer.fHtmlPage.getName() + ".html");
-                    htmlPage.write(new FileOutputStream(htmlFile));
-                    mer.fTsvPage.write(new FileOutputStream(new File(saveDetailFilesInDir, 
-                            mer.fTsvPage.getName() + "." + Constants.TSV)));
-                    PicFile[] pfs = htmlPage.getPicFiles();
-                    File plotFile = pfs[0].getFile(); // because image write likes to rename stuff
-
-                    // @note IMP IMP dont re-use as want this to be light (just files)
-                    ereports.add(new EnrichmentReportImpl(htmlFile, plotFile));
-                } catch (Throwable thr) {
-                    klog.error("Error making details: {}", gsetNames[r]);
-                    klog.error(thr.getMessage(), thr);
+            if (r < numDetails) {
+                htmlPage = detailPages[r];
+                if (detailReports[r] != null) {
+                    ereports.add(detailReports[r]);
                 }
                 sm.setElement(r, coln++, "Details ..."); // i.e desc
             } else {
@@ -601,6 +633,89 @@ public class EnrichmentReports {
         return struc;
     }
 
+    private static final int DETAILS_PROGRESS_INTERVAL = 50;
+
+    private static void _reportDetailsProgress(final PrintStream out, final int numDone, final int numDetails) {
+        if (out != null && (numDone % DETAILS_PROGRESS_INTERVAL == 0 || numDone == numDetails)) {
+            out.println("Created details reports for " + numDone + "/" + numDetails + " gene sets");
+        }
+    }
+
+    // The number of images on a details page when nothing goes wrong making it: the enrichment plot, the
+    // heat map (only for a ScoredDataset) and the null distribution histogram (only if there is one)
+    private static int _numDetailsImages(final RankedList rl, final EnrichmentResult result) {
+        int numImages = 1;
+        if (rl instanceof ScoredDataset) { numImages++; }
+        if (result.getRndESS() != null && result.getRndESS().getSize() != 0) { numImages++; }
+        return numImages;
+    }
+
+    // Makes the details pages on a bounded pool.  The images are numbered into their file names as they are made,
+    // so each page is given the block of numbers it would have used had the pages been made one after another, and
+    // the output is the same as that of the sequential path.  Should a page come up short (an error part way
+    // through), the pages after it are redone in order with the right numbers.
+    private static void _createDetailsPagesConcurrently(final int numDetails, final int numThreads, final RankedList rl,
+            final EnrichmentResult[] results, final HtmlPage[] detailPages, final IntConsumer detailsMaker, 
+            final PrintStream out) {
+
+        // Lazily built lookups on the shared ranked list must be in place before the workers start.
+        rl.getRank(rl.getRankName(0));
+        rl.getMetricWeightStruc();
+
+        final int[] firstImages = new int[numDetails];
+        final int[] numImages = new int[numDetails];
+        int nextImage = PicFile.getNextImageNumber();
+        for (int r = 0; r < numDetails; r++) {
+            firstImages[r] = nextImage;
+            nextImage += _numDetailsImages(rl, results[r]);
+        }
+
+        final AtomicInteger numDone = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numDetails));
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>(numDetails);
+            for (int r = 0; r < numDetails; r++) {
+                final int page = r;
+                futures.add(pool.submit(() -> {
+                    numImages[page] = PicFile.numberImagesFrom(firstImages[page], () -> detailsMaker.accept(page));
+                    _reportDetailsProgress(out, numDone.incrementAndGet(), numDetails);
+                }));
+            }
+            for (Future<?> future : futures) {
+                _await(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        nextImage = firstImages[0];
+        for (int r = 0; r < numDetails; r++) {
+            if (firstImages[r] != nextImage) {
+                for (PicFile pf : detailPages[r].getPicFiles()) {
+                    pf.deleteFiles();
+                }
+                final int page = r;
+                numImages[r] = PicFile.numberImagesFrom(nextImage, () -> detailsMaker.accept(page));
+            }
+            nextImage += numImages[r];
+        }
+        PicFile.setNextImageNumber(nextImage);
+    }
+
+    private static void _await(final Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating details reports", ie);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IllegalStateException(cause);
+        }
+    }
+
     public static HtmlPage createSnapshotPage(final boolean pos, final EnrichmentReport[] reports) {
 
         Table table = new Table();
@@ -885,11 +1000,15 @@ public class EnrichmentReports {
 
         if (markers != null && markers.length > 0) {
             for (int i = 0; i < markers.length; i++) {
-                markers[i].setAlpha(1.0f);
+                // The markers are shared by every chart on the ranked list (possibly being drawn concurrently), 
+                // so each chart styles and listens to its own copy.
+                final IntervalMarker marker = new IntervalMarker(markers[i].getStartValue(), markers[i].getEndValue());
+                marker.setPaint(markers[i].getPaint());
+                marker.setAlpha(1.0f);
                 // Hide the IntervalMarker line
-                markers[i].setOutlineStroke(new BasicStroke(0.0f));
-                markers[i].setOutlinePaint(new Color(0, 0, 0, 0));
-                plot.addDomainMarker(0, markers[i], Layer.BACKGROUND); // @note add as background
+                marker.setOutlineStroke(new BasicStroke(0.0f));
+                marker.setOutlinePaint(new Color(0, 0, 0, 0));
+                plot.addDomainMarker(0, marker, Layer.BACKGROUND); // @note add as background
             }
         }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.reports.api;
 
@@ -7,6 +7,7 @@ import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.charts.XChart;
 import edu.mit.broad.genome.reports.pages.HtmlFormat;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.ecs.StringElement;
 import org.apache.ecs.html.BR;
 import org.apache.ecs.html.Div;
@@ -62,12 +63,49 @@ public class PicFile {
 
     private static int kImageCounter = 1;
 
+    // Set only while a thread is inside numberImagesFrom()
+    private static final ThreadLocal<int[]> kScopedImageCounter = new ThreadLocal<int[]>();
+
     public static String generateName(final XChart xchart) {
-        return NamingConventions.createSafeFileName(xchart.getName()) + "_" + kImageCounter++;
+        return NamingConventions.createSafeFileName(xchart.getName()) + "_" + nextImageNumber();
     }
 
     public static String generateNameForImage(final String title) {
-        return NamingConventions.createSafeFileName(title) + "_" + kImageCounter++;
+        return NamingConventions.createSafeFileName(title) + "_" + nextImageNumber();
+    }
+
+    private static int nextImageNumber() {
+        final int[] scoped = kScopedImageCounter.get();
+        if (scoped != null) { return scoped[0]++; }
+        synchronized (PicFile.class) {
+            return kImageCounter++;
+        }
+    }
+
+    public static synchronized int getNextImageNumber() {
+        return kImageCounter;
+    }
+
+    public static synchronized void setNextImageNumber(final int next) {
+        kImageCounter = next;
+    }
+
+    /**
+     * Runs the task with the images it names on the calling thread numbered consecutively from first, rather than
+     * from the global counter (which is left alone).  This lets images be created concurrently under the same
+     * names they would get one after another, provided the caller has worked out where each task's numbers start.
+     *
+     * @return the number of images named by the task
+     */
+    public static int numberImagesFrom(final int first, final Runnable task) {
+        final int[] scoped = new int[] { first };
+        kScopedImageCounter.set(scoped);
+        try {
+            task.run();
+        } finally {
+            kScopedImageCounter.remove();
+        }
+        return scoped[0] - first;
     }
 
     // common init routine
@@ -167,6 +205,16 @@ public class PicFile {
         isSaved = true;
     }
     
+    /**
+     * Removes whatever image files have been saved for this picture.
+     */
+    public void deleteFiles() {
+        FileUtils.deleteQuietly(fSavedFile);
+        if (fSavedFileSvg != null) {
+            FileUtils.deleteQuietly(fSavedFileSvg);
+        }
+    }
+
     public File getFile() {
         if (!isSaved) {
             throw new IllegalStateException("Not yet saved");
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.genome.reports.api;
 
@@ -128,6 +128,15 @@ public class ToolReport implements Report {
 
     public ToolReport(final Tool reportForTool, final boolean cacheToolObject, 
             final ReportIndexState indexState) throws IOException, IllegalArgumentException {
+        this(reportForTool, cacheToolObject, indexState, null);
+    }
+
+    /**
+     * @param labelOpt used in place of the tool's report label, e.g. so that each of several reports made by one
+     *                 run of a tool can be told apart.  The tool's label is used if null.
+     */
+    public ToolReport(final Tool reportForTool, final boolean cacheToolObject, 
+            final ReportIndexState indexState, final String labelOpt) throws IOException, IllegalArgumentException {
         if (reportForTool == null) {
             throw new IllegalArgumentException("Parameter reportForTool cannot be null");
         }
@@ -141,7 +150,7 @@ public class ToolReport implements Report {
         File analysisEnvBaseDir = reportForTool.getParamSet().getAnalysisDirParam().getAnalysisDir();
 
         // This is the dir into which rpt files are written
-        File rptDir = createIfNeededAndGetReportDir(analysisEnvBaseDir, reportForTool, this);
+        File rptDir = createIfNeededAndGetReportDir(analysisEnvBaseDir, reportForTool, this, labelOpt);
 
         if (!rptDir.exists()) {
             throw new IllegalArgumentException("Report dir does not exists!!: " + rptDir.getAbsolutePath());
@@ -163,7 +172,7 @@ public class ToolReport implements Report {
         if (reportForTool.getParamSet().getReportLabelParam() == null) {
             throw new IllegalArgumentException("Specified tool does not have a declared ReportLabelParam -- check Tool!");
         }
-        this.fReportName = generateReportName(this, reportForTool);
+        this.fReportName = generateReportName(this, reportForTool, labelOpt);
         // this is the PARENT dir (i.e -out) and NOT the specific rpt dir (the one with the timestamp)
         this.fReportParamsFile = new File(fReportDir, fReportName);
 
@@ -185,9 +194,8 @@ public class ToolReport implements Report {
      * @param tool
      * @return
      */
-    private static String generateReportName(final Report report, final Tool tool) {
-        final ReportLabelParam lp = tool.getParamSet().getReportLabelParam();
-        String label = lp.getReportLabel();
+    private static String generateReportName(final Report report, final Tool tool, final String labelOpt) {
+        String label = getReportLabel(tool, labelOpt);
 
         if (label == null) {
             label = "my_report";
@@ -209,6 +217,12 @@ public class ToolReport implements Report {
         return rptName.toString();
     }
 
+    private static String getReportLabel(final Tool tool, final String labelOpt) {
+        if (labelOpt != null) { return labelOpt; }
+        final ReportLabelParam lp = tool.getParamSet().getReportLabelParam();
+        return lp.getReportLabel();
+    }
+
     public File getZipReportFile() {
         return new File(getReportDir(), getName() + ".zip");
     }
@@ -759,11 +773,47 @@ public class ToolReport implements Report {
     }
 
 
+    public File savePageBinary(final Dataset ds, final String name) {
+        StringBuffer buf = new StringBuffer(name).append('.').append(DataFormat.GCTB_FORMAT.getExtension());
+        File file = createSafeReportFile(buf.toString());
+        klog.debug("saving binary dataset in: {}", file);
+
+        try {
+
+            ParserFactory.saveBinary(ds, file);
+            _centralAddPage(new FileWrapperPage(file, ds.getQuickInfo()));    // @note
+
+        } catch (Throwable t) {
+            addError("Could not save object to reports object: " + ds + " in file: " + file.getPath(), t);
+        }
+
+        return file;
+    }
+
+
     public File savePage(String desc, final GeneSetMatrix gmx) {
         return savePage(desc, gmx, fReportDir);
     }
 
 
+    public File savePageBinary(final GeneSetMatrix gm, final String name) {
+        StringBuffer buf = new StringBuffer(name).append('.').append(DataFormat.GMTB_FORMAT.getExtension());
+        File file = createSafeReportFile(buf.toString());
+        klog.debug("saving binary gene sets in: {}", file);
+
+        try {
+
+            ParserFactory.saveBinary(gm, file);
+            _centralAddPage(new FileWrapperPage(file, gm.getQuickInfo()));    // @note
+
+        } catch (Throwable t) {
+            addError("Could not save object to reports object: " + gm + " in file: " + file.getPath(), t);
+        }
+
+        return file;
+    }
+
+
     private File createSafeReportFile(final String name) {
         return createSafeReportFile(name, fReportDir);
     }
@@ -881,7 +931,7 @@ public class ToolReport implements Report {
      *         Use a -D switch for this
      */
     private static File createIfNeededAndGetReportDir(final File rptWorkingBaseDir, final Tool tool, 
-            final Report rpt) throws IOException {
+            final Report rpt, final String labelOpt) throws IOException {
         if (!rptWorkingBaseDir.exists()) {
             boolean made = rptWorkingBaseDir.mkdir();
 
@@ -897,7 +947,7 @@ public class ToolReport implements Report {
         // but name this WITHOUT a timestamp so that callers can figure out easily
         // Keep this here because of junit linking issues
         //final File rptDir = NamingConventions.generateReportDir(rpt, tool);
-        final File rptDir = generateReportDir(rpt, tool);
+        final File rptDir = generateReportDir(rpt, tool, labelOpt);
 
         if (!rptDir.exists()) {
             boolean made = rptDir.mkdir();
@@ -921,13 +971,12 @@ public class ToolReport implements Report {
      * @param tool
      * @return
      */
-    private static File generateReportDir(final Report report, final Tool tool) {
+    private static File generateReportDir(final Report report, final Tool tool, final String labelOpt) {
         if (Conf.isMakeReportDirOffMode()) { // use the -out specified dir and dont make a subdir
             return tool.getParamSet().getAnalysisDirParam().getAnalysisDir();
         } else { // make a report sub dir
 
-            final ReportLabelParam lp = tool.getParamSet().getReportLabelParam();
-            String label = lp.getReportLabel();
+            String label = getReportLabel(tool, labelOpt);
 
             if (label == null || label.length() == 0) {
                 label = "my_report";
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package edu.mit.broad.xbench.explorer.objmgr;
 
@@ -27,6 +27,8 @@ import java.awt.*;
 import java.awt.datatransfer.Transferable;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -67,6 +69,11 @@ public class ObjectTree extends JTree implements DndSource, FilesSelectable {
         this.addMouseListener(new ObjectTreePopup(this));
 
         this.getSelectionModel().setSelectionMode(TreeSelectionModel.DISCONTIGUOUS_TREE_SELECTION);
+        // Objects selected here are kept in the cache
+        this.addTreeSelectionListener(e -> {
+            PersistentObject[] pobs = getSelectedPobs();
+            ParserFactory.getCache().setPinned(this, (pobs == null) ? Collections.emptyList() : Arrays.asList(pobs));
+        });
         this.setRootVisible(true);
         this.setShowsRootHandles(true);
 
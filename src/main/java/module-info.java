@@ -80,7 +80,6 @@ module org.gsea_msigdb.gsea {
     exports xtools.gsea;
     exports xtools.munge;
 
-    requires algorithms;
     requires batik.awt.util;
     requires batik.dom;
     requires batik.svggen;
@@ -1,9 +1,10 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package org.genepattern.gsea;
 
-import edu.mit.broad.genome.alg.AlgUtils;
+import edu.mit.broad.genome.objects.BitSetDataset;
+import edu.mit.broad.genome.objects.DefaultGeneSetMatrix;
 import edu.mit.broad.genome.objects.GeneSet;
 import org.genepattern.data.expr.ExpressionData;
 import org.genepattern.data.expr.IExpressionData;
@@ -39,6 +40,8 @@ public class GeneSetSimilarityPanel {
 
     private GeneSet[] geneSets;
 
+    private BitSetDataset.Overlaps overlaps;
+
     public GeneSetSimilarityPanel(Frame parent) {
         numberFormat = NumberFormat.getNumberInstance();
         numberFormat.setMaximumFractionDigits(4);
@@ -56,10 +59,8 @@ public class GeneSetSimilarityPanel {
             public String getToolTipText(int row, int column) {
                 IExpressionData data = heatMap.getExpressionData();
                 String value = numberFormat.format(data.getValue(row, column));
-                int intersection = AlgUtils.intersectSize(geneSets[row],
-                        geneSets[column]);
-                int union = AlgUtils.unionAllCount(new GeneSet[]{
-                        geneSets[row], geneSets[column]});
+                int intersection = overlaps.getIntersection(row, column);
+                int union = overlaps.getUnion(row, column);
 
                 return "<html>" + value + " (intersection=" + intersection
                         + ", union=" + union + ")<br>" + data.getRowName(row)
@@ -97,16 +98,26 @@ public class GeneSetSimilarityPanel {
     }
 
     public void setGeneSets(GeneSet[] geneSets) {
+        setGeneSets(geneSets, new BitSetDataset(new DefaultGeneSetMatrix(
+                "gene_set_similarity", geneSets)).getOverlaps());
+    }
+
+    /**
+     * @param overlaps of the gene sets, in the same order
+     */
+    public void setGeneSets(GeneSet[] geneSets, BitSetDataset.Overlaps overlaps) {
+        if (overlaps.getNumSets() != geneSets.length) {
+            throw new IllegalArgumentException("Overlaps are of " + overlaps.getNumSets() + " sets but got: " + geneSets.length);
+        }
         this.geneSets = geneSets;
+        this.overlaps = overlaps;
         double[][] similarityMatrix = new double[geneSets.length][geneSets.length];
         String[] names = new String[geneSets.length];
         for (int i = 0; i < geneSets.length; i++) {
             names[i] = geneSets[i].getName(true);
             for (int j = i; j < geneSets.length; j++) {
-                int intersection = AlgUtils.intersectSize(geneSets[i],
-                        geneSets[j]);
-                int union = AlgUtils.unionAllCount(new GeneSet[]{geneSets[i],
-                        geneSets[j]});
+                int intersection = overlaps.getIntersection(i, j);
+                int union = overlaps.getUnion(i, j);
                 int geneSet_i_size = geneSets[i].getNumMembers();
                 int geneSet_j_size = geneSets[j].getNumMembers();
                 if (similarityMeasure == JACCARD) {
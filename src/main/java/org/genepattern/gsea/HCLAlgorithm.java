@@ -1,43 +1,41 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package org.genepattern.gsea;
 
 import org.genepattern.data.expr.IExpressionData;
 import org.genepattern.data.matrix.IExpressionDataUtil;
-import org.tigr.microarray.mev.cluster.algorithm.AlgorithmData;
-import org.tigr.microarray.mev.cluster.algorithm.AlgorithmException;
-import org.tigr.microarray.mev.cluster.algorithm.impl.HCL;
-import org.tigr.util.FloatMatrix;
 
-import edu.mit.broad.genome.StandardException;
 import edu.mit.broad.genome.objects.Dataset;
 import edu.mit.broad.genome.objects.GPWrappers;
 
-import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
+ * Hierarchical clustering of the rows and columns of a matrix, used only for the order of the leaves.
+ * <p/>
+ * Merges are found with the nearest-neighbour chain algorithm over a condensed distance matrix, so both time and
+ * memory are O(n^2), and the distances are computed in parallel.  The distances, linkages and the order of the two
+ * children at each merge follow the MeV HCL implementation this replaced, so the orders match it whenever there are
+ * no tied distances; tied merges may be resolved differently.
+ *
  * @author Joshua Gould
+ * @author David Eby
  */
 public class HCLAlgorithm {
 
-    private final static String AVERAGE_LINKAGE = "0";
-
-    private final static String SINGLE_LINKAGE = "-1";
-
-    private static final String PEARSON = "1";
+    enum Linkage {
+        SINGLE,
+        // Average of the distances to the two clusters merged, without regard to their sizes (WPGMA), as in MeV
+        AVERAGE
+    }
 
     public static Dataset cluster(final Dataset ds) {
         final IExpressionData expressionData = GPWrappers.createIExpressionData(ds);
-        try {
-            HCLAlgorithm alg = new HCLAlgorithm(expressionData);
-            final IExpressionData ied = IExpressionDataUtil.sliceView(expressionData,
-                    alg.getGenes_order(), alg.getSamples_order());
-            return GPWrappers.createDataset(ied, ds.getAnnot());
-        } catch (AlgorithmException e) {
-            // Wrap in a GSEA exception in case we ever swap out the Clustering implementation.
-            throw new StandardException("Unexpected issue while clustering", e, 9001);
-        }
+        HCLAlgorithm alg = new HCLAlgorithm(expressionData);
+        final IExpressionData ied = IExpressionDataUtil.sliceView(expressionData,
+                alg.getGenes_order(), alg.getSamples_order());
+        return GPWrappers.createDataset(ied, ds.getAnnot());
     }
 
     private int[] genes_order;
@@ -45,55 +43,27 @@ public class HCLAlgorithm {
     private int[] samples_order;
 
     /**
-     * Perform a Hierarchical Clustering run using the MeV library.  This will cluster by both Rows 
-     * (using Single Linkage) and by Columns (using Average Linkage) and with the Pearson distance measure .  The order arrays are used by our Heatmap component but we only cluster to 
-     * get order of Rows/Samples here, not to display a visual dendogram.
-     * 
+     * Cluster by both Rows (using Single Linkage) and by Columns (using Average Linkage) with the Pearson distance
+     * measure.  The order arrays are used by our Heatmap component but we only cluster to get order of Rows/Samples
+     * here, not to display a visual dendogram.
+     *
      * @param expressionData
-     * @throws AlgorithmException
      */
-    public HCLAlgorithm(IExpressionData expressionData) throws AlgorithmException {
-
-        // TODO: Probably slow going point-by-point.  Work out of Matrix instead...
-        // Should be able to grab a copy of the underlying array and pass that directly
-        FloatMatrix inputMatrix = new FloatMatrix(expressionData.getRowCount(),
-                expressionData.getColumnCount());
-        for (int i = 0, rows = expressionData.getRowCount(); i < rows; i++) {
-            for (int j = 0, cols = expressionData.getColumnCount(); j < cols; j++) {
-                inputMatrix.set(i, j, (float) expressionData.getValue(i, j));
+    public HCLAlgorithm(IExpressionData expressionData) {
+        final int rows = expressionData.getRowCount();
+        final int cols = expressionData.getColumnCount();
+        final float[] rowMajor = new float[rows * cols];
+        final float[] colMajor = new float[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                final float value = (float) expressionData.getValue(i, j);
+                rowMajor[i * cols + j] = value;
+                colMajor[j * rows + i] = value;
             }
         }
-        
-        // Cluster by Rows
-        HCL hclRows = new HCL();
-        AlgorithmData rowData = new AlgorithmData();
-        rowData.addMatrix("experiment", inputMatrix);
-        rowData.addParam("distance-function", PEARSON);
-        rowData.addParam("distance-absolute", "false");
-        rowData.addParam("calculate-genes", "true");
-        rowData.addParam("method-linkage", SINGLE_LINKAGE);
-        AlgorithmData genesResult = hclRows.execute(rowData);
-        int[] genes_child_1_array = genesResult.getIntArray("child-1-array");
-        int[] genes_child_2_array = genesResult.getIntArray("child-2-array");
-        int[] genes_node_order = genesResult.getIntArray("node-order");
-        genes_order = getLeafOrder(genes_node_order, genes_child_1_array,
-                genes_child_2_array, null);
-
-        // Cluster by Columns
-        HCL hclCols = new HCL();
-        AlgorithmData colData = new AlgorithmData();
-        colData.addMatrix("experiment", inputMatrix);
-        colData.addParam("distance-function", PEARSON);
-        colData.addParam("distance-absolute", "false");
-        colData.addParam("calculate-genes", "false");
-        colData.addParam("method-linkage", AVERAGE_LINKAGE);
-        AlgorithmData samplesResult = hclCols.execute(colData);
-
-        int[] samples_child_1_array = samplesResult.getIntArray("child-1-array");
-        int[] samples_child_2_array = samplesResult.getIntArray("child-2-array");
-        int[] samples_node_order = samplesResult.getIntArray("node-order");
-        samples_order = getLeafOrder(samples_node_order,
-                samples_child_1_array, samples_child_2_array, null);
+
+        genes_order = getLeafOrder(rowDistances(rowMajor, rows, cols), rows, Linkage.SINGLE);
+        samples_order = getLeafOrder(columnDistances(colMajor, rows, cols), cols, Linkage.AVERAGE);
     }
 
     public int[] getGenes_order() {
@@ -104,27 +74,339 @@ public class HCLAlgorithm {
         return samples_order;
     }
 
-    private int fillLeafOrder(int[] leafOrder, int[] child1, int[] child2,
-                              int pos, int index, int[] indices) {
-        if (child1[index] != -1) {
-            pos = fillLeafOrder(leafOrder, child1, child2, pos, child1[index],
-                    indices);
+    // Distances are kept for i > j only, row by row
+    private static int index(final int i, final int j) {
+        return (int) ((long) i * (i - 1) / 2) + j;
+    }
+
+    private static float[] newDistanceMatrix(final int n) {
+        final long size = (long) n * (n - 1) / 2;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many items to cluster: " + n);
+        }
+        return new float[(int) size];
+    }
+
+    private static float[] rowDistances(final float[] rowMajor, final int rows, final int cols) {
+        return new RowStats(rowMajor, rows, cols).distances();
+    }
+
+    private static float[] columnDistances(final float[] colMajor, final int rows, final int cols) {
+        return new ColumnStats(colMajor, rows, cols).distances();
+    }
+
+    /**
+     * Pearson correlation of two rows over the values present in both.  A pair of constant rows counts as perfectly
+     * correlated, and a pair with no values in common as uncorrelated.
+     */
+    private static float rowPearson(final float[] data, final int xStart, final int yStart, final int length) {
+        double sxy = 0, sx = 0, sxx = 0, sy = 0, syy = 0;
+        int n = 0;
+        for (int k = 0; k < length; k++) {
+            final double x = data[xStart + k];
+            final double y = data[yStart + k];
+            if (Double.isNaN(x) || Double.isNaN(y)) { continue; }
+            n++;
+            sxy += x * y;
+            sxx += x * x;
+            syy += y * y;
+            sx += x;
+            sy += y;
         }
-        if (child2[index] != -1) {
-            pos = fillLeafOrder(leafOrder, child1, child2, pos, child2[index],
-                    indices);
-        } else {
-            leafOrder[pos] = indices == null ? index : indices[index];
-            pos++;
+
+        if (n == 0) { return 0; }
+
+        boolean varies = false;
+        for (int k = 1; k < length; k++) {
+            final float x = data[xStart + k];
+            final float y = data[yStart + k];
+            if (Float.isNaN(x) || Float.isNaN(y)) { continue; }
+            if (x != data[xStart + k - 1] || y != data[yStart + k - 1]) {
+                varies = true;
+                break;
+            }
         }
-        return pos;
+
+        if (!varies) { return 1; }
+
+        return rowPearson(sxy, sx, sxx, sy, syy, n);
+    }
+
+    private static float rowPearson(final double sxy, final double sx, final double sxx, final double sy,
+                                    final double syy, final int n) {
+        final double mx = sx / n;
+        final double my = sy / n;
+        final double cov = sxy - sx * my - mx * sy + mx * my * n;
+        final double vx = sxx - mx * sx * 2.0 + mx * mx * n;
+        final double vy = syy - my * sy * 2.0 + my * my * n;
+        return (float) (cov / (Math.sqrt(vx * vy) + Double.MIN_VALUE));
+    }
+
+    /**
+     * Pearson distances between vectors, in the same arithmetic as rowPearson or columnPearson.  For vectors without
+     * missing values the terms that don't depend on the pair are computed once, leaving a dot product for each pair.
+     * Those are done four at a time: each is still summed in order, so the results are the same, but the four sums
+     * proceed together.
+     */
+    private static abstract class PairStats {
+        final int n;
+        final int length;
+        final boolean[] hasNaN;
+        // the length values of each vector in turn, as used in the dot products
+        final double[] values;
+
+        PairStats(final int n, final int length) {
+            this.n = n;
+            this.length = length;
+            this.hasNaN = new boolean[n];
+            this.values = new double[n * length];
+        }
+
+        abstract float pearson(int i, int j, double dot);
+
+        abstract float pearsonWithNaN(int i, int j);
+
+        float[] distances() {
+            final float[] dist = newDistanceMatrix(n);
+            IntStream.range(1, n).parallel().forEach(i -> {
+                final int base = index(i, 0);
+                final int xStart = i * length;
+                int j = 0;
+                for (; j + 4 <= i && !hasNaN[i]; j += 4) {
+                    if (hasNaN[j] || hasNaN[j + 1] || hasNaN[j + 2] || hasNaN[j + 3]) {
+                        for (int jj = j; jj < j + 4; jj++) {
+                            dist[base + jj] = -distance(i, jj);
+                        }
+                        continue;
+                    }
+
+                    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                    for (int k = 0, y = j * length; k < length; k++, y++) {
+                        final double x = values[xStart + k];
+                        s0 += x * values[y];
+                        s1 += x * values[y + length];
+                        s2 += x * values[y + 2 * length];
+                        s3 += x * values[y + 3 * length];
+                    }
+                    dist[base + j] = -pearson(i, j, s0);
+                    dist[base + j + 1] = -pearson(i, j + 1, s1);
+                    dist[base + j + 2] = -pearson(i, j + 2, s2);
+                    dist[base + j + 3] = -pearson(i, j + 3, s3);
+                }
+                for (; j < i; j++) {
+                    dist[base + j] = -distance(i, j);
+                }
+            });
+            return dist;
+        }
+
+        private float distance(final int i, final int j) {
+            if (hasNaN[i] || hasNaN[j]) {
+                return pearsonWithNaN(i, j);
+            }
+
+            double dot = 0;
+            for (int k = 0, x = i * length, y = j * length; k < length; k++, x++, y++) {
+                dot += values[x] * values[y];
+            }
+            return pearson(i, j, dot);
+        }
+    }
+
+    private static class RowStats extends PairStats {
+        final float[] rowMajor;
+        final boolean[] constant;
+        final double[] sum;
+        final double[] sumSq;
+
+        RowStats(final float[] rowMajor, final int rows, final int cols) {
+            super(rows, cols);
+            this.rowMajor = rowMajor;
+            this.constant = new boolean[rows];
+            this.sum = new double[rows];
+            this.sumSq = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                constant[i] = true;
+                for (int k = 0; k < cols; k++) {
+                    final double x = rowMajor[i * cols + k];
+                    values[i * cols + k] = x;
+                    hasNaN[i] |= Double.isNaN(x);
+                    constant[i] &= (k == 0 || rowMajor[i * cols + k] == rowMajor[i * cols + k - 1]);
+                    sum[i] += x;
+                    sumSq[i] += x * x;
+                }
+            }
+        }
+
+        float pearson(final int i, final int j, final double dot) {
+            if (length == 0) { return 0; }
+            if (constant[i] && constant[j]) { return 1; }
+            return rowPearson(dot, sum[i], sumSq[i], sum[j], sumSq[j], length);
+        }
+
+        float pearsonWithNaN(final int i, final int j) {
+            return rowPearson(rowMajor, i * length, j * length, length);
+        }
+    }
+
+    // Pearson correlation of two columns over the values present in both
+    private static float columnPearson(final float[] data, final int xStart, final int yStart, final int length) {
+        double sx = 0, sy = 0;
+        int n = 0;
+        for (int k = 0; k < length; k++) {
+            final float x = data[xStart + k];
+            final float y = data[yStart + k];
+            if (Float.isNaN(x) || Float.isNaN(y)) { continue; }
+            sx += x;
+            sy += y;
+            n++;
+        }
+
+        final double mx = sx / n;
+        final double my = sy / n;
+        double sxx = 0, syy = 0, sxy = 0;
+        for (int k = 0; k < length; k++) {
+            final float x = data[xStart + k];
+            final float y = data[yStart + k];
+            if (Float.isNaN(x) || Float.isNaN(y)) { continue; }
+            final double dx = x - mx;
+            final double dy = y - my;
+            sxx += dx * dx;
+            syy += dy * dy;
+            sxy += dx * dy;
+        }
+
+        return (float) (sxy / (Math.sqrt(sxx * syy) + Float.MIN_VALUE));
+    }
+
+    private static class ColumnStats extends PairStats {
+        final float[] colMajor;
+        final double[] sumSq;
+
+        // values are the deviations from the mean of each column
+        ColumnStats(final float[] colMajor, final int rows, final int cols) {
+            super(cols, rows);
+            this.colMajor = colMajor;
+            this.sumSq = new double[cols];
+            for (int i = 0; i < cols; i++) {
+                double sx = 0;
+                for (int k = 0; k < rows; k++) {
+                    hasNaN[i] |= Float.isNaN(colMajor[i * rows + k]);
+                    sx += colMajor[i * rows + k];
+                }
+                final double mx = sx / rows;
+                for (int k = 0; k < rows; k++) {
+                    final double dx = colMajor[i * rows + k] - mx;
+                    values[i * rows + k] = dx;
+                    sumSq[i] += dx * dx;
+                }
+            }
+        }
+
+        float pearson(final int i, final int j, final double dot) {
+            return (float) (dot / (Math.sqrt(sumSq[i] * sumSq[j]) + Float.MIN_VALUE));
+        }
+
+        float pearsonWithNaN(final int i, final int j) {
+            return columnPearson(colMajor, i * length, j * length, length);
+        }
+    }
+
+    /**
+     * Clusters with the nearest-neighbour chain: follow nearest neighbours from any cluster until two are each
+     * other's nearest, and merge them.  Both linkages are reducible, so the rest of the chain stays valid after a
+     * merge and the same clusters result as from always merging the closest pair overall.
+     * <p/>
+     * A merged cluster takes the slot of the larger of its two, and so each slot holds the cluster whose largest item
+     * is the slot index.  The cluster in the smaller slot is put first, as in MeV.
+     *
+     * @param dist condensed distances, overwritten by the merged distances
+     * @return the items in the order of the leaves of the tree
+     */
+    static int[] getLeafOrder(final float[] dist, final int n, final Linkage linkage) {
+        if (n <= 1) {
+            return new int[n];
+        }
+
+        // Tree node in each slot, or -1 once merged into another.  Leaves are nodes 0..n-1 and merges n..2n-2.
+        final int[] slotNode = new int[n];
+        for (int i = 0; i < n; i++) {
+            slotNode[i] = i;
+        }
+        final int[] child1 = new int[n - 1];
+        final int[] child2 = new int[n - 1];
+
+        final int[] chain = new int[n];
+        int chainLength = 0;
+        int firstActive = 0;
+
+        for (int m = 0; m < n - 1; m++) {
+            if (chainLength == 0) {
+                while (slotNode[firstActive] == -1) { firstActive++; }
+                chain[chainLength++] = firstActive;
+            }
+
+            int a, b;
+            while (true) {
+                a = chain[chainLength - 1];
+                final int prev = (chainLength > 1) ? chain[chainLength - 2] : -1;
+
+                // The previous one on the chain wins ties, so that the chain can't cycle
+                b = prev;
+                float best = (prev != -1) ? dist[pairIndex(a, prev)] : Float.POSITIVE_INFINITY;
+                for (int k = 0; k < n; k++) {
+                    if (k == a || slotNode[k] == -1) { continue; }
+                    final float d = dist[pairIndex(a, k)];
+                    if (d < best || b == -1) {
+                        best = d;
+                        b = k;
+                    }
+                }
+
+                if (b == prev) { break; }
+                chain[chainLength++] = b;
+            }
+            chainLength -= 2;
+
+            final int lo = Math.min(a, b);
+            final int hi = Math.max(a, b);
+            for (int k = 0; k < n; k++) {
+                if (k == lo || k == hi || slotNode[k] == -1) { continue; }
+                final int hk = pairIndex(hi, k);
+                final float dlo = dist[pairIndex(lo, k)];
+                if (linkage == Linkage.SINGLE) {
+                    dist[hk] = Math.min(dist[hk], dlo);
+                } else {
+                    dist[hk] = (float) ((dist[hk] + dlo) / 2.0);
+                }
+            }
+
+            child1[m] = slotNode[lo];
+            child2[m] = slotNode[hi];
+            slotNode[hi] = n + m;
+            slotNode[lo] = -1;
+        }
+
+        // Depth first from the root, first child first; no recursion as single linkage trees can be very deep
+        final int[] order = new int[n];
+        final int[] stack = new int[n];
+        int stackSize = 0;
+        int pos = 0;
+        stack[stackSize++] = 2 * n - 2;
+        while (stackSize > 0) {
+            final int node = stack[--stackSize];
+            if (node < n) {
+                order[pos++] = node;
+            } else {
+                stack[stackSize++] = child2[node - n];
+                stack[stackSize++] = child1[node - n];
+            }
+        }
+
+        return order;
     }
 
-    private int[] getLeafOrder(int[] nodeOrder, int[] child1, int[] child2,
-                               int[] indices) {
-        int[] leafOrder = new int[nodeOrder.length];
-        Arrays.fill(leafOrder, -1);
-        fillLeafOrder(leafOrder, child1, child2, 0, child1.length - 2, indices);
-        return leafOrder;
+    private static int pairIndex(final int i, final int j) {
+        return (i > j) ? index(i, j) : index(j, i);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2023 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package org.genepattern.gsea;
 
@@ -123,7 +123,10 @@ public class LeadingEdgeAnalysis {
     public LeadingEdgeAnalysis(final GeneSetMatrix lev_gmx, RankedList rankedList,
             final Frame parent, Dimension containerDim) {
         final GeneSet[] gsets = lev_gmx.getGeneSets();
-        final Dataset lev_ds = new BitSetDataset(lev_gmx).toDataset();
+        // One dataset, and one computation of the overlaps, for all of the plots below
+        final BitSetDataset lev_bsd = new BitSetDataset(lev_gmx);
+        final BitSetDataset.Overlaps overlaps = lev_bsd.getOverlaps();
+        final Dataset lev_ds = lev_bsd.toDataset();
     
         try {
             clusteredDataset = HCLAlgorithm.cluster(lev_ds);
@@ -161,13 +164,14 @@ public class LeadingEdgeAnalysis {
                 .createIExpressionData(lev_ds_clustered_m), cs);
 
         GeneSetStats stats = new GeneSetStats();
-        GeneSetStats.RedStruc rs = stats.calcRedundancy(gsets, false);
+        GeneSetStats.RedStruc rs = stats.calcRedundancy(gsets, overlaps, false);
 
         GeneSetSimilarityPanel geneSetSimilarityPanel = new GeneSetSimilarityPanel(
                 parent);
         // reorder genesets so that they are in the same order as the clustered
         // gene sets
         GeneSet[] reorderedGeneSets = new GeneSet[gsets.length];
+        int[] clusteredOrder = new int[gsets.length];
         Map<String, Integer> geneSetName2Index = new HashMap<String, Integer>();
         for (int i = 0; i < gsets.length; i++) {
             geneSetName2Index.put(gsets[i].getName(true), i);
@@ -175,10 +179,11 @@ public class LeadingEdgeAnalysis {
 
         for (int i = 0; i < gsets.length; i++) {
             String geneSetName = lev_ds_clustered_m.getRowName(i);
-            reorderedGeneSets[i] = gsets[geneSetName2Index.get(geneSetName)];
+            clusteredOrder[i] = geneSetName2Index.get(geneSetName);
+            reorderedGeneSets[i] = gsets[clusteredOrder[i]];
         }
 
-        geneSetSimilarityPanel.setGeneSets(reorderedGeneSets);
+        geneSetSimilarityPanel.setGeneSets(reorderedGeneSets, overlaps.reorder(clusteredOrder));
 
         TFloatIntHashMap jaccardToOccurrencesMap = rs.jaccardDistrib;
         jaccardHistogram.setJaccardToOccurrencesMap(jaccardToOccurrencesMap);
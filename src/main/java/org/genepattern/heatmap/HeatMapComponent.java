@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2024 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package org.genepattern.heatmap;
 
@@ -158,6 +158,8 @@ public class HeatMapComponent extends JComponent {
 
             fl.appendRow(new RowSpec("pref"));
             JPanel btnPanel = new JPanel();
+            final JButton fitButton = new JButton("Fit to Window");
+            btnPanel.add(fitButton);
             // JButton cancelButton = new JButton("Cancel");
             // final JButton saveButton = new JButton("Save");
 
@@ -165,6 +167,8 @@ public class HeatMapComponent extends JComponent {
                 public void stateChanged(ChangeEvent e) {
                     JSlider source = (JSlider) e.getSource();
                     int value = source.getValue();
+                    // Back to whole cells, from Fit to Window
+                    heatMapComponent.setCellsPerPixel(1, 1);
                     if (value != heatMapPanel.getRowSize()) {
                         heatMapComponent.setRowSize(value);
                     }
@@ -251,6 +255,9 @@ public class HeatMapComponent extends JComponent {
                                 .isSelected();
                         heatMapComponent
                                 .setShowRowDescriptions(showRowDescriptions);
+                    } else if (e.getSource() == fitButton) {
+                        heatMapComponent.zoomToFit();
+                        gridSizeSlider.setValue(heatMapPanel.getRowSize());
                     } else if (e.getSource() == rowButton
                             || e.getSource() == globalButton) {
                         int colorScheme = rowButton.isSelected() ? HeatMapPanel.NORMALIZATION_ROW
@@ -274,6 +281,7 @@ public class HeatMapComponent extends JComponent {
             showFeatureDescriptionsCheckBox.addActionListener(l);
             rowButton.addActionListener(l);
             globalButton.addActionListener(l);
+            fitButton.addActionListener(l);
 
             getContentPane().add(optionsPanel, BorderLayout.CENTER);
             getContentPane().add(btnPanel, BorderLayout.SOUTH);
@@ -478,6 +486,8 @@ public class HeatMapComponent extends JComponent {
 
     private boolean showRowNames = true;
 
+    private boolean showFeatureTableHeader = true;
+
     private JLabel statusLabel = new JLabel("");
 
     private JPanel topPanel;
@@ -977,6 +987,55 @@ public class HeatMapComponent extends JComponent {
         this.allowChangeRowDescriptionsVisibility = allowChangeRowDescriptionsVisibility;
     }
 
+    /**
+     * Zooms out past one pixel per cell: each pixel of the heat map is drawn in the mean colour of this many rows
+     * and columns.  The names and annotations of an axis drawn this way are hidden, as they can't line up
+     *
+     * @param rowsPerPixel    1 to draw rows the row size
+     * @param columnsPerPixel 1 to draw columns the column size
+     */
+    public void setCellsPerPixel(int rowsPerPixel, int columnsPerPixel) {
+        if (rowsPerPixel == heatMapPanel.getRowsPerPixel()
+                && columnsPerPixel == heatMapPanel.getColumnsPerPixel()) {
+            return;
+        }
+        heatMapPanel.setRowsPerPixel(rowsPerPixel);
+        heatMapPanel.setColumnsPerPixel(columnsPerPixel);
+        boolean rowsShown = rowsPerPixel == 1;
+        featureTable.setVisible(rowsShown);
+        featureTable.getTableHeader().setVisible(rowsShown && showFeatureTableHeader);
+        featureAnnotatorPanel.setVisible(rowsShown);
+        boolean columnsShown = columnsPerPixel == 1;
+        sampleTable.setVisible(columnsShown);
+        sampleAnnotatorPanel.setVisible(columnsShown);
+        heatMapAndAnnotatorPanel.revalidate();
+        topPanel.revalidate();
+        heatMapPanel.repaint();
+    }
+
+    /**
+     * Sizes the cells so that the whole heat map fits in the visible area: as cells of 1 to 30 pixels where there
+     * is room, otherwise with several rows or columns in each pixel
+     */
+    public void zoomToFit() {
+        Dimension extent = scrollPane.getViewport().getExtentSize();
+        int rows = Math.max(1, data.getRowCount());
+        int columns = Math.max(1, data.getColumnCount());
+        // Taking the row of space the panel keeps below the cells
+        int height = Math.max(1, extent.height - heatMapPanel.getRowSize());
+        int width = Math.max(1, extent.width - 1);
+        int rowsPerPixel = (rows + height - 1) / height;
+        int columnsPerPixel = (columns + width - 1) / width;
+        if (rowsPerPixel == 1 && columnsPerPixel == 1) {
+            int size = Math.max(1, Math.min(30, Math.min(height / rows, width / columns)));
+            setCellsPerPixel(1, 1);
+            setRowSize(size);
+            setColumnSize(size);
+        } else {
+            setCellsPerPixel(rowsPerPixel, columnsPerPixel);
+        }
+    }
+
     public void setRowSize(int rowSize) {
         featureAnnotatorPanel.setRowSize(rowSize);
         featureTable.setRowHeight(rowSize);
@@ -1011,7 +1070,8 @@ public class HeatMapComponent extends JComponent {
      * @param b
      */
     public void setShowFeatureTableHeader(boolean b) {
-        featureTable.getTableHeader().setVisible(b);
+        showFeatureTableHeader = b;
+        featureTable.getTableHeader().setVisible(b && heatMapPanel.getRowsPerPixel() == 1);
     }
 
     public void setShowRowDescriptions(boolean showRowDescriptions) {
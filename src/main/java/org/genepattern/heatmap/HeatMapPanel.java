@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2023 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package org.genepattern.heatmap;
 
@@ -11,9 +11,17 @@ import javax.swing.event.SwingPropertyChangeSupport;
 import javax.swing.plaf.UIResource;
 import java.awt.*;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class is used to draw a heat map.
@@ -30,6 +38,23 @@ public class HeatMapPanel extends JPanel {
 
     public static int NORMALIZATION_GLOBAL = 1;
 
+    /**
+     * The cells are drawn in tiles of this size on a background thread and the most recent kept, so that painting a
+     * large heat map only draws what newly comes into view and never holds up the event thread
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * The most tiles kept, across all panels (at 256KB each)
+     */
+    private static final int CACHED_TILES = 192;
+
+    private static final ExecutorService kTileRenderer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "HeatMapPanel tiles");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private IExpressionData data;
 
     /**
@@ -39,6 +64,14 @@ public class HeatMapPanel extends JPanel {
 
     int rowSize = 8;
 
+    /**
+     * Zoomed out past one pixel per cell, the number of rows and of columns drawn in each pixel, in the mean
+     * colour of those cells.  Otherwise 1, with each cell drawn rowSize by columnSize
+     */
+    private int rowsPerPixel = 1;
+
+    private int columnsPerPixel = 1;
+
     private boolean drawGrid = true;
 
     private Color borderColor = Color.black;
@@ -61,6 +94,20 @@ public class HeatMapPanel extends JPanel {
 
     private ToolTipProvider toolTipProvider;
 
+    // The tiles of all panels, least recently used first, and their bookkeeping are only touched on the event thread
+    private static final Map<TileKey, BufferedImage> kTiles = new LinkedHashMap<TileKey, BufferedImage>(
+            CACHED_TILES + 1, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+            return size() > CACHED_TILES;
+        }
+    };
+
+    private final Set<TileKey> pendingTiles = new HashSet<TileKey>();
+
+    // Bumped when the tiles are dropped, so that tiles still being drawn from before are ignored.  Read on the
+    // tile thread too, under the lock on the colorConverter
+    private volatile int tileGeneration;
+
     /**
      * Constructs an <code>HeatMapPanel</code> with specified data
      */
@@ -162,9 +209,12 @@ public class HeatMapPanel extends JPanel {
     }
 
     public void setExpressionData(IExpressionData data) {
-        this.data = data;
-        colorConverter.setDataset(data);
-        repaint();
+        // Under the lock the tiles are drawn with, so that none is drawn from a half-changed color scheme
+        synchronized (colorConverter) {
+            this.data = data;
+            colorConverter.setDataset(data);
+            invalidateTiles();
+        }
     }
 
     public void setToolTipProvider(ToolTipProvider t) {
@@ -180,6 +230,12 @@ public class HeatMapPanel extends JPanel {
         int row = pixelConverter.rowAtPoint(e.getPoint());
         if (col >= 0 && col < data.getColumnCount() && row >= 0
                 && row < data.getRowCount()) {
+            if (rowsPerPixel > 1 || columnsPerPixel > 1) {
+                int lastRow = Math.min(data.getRowCount(), row + rowsPerPixel) - 1;
+                int lastCol = Math.min(data.getColumnCount(), col + columnsPerPixel) - 1;
+                return "<html>" + data.getRowName(row) + " - " + data.getRowName(lastRow) + "<br>"
+                        + data.getColumnName(col) + " - " + data.getColumnName(lastCol);
+            }
             if (toolTipProvider != null) {
                 return toolTipProvider.getToolTipText(row, col);
             }
@@ -197,66 +253,266 @@ public class HeatMapPanel extends JPanel {
 
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        final int columns = data.getColumnCount();
         Rectangle bounds = g.getClipBounds();
-        int left = 0;
-        int right = columns;
-        int top = 0;
-        int bottom = data.getRowCount();
-
-        if (bounds != null) {
-            top = pixelConverter.getTopIndex(bounds.y);
-            bottom = pixelConverter.getBottomIndex(bounds.y + bounds.height,
-                    data.getRowCount());
-            left = pixelConverter.getLeftIndex(bounds.x);
-            right = pixelConverter.getRightIndex(bounds.x + bounds.width,
-                    columns);
+        if (bounds == null) {
+            bounds = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        if (isPaintingForPrint()) {
+            new CellPainter(tileGeneration).paint(g, bounds);
+            return;
         }
 
-        // draw rectangles
-        for (int row = top; row < bottom; row++) {
-            for (int column = left; column < right; column++) {
-                int x = column * columnSize + getInsets().left;
-                int y = row * rowSize + getInsets().top;
-
-                if (upperTriangular && column < row) {
-                    continue;
+        // Draw what tiles are ready, and ask for the rest; they are painted in as they arrive
+        int firstX = Math.max(0, bounds.x / TILE_SIZE);
+        int lastX = (bounds.x + bounds.width - 1) / TILE_SIZE;
+        int firstY = Math.max(0, bounds.y / TILE_SIZE);
+        int lastY = (bounds.y + bounds.height - 1) / TILE_SIZE;
+        for (int tileY = firstY; tileY <= lastY; tileY++) {
+            for (int tileX = firstX; tileX <= lastX; tileX++) {
+                TileKey key = new TileKey(this, tileX, tileY);
+                BufferedImage tile = kTiles.get(key);
+                if (tile != null) {
+                    g.drawImage(tile, tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+                } else {
+                    requestTile(key);
                 }
-                g.setColor(colorConverter.getColor(row, column));
-                g.fillRect(x, y, columnSize, rowSize);
             }
         }
+    }
+
+    private void requestTile(final TileKey key) {
+        if (!pendingTiles.add(key)) {
+            return;
+        }
+        final int generation = tileGeneration;
+        final CellPainter painter = new CellPainter(generation);
+        kTileRenderer.execute(() -> {
+            BufferedImage tile = null;
+            try {
+                tile = drawTile(painter, key.x, key.y);
+            } finally {
+                // Even if drawing failed, so that the tile is asked for again on the next paint
+                final BufferedImage drawn = tile;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == tileGeneration) {
+                        pendingTiles.remove(key);
+                        if (drawn != null) {
+                            kTiles.put(key, drawn);
+                            repaint(key.x * TILE_SIZE, key.y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Draws a tile with the current settings, on the calling thread
+     */
+    BufferedImage drawTile(int tileX, int tileY) {
+        return drawTile(new CellPainter(tileGeneration), tileX, tileY);
+    }
+
+    /**
+     * @return Null if the settings changed since the painter was created
+     */
+    private BufferedImage drawTile(CellPainter painter, int tileX, int tileY) {
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = tile.createGraphics();
+        try {
+            Rectangle bounds = new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            g2.translate(-bounds.x, -bounds.y);
+            g2.clipRect(bounds.x, bounds.y, bounds.width, bounds.height);
+            return painter.paint(g2, bounds) ? tile : null;
+        } finally {
+            g2.dispose();
+        }
+    }
 
-        if (drawGrid) {
-            g.setColor(borderColor);
+    /**
+     * Drops the drawn tiles; call whenever anything that affects how the cells are drawn changes
+     */
+    private void invalidateTiles() {
+        dropTiles();
+        repaint();
+    }
+
+    private void dropTiles() {
+        tileGeneration++;
+        kTiles.keySet().removeIf(key -> key.panel == this);
+        pendingTiles.clear();
+    }
 
-            int leftx = left * columnSize + getInsets().left;
-            int rightx = right * columnSize + getInsets().left;
+    // A tile of a panel, by its column and row of tiles
+    private static final class TileKey {
+        private final HeatMapPanel panel;
+        private final int x;
+        private final int y;
 
-            for (int row = top; row <= bottom; row++) { // draw horizontal lines
-                int y = row * rowSize + getInsets().top;
-                if (upperTriangular) {
-                    int leftDiag = (row - 1) * columnSize + getInsets().left;
-                    g.drawLine(leftDiag, y, rightx, y);
+        private TileKey(HeatMapPanel panel, int x, int y) {
+            this.panel = panel;
+            this.x = x;
+            this.y = y;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return panel == other.panel && x == other.x && y == other.y;
+        }
+
+        public int hashCode() {
+            return (System.identityHashCode(panel) * 31 + x) * 31 + y;
+        }
+    }
+
+    /**
+     * Draws the cells and grid with the settings as they were when it was created, so that tiles can be drawn off
+     * the event thread
+     */
+    private class CellPainter {
+        private final int generation;
+
+        private final IExpressionData data = HeatMapPanel.this.data;
+
+        private final ColorScheme colorConverter = HeatMapPanel.this.colorConverter;
+
+        private final int rowsPerPixel = HeatMapPanel.this.rowsPerPixel;
+
+        private final int columnsPerPixel = HeatMapPanel.this.columnsPerPixel;
+
+        // The pixels of each cell, or of each pixel's cells when zoomed out
+        private final int rowSize = (rowsPerPixel > 1) ? 1 : HeatMapPanel.this.rowSize;
+
+        private final int columnSize = (columnsPerPixel > 1) ? 1 : HeatMapPanel.this.columnSize;
+
+        // No room for grid lines between single pixels
+        private final boolean drawGrid = HeatMapPanel.this.drawGrid && rowsPerPixel == 1 && columnsPerPixel == 1;
+
+        private final boolean upperTriangular = HeatMapPanel.this.upperTriangular;
+
+        private final Insets insets = getInsets();
+
+        private CellPainter(int generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * @return false if the settings changed since this was created, and nothing was drawn
+         */
+        boolean paint(Graphics g, Rectangle bounds) {
+            // Counted in pixel cells: each covers rowsPerPixel rows and columnsPerPixel columns
+            final int columns = (data.getColumnCount() + columnsPerPixel - 1) / columnsPerPixel;
+            final int rows = (data.getRowCount() + rowsPerPixel - 1) / rowsPerPixel;
+            int top = bounds.y < insets.top ? 0 : (bounds.y - insets.top) / rowSize;
+            int bottom = Math.max(0, Math.min(rows, (bounds.y + bounds.height) / rowSize + 1));
+            int left = bounds.x < insets.left ? 0 : (bounds.x - insets.left) / columnSize;
+            int right = Math.max(0, Math.min(columns, (bounds.x + bounds.width) / columnSize + 1));
+
+            // draw rectangles; the color schemes keep per-row state, so don't share one between threads mid-draw
+            synchronized (colorConverter) {
+                // The panel's data and color scheme are only changed under this lock
+                if (generation != tileGeneration) {
+                    return false;
+                }
+                if (rowsPerPixel > 1 || columnsPerPixel > 1) {
+                    paintMeans(g, top, bottom, left, right);
                 } else {
-                    g.drawLine(leftx, y, rightx, y);
+                    for (int row = top; row < bottom; row++) {
+                        for (int column = left; column < right; column++) {
+                            int x = column * columnSize + insets.left;
+                            int y = row * rowSize + insets.top;
+
+                            if (upperTriangular && column < row) {
+                                continue;
+                            }
+                            g.setColor(colorConverter.getColor(row, column));
+                            g.fillRect(x, y, columnSize, rowSize);
+                        }
+                    }
                 }
             }
 
-            int topy = getInsets().top + rowSize * top;
-            int bottomy = getInsets().top + rowSize * bottom;
-            for (int column = left; column <= right; column++) { // draw
-                // vertical
-                // lines
-                int x = column * columnSize + getInsets().left;
-                if (upperTriangular) {
-                    int bottomDiag = rowSize * (column + 1) + getInsets().top;
-                    if (column == columns) {
-                        bottomDiag = bottomDiag - rowSize;
+            if (drawGrid) {
+                g.setColor(borderColor);
+
+                int leftx = left * columnSize + insets.left;
+                int rightx = right * columnSize + insets.left;
+
+                for (int row = top; row <= bottom; row++) { // draw horizontal lines
+                    int y = row * rowSize + insets.top;
+                    if (upperTriangular) {
+                        int leftDiag = (row - 1) * columnSize + insets.left;
+                        // Nothing to draw where the bounds end left of the diagonal
+                        if (leftDiag <= rightx) {
+                            g.drawLine(leftDiag, y, rightx, y);
+                        }
+                    } else {
+                        g.drawLine(leftx, y, rightx, y);
+                    }
+                }
+
+                int topy = insets.top + rowSize * top;
+                int bottomy = insets.top + rowSize * bottom;
+                for (int column = left; column <= right; column++) { // draw
+                    // vertical
+                    // lines
+                    int x = column * columnSize + insets.left;
+                    if (upperTriangular) {
+                        int bottomDiag = rowSize * (column + 1) + insets.top;
+                        if (column == columns) {
+                            bottomDiag = bottomDiag - rowSize;
+                        }
+                        if (topy <= bottomDiag) {
+                            g.drawLine(x, topy, x, bottomDiag);
+                        }
+                    } else {
+                        g.drawLine(x, topy, x, bottomy);
                     }
-                    g.drawLine(x, topy, x, bottomDiag);
-                } else {
-                    g.drawLine(x, topy, x, bottomy);
+                }
+            }
+            return true;
+        }
+
+        // Draws each pixel cell in the mean colour of the cells it covers.  Works down the rows, so that a row
+        // color scheme computes the stats of each row once per call
+        private void paintMeans(Graphics g, int top, int bottom, int left, int right) {
+            final int width = right - left;
+            final long[] sums = new long[3 * width];
+            final int[] counts = new int[width];
+            final int lastColumn = data.getColumnCount();
+            for (int pixelRow = top; pixelRow < bottom; pixelRow++) {
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+                int lastRow = Math.min(data.getRowCount(), (pixelRow + 1) * rowsPerPixel);
+                for (int row = pixelRow * rowsPerPixel; row < lastRow; row++) {
+                    int column = left * columnsPerPixel;
+                    // Cells left of the diagonal are not drawn
+                    if (upperTriangular) {
+                        column = Math.max(column, row);
+                    }
+                    int end = Math.min(lastColumn, right * columnsPerPixel);
+                    for (; column < end; column++) {
+                        int i = column / columnsPerPixel - left;
+                        int rgb = colorConverter.getColor(row, column).getRGB();
+                        sums[3 * i] += (rgb >> 16) & 0xff;
+                        sums[3 * i + 1] += (rgb >> 8) & 0xff;
+                        sums[3 * i + 2] += rgb & 0xff;
+                        counts[i]++;
+                    }
+                }
+
+                int y = pixelRow * rowSize + insets.top;
+                for (int i = 0; i < width; i++) {
+                    int n = counts[i];
+                    if (n == 0) {
+                        continue;
+                    }
+                    g.setColor(new Color((int) ((sums[3 * i] + n / 2) / n), (int) ((sums[3 * i + 1] + n / 2) / n),
+                            (int) ((sums[3 * i + 2] + n / 2) / n)));
+                    g.fillRect((left + i) * columnSize + insets.left, y, columnSize, rowSize);
                 }
             }
         }
@@ -273,12 +529,13 @@ public class HeatMapPanel extends JPanel {
     }
 
     /**
-     * Calls the <code>unconfigureEnclosingScrollPane</code> method.
+     * Calls the <code>unconfigureEnclosingScrollPane</code> method, and drops the drawn tiles.
      *
      * @see #unconfigureEnclosingScrollPane
      */
     public void removeNotify() {
         unconfigureEnclosingScrollPane();
+        dropTiles();
         super.removeNotify();
     }
 
@@ -363,17 +620,59 @@ public class HeatMapPanel extends JPanel {
     }
 
     public Dimension getPreferredSize() {
+        if (rowsPerPixel > 1 || columnsPerPixel > 1) {
+            int columnPixels = (columnsPerPixel > 1) ? 1 : columnSize;
+            int rowPixels = (rowsPerPixel > 1) ? 1 : rowSize;
+            return new Dimension(columnPixels * ((data.getColumnCount() + columnsPerPixel - 1) / columnsPerPixel) + 1,
+                    rowPixels * ((data.getRowCount() + rowsPerPixel - 1) / rowsPerPixel + 1));
+        }
         return new Dimension(columnSize * data.getColumnCount() + 1, rowSize
                 * (data.getRowCount() + 1));
     }
 
+    public int getRowsPerPixel() {
+        return rowsPerPixel;
+    }
+
+    /**
+     * Zooms out past one pixel per row: each pixel row is drawn in the mean colour of this many rows, and the row
+     * size is not used until this is set back to 1
+     */
+    public void setRowsPerPixel(int rowsPerPixel) {
+        if (rowsPerPixel < 1) {
+            throw new IllegalArgumentException("Param rowsPerPixel must be at least 1: " + rowsPerPixel);
+        }
+        this.rowsPerPixel = rowsPerPixel;
+        pixelConverter.rowsPerPixel = rowsPerPixel;
+        pixelConverter.rowSize = (rowsPerPixel > 1) ? 1 : rowSize;
+        invalidateTiles();
+    }
+
+    public int getColumnsPerPixel() {
+        return columnsPerPixel;
+    }
+
+    /**
+     * Zooms out past one pixel per column, as setRowsPerPixel()
+     */
+    public void setColumnsPerPixel(int columnsPerPixel) {
+        if (columnsPerPixel < 1) {
+            throw new IllegalArgumentException("Param columnsPerPixel must be at least 1: " + columnsPerPixel);
+        }
+        this.columnsPerPixel = columnsPerPixel;
+        pixelConverter.columnsPerPixel = columnsPerPixel;
+        pixelConverter.columnSize = (columnsPerPixel > 1) ? 1 : columnSize;
+        invalidateTiles();
+    }
+
     public int getRowSize() {
         return rowSize;
     }
 
     public void setRowSize(int elementHeight) {
         this.rowSize = elementHeight;
-        pixelConverter.rowSize = rowSize;
+        pixelConverter.rowSize = (rowsPerPixel > 1) ? 1 : rowSize;
+        invalidateTiles();
         firePropertyChange("rowSize", elementHeight, rowSize);
     }
 
@@ -383,7 +682,8 @@ public class HeatMapPanel extends JPanel {
 
     public void setColumnSize(int elementWidth) {
         this.columnSize = elementWidth;
-        pixelConverter.columnSize = columnSize;
+        pixelConverter.columnSize = (columnsPerPixel > 1) ? 1 : columnSize;
+        invalidateTiles();
         firePropertyChange("columnSize", elementWidth, columnSize);
     }
 
@@ -393,6 +693,7 @@ public class HeatMapPanel extends JPanel {
 
     public void setDrawGrid(boolean drawGrid) {
         this.drawGrid = drawGrid;
+        invalidateTiles();
     }
 
     public int getNormalization() {
@@ -400,16 +701,22 @@ public class HeatMapPanel extends JPanel {
     }
 
     public void setNormalization(int normalization) {
-        this.normalization = normalization;
-        if (colorConverter instanceof RowColorScheme) { // FIXME
-            ((RowColorScheme) colorConverter)
-                    .setGlobalScale(normalization == NORMALIZATION_GLOBAL);
+        synchronized (colorConverter) {
+            this.normalization = normalization;
+            if (colorConverter instanceof RowColorScheme) { // FIXME
+                ((RowColorScheme) colorConverter)
+                        .setGlobalScale(normalization == NORMALIZATION_GLOBAL);
+            }
+            invalidateTiles();
         }
     }
 
     public void setColorConverter(ColorScheme colorConverter) {
-        this.colorConverter = colorConverter;
-        colorConverter.setDataset(data);
+        synchronized (colorConverter) {
+            colorConverter.setDataset(data);
+            this.colorConverter = colorConverter;
+            invalidateTiles();
+        }
     }
 
     public ColorScheme getColorConverter() {
@@ -422,5 +729,6 @@ public class HeatMapPanel extends JPanel {
 
     public void setUpperTriangular(boolean upperTriangular) {
         this.upperTriangular = upperTriangular;
+        invalidateTiles();
     }
 }
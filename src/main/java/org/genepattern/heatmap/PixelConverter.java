@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package org.genepattern.heatmap;
 
@@ -15,6 +15,9 @@ public class PixelConverter {
 
     int rowSize, columnSize;
 
+    // When zoomed out, the rows and columns in each pixel (of rowSize and columnSize 1)
+    int rowsPerPixel = 1, columnsPerPixel = 1;
+
     public PixelConverter(JComponent component) {
         this.component = component;
     }
@@ -31,21 +34,21 @@ public class PixelConverter {
         if (left < component.getInsets().left) {
             return 0;
         }
-        return (left - component.getInsets().left) / columnSize;
+        return (left - component.getInsets().left) / columnSize * columnsPerPixel;
     }
 
     public int getTopIndex(int top) {
         if (top < component.getInsets().top) {
             return 0;
         }
-        return (top - component.getInsets().top) / rowSize;
+        return (top - component.getInsets().top) / rowSize * rowsPerPixel;
     }
 
     public int getRightIndex(int right, int limit) {
         if (right < 0) {
             return 0;
         }
-        int result = right / columnSize + 1;
+        int result = (right / columnSize + 1) * columnsPerPixel;
         return result > limit ? limit : result;
     }
 
@@ -53,16 +56,16 @@ public class PixelConverter {
         if (bottom < 0) {
             return 0;
         }
-        int result = bottom / rowSize + 1;
+        int result = (bottom / rowSize + 1) * rowsPerPixel;
         return result > limit ? limit : result;
     }
 
     public int columnAtPoint(Point p) {
-        return (int) ((p.getX() - component.getInsets().left) / columnSize);
+        return (int) ((p.getX() - component.getInsets().left) / columnSize) * columnsPerPixel;
     }
 
     public int rowAtPoint(Point p) {
-        return (int) ((p.getY() - component.getInsets().top) / rowSize);
+        return (int) ((p.getY() - component.getInsets().top) / rowSize) * rowsPerPixel;
     }
 
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003-2016 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  *******************************************************************************/
 package org.genepattern.heatmap.image;
 
@@ -184,19 +184,29 @@ public class HeatMap {
         int top = 0;
         int bottom = data.getRowCount();
 
-        // draw rectangles
-        for (int row = top; row < bottom; row++) {
-            for (int column = left; column < right; column++) {
-                int x = column * elementSize.width + leftBorder;
-                int y = row * elementSize.height;
-                g2.setColor(ds.colorConverter.getColor(row, column));
-                g2.fillRect(x, y, elementSize.width, elementSize.height);
+        // Only draw the rows within the clip, and a couple either side as the text can reach past its own row
+        Rectangle clip = g2.getClipBounds();
+        if (clip != null) {
+            int rowHeight = Math.max(1, elementSize.height);
+            top = Math.max(0, clip.y / rowHeight - 2);
+            bottom = Math.max(top, Math.min(bottom, (clip.y + clip.height) / rowHeight + 3));
+        }
+
+        // draw rectangles; the color schemes keep per-row state, so don't share one between threads mid-draw
+        synchronized (ds.colorConverter) {
+            for (int row = top; row < bottom; row++) {
+                for (int column = left; column < right; column++) {
+                    int x = column * elementSize.width + leftBorder;
+                    int y = row * elementSize.height;
+                    g2.setColor(ds.colorConverter.getColor(row, column));
+                    g2.fillRect(x, y, elementSize.width, elementSize.height);
+                }
             }
         }
         int expWidth = samples * this.elementSize.width + 5;
 
         if (featureAnnotator != null) { // draw color bars
-            for (int row = 0; row < data.getRowCount(); row++) {
+            for (int row = top; row < bottom; row++) {
                 List colors = featureAnnotator.getColors(data.getRowName(row));
                 if (colors != null) {
                     for (int j = 0; j < colors.size(); j++) {
@@ -263,7 +273,7 @@ public class HeatMap {
                 annotationStartX += maxGeneAnnotationsWidth
                         + spaceAfterGeneNames;
             }
-            for (int i = 0, rows = data.getRowCount(); i < rows; i++) {
+            for (int i = top; i < bottom; i++) {
                 String rowName = data.getRowName(i);
                 int annY = i * elementSize.height + fm.getAscent();
                 for (int j = 0, cols = featureAnnotator.getColumnCount(); j < cols; j++) {
@@ -331,6 +341,14 @@ public class HeatMap {
         }
     }
 
+    /**
+     * Returns the whole heat map as an image drawn in strips on demand, for writing out heat maps too large to
+     * hold as one <code>BufferedImage</code>.  Close it when done.
+     */
+    public HeatMapImage tiledSnapshot() {
+        return new HeatMapImage(this);
+    }
+
     public BufferedImage snapshot() {
         BufferedImage bi = new BufferedImage(contentWidth, height
                 + header.height, BufferedImage.TYPE_3BYTE_BGR);
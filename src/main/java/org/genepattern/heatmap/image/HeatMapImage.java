@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package org.genepattern.heatmap.image;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A heat map image that is drawn in full-width horizontal strips as they are asked for, so that a heat map too
+ * large for a single <code>BufferedImage</code> can still be written out.  ImageIO's PNG writer asks for the image
+ * a row at a time, so at most a few strips are ever held.  Other writers, JPEG's among them, call getData() for the
+ * whole image, which copies every strip into one raster and saves nothing; use this only for PNG.
+ * <p>
+ * Strips are drawn on a single background thread, which also draws the strip after each one asked for while the
+ * caller is busy encoding.  Only that one thread draws, as the color schemes are not thread safe.
+ *
+ * @author David Eby
+ */
+public class HeatMapImage implements RenderedImage, AutoCloseable {
+
+    // Aim for strips of about this many pixels
+    private static final int TILE_PIXELS = 1 << 20;
+
+    private static final int CACHED_TILES = 3;
+
+    private final HeatMap fHeatMap;
+
+    private final int fWidth;
+
+    private final int fHeight;
+
+    private final int fTileHeight;
+
+    private final ColorModel fColorModel;
+
+    private final SampleModel fSampleModel;
+
+    private final ExecutorService fRenderer;
+
+    // Most recently used strips, drawn or being drawn, keyed by strip index
+    private final Map<Integer, Future<BufferedImage>> fTiles;
+
+    HeatMapImage(final HeatMap heatMap) {
+        if (heatMap == null) {
+            throw new IllegalArgumentException("Param heatMap cannot be null");
+        }
+
+        this.fHeatMap = heatMap;
+        this.fWidth = Math.max(1, heatMap.getContentWidth());
+        this.fHeight = Math.max(1, heatMap.getHeightWithHeader());
+        this.fTileHeight = Math.max(1, Math.min(fHeight, TILE_PIXELS / fWidth));
+
+        final BufferedImage prototype = new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR);
+        this.fColorModel = prototype.getColorModel();
+        this.fSampleModel = prototype.getSampleModel().createCompatibleSampleModel(fWidth, fTileHeight);
+        this.fRenderer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "HeatMapImage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.fTiles = new LinkedHashMap<Integer, Future<BufferedImage>>(CACHED_TILES + 1, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<Integer, Future<BufferedImage>> eldest) {
+                return size() > CACHED_TILES;
+            }
+        };
+    }
+
+    public void close() {
+        fRenderer.shutdownNow();
+        synchronized (fTiles) {
+            fTiles.clear();
+        }
+    }
+
+    private BufferedImage drawTile(final int tileY) {
+        final int y = tileY * fTileHeight;
+        final int height = Math.min(fTileHeight, fHeight - y);
+        final BufferedImage tile = new BufferedImage(fWidth, height, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D g2 = tile.createGraphics();
+        try {
+            g2.translate(0, -y);
+            g2.clipRect(0, y, fWidth, height);
+            fHeatMap.drawSnapshot(g2);
+        } finally {
+            g2.dispose();
+        }
+        return tile;
+    }
+
+    private Future<BufferedImage> requestTile(final int tileY) {
+        synchronized (fTiles) {
+            Future<BufferedImage> tile = fTiles.get(tileY);
+            if (tile == null) {
+                tile = fRenderer.submit(() -> drawTile(tileY));
+                fTiles.put(tileY, tile);
+            }
+            return tile;
+        }
+    }
+
+    private BufferedImage getTileImage(final int tileY) {
+        final Future<BufferedImage> tile = requestTile(tileY);
+        if (tileY + 1 < getNumYTiles()) {
+            requestTile(tileY + 1);
+        }
+
+        try {
+            return tile.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while drawing the heat map", ie);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public Raster getTile(final int tileX, final int tileY) {
+        if (tileX != 0 || tileY < 0 || tileY >= getNumYTiles()) {
+            throw new IllegalArgumentException("No tile at " + tileX + ", " + tileY);
+        }
+        return getTileImage(tileY).getRaster().createTranslatedChild(0, tileY * fTileHeight);
+    }
+
+    // Copies the whole image into one raster
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, fWidth, fHeight));
+    }
+
+    public Raster getData(final Rectangle rect) {
+        final WritableRaster raster = Raster.createWritableRaster(
+                fSampleModel.createCompatibleSampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+        return copyData(raster);
+    }
+
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = Raster.createWritableRaster(fSampleModel.createCompatibleSampleModel(fWidth, fHeight),
+                    new Point(0, 0));
+        }
+
+        final Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, fWidth, fHeight));
+        if (bounds.isEmpty()) {
+            return raster;
+        }
+        final int first = bounds.y / fTileHeight;
+        final int last = (bounds.y + bounds.height - 1) / fTileHeight;
+        // Copied by hand: WritableRaster.setRect() mislocates rows when the destination doesn't start at 0
+        for (int tileY = first; tileY <= last; tileY++) {
+            final Raster tile = getTile(0, tileY);
+            final Rectangle r = bounds.intersection(tile.getBounds());
+            raster.setDataElements(r.x, r.y, r.width, r.height,
+                    tile.getDataElements(r.x, r.y, r.width, r.height, null));
+        }
+        return raster;
+    }
+
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    public ColorModel getColorModel() {
+        return fColorModel;
+    }
+
+    public SampleModel getSampleModel() {
+        return fSampleModel;
+    }
+
+    public int getWidth() {
+        return fWidth;
+    }
+
+    public int getHeight() {
+        return fHeight;
+    }
+
+    public int getMinX() {
+        return 0;
+    }
+
+    public int getMinY() {
+        return 0;
+    }
+
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    public int getNumYTiles() {
+        return (fHeight + fTileHeight - 1) / fTileHeight;
+    }
+
+    public int getMinTileX() {
+        return 0;
+    }
+
+    public int getMinTileY() {
+        return 0;
+    }
+
+    public int getTileWidth() {
+        return fWidth;
+    }
+
+    public int getTileHeight() {
+        return fTileHeight;
+    }
+
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
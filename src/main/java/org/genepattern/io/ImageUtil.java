@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package org.genepattern.io;
 
@@ -14,6 +14,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.genepattern.heatmap.image.HeatMap;
+import org.genepattern.heatmap.image.HeatMapImage;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
 import org.w3c.dom.DOMImplementation;
@@ -23,6 +24,7 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -48,7 +50,7 @@ public class ImageUtil {
      * @param outputFile
      * @param format
      */
-    private static final File saveImage(BufferedImage bi, File outputFile, String format) {
+    private static final File saveImage(RenderedImage bi, File outputFile, String format) {
         try {
             if (StringUtils.equalsIgnoreCase("svg", format)) {
                 throw new IllegalArgumentException("No SVG support for saving a BufferedImage.");
@@ -108,8 +110,15 @@ public class ImageUtil {
         // We can't use a BufferedImage for SVG.
         if (StringUtils.equalsIgnoreCase("svg", format)) {
             return saveAsSVG(heatMap, outputFile, gZipSvgs);
+        } else if (StringUtils.equalsIgnoreCase("png", format)) {
+            // The PNG writer reads the image a row at a time, so the heat map is drawn in strips as it is written
+            // and never has to fit in memory all at once.
+            try (HeatMapImage image = heatMap.tiledSnapshot()) {
+                return saveImage(image, outputFile, format);
+            }
         } else {
-            // GZ compression doesn't apply to these images.
+            // GZ compression doesn't apply to these images.  The JPEG writer copies a tiled image into a single
+            // raster anyway, so it gets the snapshot directly.
             return saveImage(heatMap.snapshot(), outputFile, format);
         }
     }
@@ -49,6 +49,7 @@ public class GseaPrerankedWrapper extends AbstractModule {
         options.addOption(OptionBuilder.withArgName("normalizationMode").hasArg().create("norm"));
         options.addOption(OptionBuilder.withArgName("makeDetailedGeneSetReport").hasArg().create("make_sets"));
         options.addOption(OptionBuilder.withArgName("numberOftopSetsToPlot").hasArg().create("plot_top_x"));
+        options.addOption(OptionBuilder.withArgName("numberOfThreads").hasArg().create("nthreads"));
         options.addOption(OptionBuilder.withArgName("createSvgs").hasArg().create("create_svgs"));
         options.addOption(OptionBuilder.withArgName("randomSeed").hasArg().create("rnd_seed"));
         options.addOption(OptionBuilder.withArgName("selectedGeneSets").hasOptionalArg().create("selected_gene_sets"));
@@ -234,6 +235,7 @@ public class GseaPrerankedWrapper extends AbstractModule {
             setOptionValueAsParam("include_only_symbols", cl, paramProps, klog);
             setOptionValueAsParam("make_sets", cl, paramProps, klog);
             setOptionValueAsParam("plot_top_x", cl, paramProps, klog);
+            setOptionValueAsParam("nthreads", cl, paramProps, klog);
             setOptionValueAsParam("rnd_seed", cl, paramProps, klog);
             setOptionValueAsParam("create_svgs", cl, paramProps, klog);
             setOptionValueAsParam("set_max", cl, paramProps, klog);
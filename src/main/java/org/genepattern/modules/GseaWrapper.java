@@ -52,6 +52,8 @@ public class GseaWrapper extends AbstractModule {
         options.addOption(OptionBuilder.withArgName("medianForClassMetrics").hasArg().create("median"));
         options.addOption(OptionBuilder.withArgName("numberOfMarkers").hasArg().create("num"));
         options.addOption(OptionBuilder.withArgName("numberOftopSetsToPlot").hasArg().create("plot_top_x"));
+        options.addOption(OptionBuilder.withArgName("numberOfThreads").hasArg().create("nthreads"));
+        options.addOption(OptionBuilder.withArgName("numberOfPhenotypesRunAtOnce").hasArg().create("batch_parallel"));
         options.addOption(OptionBuilder.withArgName("randomSeed").hasArg().create("rnd_seed"));
         options.addOption(OptionBuilder.withArgName("saveRandomRankedLists").hasArg().create("save_rnd_lists"));
         options.addOption(OptionBuilder.withArgName("createSvgs").hasArg().create("create_svgs"));
@@ -278,6 +280,8 @@ public class GseaWrapper extends AbstractModule {
             setOptionValueAsParam("median", cl, paramProps, klog);
             setOptionValueAsParam("num", cl, paramProps, klog);
             setOptionValueAsParam("plot_top_x", cl, paramProps, klog);
+            setOptionValueAsParam("nthreads", cl, paramProps, klog);
+            setOptionValueAsParam("batch_parallel", cl, paramProps, klog);
             setOptionValueAsParam("rnd_seed", cl, paramProps, klog);
             setOptionValueAsParam("save_rnd_lists", cl, paramProps, klog);
             setOptionValueAsParam("create_svgs", cl, paramProps, klog);
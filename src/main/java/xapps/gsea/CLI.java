@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2019 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package xapps.gsea;
 
@@ -11,10 +11,13 @@ import org.genepattern.modules.GseaPrerankedWrapper;
 import org.genepattern.modules.GseaWrapper;
 import org.genepattern.modules.LeadingEdgeToolWrapper;
 
+import xtools.munge.DatasetToBinary;
+import xtools.munge.GeneSetsToBinary;
+
 public class CLI {
     
     private static final String USAGE_MESSAGE = "Usage: operationName followed by operation-specific arguments "
-            + "where operationName is one of GSEA, GSEAPreranked, CollapseDataset, Chip2Chip, or LeadingEdgeTool";
+            + "where operationName is one of GSEA, GSEAPreranked, CollapseDataset, Chip2Chip, LeadingEdgeTool, DatasetToBinary, or GeneSetsToBinary";
 
     public static void main(String[] args) throws Exception {
         if (args == null || args.length == 0) {
@@ -35,6 +38,10 @@ public class CLI {
             Chip2ChipWrapper.main(operationArgs);
         } else if ("LeadingEdgeTool".equalsIgnoreCase(operationName)) {
             LeadingEdgeToolWrapper.main(operationArgs);
+        } else if ("DatasetToBinary".equalsIgnoreCase(operationName)) {
+            DatasetToBinary.main(operationArgs);
+        } else if ("GeneSetsToBinary".equalsIgnoreCase(operationName)) {
+            GeneSetsToBinary.main(operationArgs);
         } else {
             throw new Exception("Usage: unrecognized operationName " + operationName + "\n" + USAGE_MESSAGE);
         }
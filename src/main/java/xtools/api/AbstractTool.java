@@ -225,28 +225,43 @@ public abstract class AbstractTool implements Tool {
     }
 
     public void doneExec() {
-        if (!fReport.getToolComments().isEmpty()) {
-            if (fReport.getIndexPage() != null) {
+        finishReport(fReport);
+
+        if (fGuiParam.isTrue()) {
+            fReport.display();
+        }
+
+        fTimer.stop();
+        fTimer.printTimeTakenS();
+    }
+
+    /**
+     * Adds the comments, warnings and citations to the index page of the report and closes it.  doneExec() does this
+     * for the main report (fReport); tools that make further reports call it for each of them.
+     */
+    protected void finishReport(final ToolReport report) {
+        if (!report.getToolComments().isEmpty()) {
+            if (report.getIndexPage() != null) {
                 Div div = new Div();
                 H4 h4 = new H4("Comments");
                 div.addElement(h4);
-                div.addElement(fReport.getToolComments().toHTML());
-                fReport.getIndexPage().addBlock(div, false);
+                div.addElement(report.getToolComments().toHTML());
+                report.getIndexPage().addBlock(div, false);
             }
         }
         
-        if (!fReport.getToolWarnings().isEmpty()) {
-            if (fReport.getIndexPage() != null) {
+        if (!report.getToolWarnings().isEmpty()) {
+            if (report.getIndexPage() != null) {
                 Div div = new Div();
                 H4 h4 = new H4("Warnings");
                 h4.addAttribute("style", "color: magenta;");
                 div.addElement(h4);
-                div.addElement(fReport.getToolWarnings().toHTML());
-                fReport.getIndexPage().addBlock(div, false);
+                div.addElement(report.getToolWarnings().toHTML());
+                report.getIndexPage().addBlock(div, false);
             }
         }
         
-        if (fReport.getIndexPage() != null) {
+        if (report.getIndexPage() != null) {
             Div div = new Div();
             H4 h4 = new H4("Citing GSEA and MSigDB");
             div.addElement(h4);
@@ -276,17 +291,10 @@ public abstract class AbstractTool implements Tool {
             citingMSigDB2023.setNeedClosingTag(true);
             div.addElement(citingMSigDB);
 
-            fReport.getIndexPage().addBlock(div, false);
+            report.getIndexPage().addBlock(div, false);
         }
 
-        fReport.closeReport(true);
-
-        if (fGuiParam.isTrue()) {
-            fReport.display();
-        }
-
-        fTimer.stop();
-        fTimer.printTimeTakenS();
+        report.closeReport(true);
     }
 
     public Report getReport() {
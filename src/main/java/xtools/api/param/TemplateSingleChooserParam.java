@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package xtools.api.param;
 
@@ -46,6 +46,13 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
         return _getTemplates(null)[0];
     }
 
+    /**
+     * For tools that can run a batch of phenotypes, given as a comma separated list e.g. foo.cls#P1,P2
+     */
+    public Template[] getTemplates() throws Exception {
+        return _getTemplates(null);
+    }
+
     public boolean isFileBased() {
         return true;
     }
@@ -108,6 +115,8 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
     
         List<Template> templates = new ArrayList<>();
         Template currMainTemplate = null;
+        // Templates read from a path are not added to the cache, so their source is kept here for the names after them
+        File currMainFile = null;
     
         for (int i = 0; i < ss.length; i++) {
             if (!_isPath(ss[i])) { // either aux or an auto-splitter word, with just the auxname or with a fullpath
@@ -122,7 +131,7 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
                 } else if (auxname.equals(Constants.ALL_PAIRS)) {
                     throw new IllegalArgumentException("Invalid Template option: " + auxname + " multiple templates not allowed in this usage");
                 } else {
-                    File file = ParserFactory.getCache().getSourceFile(currMainTemplate);
+                    File file = (currMainFile != null) ? currMainFile : ParserFactory.getCache().getSourceFile(currMainTemplate);
                     file = AuxUtils.getBaseFileFromAuxFile(file);
                     Template t = ParserFactory.readTemplate(new File(file.getPath() + "#" + auxname));
                     templates.add(t);
@@ -132,6 +141,7 @@ public class TemplateSingleChooserParam extends StringMultiChooserParam implemen
                 Template t = ParserFactory.readTemplate(new File(ss[i]), true, false, true); // @note imp to use cache for the templates from sample names
                 templates.add(t);
                 currMainTemplate = t;
+                currMainFile = new File(ss[i]);
             }
         }
     
@@ -1,12 +1,16 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package xtools.gsea;
 
+import edu.mit.broad.genome.Conf;
+import edu.mit.broad.genome.Constants;
 import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.NamingConventions;
 import edu.mit.broad.genome.alg.DatasetGenerators;
 import edu.mit.broad.genome.alg.Metric;
 import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.alg.gsea.GeneSetCohort;
 import edu.mit.broad.genome.alg.gsea.KSTests;
 import edu.mit.broad.genome.math.*;
 import edu.mit.broad.genome.objects.GeneSet;
@@ -17,9 +21,13 @@ import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
 import edu.mit.broad.genome.objects.strucs.CollapsedDetails;
 import edu.mit.broad.genome.objects.strucs.DatasetTemplate;
 import edu.mit.broad.genome.objects.strucs.TemplateRandomizerType;
+import edu.mit.broad.genome.parsers.AuxUtils;
 import edu.mit.broad.genome.parsers.EdbFolderParser;
 import edu.mit.broad.genome.parsers.ParserFactory;
 import edu.mit.broad.genome.reports.EnrichmentReports;
+import edu.mit.broad.genome.reports.api.ReportIndexState;
+import edu.mit.broad.genome.reports.api.ToolReport;
+import edu.mit.broad.genome.reports.pages.HtmlFormat;
 import edu.mit.broad.genome.reports.pages.HtmlReportIndexPage;
 import edu.mit.broad.xbench.prefs.XPreferencesFactory;
 import xtools.api.param.*;
@@ -28,10 +36,21 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.ecs.html.Div;
+import org.apache.ecs.html.H4;
+import org.apache.ecs.html.LI;
+import org.apache.ecs.html.UL;
 
 /**
  * @author Aravind Subramanian, David Eby
@@ -56,6 +75,9 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
             new TemplateRandomizerType[]{TemplateRandomizerType.NO_BALANCE,
                     TemplateRandomizerType.EQUALIZE_AND_BALANCE}, true);
 
+    protected final IntegerParam fBatchParallelParam = new IntegerParam("batch_parallel", "Phenotypes run at once", 
+            "When several phenotypes are given, the number whose permutations are computed at the same time", 1, false);
+
     protected AbstractGsea2Tool(String defCollapseMode) {
         super(defCollapseMode, "Max_probe");
     }
@@ -71,28 +93,48 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
         fParamSet.addParamAdv(fNumMarkersParam);
         fParamSet.addParamAdv(fSaveRndRankedListsParam);
         fParamSet.addParamAdv(fRndTypeParam);
+        fParamSet.addParamAdv(fBatchParallelParam);
     }
 
-    private EnrichmentDb execute_one(final CollapsedDetails.Data fullCd, final Template template, final GeneSet[] origGeneSets,
-            List<RankedList> store_rnd_ranked_lists_here_opt) throws Exception {
-        final RandomSeedGenerator rst = fRndSeedTypeParam.createSeed();
-        final DatasetTemplate dt = new DatasetGenerators().extract(fullCd.getDataset(), template);
+    // Sets up the permutation run for one phenotype.  The returned task only touches objects of its own, so the runs
+    // for several phenotypes can go at once.  batchIndex is that of the phenotype in a batch, or -1 for a single run.
+    private Callable<EnrichmentDb> create_one(final ToolReport report, final int batchIndex, final DatasetTemplate dt,
+            final GeneSet[] geneSets, final List<RankedList> store_rnd_ranked_lists_here_opt) throws Exception {
+        RandomSeedGenerator rst = fRndSeedTypeParam.createSeed();
 
         if (log.isDebugEnabled()) { log.debug(">>>>> Using samples: {}", dt.getDataset().getColumnNames()); }
 
-        final KSTests tests = new KSTests(getOutputStream());
+        final KSTests tests = new KSTests(getOutputStream(), getNumThreads());
         
-        // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference
+        // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference.
         if (rst instanceof RandomSeedGenerators.Timestamp) {
-            fReport.addComment("Timestamp used as random seed: " + 
-                    ((RandomSeedGenerators.Timestamp)rst).getTimestamp());
+            final long timestamp = ((RandomSeedGenerators.Timestamp)rst).getTimestamp();
+            if (batchIndex < 0) {
+                report.addComment("Timestamp used as random seed: " + timestamp);
+            } else {
+                // The reports of a batch are made too close together for their own timestamps to differ, so each
+                // phenotype is given a seed of its own, drawn by its index from the main report's timestamp
+                rst = RandomSeedGenerators.createChildren(new RandomSeedGenerators.Timestamp(timestamp), 
+                        batchIndex + 1)[batchIndex];
+                report.addComment("Random seed: " + rst + " (drawn for phenotype " + (batchIndex + 1) 
+                        + " of the batch from the timestamp " + timestamp + ")");
+            }
         }
 
-        return tests.executeGsea(dt, origGeneSets, fNumPermParam.getIValue(), fMetricParam.getMetric(),
-        		fSortParam.getMode(), fOrderParam.getOrder(), rst, fRndTypeParam.getRandomizerType(), getMetricParams(fMedianParam),
-                fGcohGenReqdParam.createGeneSetCohortGenerator(fGeneSetMinSizeParam.getIValue(), fGeneSetMaxSizeParam.getIValue()), 
-                fPermuteTypeParamType.permuteTemplate(), fNumMarkersParam.getIValue(), store_rnd_ranked_lists_here_opt);
+        final RandomSeedGenerator seed = rst;
+        final int nperm = fNumPermParam.getIValue();
+        final Metric metric = fMetricParam.getMetric();
+        final SortMode sort = fSortParam.getMode();
+        final Order order = fOrderParam.getOrder();
+        final TemplateRandomizerType rt = fRndTypeParam.getRandomizerType();
+        final Map<String, Boolean> metricParams = getMetricParams(fMedianParam);
+        final GeneSetCohort.Generator gcohgen = 
+                fGcohGenReqdParam.createGeneSetCohortGenerator(fGeneSetMinSizeParam.getIValue(), fGeneSetMaxSizeParam.getIValue());
+        final boolean permuteTemplate = fPermuteTypeParamType.permuteTemplate();
+        final int numMarkers = fNumMarkersParam.getIValue();
 
+        return () -> tests.executeGsea(dt, geneSets, nperm, metric, sort, order, seed, rt, metricParams, gcohgen, 
+                permuteTemplate, numMarkers, store_rnd_ranked_lists_here_opt);
     }
 
     protected void execute_one_with_reporting(final CollapsedDetails.Data fullCd, final Template template, final GeneSet[] origGeneSets,
@@ -100,22 +142,120 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
     		final boolean createGcts) throws Exception {
         List<RankedList> store_rnd_ranked_lists_here_opt = fSaveRndRankedListsParam.isTrue() ? new ArrayList<RankedList>() : null;
 
-        final EnrichmentDb edb = execute_one(fullCd, template, origGeneSets, store_rnd_ranked_lists_here_opt);
+        final DatasetTemplate dt = new DatasetGenerators().extract(fullCd.getDataset(), template);
+        final EnrichmentDb edb = create_one(fReport, -1, dt, origGeneSets, store_rnd_ranked_lists_here_opt).call();
+
+        report_one(fReport, edb, fullCd, template, origGeneSets, store_rnd_ranked_lists_here_opt, showDetailsForTopXSets, 
+                makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+    }
+
+    /**
+     * Batch mode: runs GSEA for each of the phenotypes on the one dataset, as if by separate runs of the tool, each 
+     * with a report of its own named for the phenotype.  The dataset is read, collapsed and the gene sets restricted
+     * to it just once, by the caller and here.  The permutations for up to batch_parallel phenotypes are computed at 
+     * once (each with nthreads workers) while the previous one is reported, so no more than batch_parallel + 1 sets 
+     * of results are held in memory.  The reports are made one at a time in the order given, and are linked from the
+     * main report (fReport), which has the dataset preparation.
+     */
+    protected void execute_batch_with_reporting(final CollapsedDetails.Data fullCd, final Template[] templates, 
+            final GeneSet[] origGeneSets, final ReportIndexState indexState, final int showDetailsForTopXSets, 
+            final boolean makeZippedReport, final boolean makeGeneSetReports, final boolean createSvgs, 
+            final boolean createGcts) throws Exception {
+        if (Conf.isMakeReportDirOffMode()) {
+            throw new IllegalArgumentException("Several phenotypes need a report folder each, which is turned off by -D" 
+                    + Constants.MAKE_REPORT_DIR_KEY);
+        }
+
+        final int numParallel = fBatchParallelParam.getIValue();
+        if (numParallel < 1) {
+            throw new IllegalArgumentException("Parameter '" + fBatchParallelParam.getNameEnglish() + "' must be at least 1. Got: " + numParallel);
+        }
+
+        final String baseLabel = StringUtils.defaultIfBlank(getParamSet().getReportLabelParam().getReportLabel(), "my_report").trim();
+        final String[] labels = new String[templates.length];
+        final Set<String> names = new HashSet<String>();
+        for (int i = 0; i < templates.length; i++) {
+            final String name = AuxUtils.getAuxNameOnlyNoHash(templates[i].getName());
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Phenotype was given more than once: " + name);
+            }
+            labels[i] = NamingConventions.createSafeFileName(baseLabel + "_" + name);
+        }
 
-        // -------------------------------------------------------------------------------------------- //
-        // rest are for the reporting
+        final GeneSet[] geneSets = fGcohGenReqdParam.createGeneSetCohortGenerator(fGeneSetMinSizeParam.getIValue(), 
+                fGeneSetMaxSizeParam.getIValue()).restrictGeneSetsToDataset(fullCd.getDataset(), origGeneSets);
+        log.info("Running a batch of {} phenotypes with {} of {} gene sets after restricting to the dataset", 
+                templates.length, geneSets.length, origGeneSets.length);
+
+        final ToolReport[] reports = new ToolReport[templates.length];
+        final List<List<RankedList>> stores = new ArrayList<List<RankedList>>(templates.length);
+        final List<Future<EnrichmentDb>> runs = new ArrayList<Future<EnrichmentDb>>(templates.length);
+        final UL links = new UL();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(numParallel);
+        try {
+            for (int i = 0; i < templates.length; i++) {
+                // Keep numParallel runs going past the one being reported, which bounds the results held in memory 
+                while (runs.size() < templates.length && runs.size() <= i + numParallel) {
+                    final int t = runs.size();
+                    reports[t] = new ToolReport(this, true, indexState, labels[t]);
+                    reports[t].addComment("Phenotype " + (t + 1) + " of " + templates.length + " run as a batch; see " 
+                            + fReport.getReportDir().getName() + " for the dataset preparation");
+                    stores.add(fSaveRndRankedListsParam.isTrue() ? new ArrayList<RankedList>() : null);
+                    final DatasetTemplate dt = new DatasetGenerators().extract(fullCd.getDataset(), templates[t]);
+                    runs.add(pool.submit(create_one(reports[t], t, dt, geneSets, stores.get(t))));
+                }
+
+                final EnrichmentDb edb;
+                try {
+                    edb = runs.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+                    throw e;
+                }
+
+                log.info("Reporting phenotype {} of {}: {}", i + 1, templates.length, templates[i].getName());
+                report_one(reports[i], edb, fullCd, templates[i], origGeneSets, stores.get(i), showDetailsForTopXSets, 
+                        makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+                finishReport(reports[i]);
+                if (makeZippedReport) { reports[i].zipReport(); }
+
+                links.addElement(new LI(HtmlFormat.Links.hyper(templates[i].getName(), 
+                        "../" + reports[i].getReportDir().getName() + "/index.html", null)));
+
+                // Done with this phenotype; let its results go
+                reports[i] = null;
+                stores.set(i, null);
+                runs.set(i, null);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (fReport.getIndexPage() != null) {
+            Div div = new Div();
+            div.addElement(new H4("Reports for each phenotype"));
+            div.addElement(links);
+            fReport.getIndexPage().addBlock(div, false);
+        }
+    }
 
+    // Makes the report for one phenotype's results
+    private void report_one(final ToolReport report, final EnrichmentDb edb, final CollapsedDetails.Data fullCd, 
+            final Template template, final GeneSet[] origGeneSets, final List<RankedList> store_rnd_ranked_lists_here_opt, 
+            final int showDetailsForTopXSets, final boolean makeZippedReport, final boolean makeGeneSetReports, 
+            final boolean createSvgs, final boolean createGcts) throws Exception {
         final Metric metric = fMetricParam.getMetric();
         final int minSize = fGeneSetMinSizeParam.getIValue();
         final int maxSize = fGeneSetMaxSizeParam.getIValue();
 
         final DatasetTemplate dt = new DatasetGenerators().extract(fullCd.getDataset(), template);
 
-        final HtmlReportIndexPage reportIndexPage = fReport.getIndexPage();
+        final HtmlReportIndexPage reportIndexPage = report.getIndexPage();
         
         // Make the report
-        EnrichmentReports.Ret ret = EnrichmentReports.createGseaLikeReport(edb, getOutputStream(), fullCd, reportIndexPage, fReport, showDetailsForTopXSets, minSize, maxSize, 
-        		makeGeneSetReports, makeZippedReport, createSvgs, createGcts, origGeneSets, metric.getName(), fNormModeParam.getNormModeName());
+        EnrichmentReports.Ret ret = EnrichmentReports.createGseaLikeReport(edb, getOutputStream(), fullCd, reportIndexPage, report, showDetailsForTopXSets, minSize, maxSize, 
+        		makeGeneSetReports, makeZippedReport, createSvgs, createGcts, origGeneSets, metric.getName(), fNormModeParam.getNormModeName(), getNumThreads());
 
         // Save the rnd ranked lists
         // Note: carrying this list through until after the algorithm completes has negative memory usage implications.
@@ -123,7 +263,7 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
         // e.g. to generate the lists on demand as we go rather than up-front.  Then we could generate & save the list,
         // run the iteration, then drop it so it doesn't consume memory.
         if (store_rnd_ranked_lists_here_opt != null && !store_rnd_ranked_lists_here_opt.isEmpty()) {
-            File dir = fReport.createSubDir("random_ranked_lists");
+            File dir = report.createSubDir("random_ranked_lists");
             for (int r = 0; r < store_rnd_ranked_lists_here_opt.size(); r++) {
                 RankedList rl = store_rnd_ranked_lists_here_opt.get(r);
                 // Prepend the list position for uniqueness; append the extension if necessary.
@@ -137,18 +277,18 @@ public abstract class AbstractGsea2Tool extends AbstractGseaTool {
         if (fPermuteTypeParamType.permuteTemplate()) {
             if (dt.getTemplate().isCategorical()) {
                 if (dt.getTemplate().getClass(0).getSize() < 7) {
-                    fReport.addWarning("Phenotype permutation was performed but the number of samples in class A is < 7, phenotype: " + dt.getTemplateName());
+                    report.addWarning("Phenotype permutation was performed but the number of samples in class A is < 7, phenotype: " + dt.getTemplateName());
                 }
                 if (dt.getTemplate().getClass(1).getSize() < 7) {
-                    fReport.addWarning("Phenotype permutation was performed but the number of samples in class B is < 7, phenotype: " + dt.getTemplateName());
+                    report.addWarning("Phenotype permutation was performed but the number of samples in class B is < 7, phenotype: " + dt.getTemplateName());
                 }
                 if (dt.getTemplate().getNumItems() < 14) {
-                    fReport.addWarning("With small datasets, there might not be enough random permutations of sample labels to generate a sufficient null distribution. " +
+                    report.addWarning("With small datasets, there might not be enough random permutations of sample labels to generate a sufficient null distribution. " +
                             "In such cases, gene_set randomization might be a better choice.");
                 }
             } else if (dt.getTemplate().isContinuous() && dt.getDataset().getNumCol() < 7) { 
-                fReport.addWarning("Phenotype permutation was performed but the number of samples in dataset is < 7");
-                fReport.addWarning("With small datasets, there might not be enough random permutations of sample labels to generate a sufficient null distribution. " +
+                report.addWarning("Phenotype permutation was performed but the number of samples in dataset is < 7");
+                report.addWarning("With small datasets, there might not be enough random permutations of sample labels to generate a sufficient null distribution. " +
                         "In such cases, gene_set randomization might be a better choice.");
             }
         }
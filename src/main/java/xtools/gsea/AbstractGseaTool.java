@@ -27,6 +27,7 @@ public abstract class AbstractGseaTool extends AbstractTool {
 
     protected final IntegerParam fNumPermParam = new IntegerParam("nperm", "Number of permutations", "The number of permutations", 1000, new int[]{0, 1, 10, 100, 1000}, true);
     protected final RandomSeedTypeParam fRndSeedTypeParam = new RandomSeedTypeParam(this);
+    protected final IntegerParam fNumThreadsParam = new IntegerParam("nthreads", "Number of threads", "Number of worker threads used to compute the permutations and to create the gene set details reports", 1, false);
 
     protected final ModeReqdParam fCollapseModeParam; 
     protected final FeatureSpaceReqdParam fFeatureSpaceParam;
@@ -64,6 +65,7 @@ public abstract class AbstractGseaTool extends AbstractTool {
         
         // advanced
         fParamSet.addParamAdv(fRndSeedTypeParam);
+        fParamSet.addParamAdv(fNumThreadsParam);
         fParamSet.addParamAdv(fNormModeParam);
         fParamSet.addParamAdv(fIncludeOnlySymbols);
 
@@ -75,6 +77,14 @@ public abstract class AbstractGseaTool extends AbstractTool {
         }
     }
 
+    protected int getNumThreads() {
+        final int numThreads = fNumThreadsParam.getIValue();
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Parameter '" + fNumThreadsParam.getNameEnglish() + "' must be at least 1. Got: " + numThreads);
+        }
+        return numThreads;
+    }
+
     protected Dataset uniquize(final Dataset ds) {
         final GeneSet gset = ds.getRowNamesGeneSet();
         final int numRow = ds.getNumRow();
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package xtools.gsea;
 
@@ -123,27 +123,24 @@ public class Gsea extends AbstractGsea2Tool {
         final ReportIndexState state = new ReportIndexState(true, false, false, createHeader(fDatasetParam));
         startExec(state);
 
-        final Template template = fTemplateParam.getTemplate();
+        // Several phenotypes (e.g. foo.cls#P1,P2) are run as a batch, each with its own report
+        final Template[] templates = fTemplateParam.getTemplates();
 
         // some quick checks
         final Metric metric = fMetricParam.getMetric();
-        if (template.isCategorical()) {
-            if (!metric.isCategorical()) {
-                throw new StandardException("As the phenotype choosen was categorical, only categorical metrics are allowed. Got: " + metric.getName(), 1010);
-            }
-
-            if (!template.isCategorical()) {
-                throw new IllegalArgumentException("Only categorical templates allowed. Got: " + template.getName());
-            }
-        }
-
-        if (!template.isCategorical()) {
-            if (!metric.isContinuous()) {
-                throw new StandardException("As the phenotype choosen was continuous, only continuous class metrics are allowed. Got: " + metric.getName(), 1011);
-            }
-
-            if (!template.isContinuous()) {
-                throw new IllegalArgumentException("Only continuous templates allowed. Got: " + template.getName());
+        for (Template template : templates) {
+            if (template.isCategorical()) {
+                if (!metric.isCategorical()) {
+                    throw new StandardException("As the phenotype choosen was categorical, only categorical metrics are allowed. Got: " + metric.getName(), 1010);
+                }
+            } else {
+                if (!metric.isContinuous()) {
+                    throw new StandardException("As the phenotype choosen was continuous, only continuous class metrics are allowed. Got: " + metric.getName(), 1011);
+                }
+
+                if (!template.isContinuous()) {
+                    throw new IllegalArgumentException("Only continuous templates allowed. Got: " + template.getName());
+                }
             }
         }
 
@@ -163,9 +160,17 @@ public class Gsea extends AbstractGsea2Tool {
         final Dataset fullDs = uniquize(ds);
         final CollapsedDetails.Data cd = getDataset(fullDs);
 
-        execute_one_with_reporting(cd, template, origGeneSets, fShowDetailsForTopXSetsParam.getIValue(), 
-                (fMakeZippedReportParam.isSpecified() && fMakeZippedReportParam.isTrue()), (fMakeGeneSetReportsParam.isSpecified() && fMakeGeneSetReportsParam.isTrue()), 
-                (fCreateSvgsParam.isSpecified() && fCreateSvgsParam.isTrue()), (fCreateGctsParam.isSpecified() && fCreateGctsParam.isTrue()));
+        final boolean makeZippedReport = fMakeZippedReportParam.isSpecified() && fMakeZippedReportParam.isTrue();
+        final boolean makeGeneSetReports = fMakeGeneSetReportsParam.isSpecified() && fMakeGeneSetReportsParam.isTrue();
+        final boolean createSvgs = fCreateSvgsParam.isSpecified() && fCreateSvgsParam.isTrue();
+        final boolean createGcts = fCreateGctsParam.isSpecified() && fCreateGctsParam.isTrue();
+        if (templates.length == 1) {
+            execute_one_with_reporting(cd, templates[0], origGeneSets, fShowDetailsForTopXSetsParam.getIValue(), 
+                    makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+        } else {
+            execute_batch_with_reporting(cd, templates, origGeneSets, state, fShowDetailsForTopXSetsParam.getIValue(), 
+                    makeZippedReport, makeGeneSetReports, createSvgs, createGcts);
+        }
 
         if (fMakeZippedReportParam.isTrue()) {
             // custom close before zipping
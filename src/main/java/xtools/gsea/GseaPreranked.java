@@ -131,7 +131,7 @@ public class GseaPreranked extends AbstractGseaTool {
             fann = new FeatureAnnot(rl.getName(), rl.getRankedNames(), null);
         }
 
-        final KSTests tests = new KSTests(getOutputStream());
+        final KSTests tests = new KSTests(getOutputStream(), getNumThreads());
         
         // If we have a RandomSeedGenerator.Timestamp instance, save the timestamp for later reference
         if (rst instanceof RandomSeedGenerators.Timestamp) {
@@ -145,7 +145,7 @@ public class GseaPreranked extends AbstractGseaTool {
 
         // Make the report
         EnrichmentReports.Ret ret = EnrichmentReports.createGseaLikeReport(edb, getOutputStream(), fullRL, reportIndexPage, fReport, topXSets, minSize, maxSize,
-                fMakeGeneSetReportsParam.isTrue(), fMakeZippedReportParam.isTrue(), createSvgs, origGeneSets, "PreRanked", fNormModeParam.getNormModeName(), fann);
+                fMakeGeneSetReportsParam.isTrue(), fMakeZippedReportParam.isTrue(), createSvgs, origGeneSets, "PreRanked", fNormModeParam.getNormModeName(), fann, getNumThreads());
 
         // Make an edb folder thing
         new EdbFolderParser().export(ret.edb, ret.savedInDir);
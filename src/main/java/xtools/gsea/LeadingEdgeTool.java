@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2003-2022 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
  */
 package xtools.gsea;
 
@@ -112,7 +112,6 @@ public class LeadingEdgeTool extends AbstractTool {
         startExec(state);
 
         final File gseaResultDir = fGseaResultDirParam.getDir();
-        final EnrichmentDb edb = ParserFactory.readEdb(gseaResultDir, true);
         // Note that we MUST set the altDelim on the fGeneSetNamesParam if it's present.  This MUST happen
         // before extracting the param value or it will be parsed incorrectly.  Unfortunately, these params
         // don't give any other good way to specify param dependencies except via code.
@@ -123,6 +122,10 @@ public class LeadingEdgeTool extends AbstractTool {
         if (fGeneSetNamesParam.isSpecified()) {
             gsetNames = fGeneSetNamesParam.getStrings();
         }
+
+        // Only the named gene sets are needed from the edb, so skip reading the rest
+        final EnrichmentDb edb = (gsetNames == null || gsetNames.length == 0)
+                ? ParserFactory.readEdb(gseaResultDir, true) : ParserFactory.readEdb(gseaResultDir, gsetNames);
         boolean createExtraPlots = fCreateExtraPlotsParam.isSpecified() && fCreateExtraPlotsParam.isTrue();
         String imgFormat = (fImageFormat.isSpecified()) ? fImageFormat.getValue().toString() : "png";
         EnrichmentResult[] enrichmentResults = null;
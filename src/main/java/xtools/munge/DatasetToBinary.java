@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.munge;
+
+import edu.mit.broad.genome.objects.Dataset;
+import org.apache.commons.lang3.StringUtils;
+import xtools.api.AbstractTool;
+import xtools.api.ToolCategory;
+import xtools.api.param.DatasetReqdParam;
+import xtools.api.param.StringInputParam;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Converts a dataset in any of the text formats (GCT, RES, TXT, PCL) to the binary (gctb) format,
+ * which is memory-mapped rather than parsed when it is loaded.
+ *
+ * @author David Eby
+ */
+public class DatasetToBinary extends AbstractTool {
+    private final DatasetReqdParam fDatasetParam = new DatasetReqdParam();
+
+    private final StringInputParam fResultFileNameParam = new StringInputParam("out_file", "Result File Name", "Name for the resulting binary dataset.  The default is to use the name of the original", "", false);
+
+    public DatasetToBinary(Properties properties) { super.init(properties, ""); }
+
+    public DatasetToBinary(Properties properties, String paramFilePath) { super.init(properties, paramFilePath); }
+
+    public DatasetToBinary(String[] args) { super.init(args); }
+
+    /**
+     * For ParamSet interrogation use only -- not executable
+     */
+    public DatasetToBinary() { declareParams(); }
+
+    public String getName() { return "DatasetToBinary"; }
+
+    public void execute() throws Exception {
+        startExec();
+
+        final Dataset ds = fDatasetParam.getDataset();
+        final List<String> warnings = ds.getWarnings();
+        for (String warning : warnings) { fReport.addWarning(warning); }
+
+        String name = fResultFileNameParam.getValueStringRepresentation(true);
+        if (StringUtils.isBlank(name)) { name = ds.getName(); }
+
+        fReport.savePageBinary(ds, name);
+
+        doneExec();
+    }
+
+    public String getDesc() { return "Convert a dataset to the binary format for faster loading"; }
+
+    public ToolCategory getCategory() { return ToolCategory.DATASET; }
+
+    public void declareParams() {
+        fParamSet.addParam(fDatasetParam);
+        fParamSet.addParamAdv(fResultFileNameParam);
+    }
+
+    public static void main(String[] args) {
+        DatasetToBinary tool = new DatasetToBinary(args);
+        tool_main(tool);
+    }
+}
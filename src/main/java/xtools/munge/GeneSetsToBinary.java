@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.munge;
+
+import edu.mit.broad.genome.NamingConventions;
+import edu.mit.broad.genome.objects.GeneSetMatrix;
+import org.apache.commons.lang3.StringUtils;
+import xtools.api.AbstractTool;
+import xtools.api.ToolCategory;
+import xtools.api.param.GeneSetMatrixMultiChooserParam;
+import xtools.api.param.StringInputParam;
+
+import java.util.Properties;
+
+/**
+ * Saves gene sets from any of the gene set formats (GMT, GMX, GRP) as one binary (gmtb) snapshot,
+ * with the members pre-indexed so that it reloads without parsing.
+ *
+ * @author David Eby
+ */
+public class GeneSetsToBinary extends AbstractTool {
+    private final GeneSetMatrixMultiChooserParam fGeneSetMatrixParam = new GeneSetMatrixMultiChooserParam(true);
+
+    private final StringInputParam fResultFileNameParam = new StringInputParam("out_file", "Result File Name", "Name for the resulting binary gene sets file.  The default is to use the name of the original", "", false);
+
+    public GeneSetsToBinary(Properties properties) { super.init(properties, ""); }
+
+    public GeneSetsToBinary(Properties properties, String paramFilePath) { super.init(properties, paramFilePath); }
+
+    public GeneSetsToBinary(String[] args) { super.init(args); }
+
+    /**
+     * For ParamSet interrogation use only -- not executable
+     */
+    public GeneSetsToBinary() { declareParams(); }
+
+    public String getName() { return "GeneSetsToBinary"; }
+
+    public void execute() throws Exception {
+        startExec();
+
+        final GeneSetMatrix gm = fGeneSetMatrixParam.getGeneSetMatrixCombo();
+
+        String name = fResultFileNameParam.getValueStringRepresentation(true);
+        if (StringUtils.isBlank(name)) { name = NamingConventions.removeExtension(gm.getName()); }
+
+        fReport.savePageBinary(gm, name);
+
+        doneExec();
+    }
+
+    public String getDesc() { return "Convert gene sets to the binary format for faster loading"; }
+
+    public ToolCategory getCategory() { return ToolCategory.GENESET_TOOLS; }
+
+    public void declareParams() {
+        fParamSet.addParam(fGeneSetMatrixParam);
+        fParamSet.addParamAdv(fResultFileNameParam);
+    }
+
+    public static void main(String[] args) {
+        GeneSetsToBinary tool = new GeneSetsToBinary(args);
+        tool_main(tool);
+    }
+}
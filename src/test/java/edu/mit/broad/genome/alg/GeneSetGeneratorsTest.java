@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.XMath;
+
+/**
+ * The random rank samplers used for the gene_set permutations.
+ */
+public class GeneSetGeneratorsTest {
+
+    private static void assertDistinctInRange(final int[] ranks, final int nmembers, final int poolSize) {
+        final BitSet seen = new BitSet(poolSize);
+        for (int i = 0; i < nmembers; i++) {
+            assertTrue(ranks[i] >= 0 && ranks[i] < poolSize, "rank out of range: " + ranks[i]);
+            assertFalse(seen.get(ranks[i]), "repeated rank: " + ranks[i]);
+            seen.set(ranks[i]);
+        }
+    }
+
+    @Test
+    void sampleRandomRankSets_distinctInRangeAndPoolRestored() {
+        final int poolSize = 50;
+        final int[] pool = XMath.toIndices(poolSize);
+        final int[][] sets = {new int[10], new int[1], new int[49], new int[50], new int[0], new int[25]};
+        GeneSetGenerators.sampleRandomRankSets(sets, pool, new RandomSeedGenerators.Custom(7));
+
+        assertArrayEquals(XMath.toIndices(poolSize), pool);
+        for (int[] set : sets) {
+            assertDistinctInRange(set, set.length, poolSize);
+        }
+        // Drawing the whole pool gives a permutation of it
+        final int[] all = sets[3].clone();
+        Arrays.sort(all);
+        assertArrayEquals(XMath.toIndices(poolSize), all);
+    }
+
+    @Test
+    void sampleRandomRankSets_rejectsMoreThanThePool() {
+        final int[] pool = XMath.toIndices(5);
+        assertThrows(IllegalArgumentException.class, () -> GeneSetGenerators.sampleRandomRankSets(
+                new int[][]{new int[6]}, pool, new RandomSeedGenerators.Custom(1)));
+    }
+
+    @Test
+    void rankSetSampler_drawsAsSampleRandomRankSetsWithBuffersReused() {
+        final int poolSize = 200;
+        final int nperm = 30;
+        final GeneSetGenerators.RankSetSampler sampler = new GeneSetGenerators.RankSetSampler(poolSize);
+        final int[] pool = XMath.toIndices(poolSize);
+
+        // Growing, then shrinking, so that rows are longer than the members asked for
+        for (int nmembers : new int[]{15, 120, 3, 120, 0, 200}) {
+            final int[][] expected = new int[nperm][nmembers];
+            GeneSetGenerators.sampleRandomRankSets(expected, pool, new RandomSeedGenerators.Custom(nmembers));
+
+            final int[][] actual = sampler.sample(nperm, nmembers, new RandomSeedGenerators.Custom(nmembers));
+            assertEquals(nperm, actual.length);
+            for (int g = 0; g < nperm; g++) {
+                assertTrue(actual[g].length >= nmembers);
+                assertArrayEquals(expected[g], Arrays.copyOf(actual[g], nmembers), "nmembers " + nmembers + " set " + g);
+                assertDistinctInRange(actual[g], nmembers, poolSize);
+            }
+        }
+    }
+
+    @Test
+    void rankSetSampler_sameSeedSameSets() {
+        final GeneSetGenerators.RankSetSampler a = new GeneSetGenerators.RankSetSampler(1000);
+        final GeneSetGenerators.RankSetSampler b = new GeneSetGenerators.RankSetSampler(1000);
+        a.sample(4, 500, new RandomSeedGenerators.Custom(3));    // leaves a's buffers used
+
+        final int[][] fromA = a.sample(8, 40, new RandomSeedGenerators.Custom(11));
+        final int[][] fromB = b.sample(8, 40, new RandomSeedGenerators.Custom(11));
+        for (int g = 0; g < 8; g++) {
+            assertArrayEquals(Arrays.copyOf(fromB[g], 40), Arrays.copyOf(fromA[g], 40));
+        }
+    }
+}
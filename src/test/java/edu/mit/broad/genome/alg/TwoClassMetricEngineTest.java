@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+import edu.mit.broad.genome.objects.TemplateFactoryRandomizer;
+
+/**
+ * The batch scores of the TwoClassMetricEngine against those of the Metric implementations, row by row, both
+ * directly and by class deltas for the permutations.
+ */
+public class TwoClassMetricEngineTest {
+
+    private static final Metric[] METRICS = {new Metrics.Signal2Noise(), new Metrics.tTest()};
+
+    // Spans more than one block of rows
+    private static final int NUM_ROWS = 2500;
+
+    /**
+     * Random rows with many ties and missing values, as well as constant rows and rows with one or no values in a class
+     */
+    private static Dataset createDataset(final int nrows, final int ncols, final long seed) {
+        final Random rnd = new Random(seed);
+        final Matrix matrix = new Matrix(nrows, ncols);
+        final List<String> rowNames = new ArrayList<String>();
+        final List<String> colNames = new ArrayList<String>();
+        for (int c = 0; c < ncols; c++) {
+            colNames.add("S" + c);
+        }
+        for (int r = 0; r < nrows; r++) {
+            rowNames.add("G" + r);
+            final int kind = rnd.nextInt(10);
+            final float constant = rnd.nextInt(3) - 1;
+            for (int c = 0; c < ncols; c++) {
+                final float value;
+                if (kind == 0) {
+                    value = constant;
+                } else if (kind == 1) {
+                    // Only the first sample has a value
+                    value = (c == 0) ? (float) rnd.nextGaussian() : Float.NaN;
+                } else if (kind == 2) {
+                    value = rnd.nextInt(3) * 0.5f;
+                } else {
+                    value = (rnd.nextInt(8) == 0) ? Float.NaN : (float) (rnd.nextGaussian() * 3 + kind);
+                }
+                matrix.setElement(r, c, value);
+            }
+        }
+        return new DefaultDataset("ds", matrix, rowNames, colNames, null);
+    }
+
+    private static String[] names(final int... cols) {
+        final String[] names = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            names[i] = "S" + cols[i];
+        }
+        return names;
+    }
+
+    private static List<Map<String, Boolean>> allParams() {
+        final List<Map<String, Boolean>> all = new ArrayList<Map<String, Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            final Map<String, Boolean> params = new HashMap<String, Boolean>();
+            params.put(Headers.USE_BIASED, (i & 1) != 0);
+            params.put(Headers.USE_MEDIAN, (i & 2) != 0);
+            params.put(Headers.FIX_LOW, (i & 4) != 0);
+            all.add(params);
+        }
+        return all;
+    }
+
+    private static void assertScoresAsMetric(final Dataset ds, final Template template) {
+        final TwoClassMetricEngine engine = TwoClassMetricEngine.create(ds);
+        assertNotNull(engine);
+        for (Metric metric : METRICS) {
+            for (Map<String, Boolean> params : allParams()) {
+                final double[] scores = engine.score(metric, template, params);
+                assertEquals(ds.getNumRow(), scores.length);
+                for (int r = 0; r < ds.getNumRow(); r++) {
+                    final double expected = metric.getScore(ds.getRow(r), template, params);
+                    assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(scores[r]),
+                            metric.getName() + " " + params + " row " + r + ": " + expected + " vs " + scores[r]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void score_sameAsMetricsBothWaysRound() {
+        final Dataset ds = createDataset(NUM_ROWS, 9, 1);
+        final String[] a = names(0, 2, 3, 7);
+        final String[] b = names(1, 4, 5, 6, 8);
+        assertScoresAsMetric(ds, TemplateFactory.createCategoricalTemplate("t", ds, "A", a, "B", b));
+        assertScoresAsMetric(ds, TemplateFactory.createCategoricalTemplate("t", ds, "B", b, "A", a));
+    }
+
+    @Test
+    void score_sameAsMetricsForSingleSampleClassAndUnusedColumns() {
+        final Dataset ds = createDataset(300, 7, 2);
+        // Sample 0 on its own, and samples 5 and 6 in neither class
+        assertScoresAsMetric(ds, TemplateFactory.createCategoricalTemplate("t", ds, "A", names(0), "B", names(4, 1, 3, 2)));
+        assertScoresAsMetric(ds, TemplateFactory.createCategoricalTemplate("t", ds, "A", names(6, 2), "B", names(0)));
+    }
+
+    @Test
+    void score_randomDatasetsAndClasses() {
+        final Random rnd = new Random(3);
+        for (int t = 0; t < 20; t++) {
+            final int ncols = 2 + rnd.nextInt(15);
+            final Dataset ds = createDataset(1 + rnd.nextInt(200), ncols, t);
+            final List<Integer> a = new ArrayList<Integer>();
+            final List<Integer> b = new ArrayList<Integer>();
+            for (int c = 0; c < ncols; c++) {
+                (rnd.nextBoolean() ? a : b).add(c);
+            }
+            if (a.isEmpty()) { a.add(b.remove(0)); }
+            if (b.isEmpty()) { b.add(a.remove(0)); }
+            assertScoresAsMetric(ds, TemplateFactory.createCategoricalTemplate("t", ds,
+                    "A", names(a.stream().mapToInt(Integer::intValue).toArray()),
+                    "B", names(b.stream().mapToInt(Integer::intValue).toArray())));
+        }
+    }
+
+    @Test
+    void isSupported_onlyTwoClassS2nAndTTest() {
+        final Dataset ds = createDataset(5, 4, 4);
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", names(0, 1), "B", names(2, 3));
+        assertTrue(TwoClassMetricEngine.isSupported(new Metrics.Signal2Noise(), template));
+        assertTrue(TwoClassMetricEngine.isSupported(new Metrics.tTest(), template));
+        assertFalse(TwoClassMetricEngine.isSupported(new Metrics.Pearson(), template));
+        assertFalse(TwoClassMetricEngine.isSupported(new Metrics.Signal2Noise(), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> TwoClassMetricEngine.create(ds).score(new Metrics.Pearson(), template, allParams().get(0)));
+    }
+
+    private static List<Map<String, Boolean>> meanParams() {
+        final List<Map<String, Boolean>> mean = new ArrayList<Map<String, Boolean>>();
+        for (Map<String, Boolean> params : allParams()) {
+            if (!params.get(Headers.USE_MEDIAN)) { mean.add(params); }
+        }
+        return mean;
+    }
+
+    // The deltas give the variances from sums of squares, so only the last few bits may differ
+    private static void assertScoresNearMetric(final Dataset ds, final TwoClassMetricEngine engine, final Template template) {
+        for (Metric metric : METRICS) {
+            for (Map<String, Boolean> params : meanParams()) {
+                final double[] scores = engine.scoreByClassDeltas(metric, template, params);
+                for (int r = 0; r < ds.getNumRow(); r++) {
+                    final double expected = metric.getScore(ds.getRow(r), template, params);
+                    final String label = metric.getName() + " " + params + " row " + r + ": " + expected + " vs " + scores[r];
+                    if (Double.isFinite(expected)) {
+                        assertEquals(expected, scores[r], 1e-9 * Math.max(1.0, Math.abs(expected)), label);
+                    } else {
+                        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(scores[r]), label);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void scoreByClassDeltas_nearMetricsForRandomTemplates() {
+        final Dataset ds = createDataset(NUM_ROWS, 11, 5);
+        final TwoClassMetricEngine engine = TwoClassMetricEngine.createForPermutations(ds);
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds,
+                "A", names(0, 1, 2, 3), "B", names(4, 5, 6, 7, 8, 9, 10));
+        assertScoresNearMetric(ds, engine, template);
+        for (Template rndTemplate : TemplateFactoryRandomizer.createRandomTemplates(10, template, new RandomSeedGenerators.Custom(6))) {
+            assertScoresNearMetric(ds, engine, rndTemplate);
+        }
+    }
+
+    @Test
+    void scoreByClassDeltas_eitherClassSmaller() {
+        final Dataset ds = createDataset(400, 6, 7);
+        final TwoClassMetricEngine engine = TwoClassMetricEngine.createForPermutations(ds);
+        assertScoresNearMetric(ds, engine, TemplateFactory.createCategoricalTemplate("t", ds, "A", names(3), "B", names(0, 1, 2, 4, 5)));
+        assertScoresNearMetric(ds, engine, TemplateFactory.createCategoricalTemplate("t", ds, "A", names(0, 1, 2, 4, 5), "B", names(3)));
+        assertScoresNearMetric(ds, engine, TemplateFactory.createCategoricalTemplate("t", ds, "A", names(5, 0, 3), "B", names(1, 4, 2)));
+    }
+
+    @Test
+    void scoreByClassDeltas_sameAsScoreWhenColumnsAreLeftOut() {
+        final Dataset ds = createDataset(300, 8, 8);
+        final TwoClassMetricEngine engine = TwoClassMetricEngine.createForPermutations(ds);
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", names(0, 2, 4), "B", names(1, 3));
+        for (Metric metric : METRICS) {
+            for (Map<String, Boolean> params : meanParams()) {
+                assertArrayEquals(engine.score(metric, template, params), engine.scoreByClassDeltas(metric, template, params));
+            }
+        }
+    }
+
+    @Test
+    void scoreByClassDeltas_onlyForMeansOnAnEngineForPermutations() {
+        final Dataset ds = createDataset(5, 4, 9);
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", names(0, 1), "B", names(2, 3));
+        final Map<String, Boolean> median = allParams().get(2);
+        assertTrue(median.get(Headers.USE_MEDIAN));
+        assertFalse(TwoClassMetricEngine.isSupportedByClassDeltas(new Metrics.tTest(), template, median));
+        assertThrows(IllegalArgumentException.class,
+                () -> TwoClassMetricEngine.createForPermutations(ds).scoreByClassDeltas(new Metrics.tTest(), template, median));
+        assertThrows(IllegalStateException.class,
+                () -> TwoClassMetricEngine.create(ds).scoreByClassDeltas(new Metrics.tTest(), template, meanParams().get(0)));
+    }
+}
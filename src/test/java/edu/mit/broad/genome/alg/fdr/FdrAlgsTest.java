@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.fdr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.DatasetModed;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.Order;
+import edu.mit.broad.genome.math.ScoreMode;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.math.XMath;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.LabelledVector;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.strucs.SkewCorrectedFdrStruc;
+
+/**
+ * The skew-corrected FDRs must be those of the original computation, which scanned each column of the null
+ * extracted to the positive (or negative) scores and sorted as a Vector, for every gene set.
+ */
+public class FdrAlgsTest {
+
+    // Plenty of ties, zeros of both signs and NaNs
+    private static float randomScore(final Random rnd, final boolean withNaNs) {
+        final int k = rnd.nextInt(15);
+        if (k == 0 && withNaNs) { return Float.NaN; }
+        if (k == 1) { return 0f; }
+        if (k == 2) { return -0f; }
+        if (k < 6) { return Math.round(rnd.nextGaussian() * 8) / 4f; }
+        return (float) rnd.nextGaussian() * 1.5f;
+    }
+
+    // Ties, but no zeros: a real score of zero counts as both positive and negative, and is not supported
+    private static LabelledVector randomScores(final Random rnd, final String[] names) {
+        final float[] scores = new float[names.length];
+        for (int i = 0; i < scores.length; i++) {
+            do {
+                scores[i] = randomScore(rnd, false);
+            } while (scores[i] == 0);
+        }
+        return new LabelledVector("real", names, scores);
+    }
+
+    private static Dataset randomNull(final Random rnd, final String[] names, final int nperm) {
+        final Matrix matrix = new Matrix(names.length, nperm);
+        final String[] colNames = new String[nperm];
+        for (int c = 0; c < nperm; c++) {
+            colNames[c] = "PERM_" + c;
+        }
+        for (int r = 0; r < names.length; r++) {
+            for (int c = 0; c < nperm; c++) {
+                matrix.setElement(r, c, randomScore(rnd, true));
+            }
+        }
+        return new DefaultDataset("rnd", matrix, names, colNames, null);
+    }
+
+    /**
+     * The FDR as computed before the nulls were pooled and counted by binary search
+     */
+    private static float originalFdr(final String name, final float real_score_of_name,
+                                     final RankedList all_real_scores_norm_sorted, final Dataset rnd_norm,
+                                     final boolean doPos) {
+        final boolean pos = XMath.isPositive(real_score_of_name);
+        final float real_score_norm_of_name = all_real_scores_norm_sorted.getScore(name);
+        final int moreRealThan = all_real_scores_norm_sorted.getRank(name) + 1;
+
+        float col_mean_sum = 0;
+        int ncols_actual = 0;
+        for (int c = 0; c < rnd_norm.getNumCol(); c++) {
+            final Vector col = rnd_norm.getColumn(c).extract(pos ? ScoreMode.POS_ONLY : ScoreMode.NEG_ONLY);
+            col.sort(SortMode.REAL, pos ? Order.DESCENDING : Order.ASCENDING);
+            final float size = col.getSize();
+            final float moreOrLessThan = pos ? XMath.getMoreThanCount(real_score_norm_of_name, col)
+                    : XMath.getLessThanCount(real_score_norm_of_name, col);
+            if (size != 0) {
+                col_mean_sum += moreOrLessThan / size;
+                ncols_actual++;
+            }
+        }
+
+        final float numr = col_mean_sum / ncols_actual;
+        final float numSets = all_real_scores_norm_sorted.getSize(pos ? ScoreMode.POS_ONLY : ScoreMode.NEG_ONLY);
+        final float denr = ((float) moreRealThan) / numSets;
+        return (doPos == pos) ? numr / denr : 1.0f;
+    }
+
+    private static void assertSameFdrs(final Random rnd, final int numSets, final int nperm) {
+        final String[] names = new String[numSets];
+        for (int i = 0; i < numSets; i++) {
+            names[i] = "SET_" + i;
+        }
+        final LabelledVector real = randomScores(rnd, names);
+        final LabelledVector realNorm = randomScores(rnd, names);
+        final Dataset rnd_scores = randomNull(rnd, names, nperm);
+        final Dataset rnd_norm = randomNull(rnd, names, nperm);
+
+        final FdrAlgs.FdrMap map = FdrAlgs.calcFdrs_skewed(real, rnd_scores, realNorm,
+                new DatasetModed(rnd_norm, ScoreMode.POS_ONLY), new DatasetModed(rnd_norm, ScoreMode.NEG_ONLY),
+                SortMode.REAL);
+
+        final RankedList posSorted = realNorm.sort(SortMode.REAL, Order.DESCENDING);
+        final RankedList negSorted = realNorm.sort(SortMode.REAL, Order.ASCENDING);
+        for (int r = 0; r < numSets; r++) {
+            final float score = real.getScore(r);
+            final boolean pos = XMath.isPositive(score);
+            final SkewCorrectedFdrStruc fdr = map.getFdr(names[r]);
+            final float expected = originalFdr(names[r], score, pos ? posSorted : negSorted, rnd_norm, pos);
+            assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(fdr.getFdr()),
+                    names[r] + " expected " + expected + " but got " + fdr.getFdr());
+            assertEquals(score, fdr.getRealScore());
+        }
+        assertEquals(numSets, map.size());
+    }
+
+    @Test
+    void calcFdrs_skewed_sameAsColumnScans() {
+        final Random rnd = new Random(11);
+        for (int t = 0; t < 40; t++) {
+            assertSameFdrs(rnd, 1 + rnd.nextInt(60), 1 + rnd.nextInt(40));
+        }
+    }
+
+    @Test
+    void calcFdrs_skewed_sameAsColumnScansForLargerNulls() {
+        assertSameFdrs(new Random(12), 400, 1000);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.DefaultRankedList;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+
+/**
+ * Cohorts rebound to the ranked list of a permutation against cohorts built from scratch on it.
+ */
+public class GeneSetCohortTest {
+
+    private static final int NUM_GENES = 50;
+
+    // The same genes in a random order, with the scores of a fresh random ranking
+    private static RankedList createRankedList(final String name, final Random random) {
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < NUM_GENES; i++) {
+            names.add("G" + i);
+        }
+        Collections.shuffle(names, random);
+        final float[] scores = new float[NUM_GENES];
+        float score = 2.5f;
+        for (int i = 0; i < NUM_GENES; i++) {
+            scores[i] = score;
+            score -= random.nextFloat() * 0.2f;
+        }
+        return new DefaultRankedList(name, names, new Vector(scores, true));
+    }
+
+    private static GeneSet[] createGeneSets(final Random random) {
+        final GeneSet[] gsets = new GeneSet[8];
+        for (int g = 0; g < gsets.length; g++) {
+            final List<String> members = new ArrayList<String>();
+            for (int i = 0; i < NUM_GENES; i++) {
+                members.add("G" + i);
+            }
+            Collections.shuffle(members, random);
+            gsets[g] = new GeneSet("SET_" + g, members.subList(0, 1 + g * 3).toArray(new String[0]));
+        }
+        return gsets;
+    }
+
+    private static void assertSameCohort(final GeneSetCohort expected, final GeneSetCohort actual) {
+        assertSame(expected.getRankedList(), actual.getRankedList());
+        assertEquals(expected.getNumGeneSets(), actual.getNumGeneSets());
+        for (int g = 0; g < expected.getNumGeneSets(); g++) {
+            assertEquals(expected.getNumTrue(g), actual.getNumTrue(g));
+            assertArrayEquals(expected.getMemberRanks(g), actual.getMemberRanks(g));
+            assertArrayEquals(expected.getHitPointsAtMemberRanks(g), actual.getHitPointsAtMemberRanks(g));
+            assertArrayEquals(expected.getMissPointsAtMemberRanks(g), actual.getMissPointsAtMemberRanks(g));
+            assertEquals(expected.getMissPointsAtLastRank(g), actual.getMissPointsAtLastRank(g));
+        }
+    }
+
+    private static void assertSameScores(final GeneSetCohort expected, final GeneSetCohort actual, final String what) {
+        final KSCore core = new KSCore();
+        final EnrichmentScore[] expectedScores = core.calculateKSScore(expected, true);
+        final EnrichmentScore[] actualScores = core.calculateKSScore(actual, true);
+        for (int g = 0; g < expectedScores.length; g++) {
+            assertEquals(expectedScores[g].getES(), actualScores[g].getES(), what);
+            assertEquals(expectedScores[g].getRankAtES(), actualScores[g].getRankAtES(), what);
+            assertEquals(expectedScores[g].getRankScoreAtES(), actualScores[g].getRankScoreAtES(), what);
+            assertArrayEquals(expectedScores[g].getHitIndices(), actualScores[g].getHitIndices(), what);
+            assertArrayEquals(expectedScores[g].getESProfile_point_by_point_opt().toArrayDouble(),
+                    actualScores[g].getESProfile_point_by_point_opt().toArrayDouble(), what);
+        }
+        assertArrayEquals(core.calculateKSScore_null(expected), core.calculateKSScore_null(actual), what);
+    }
+
+    @Test
+    void rebind_scoresAsAFreshCohort() {
+        final Random random = new Random(17);
+        final RankedList real = createRankedList("real", random);
+        final GeneSet[] gsets = createGeneSets(random);
+
+        for (GeneSetScoringTable scoring : GeneSetScoringTables.createAllScoringTables()) {
+            final GeneSetCohort.Generator gcohgen = new GeneSetCohort.Generator(scoring, 1, 1000);
+            final GeneSetCohort gcoh = gcohgen.createGeneSetCohort(real, gsets, true);
+            final float[] realNulls = new KSCore().calculateKSScore_null(gcoh);
+
+            for (int p = 0; p < 5; p++) {
+                final RankedList permuted = createRankedList("perm_" + p, random);
+                final GeneSetCohort fresh = gcohgen.createGeneSetCohort(permuted, gsets, false);
+                final GeneSetCohort rebound = gcoh.rebind(permuted);
+                assertSameCohort(fresh, rebound);
+                assertSameScores(fresh, rebound, scoring.getName() + " permutation " + p);
+            }
+
+            // The cohort rebound from is left as it was
+            assertSame(real, gcoh.getRankedList());
+            assertArrayEquals(realNulls, new KSCore().calculateKSScore_null(gcoh));
+        }
+    }
+
+    @Test
+    void rebind_ofARebindScoresAsAFreshCohort() {
+        final Random random = new Random(23);
+        final GeneSet[] gsets = createGeneSets(random);
+        final GeneSetCohort.Generator gcohgen = new GeneSetCohort.Generator(new GeneSetScoringTables.Weighted(), 1, 1000);
+        final GeneSetCohort gcoh = gcohgen.createGeneSetCohort(createRankedList("real", random), gsets, true);
+
+        final RankedList first = createRankedList("first", random);
+        final RankedList second = createRankedList("second", random);
+        final GeneSetCohort rebound = gcoh.rebind(first).rebind(second);
+        final GeneSetCohort fresh = gcohgen.createGeneSetCohort(second, gsets, false);
+        assertSameCohort(fresh, rebound);
+        assertSameScores(fresh, rebound, "second");
+    }
+
+    @Test
+    void rebind_rejectsNull() {
+        final Random random = new Random(29);
+        final GeneSetCohort gcoh = new GeneSetCohort.Generator(new GeneSetScoringTables.Classic(), 1, 1000)
+                .createGeneSetCohort(createRankedList("real", random), createGeneSets(random), true);
+        assertThrows(IllegalArgumentException.class, () -> gcoh.rebind(null));
+    }
+}
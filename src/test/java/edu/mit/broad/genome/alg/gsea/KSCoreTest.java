@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.alg.gsea;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.DefaultRankedList;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScoreImpl;
+
+/**
+ * The KS scores and the running scores replayed on request for the ES profile, against those of the sweep over
+ * every rank that the scoring used to be.
+ */
+public class KSCoreTest {
+
+    // Positive and negative scores, with ties and a zero
+    private static RankedList createRankedList() {
+        final List<String> names = new ArrayList<String>();
+        final float[] scores = new float[40];
+        for (int i = 0; i < scores.length; i++) {
+            names.add("G" + i);
+            scores[i] = 2.0f - i * 0.1f;
+        }
+        scores[4] = scores[3];
+        scores[21] = scores[22];
+        scores[20] = 0;
+        return new DefaultRankedList("ranks", names, new Vector(scores, true));
+    }
+
+    private static GeneSet createGeneSet(final String name, final int... ranks) {
+        final String[] members = new String[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            members[i] = "G" + ranks[i];
+        }
+        return new GeneSet(name, members);
+    }
+
+    // Sets missing the last rank (with long and short tails of misses) and one hitting it
+    private static GeneSet[] createGeneSets() {
+        return new GeneSet[]{
+                createGeneSet("TOP", 7, 0, 3, 2, 11),
+                createGeneSet("LAST_HIT", 20, 5, 39),
+                createGeneSet("BOTTOM", 31, 32, 33, 35, 36, 37, 38),
+                createGeneSet("ONE", 17),
+                createGeneSet("SPREAD", 1, 5, 9, 13, 17, 21, 25, 29, 33, 37)};
+    }
+
+    // The scores of a gene set as the sweep over every rank in the list once found them, looking up each name
+    private static final class BaselineScore {
+        float es;
+        int rankAtES;
+        float rankScoreAtES;
+        int[] hitIndices;
+        float[] scoresAtEachHit;
+        float[] scoresAtEachPoint;
+    }
+
+    private static BaselineScore baselineScore(final RankedList rl, final GeneSet gset, final GeneSetScoringTable scoring) {
+        final GeneSetScoringTable table = scoring.createTable(gset, rl, rl);
+        final Set<String> members = new HashSet<String>(gset.getMembers());
+        final int rlSize = rl.getSize();
+        final BaselineScore score = new BaselineScore();
+        final List<Integer> hitIndices = new ArrayList<Integer>();
+        final List<Float> scoresAtEachHit = new ArrayList<Float>();
+        score.scoresAtEachPoint = new float[rlSize];
+
+        double runningScore = 0;
+        int genesetJump = -1;
+        for (int r = 0; r < rlSize; r++) {
+            final String rowName = rl.getRankName(r);
+            final boolean isLastRun = r == rlSize - 1;
+            final boolean isMember = members.contains(rowName);
+            if (!isMember && !isLastRun) { continue; }
+
+            final int gap = r - genesetJump - 1;
+            if (gap > 0) {
+                final double missPoints = table.getMissScore(rowName);
+                double trun = runningScore;
+                for (int j = genesetJump + 1; j < r; j++) {
+                    trun -= missPoints;
+                    score.scoresAtEachPoint[j] = (float) trun;
+                }
+                runningScore -= gap * missPoints;
+
+                if (Math.abs(score.es) < Math.abs(runningScore)) {
+                    score.es = (float) runningScore;
+                    score.rankAtES = r - 1;
+                    score.rankScoreAtES = rl.getScore(r - 1);
+                }
+            }
+
+            if (isLastRun && !isMember) {
+                runningScore -= table.getMissScore(rowName);
+            } else {
+                genesetJump = r;
+                runningScore += table.getHitScore(rowName);
+                hitIndices.add(r);
+                scoresAtEachHit.add((float) runningScore);
+            }
+            score.scoresAtEachPoint[r] = (float) runningScore;
+
+            if (Math.abs(score.es) < Math.abs(runningScore)) {
+                score.es = (float) runningScore;
+                score.rankAtES = r;
+                score.rankScoreAtES = rl.getScore(r);
+            }
+        }
+
+        score.hitIndices = new int[hitIndices.size()];
+        score.scoresAtEachHit = new float[hitIndices.size()];
+        for (int i = 0; i < hitIndices.size(); i++) {
+            score.hitIndices[i] = hitIndices.get(i);
+            score.scoresAtEachHit[i] = scoresAtEachHit.get(i);
+        }
+        return score;
+    }
+
+    private static float[] storedProfile(final RankedList rl, final GeneSet gset, final GeneSetScoringTable scoring) {
+        return baselineScore(rl, gset, scoring).scoresAtEachPoint;
+    }
+
+    private static double[] toDoubles(final float[] floats) {
+        final double[] doubles = new double[floats.length];
+        for (int i = 0; i < floats.length; i++) {
+            doubles[i] = floats[i];
+        }
+        return doubles;
+    }
+
+    private static void assertReplayedProfiles(final GeneSetScoringTable scoring) {
+        final RankedList rl = createRankedList();
+        final GeneSet[] gsets = createGeneSets();
+        final GeneSetCohort gcoh = new GeneSetCohort.Generator(scoring, 1, 1000).createGeneSetCohort(rl, gsets, true);
+        final EnrichmentScore[] scores = new KSCore().calculateKSScore(gcoh, true);
+
+        for (int g = 0; g < gsets.length; g++) {
+            final double[] expected = toDoubles(storedProfile(rl, gsets[g], scoring));
+            final Vector replayed = scores[g].getESProfile_point_by_point_opt();
+            assertEquals(rl.getSize(), replayed.getSize());
+            assertArrayEquals(expected, replayed.toArrayDouble(), gsets[g].getName());
+
+            // The profile at the hits is the replayed one at the hit indices
+            final int[] hitIndices = scores[g].getHitIndices();
+            final Vector atHits = scores[g].getESProfile();
+            assertEquals(hitIndices.length, atHits.getSize());
+            for (int i = 0; i < hitIndices.length; i++) {
+                assertEquals(expected[hitIndices[i]], atHits.getElement(i), gsets[g].getName() + " hit " + i);
+            }
+
+            // A result wraps the score without keeping the profile, but gives the same one on request
+            final EnrichmentScore wrapped = new EnrichmentScoreImpl(scores[g], 1.5f, 0.01f, 0.02f, 0.03f);
+            assertArrayEquals(expected, wrapped.getESProfile_point_by_point_opt().toArrayDouble(), gsets[g].getName());
+            assertSame(scores[g].getESProfile(), wrapped.getESProfile());
+        }
+    }
+
+    @Test
+    void replayRunningScores_weightedMatchesStoredProfile() {
+        assertReplayedProfiles(new GeneSetScoringTables.Weighted());
+    }
+
+    @Test
+    void replayRunningScores_classicMatchesStoredProfile() {
+        assertReplayedProfiles(new GeneSetScoringTables.Classic());
+    }
+
+    @Test
+    void replayRunningScores_lastRankMissAndHit() {
+        final RankedList rl = createRankedList();
+        final GeneSet[] gsets = {createGeneSet("MISS", 2, 38), createGeneSet("HIT", 2, 39)};
+        final GeneSetCohort gcoh = new GeneSetCohort.Generator(new GeneSetScoringTables.Classic(), 1, 1000)
+                .createGeneSetCohort(rl, gsets, true);
+        final EnrichmentScore[] scores = new KSCore().calculateKSScore(gcoh, true);
+
+        // Both end back at zero; the miss only after the last rank is caught up
+        final Vector miss = scores[0].getESProfile_point_by_point_opt();
+        assertArrayEquals(toDoubles(storedProfile(rl, gsets[0], new GeneSetScoringTables.Classic())), miss.toArrayDouble());
+        assertTrue(miss.getElement(38) > miss.getElement(39));
+        assertEquals(0, miss.getElement(39), 1e-6);
+        final Vector hit = scores[1].getESProfile_point_by_point_opt();
+        assertArrayEquals(toDoubles(storedProfile(rl, gsets[1], new GeneSetScoringTables.Classic())), hit.toArrayDouble());
+        assertTrue(hit.getElement(38) < hit.getElement(39));
+        assertEquals(0, hit.getElement(39), 1e-6);
+        assertArrayEquals(new int[]{2, 39}, scores[1].getHitIndices());
+    }
+
+    @Test
+    void executeGsea_resultsGiveTheStoredProfile() throws Exception {
+        final RankedList rl = createRankedList();
+        final GeneSet[] gsets = createGeneSets();
+        final GeneSetScoringTable scoring = new GeneSetScoringTables.Weighted();
+        final KSTests tests = new KSTests(new PrintStream(OutputStream.nullOutputStream()));
+        final EnrichmentDb edb = tests.executeGsea(rl, gsets, 10, new RandomSeedGenerators.Custom(3), null,
+                new GeneSetCohort.Generator(scoring, 1, 1000));
+
+        assertEquals(gsets.length, edb.getNumResults());
+        for (GeneSet gset : gsets) {
+            final EnrichmentResult result = edb.getResultForGeneSet(gset.getName());
+            assertNotNull(result, gset.getName());
+            assertArrayEquals(toDoubles(storedProfile(rl, gset, scoring)),
+                    result.getScore().getESProfile_point_by_point_opt().toArrayDouble(), gset.getName());
+            assertEquals(10, result.getRndESS().getSize());
+        }
+    }
+
+    @Test
+    void calculateKSScore_matchesBaselineScorer() {
+        final RankedList rl = createRankedList();
+        final GeneSet[] gsets = createGeneSets();
+        for (GeneSetScoringTable scoring : GeneSetScoringTables.createAllScoringTables()) {
+            final GeneSetCohort gcoh = new GeneSetCohort.Generator(scoring, 1, 1000).createGeneSetCohort(rl, gsets, true);
+            final KSCore core = new KSCore();
+            final EnrichmentScore[] deep = core.calculateKSScore(gcoh, true);
+            final EnrichmentScore[] shallow = core.calculateKSScore(gcoh, false);
+            final float[] nulls = core.calculateKSScore_null(gcoh);
+
+            for (int g = 0; g < gsets.length; g++) {
+                final BaselineScore expected = baselineScore(rl, gsets[g], scoring);
+                final String what = scoring.getName() + " " + gsets[g].getName();
+                for (EnrichmentScore actual : new EnrichmentScore[]{deep[g], shallow[g]}) {
+                    assertEquals(expected.es, actual.getES(), what);
+                    assertEquals(expected.rankAtES, actual.getRankAtES(), what);
+                    assertEquals(expected.rankScoreAtES, actual.getRankScoreAtES(), what);
+                    assertEquals(gsets[g].getNumMembers(), actual.getNumHits(), what);
+                }
+                assertEquals(expected.es, nulls[g], what);
+                assertArrayEquals(expected.hitIndices, deep[g].getHitIndices(), what);
+                assertArrayEquals(toDoubles(expected.scoresAtEachHit), deep[g].getESProfile().toArrayDouble(), what);
+            }
+        }
+    }
+
+    @Test
+    void calculateKSScore_classicByHand() {
+        final RankedList rl = createRankedList();
+        final GeneSetCohort gcoh = new GeneSetCohort.Generator(new GeneSetScoringTables.Classic(), 1, 1000)
+                .createGeneSetCohort(rl, new GeneSet[]{createGeneSet("ONE", 17), createGeneSet("TWO", 38, 39)}, true);
+        final EnrichmentScore[] scores = new KSCore().calculateKSScore(gcoh, true);
+
+        // 17 misses of 1/39 and then the hit of 1
+        assertEquals(1 - 17 / 39.0, scores[0].getES(), 1e-6);
+        assertEquals(17, scores[0].getRankAtES());
+        assertEquals(rl.getScore(17), scores[0].getRankScoreAtES());
+
+        // 38 misses of 1/38 just before the hits, so the ES is the -1 of the last miss
+        assertEquals(-1, scores[1].getES(), 1e-6);
+        assertEquals(37, scores[1].getRankAtES());
+        assertEquals(rl.getScore(37), scores[1].getRankScoreAtES());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.objects.DefaultDataset;
+
+/**
+ * Checks the pooled binary-search counts of DatasetModed against the original scans (XMath counts over each
+ * column extracted and sorted as a Vector), which the FDR values depend on.
+ */
+public class DatasetModedTest {
+    final float[] probes = new float[] { Float.NaN, 0f, -0f, 0.5f, -0.5f, 1f, -1f, 2.5f, -2.5f, 100f, -100f,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+    private DefaultDataset randomDataset(final Random rnd, final int numRow, final int numCol) {
+        final Matrix matrix = new Matrix(numRow, numCol);
+        for (int r = 0; r < numRow; r++) {
+            for (int c = 0; c < numCol; c++) {
+                final int k = rnd.nextInt(12);
+                // Plenty of ties, zeros of both signs and NaNs
+                final float val = (k == 0) ? Float.NaN : (k == 1) ? 0f : (k == 2) ? -0f
+                        : Math.round(rnd.nextGaussian() * 4) / 2f;
+                matrix.setElement(r, c, val);
+            }
+        }
+        return new DefaultDataset("test", matrix);
+    }
+
+    @Test
+    void counts_matchSortedColumnScans() {
+        final Random rnd = new Random(47);
+        for (int t = 0; t < 50; t++) {
+            final DefaultDataset ds = randomDataset(rnd, 1 + rnd.nextInt(30), 1 + rnd.nextInt(20));
+            final DatasetModed pos = new DatasetModed(ds, ScoreMode.POS_ONLY);
+            final DatasetModed neg = new DatasetModed(ds, ScoreMode.NEG_ONLY);
+            assertEquals(ds.getNumCol(), pos.getNumCol());
+
+            for (int c = 0; c < ds.getNumCol(); c++) {
+                final Vector posCol = ds.getColumn(c).extract(ScoreMode.POS_ONLY);
+                posCol.sort(SortMode.REAL, Order.DESCENDING);
+                final Vector negCol = ds.getColumn(c).extract(ScoreMode.NEG_ONLY);
+                negCol.sort(SortMode.REAL, Order.ASCENDING);
+                assertEquals(posCol.getSize(), pos.getColumnSize(c));
+                assertEquals(negCol.getSize(), neg.getColumnSize(c));
+
+                for (float probe : probes) {
+                    assertEquals(XMath.getMoreThanCount(probe, posCol), pos.getMoreThanCount(c, probe));
+                    assertEquals(XMath.getLessThanCount(probe, negCol), neg.getLessThanCount(c, probe));
+                }
+            }
+        }
+    }
+
+    @Test
+    void constructor_rejectsPosAndNegTogether() {
+        final DefaultDataset ds = randomDataset(new Random(3), 4, 3);
+        assertThrows(IllegalArgumentException.class, () -> new DatasetModed(ds, ScoreMode.POS_AND_NEG_TOGETHER));
+    }
+}
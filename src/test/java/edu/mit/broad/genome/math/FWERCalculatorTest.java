@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The FWERCalculator against the scans of XMath.getFWERTwoTailed() it replaced.
+ */
+public class FWERCalculatorTest {
+
+    private static final float[] SPECIALS = {0f, -0f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+    private static float createScore(final Random rnd) {
+        final int kind = rnd.nextInt(10);
+        if (kind == 0) { return SPECIALS[rnd.nextInt(SPECIALS.length)]; }
+        // Ties, among the random scores and with the real scores
+        if (kind < 4) { return (rnd.nextInt(9) - 4) * 0.5f; }
+        return (float) rnd.nextGaussian() * 2;
+    }
+
+    /**
+     * Random scores with ties and scattered NaNs; sometimes a whole permutation of NaNs
+     */
+    private static Matrix createRndScores(final Random rnd, final int nsets, final int nperms) {
+        final Matrix rndScores = new Matrix(nsets, nperms);
+        for (int c = 0; c < nperms; c++) {
+            final boolean allNaN = rnd.nextInt(20) == 0;
+            for (int r = 0; r < nsets; r++) {
+                rndScores.setElement(r, c, (allNaN || rnd.nextInt(15) == 0) ? Float.NaN : createScore(rnd));
+            }
+        }
+        return rndScores;
+    }
+
+    private static void assertSameFWER(final Matrix rndScores, final float realScore, final FWERCalculator calculator) {
+        final float expected = XMath.getFWERTwoTailed(realScore, rndScores);
+        final float actual = calculator.getFWERTwoTailed(realScore);
+        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual), "real score " + realScore + ": " + expected + " vs " + actual);
+    }
+
+    @Test
+    void getFWERTwoTailed_sameAsXMathOnRandomScores() {
+        final Random rnd = new Random(1);
+        for (int t = 0; t < 100; t++) {
+            final Matrix rndScores = createRndScores(rnd, 1 + rnd.nextInt(40), 1 + rnd.nextInt(200));
+            final FWERCalculator calculator = new FWERCalculator(rndScores);
+            for (int i = 0; i < 50; i++) {
+                assertSameFWER(rndScores, createScore(rnd), calculator);
+            }
+            // Exactly at a random score
+            assertSameFWER(rndScores, rndScores.getElement(0, 0), calculator);
+        }
+    }
+
+    @Test
+    void getFWERTwoTailed_boundsAndSpecials() {
+        final Matrix rndScores = createRndScores(new Random(2), 10, 100);
+        final FWERCalculator calculator = new FWERCalculator(rndScores);
+        for (float realScore : new float[]{0f, -0f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.MAX_VALUE, -Float.MAX_VALUE, Float.MIN_VALUE, -Float.MIN_VALUE, 100f, -100f}) {
+            assertSameFWER(rndScores, realScore, calculator);
+        }
+    }
+
+    @Test
+    void getFWERTwoTailed_countsStrictlyBeyond() {
+        final Matrix rndScores = new Matrix(2, 4);
+        final float[][] values = {{1f, 2f, 2f, -1f}, {-2f, 0.5f, -3f, -3f}};
+        for (int r = 0; r < 2; r++) {
+            for (int c = 0; c < 4; c++) {
+                rndScores.setElement(r, c, values[r][c]);
+            }
+        }
+        final FWERCalculator calculator = new FWERCalculator(rndScores);
+        // Maxes 1, 2, 2, -1 and mins -2, 0.5, -3, -3
+        assertEquals(0.5f, calculator.getFWERTwoTailed(1f));
+        assertEquals(0f, calculator.getFWERTwoTailed(2f));
+        assertEquals(0.5f, calculator.getFWERTwoTailed(-2f));
+        assertEquals(0.75f, calculator.getFWERTwoTailed(-0.5f));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.math;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The RadixIndexSorter against the DoubleElement sort it replaced in the ranking of the rows.
+ */
+public class RadixIndexSorterTest {
+
+    private static final double[] SPECIALS = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1.0, -1.0};
+
+    /**
+     * Random values, with many ties, with the signed zeros, infinities and NaNs
+     */
+    private static double[] createValues(final Random rnd, final int n) {
+        final double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            final int kind = rnd.nextInt(10);
+            if (kind == 0) {
+                values[i] = SPECIALS[rnd.nextInt(SPECIALS.length)];
+            } else if (kind < 4) {
+                values[i] = rnd.nextInt(5) - 2;
+            } else {
+                values[i] = rnd.nextGaussian() * Math.pow(10, rnd.nextInt(7) - 3);
+            }
+        }
+        return values;
+    }
+
+    // As DatasetMetrics ordered the rows before
+    private static int[] sortByDoubleElements(final double[] values, final SortMode sort, final Order order) {
+        final DoubleElement[] sorted = new DoubleElement[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sorted[i] = new DoubleElement(i, values[i]);
+        }
+        Arrays.parallelSort(sorted, new DoubleElement.DoubleElementComparator(sort, order.isAscending()));
+        return DoubleElement.indexArray(Arrays.asList(sorted));
+    }
+
+    private static void assertSortsAsDoubleElements(final RadixIndexSorter sorter, final double[] values) {
+        for (SortMode sort : SortMode.ALL) {
+            for (Order order : Order.ALL) {
+                assertArrayEquals(sortByDoubleElements(values, sort, order), sorter.sortIndices(values, sort, order),
+                        sort + " " + order + " " + Arrays.toString(values));
+            }
+        }
+    }
+
+    @Test
+    void sortIndices_sameAsDoubleElementsOnRandomValues() {
+        final Random rnd = new Random(1);
+        final RadixIndexSorter sorter = new RadixIndexSorter();
+        // Growing and shrinking, so that the kept buffers are longer than the values
+        for (int t = 0; t < 300; t++) {
+            assertSortsAsDoubleElements(sorter, createValues(rnd, rnd.nextInt((t % 10 == 0) ? 5000 : 60)));
+        }
+    }
+
+    @Test
+    void sortIndices_tiesStableAndNaNsLeast() {
+        final RadixIndexSorter sorter = new RadixIndexSorter();
+        final double[] values = {1.0, Double.NaN, -0.0, -1.0, 0.0, Double.NaN, 1.0, -1.0};
+        assertArrayEquals(new int[]{1, 5, 3, 7, 2, 4, 0, 6}, sorter.sortIndices(values, SortMode.REAL, Order.ASCENDING));
+        assertArrayEquals(new int[]{0, 6, 2, 4, 3, 7, 1, 5}, sorter.sortIndices(values, SortMode.REAL, Order.DESCENDING));
+        assertArrayEquals(new int[]{0, 3, 6, 7, 2, 4, 1, 5}, sorter.sortIndices(values, SortMode.ABSOLUTE, Order.DESCENDING));
+        assertSortsAsDoubleElements(sorter, values);
+    }
+
+    @Test
+    void sortIndices_allEqualOrEmpty() {
+        final RadixIndexSorter sorter = new RadixIndexSorter();
+        // Every digit shared by all the keys, so no passes at all
+        assertArrayEquals(new int[]{0, 1, 2, 3}, sorter.sortIndices(new double[]{2.5, 2.5, 2.5, 2.5}, SortMode.REAL, Order.DESCENDING));
+        assertArrayEquals(new int[]{0, 1, 2}, sorter.sortIndices(new double[]{Double.NaN, Double.NaN, Double.NaN}, SortMode.ABSOLUTE, Order.ASCENDING));
+        assertArrayEquals(new int[0], sorter.sortIndices(new double[0], SortMode.REAL, Order.ASCENDING));
+    }
+
+    @Test
+    void sortIndices_resultNotSharedWithTheNextCall() {
+        final RadixIndexSorter sorter = new RadixIndexSorter();
+        final Random rnd = new Random(2);
+        final double[] values = createValues(rnd, 100);
+        final int[] first = sorter.sortIndices(values, SortMode.REAL, Order.DESCENDING);
+        final int[] copy = first.clone();
+        for (int t = 0; t < 10; t++) {
+            sorter.sortIndices(createValues(rnd, 100), SortMode.REAL, Order.ASCENDING);
+        }
+        assertArrayEquals(copy, first);
+    }
+
+    @Test
+    void addressedVector_sameAsFromDoubleElements() {
+        final double[] values = createValues(new Random(3), 500);
+        final int[] indices = new RadixIndexSorter().sortIndices(values, SortMode.REAL, Order.DESCENDING);
+        final float[] scores = new float[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            scores[i] = (float) values[indices[i]];
+        }
+
+        final DoubleElement[] sorted = new DoubleElement[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sorted[i] = new DoubleElement(i, values[i]);
+        }
+        Arrays.parallelSort(sorted, new DoubleElement.DoubleElementComparator(SortMode.REAL, false));
+        final List<DoubleElement> dels = Arrays.asList(sorted);
+
+        final AddressedVector expected = new AddressedVector(dels);
+        final AddressedVector actual = new AddressedVector(indices, scores);
+        assertEquals(expected.getSize(), actual.getSize());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getAddress(i), actual.getAddress(i));
+            assertEquals(Float.floatToIntBits(expected.getScore(i)), Float.floatToIntBits(actual.getScore(i)));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.Matrix;
+
+/**
+ * The Overlaps of a BitSetDataset against intersections and unions of the BitSets themselves.
+ */
+public class BitSetDatasetTest {
+
+    // More sets than a tile of rows, so that pairs of different tiles are compared; some empty, some the same
+    private static GeneSet[] createGeneSets(final int numSets, final int numGenes, final long seed) {
+        final Random rnd = new Random(seed);
+        final GeneSet[] gsets = new GeneSet[numSets];
+        for (int g = 0; g < numSets; g++) {
+            final List<String> members = new ArrayList<String>();
+            if (g % 17 != 5) {
+                final int density = 1 + rnd.nextInt(30);
+                for (int i = 0; i < numGenes; i++) {
+                    if (rnd.nextInt(100) < density) { members.add("G" + i); }
+                }
+            }
+            if (g % 23 == 7) {
+                members.clear();
+                members.addAll(gsets[g - 1].getMembers());
+            }
+            gsets[g] = new GeneSet("S" + g, "na", members, true);
+        }
+        return gsets;
+    }
+
+    private static BitSet[] toBitSets(final BitSetDataset bsd) {
+        final BitSet[] bss = new BitSet[bsd.getNumBitSets()];
+        for (int i = 0; i < bss.length; i++) {
+            bss[i] = bsd.getBitSet(i);
+        }
+        return bss;
+    }
+
+    private static int intersection(final BitSet a, final BitSet b) {
+        final BitSet and = (BitSet) a.clone();
+        and.and(b);
+        return and.cardinality();
+    }
+
+    private static int union(final BitSet a, final BitSet b) {
+        final BitSet or = (BitSet) a.clone();
+        or.or(b);
+        return or.cardinality();
+    }
+
+    @Test
+    void overlaps_matchBitSetIntersectionsAndUnions() {
+        final GeneSet[] gsets = createGeneSets(150, 333, 1);
+        final BitSetDataset bsd = new BitSetDataset(new DefaultGeneSetMatrix("test", gsets));
+        final BitSet[] bss = toBitSets(bsd);
+        final BitSetDataset.Overlaps overlaps = bsd.getOverlaps();
+        assertSame(overlaps, bsd.getOverlaps());
+        assertEquals(gsets.length, overlaps.getNumSets());
+
+        for (int r = 0; r < bss.length; r++) {
+            assertEquals(gsets[r].getNumMembers(), overlaps.getSize(r));
+            assertEquals(bss[r].cardinality(), overlaps.getSize(r));
+            for (int c = 0; c < bss.length; c++) {
+                final int and = intersection(bss[r], bss[c]);
+                final int or = union(bss[r], bss[c]);
+                assertEquals(and, overlaps.getIntersection(r, c), r + "," + c);
+                assertEquals(or, overlaps.getUnion(r, c), r + "," + c);
+                assertEquals((or == 0) ? 0f : (float) and / or, overlaps.getJaccard(r, c), 0f, r + "," + c);
+            }
+        }
+    }
+
+    @Test
+    void overlaps_emptySets() {
+        final GeneSet[] gsets = {
+                new GeneSet("EMPTY1", "na", new String[0]),
+                new GeneSet("A", "na", new String[]{"x", "y"}),
+                new GeneSet("EMPTY2", "na", new String[0])};
+        final BitSetDataset.Overlaps overlaps = new BitSetDataset(new DefaultGeneSetMatrix("test", gsets)).getOverlaps();
+
+        assertEquals(0, overlaps.getSize(0));
+        assertEquals(0, overlaps.getIntersection(0, 2));
+        assertEquals(0, overlaps.getUnion(0, 2));
+        assertEquals(0f, overlaps.getJaccard(0, 2));
+        assertEquals(0f, overlaps.getJaccard(0, 0));
+        assertEquals(0, overlaps.getIntersection(1, 2));
+        assertEquals(2, overlaps.getUnion(1, 2));
+        assertEquals(0f, overlaps.getJaccard(2, 1));
+        assertEquals(1f, overlaps.getJaccard(1, 1));
+
+        final BitSetDataset.Overlaps none = new BitSetDataset(new DefaultGeneSetMatrix("none", new GeneSet[0])).getOverlaps();
+        assertEquals(0, none.getNumSets());
+    }
+
+    @Test
+    void overlaps_reorderedAsTheSets() {
+        final GeneSet[] gsets = createGeneSets(90, 120, 2);
+        final BitSetDataset.Overlaps overlaps = new BitSetDataset(new DefaultGeneSetMatrix("test", gsets)).getOverlaps();
+
+        final int[] order = new int[gsets.length];
+        final GeneSet[] reordered = new GeneSet[gsets.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (i * 37 + 11) % order.length;
+            reordered[i] = gsets[order[i]];
+        }
+        final BitSetDataset.Overlaps expected = new BitSetDataset(new DefaultGeneSetMatrix("reordered", reordered)).getOverlaps();
+        final BitSetDataset.Overlaps actual = overlaps.reorder(order);
+        assertEquals(expected.getNumSets(), actual.getNumSets());
+        for (int r = 0; r < order.length; r++) {
+            assertEquals(expected.getSize(r), actual.getSize(r));
+            for (int c = 0; c < order.length; c++) {
+                assertEquals(expected.getIntersection(r, c), actual.getIntersection(r, c));
+                assertEquals(expected.getUnion(r, c), actual.getUnion(r, c));
+                assertEquals(expected.getJaccard(r, c), actual.getJaccard(r, c), 0f);
+            }
+        }
+
+        // A reordering of a reordering, and of some of the sets only
+        final BitSetDataset.Overlaps twice = actual.reorder(new int[]{3, 0});
+        assertEquals(2, twice.getNumSets());
+        assertEquals(overlaps.getIntersection(order[3], order[0]), twice.getIntersection(0, 1));
+        assertEquals(overlaps.getSize(order[3]), twice.getSize(0));
+
+        assertThrows(IllegalArgumentException.class, () -> overlaps.reorder(new int[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> overlaps.reorder(new int[]{gsets.length}));
+    }
+
+    @Test
+    void pairMatrices_fromTheOverlaps() {
+        final GeneSet[] gsets = createGeneSets(70, 80, 3);
+        final BitSetDataset bsd = new BitSetDataset(new DefaultGeneSetMatrix("test", gsets));
+        final BitSet[] bss = toBitSets(bsd);
+        final Matrix and = bsd.andMatrix(false);
+        final Matrix or = bsd.orMatrix();
+        final Matrix jaccard = bsd.and_by_orMatrix();
+        for (int r = 0; r < bss.length; r++) {
+            for (int c = 0; c < bss.length; c++) {
+                final int i = intersection(bss[r], bss[c]);
+                final int u = union(bss[r], bss[c]);
+                assertEquals(i, and.getElement(r, c), 0f);
+                assertEquals(u, or.getElement(r, c), 0f);
+                assertEquals((u == 0) ? 0f : (float) i / u, jaccard.getElement(r, c), 0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.Headers;
+import edu.mit.broad.genome.alg.Metric;
+import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.alg.TwoClassMetricEngine;
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.Annot;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.FeatureAnnot;
+import edu.mit.broad.genome.objects.MappedDataset;
+import edu.mit.broad.genome.objects.SampleAnnot;
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateFactory;
+
+/**
+ * Round trips through the binary dataset format, and the segmented MappedDataset it is read into.
+ */
+public class BinaryDatasetParserTest {
+
+    @TempDir
+    File tempDir;
+
+    private static Dataset createDataset(final int nrows, final int ncols, final boolean withDescs, final long seed) {
+        final Random rnd = new Random(seed);
+        final Matrix matrix = new Matrix(nrows, ncols);
+        final List<String> rowNames = new ArrayList<String>();
+        final List<String> rowDescs = new ArrayList<String>();
+        final List<String> colNames = new ArrayList<String>();
+        for (int c = 0; c < ncols; c++) {
+            colNames.add("S" + c);
+        }
+        for (int r = 0; r < nrows; r++) {
+            rowNames.add("G" + r);
+            rowDescs.add("desc " + r);
+            for (int c = 0; c < ncols; c++) {
+                // Some ties and a few missing values
+                final float value = (rnd.nextInt(10) == 0) ? 1.5f : (float) rnd.nextGaussian();
+                matrix.setElement(r, c, (rnd.nextInt(50) == 0) ? Float.NaN : value);
+            }
+        }
+        final FeatureAnnot ann = new FeatureAnnot("ds", rowNames, withDescs ? rowDescs : null);
+        final Dataset ds = new DefaultDataset("ds", matrix, rowNames, colNames,
+                new Annot(ann, new SampleAnnot("ds", colNames)));
+        ds.addComment("#some comment");
+        ds.addWarning("a warning");
+        return ds;
+    }
+
+    private static void assertSameDataset(final Dataset expected, final Dataset actual) {
+        assertEquals(expected.getRowNames(), actual.getRowNames());
+        assertEquals(expected.getColumnNames(), actual.getColumnNames());
+        for (int r = 0; r < expected.getNumRow(); r++) {
+            for (int c = 0; c < expected.getNumCol(); c++) {
+                assertEquals(Float.floatToIntBits(expected.getElement(r, c)),
+                        Float.floatToIntBits(actual.getElement(r, c)), "row " + r + " col " + c);
+            }
+        }
+        final FeatureAnnot expectedAnn = expected.getAnnot().getFeatureAnnot();
+        final FeatureAnnot actualAnn = actual.getAnnot().getFeatureAnnot();
+        assertEquals(expectedAnn.hasNativeDescriptions(), actualAnn.hasNativeDescriptions());
+        for (String rowName : expected.getRowNames()) {
+            assertEquals(expectedAnn.getNativeDesc(rowName), actualAnn.getNativeDesc(rowName));
+        }
+        assertEquals(expected.getComment(), actual.getComment());
+        assertEquals(expected.getWarnings(), actual.getWarnings());
+    }
+
+    @Test
+    void roundTrip_fileKeepsValuesDescriptionsAndComment() throws Exception {
+        final Dataset ds = createDataset(37, 11, true, 1);
+        final File file = new File(tempDir, "ds.bin");
+        final BinaryDatasetParser parser = new BinaryDatasetParser();
+        parser.export(ds, file);
+
+        final Dataset parsed = (Dataset) parser.parse("ds", file).get(0);
+        assertTrue(parsed instanceof MappedDataset);
+        assertSameDataset(ds, parsed);
+    }
+
+    @Test
+    void roundTrip_streamWithoutDescriptions() throws Exception {
+        final Dataset ds = createDataset(20, 5, false, 2);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryDatasetParser parser = new BinaryDatasetParser();
+        parser.export(ds, bytes);
+
+        final Dataset parsed = (Dataset) parser.parse("ds", new ByteArrayInputStream(bytes.toByteArray())).get(0);
+        assertFalse(parsed.getAnnot().getFeatureAnnot().hasNativeDescriptions());
+        assertSameDataset(ds, parsed);
+    }
+
+    private static float[] values(final Vector vector) {
+        final float[] values = new float[vector.getSize()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = vector.getElement(i);
+        }
+        return values;
+    }
+
+    private static MappedDataset toMapped(final Dataset ds, final int rowsPerSegment) {
+        final int nrows = ds.getNumRow();
+        final int ncols = ds.getNumCol();
+        final FloatBuffer[] segments = new FloatBuffer[(nrows + rowsPerSegment - 1) / rowsPerSegment];
+        for (int s = 0; s < segments.length; s++) {
+            final int rows = Math.min(rowsPerSegment, nrows - s * rowsPerSegment);
+            segments[s] = FloatBuffer.allocate(rows * ncols);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < ncols; c++) {
+                    segments[s].put(ds.getElement(s * rowsPerSegment + r, c));
+                }
+            }
+            segments[s].flip();
+        }
+        return new MappedDataset("ds", segments, rowsPerSegment, ds.getRowNames(), ds.getColumnNames(), null);
+    }
+
+    @Test
+    void mappedDataset_addressesRowsAcrossSegments() {
+        final Dataset ds = createDataset(23, 7, false, 3);
+        final MappedDataset mapped = toMapped(ds, 5);
+        final float[] row = new float[ds.getNumCol()];
+        for (int r = 0; r < ds.getNumRow(); r++) {
+            mapped.copyRow(r, row);
+            assertArrayEquals(values(ds.getRow(r)), row);
+            assertArrayEquals(values(ds.getRow(r)), values(mapped.getRow(r)));
+        }
+        for (int c = 0; c < ds.getNumCol(); c++) {
+            assertArrayEquals(values(ds.getColumn(c)), values(mapped.getColumn(c)));
+        }
+        final Matrix matrix = mapped.getMatrix();
+        for (int r = 0; r < ds.getNumRow(); r++) {
+            assertArrayEquals(values(ds.getRow(r)), values(matrix.getRowV(r)));
+        }
+    }
+
+    @Test
+    void metricEngine_scoresMappedRowsAsTheMatrix() {
+        final Dataset ds = createDataset(3001, 12, false, 4);
+        final MappedDataset mapped = toMapped(ds, 700);
+        final String[] classA = {"S0", "S1", "S2", "S3", "S4"};
+        final String[] classB = {"S5", "S6", "S7", "S8", "S9", "S10", "S11"};
+        final Template template = TemplateFactory.createCategoricalTemplate("t", ds, "A", classA, "B", classB);
+
+        final TwoClassMetricEngine heapEngine = TwoClassMetricEngine.createForPermutations(ds);
+        final TwoClassMetricEngine mappedEngine = TwoClassMetricEngine.createForPermutations(mapped);
+        for (Metric metric : new Metric[]{new Metrics.Signal2Noise(), new Metrics.tTest()}) {
+            for (boolean median : new boolean[]{false, true}) {
+                final Map<String, Boolean> params = new HashMap<String, Boolean>();
+                params.put(Headers.USE_MEDIAN, median);
+                params.put(Headers.USE_BIASED, Boolean.FALSE);
+                params.put(Headers.FIX_LOW, Boolean.TRUE);
+                final String label = metric.getName() + " median=" + median;
+                assertTrue(Arrays.equals(heapEngine.score(metric, template, params),
+                        mappedEngine.score(metric, template, params)), label);
+                if (TwoClassMetricEngine.isSupportedByClassDeltas(metric, template, params)) {
+                    assertTrue(Arrays.equals(heapEngine.scoreByClassDeltas(metric, template, params),
+                            mappedEngine.scoreByClassDeltas(metric, template, params)), label);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.objects.DefaultGeneSetMatrix;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.GeneSetMatrix;
+import edu.mit.broad.genome.objects.MSigDBSpecies;
+import edu.mit.broad.genome.objects.MSigDBVersion;
+
+/**
+ * Round trips through the binary (gmtb) gene set format.
+ */
+public class BinaryGeneSetMatrixParserTest {
+
+    private static final String GMT = "SET_A\tfirst set\tTP53\tBRCA1\tEGFR\n"
+            + "SET_B\thttp://example.org/b\tEGFR\tMYC\n"
+            + "SET_C\tna\tMYC\n";
+
+    @TempDir
+    File tempDir;
+
+    private static GeneSetMatrix parseGmt(final String content) throws Exception {
+        return (GeneSetMatrix) new GmtParser().parse("sets.gmt",
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).get(0);
+    }
+
+    private static void assertSameGeneSets(final GeneSetMatrix expected, final GeneSetMatrix actual) {
+        assertEquals(expected.getNumGeneSets(), actual.getNumGeneSets());
+        for (int g = 0; g < expected.getNumGeneSets(); g++) {
+            final GeneSet expectedSet = expected.getGeneSet(g);
+            final GeneSet actualSet = actual.getGeneSet(g);
+            assertEquals(expectedSet.getName(true), actualSet.getName(true));
+            assertEquals(expectedSet.getNameEnglish(), actualSet.getNameEnglish());
+            assertEquals(expectedSet.getMembers(), actualSet.getMembers());
+            assertEquals(expectedSet.getMembersS(), actualSet.getMembersS());
+        }
+    }
+
+    @Test
+    void roundTrip_fileOfParsedGmt() throws Exception {
+        final GeneSetMatrix gm = parseGmt(GMT);
+        final File file = new File(tempDir, "sets.gmtb");
+        new BinaryGeneSetMatrixParser().export(gm, file);
+
+        final GeneSetMatrix parsed = (GeneSetMatrix) new BinaryGeneSetMatrixParser()
+                .parse(file.getPath(), new FileInputStream(file)).get(0);
+        assertSameGeneSets(gm, parsed);
+        assertEquals("sets.gmtb#SET_A", parsed.getGeneSet(0).getName());
+        // Members found in several sets are one String, also with the gene sets parsed from the GMT
+        assertSame(parsed.getGeneSet(0).getMember(2), parsed.getGeneSet(1).getMember(0));
+        assertSame(parsed.getGeneSet(1).getMember(1), parsed.getGeneSet(2).getMember(0));
+        assertSame(gm.getGeneSet(0).getMember(0), parsed.getGeneSet(0).getMember(0));
+        assertSame(gm.getGeneSet(1).getMember(1), parsed.getGeneSet(2).getMember(0));
+    }
+
+    @Test
+    void roundTrip_streamKeepsVersionAndDuplicates() throws Exception {
+        final MSigDBVersion version = new MSigDBVersion(MSigDBSpecies.Mouse, "2024.1.Mm");
+        final GeneSet[] gsets = {
+                new GeneSet("ONE", "na", Arrays.asList("a", "b", "a"), false),
+                new GeneSet("EMPTY", "na", new String[0]),
+                new GeneSet("TWO", "second", new String[]{"b", "c"})};
+        final GeneSetMatrix gm = new DefaultGeneSetMatrix("mem", gsets, version, false);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryGeneSetMatrixParser().export(gm, bytes);
+
+        final GeneSetMatrix parsed = (GeneSetMatrix) new BinaryGeneSetMatrixParser()
+                .parse("mem.gmtb", new ByteArrayInputStream(bytes.toByteArray())).get(0);
+        assertSameGeneSets(gm, parsed);
+        assertEquals(Arrays.asList("a", "b", "a"), parsed.getGeneSet(0).getMembers());
+        assertEquals(0, parsed.getGeneSet(1).getNumMembers());
+        assertEquals(version, parsed.getMSigDBVersion());
+        assertEquals(version, parsed.getGeneSet(2).getMSigDBVersion());
+    }
+
+    @Test
+    void parse_rejectsTruncatedAndForeignFiles() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryGeneSetMatrixParser().export(parseGmt(GMT), bytes);
+        final byte[] whole = bytes.toByteArray();
+
+        for (int length : new int[]{0, 6, 12, whole.length / 2, whole.length - 1}) {
+            final byte[] truncated = Arrays.copyOf(whole, length);
+            assertThrows(ParserException.class, () -> new BinaryGeneSetMatrixParser()
+                    .parse("bad.gmtb", new ByteArrayInputStream(truncated)), "length " + length);
+        }
+        assertThrows(ParserException.class, () -> new BinaryGeneSetMatrixParser()
+                .parse("bad.gmtb", new ByteArrayInputStream(GMT.getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.FeatureAnnot;
+import edu.mit.broad.genome.objects.MappedDataset;
+
+/**
+ * A Dataset read back from the parse cache must be the same as one parsed fresh from the text.
+ */
+public class DiskParseCacheTest {
+
+    private static final String GCT = "#1.2\n3\t3\n"
+            + "NAME\tDescription\tA\tB\tC\n"
+            + "g1\tfirst gene\t1.5\t-2\t3.25\n"
+            + "g2\tna\tNaN\t0\t1e-3\n"
+            + "g3\t\t7\t8\t9\n";
+
+    private static final String TXT_WITH_DESCS = "# a comment line\n"
+            + "NAME\tDESCRIPTION\tA\tB\n"
+            + "g1\tsome desc\t1\t2\n"
+            + "g2\tother:desc\t-3.5\tNA\n";
+
+    private static final String TXT_WITHOUT_DESCS = "#first comment\n#second comment\n"
+            + "NAME\tA\tB\tC\n"
+            + "g1\t1\t2\t3\n"
+            + "g2\t4\t\t6\n";
+
+    @TempDir
+    File tempDir;
+
+    private Dataset[] parseFreshAndTwiceCached(final String content, final String fileName,
+                                               final Supplier<Parser> textParser)
+            throws Exception {
+        final File file = new File(tempDir, fileName);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        final DiskParseCache cache = new DiskParseCache(new File(tempDir, "cache"), 1L << 30);
+
+        // A new parser each time, as in ParserFactory: a parser collects the comments of every file it reads
+        final Dataset fresh = (Dataset) textParser.get().parse(fileName, file).get(0);
+        final Dataset miss = (Dataset) cache.parse(file, fileName, textParser.get(), new BinaryDatasetParser(), "bin").get(0);
+        final Dataset hit = (Dataset) cache.parse(file, fileName, textParser.get(), new BinaryDatasetParser(), "bin").get(0);
+        assertFalse(miss instanceof MappedDataset);
+        assertTrue(hit instanceof MappedDataset, "second parse should be read from the cache");
+        return new Dataset[]{fresh, hit};
+    }
+
+    private static void assertSameDataset(final Dataset expected, final Dataset actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getRowNames(), actual.getRowNames());
+        assertEquals(expected.getColumnNames(), actual.getColumnNames());
+        for (int r = 0; r < expected.getNumRow(); r++) {
+            for (int c = 0; c < expected.getNumCol(); c++) {
+                assertEquals(Float.floatToIntBits(expected.getElement(r, c)),
+                        Float.floatToIntBits(actual.getElement(r, c)), "row " + r + " col " + c);
+            }
+        }
+
+        final FeatureAnnot expectedAnn = expected.getAnnot().getFeatureAnnot();
+        final FeatureAnnot actualAnn = actual.getAnnot().getFeatureAnnot();
+        assertEquals(expectedAnn.hasNativeDescriptions(), actualAnn.hasNativeDescriptions());
+        for (String rowName : expected.getRowNames()) {
+            assertEquals(expectedAnn.getNativeDesc(rowName), actualAnn.getNativeDesc(rowName));
+        }
+        assertEquals(expected.getComment(), actual.getComment());
+        assertEquals(expectedAnn.getComment(), actualAnn.getComment());
+        assertEquals(expected.getWarnings(), actual.getWarnings());
+    }
+
+    @Test
+    void gct_cacheHitMatchesFreshParse() throws Exception {
+        final Dataset[] parsed = parseFreshAndTwiceCached(GCT, "test.gct", GctParser::new);
+        assertTrue(parsed[0].getAnnot().getFeatureAnnot().hasNativeDescriptions());
+        assertSameDataset(parsed[0], parsed[1]);
+    }
+
+    @Test
+    void txtWithDescriptions_cacheHitMatchesFreshParse() throws Exception {
+        final Dataset[] parsed = parseFreshAndTwiceCached(TXT_WITH_DESCS, "test.txt", TxtDatasetParser::new);
+        assertTrue(parsed[0].getComment().contains("a comment line"));
+        assertSameDataset(parsed[0], parsed[1]);
+    }
+
+    @Test
+    void txtWithoutDescriptions_cacheHitHasNoDescriptions() throws Exception {
+        final Dataset[] parsed = parseFreshAndTwiceCached(TXT_WITHOUT_DESCS, "nodesc.txt", TxtDatasetParser::new);
+        assertFalse(parsed[1].getAnnot().getFeatureAnnot().hasNativeDescriptions());
+        assertSameDataset(parsed[0], parsed[1]);
+    }
+}
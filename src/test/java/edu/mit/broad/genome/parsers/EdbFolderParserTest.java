@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.Constants;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.xbench.core.api.Application;
+import xtools.api.XToolsApplication;
+
+/**
+ * The streamed edb parse against the dom4j parse it replaced, on a small edb folder.
+ */
+public class EdbFolderParserTest {
+
+    @TempDir
+    File tempDir;
+
+    // ParserFactory looks up its cache dirs through the application
+    @BeforeAll
+    static void registerApplication() {
+        if (!Application.isHandlerSet()) {
+            Application.registerHandler(new XToolsApplication());
+        }
+    }
+
+    @AfterEach
+    void clearBinaryProperty() {
+        System.clearProperty(Constants.EDB_BINARY_ES_KEY);
+    }
+
+    // Runs of spaces in the scores, as the space delimited attributes may have
+    private static final String EDB =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<EDB SORT_MODE=\"real\" ORDER=\"descending\" METRIC=\"Signal2Noise\" NUM_PERMS=\"5\""
+            + " USE_MEDIAN=\"false\" FIX_LOW=\"true\" USE_BIASED=\"false\">\n"
+            + "  <DTG RANKED_LIST=\"ranks.rnk\" TEMPLATE=\"pheno.cls\" GENESET=\"gene_sets.gmt#SET_A\""
+            + " ES=\"0.61\" NES=\"1.52\" NP=\"0.01\" FDR=\"0.02\" FWER=\"0.03\""
+            + " RND_ES=\"0.1 -0.2  0.3 0.05 -0.45\" HIT_INDICES=\"0 2 5\""
+            + " ES_PROFILE=\"0.4 0.3 0.61 0.5 0.4 0.2 0.1 0.0\" RANK_AT_ES=\"2\" RANK_SCORE_AT_ES=\"1.5\"/>\n"
+            + "  <DTG RANKED_LIST=\"ranks.rnk\" TEMPLATE=\"pheno.cls\" GENESET=\"gene_sets.gmt#SET_B\""
+            + " ES=\"-0.42\" NES=\"-1.1\" NP=\"0.2\" FDR=\"0.3\" FWER=\"0.4\""
+            + " RND_ES=\" 0.2 -0.3 0.11  -0.05 0.25 \" HIT_INDICES=\"3  6 7\""
+            + " ES_PROFILE=\"-0.1 -0.2 -0.3 -0.1 -0.2 -0.3 -0.42 0.0\" RANK_AT_ES=\"6\" RANK_SCORE_AT_ES=\"-1.25\"/>\n"
+            + "  <DTG RANKED_LIST=\"ranks.rnk\" TEMPLATE=\"pheno.cls\" GENESET=\"gene_sets.gmt#SET_C\""
+            + " ES=\"0.33\" NES=\"0.9\" NP=\"0.5\" FDR=\"0.6\" FWER=\"0.7\""
+            + " RND_ES=\"-0.15 0.35 0.2 0.1 -0.3\" HIT_INDICES=\"1 4\""
+            + " ES_PROFILE=\"-0.1 0.33 0.2 0.1 0.3 0.2 0.1 0.0\" RANK_AT_ES=\"1\" RANK_SCORE_AT_ES=\"2.25\"/>\n"
+            + "</EDB>\n";
+
+    private File writeEdbFolder() throws Exception {
+        final File edbDir = new File(tempDir, "edb");
+        assertTrue(edbDir.mkdir());
+        write(new File(edbDir, "results.edb"), EDB);
+        write(new File(edbDir, "pheno.cls"), "6 2 1\n# TUMOR NORMAL\n0 0 0 1 1 1\n");
+        write(new File(edbDir, "ranks.rnk"), "g1\t2.5\ng2\t2.25\ng3\t1.5\ng4\t0.5\n"
+                + "g5\t-0.25\ng6\t-0.5\ng7\t-1.25\ng8\t-2.0\n");
+        write(new File(edbDir, "gene_sets.gmt"), "SET_A\tna\tg1\tg3\tg6\n"
+                + "SET_B\tna\tg4\tg7\tg8\n"
+                + "SET_C\tna\tg2\tg5\n");
+        return edbDir;
+    }
+
+    private static void write(final File file, final String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The values of a DTG as the dom4j parser read them
+    private static final class DomResult {
+        String geneSet;
+        float es, nes, np, fdr, fwer, rankScoreAtES;
+        int rankAtES;
+        Vector rndESS, esProfile;
+        int[] hitIndices;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DomResult[] parseWithDom(final File edbFile) throws Exception {
+        final Document document;
+        try (InputStream is = new FileInputStream(edbFile)) {
+            document = new SAXReader().read(is);
+        }
+        final Element root = document.getRootElement();
+        final DomResult[] results = new DomResult[root.elements("DTG").size()];
+        int i = 0;
+        for (Iterator<Element> it = root.elementIterator("DTG"); it.hasNext(); i++) {
+            final Element el = it.next();
+            final DomResult result = new DomResult();
+            result.geneSet = el.attributeValue("GENESET");
+            result.es = Float.parseFloat(el.attributeValue("ES"));
+            result.nes = Float.parseFloat(el.attributeValue("NES"));
+            result.np = Float.parseFloat(el.attributeValue("NP"));
+            result.fdr = Float.parseFloat(el.attributeValue("FDR"));
+            result.fwer = Float.parseFloat(el.attributeValue("FWER"));
+            result.rankScoreAtES = Float.parseFloat(el.attributeValue("RANK_SCORE_AT_ES"));
+            result.rankAtES = (int) Float.parseFloat(el.attributeValue("RANK_AT_ES"));
+            result.rndESS = ParseUtils.string2Vector(el.attributeValue("RND_ES"), ' ');
+            result.esProfile = ParseUtils.string2Vector(el.attributeValue("ES_PROFILE"), ' ');
+            result.hitIndices = ParseUtils.string2ints(el.attributeValue("HIT_INDICES"), ' ');
+            results[i] = result;
+        }
+        return results;
+    }
+
+    private static void assertSameResult(final DomResult expected, final EnrichmentResult actual) {
+        assertEquals(expected.geneSet.substring(expected.geneSet.indexOf('#') + 1), actual.getGeneSet().getName(true));
+        final EnrichmentScore score = actual.getScore();
+        assertEquals(expected.es, score.getES());
+        assertEquals(expected.nes, score.getNES());
+        assertEquals(expected.np, score.getNP());
+        assertEquals(expected.fdr, score.getFDR());
+        assertEquals(expected.fwer, score.getFWER());
+        assertEquals(expected.rankAtES, score.getRankAtES());
+        assertEquals(expected.rankScoreAtES, score.getRankScoreAtES());
+        assertArrayEquals(expected.hitIndices, score.getHitIndices());
+        assertEquals(expected.hitIndices.length, score.getNumHits());
+        assertArrayEquals(expected.esProfile.toArrayDouble(), score.getESProfile().toArrayDouble());
+        assertArrayEquals(expected.rndESS.toArrayDouble(), actual.getRndESS().toArrayDouble());
+    }
+
+    private static void assertSameEdb(final DomResult[] expected, final EnrichmentDb edb) {
+        assertEquals(expected.length, edb.getNumResults());
+        for (int i = 0; i < expected.length; i++) {
+            assertSameResult(expected[i], edb.getResult(i));
+        }
+        assertEquals("Signal2Noise", edb.getMetric().getName());
+        assertEquals(5, edb.getNumPerm());
+        assertEquals(Boolean.TRUE, edb.getMetricParams().get("FIX_LOW"));
+        assertEquals(Boolean.FALSE, edb.getMetricParams().get("USE_MEDIAN"));
+    }
+
+    @Test
+    void parseEdb_matchesDomParse() throws Exception {
+        final File edbDir = writeEdbFolder();
+        final EnrichmentDb edb = new EdbFolderParser().parseEdb(tempDir);
+
+        assertSameEdb(parseWithDom(new File(edbDir, "results.edb")), edb);
+        assertEquals(8, edb.getRankedList().getSize());
+        assertEquals("g1", edb.getRankedList().getRankName(0));
+        assertEquals(-2.0f, edb.getRankedList().getScore(7));
+        assertNotNull(edb.getTemplate());
+        assertEquals(2, edb.getTemplate().getNumClasses());
+        // One gmt read for all the sets, and one ranked list and template shared by all the results
+        for (int i = 0; i < edb.getNumResults(); i++) {
+            assertSame(edb.getRankedList(), edb.getResult(i).getRankedList());
+            assertSame(edb.getTemplate(), edb.getResult(i).getTemplate());
+        }
+        assertArrayEquals(new String[]{"g1", "g3", "g6"}, edb.getResult(0).getGeneSet().getMembersArray());
+    }
+
+    @Test
+    void parseEdb_esMatrixMatchesDomParse() throws Exception {
+        final File edbDir = writeEdbFolder();
+        final EnrichmentDb edb = new EdbFolderParser().parseEdb(tempDir);
+
+        // Written again with the random scores in a binary file, and the ES_ROW of each result
+        final File binaryDir = new File(tempDir, "binary");
+        System.setProperty(Constants.EDB_BINARY_ES_KEY, "true");
+        new EdbFolderParser().export(edb, binaryDir);
+        final String edbText = new String(Files.readAllBytes(new File(binaryDir, "edb/results.edb").toPath()),
+                StandardCharsets.UTF_8);
+        assertTrue(edbText.contains("ES_MATRIX="));
+        assertTrue(edbText.contains("ES_ROW="));
+        assertFalse(edbText.contains("RND_ES="));
+
+        final EnrichmentDb binary = new EdbFolderParser().parseEdb(binaryDir);
+        assertSameEdb(parseWithDom(new File(edbDir, "results.edb")), binary);
+        for (int i = 0; i < binary.getNumResults(); i++) {
+            assertTrue(binary.getResult(i).isRndESSLazy());
+        }
+    }
+
+    @Test
+    void parseEdb_onlyTheNamedGeneSets() throws Exception {
+        final File edbDir = writeEdbFolder();
+        final DomResult[] all = parseWithDom(new File(edbDir, "results.edb"));
+
+        final Set<String> names = new HashSet<String>();
+        names.add("SET_C");
+        names.add("SET_A");
+        final EnrichmentDb edb = new EdbFolderParser().parseEdb(tempDir, names);
+
+        // In edb order, with the ranked list and template the skipped results share
+        assertSameEdb(new DomResult[]{all[0], all[2]}, edb);
+        assertNotNull(edb.getRankedList());
+        assertEquals(8, edb.getRankedList().getSize());
+        assertNotNull(edb.getTemplate());
+        assertEquals("SET_A", edb.getResult(0).getGeneSet().getName(true));
+        assertEquals("SET_C", edb.getResult(1).getGeneSet().getName(true));
+
+        final Set<String> none = new HashSet<String>();
+        none.add("SET_Z");
+        assertThrows(ParserException.class, () -> new EdbFolderParser().parseEdb(tempDir, none));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.alg.Metrics;
+import edu.mit.broad.genome.math.Order;
+import edu.mit.broad.genome.math.SortMode;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.DefaultRankedList;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScoreImpl;
+import edu.mit.broad.genome.objects.esmatrix.db.EsMatrix;
+
+/**
+ * Round trips of the real and random enrichment scores through the binary results.esm file.
+ */
+public class EsMatrixFileTest {
+
+    @TempDir
+    File tempDir;
+
+    private static final int NUM_RESULTS = 5;
+
+    private static final int NUM_PERMS = 9;
+
+    private static RankedList createRankedList() {
+        final List<String> names = new ArrayList<String>();
+        final float[] scores = new float[8];
+        for (int i = 0; i < scores.length; i++) {
+            names.add("g" + i);
+            scores[i] = 2.0f - i * 0.5f;
+        }
+        return new DefaultRankedList("ranks", names, new Vector(scores, true));
+    }
+
+    // Scores with the values a text edb would not round trip exactly
+    private static float[][] createScores(final int numResults, final int numPerms) {
+        final Random random = new Random(11);
+        final float[][] scores = new float[numResults][numPerms + 1];
+        for (int r = 0; r < numResults; r++) {
+            for (int p = 0; p <= numPerms; p++) {
+                scores[r][p] = random.nextFloat() * 2 - 1;
+            }
+        }
+        final int width = numPerms + 1;
+        scores[0][0] = Float.NaN;
+        scores[1 % numResults][0] = -0.0f;
+        scores[1 % numResults][3 % width] = Float.MIN_VALUE;
+        scores[2 % numResults][5 % width] = Float.NaN;
+        scores[3 % numResults][1 % width] = Float.NEGATIVE_INFINITY;
+        scores[4 % numResults][numPerms] = Math.nextUp(0.1f);
+        return scores;
+    }
+
+    private static EnrichmentScore createScore(final float es) {
+        return new EnrichmentScoreImpl(es, 1, 0.5f, es, 0.1f, 0.2f, 0.3f, 2, new int[]{1, 4},
+                new Vector(new float[]{0.1f, es, 0.0f}, true), null);
+    }
+
+    // Column 0 of each row of the scores is the real ES, the rest the random ES
+    private static EnrichmentDb createEdb(final float[][] scores) {
+        final RankedList rl = createRankedList();
+        final EnrichmentResult[] results = new EnrichmentResult[scores.length];
+        for (int r = 0; r < scores.length; r++) {
+            final float[] rnd = new float[scores[r].length - 1];
+            System.arraycopy(scores[r], 1, rnd, 0, rnd.length);
+            results[r] = new EnrichmentResult(rl, null, new GeneSet("SET_" + r, new String[]{"g1", "g4"}), null,
+                    createScore(scores[r][0]), new Vector(rnd, true), null);
+        }
+        return createEdb(rl, results);
+    }
+
+    private static EnrichmentDb createEdb(final RankedList rl, final EnrichmentResult[] results) {
+        return new EnrichmentDb("results", rl, null, null, results, new Metrics.Signal2Noise(),
+                new HashMap<String, Boolean>(), SortMode.REAL, Order.DESCENDING, NUM_PERMS, null, null);
+    }
+
+    private static void assertSameBits(final float expected, final float actual, final String what) {
+        assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual), what);
+    }
+
+    private static void assertSameScores(final float[][] expected, final EsMatrix actual) {
+        assertEquals(expected.length, actual.getNumResults());
+        for (int r = 0; r < expected.length; r++) {
+            assertSameBits(expected[r][0], actual.getRealES(r), "ES of " + r);
+            final Vector rnd = actual.getRndESS(r);
+            assertEquals(expected[r].length - 1, rnd.getSize());
+            for (int p = 0; p < rnd.getSize(); p++) {
+                assertSameBits(expected[r][p + 1], rnd.getElement(p), "Random ES " + p + " of " + r);
+            }
+        }
+    }
+
+    @Test
+    void write_mapsBackBitForBit() throws Exception {
+        final float[][] scores = createScores(NUM_RESULTS, NUM_PERMS);
+        final File file = new File(tempDir, "results.esm");
+        EsMatrixFile.write(createEdb(scores), file);
+        assertEquals(16 + 4L * NUM_RESULTS * (NUM_PERMS + 1), file.length());
+
+        final EsMatrix esMatrix = EsMatrixFile.map(file);
+        assertEquals(NUM_PERMS, esMatrix.getNumPerms());
+        assertSameScores(scores, esMatrix);
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> esMatrix.getRndESS(NUM_RESULTS));
+    }
+
+    @Test
+    void write_lazyResultsWriteTheSameFile() throws Exception {
+        final float[][] scores = createScores(NUM_RESULTS, NUM_PERMS);
+        final File file = new File(tempDir, "results.esm");
+        EsMatrixFile.write(createEdb(scores), file);
+        final EsMatrix esMatrix = EsMatrixFile.map(file);
+
+        // As EdbFolderParser makes them, reading the random scores from the mapped file on request
+        final RankedList rl = createRankedList();
+        final EnrichmentResult[] lazy = new EnrichmentResult[NUM_RESULTS];
+        for (int r = 0; r < NUM_RESULTS; r++) {
+            lazy[r] = new EnrichmentResult(rl, null, new GeneSet("SET_" + r, new String[]{"g1", "g4"}), null,
+                    createScore(esMatrix.getRealES(r)), esMatrix, r, null);
+            assertTrue(lazy[r].isRndESSLazy());
+            assertEquals(NUM_PERMS, lazy[r].getNumPerms());
+            final Vector rnd = lazy[r].getRndESS();
+            for (int p = 0; p < NUM_PERMS; p++) {
+                assertSameBits(scores[r][p + 1], rnd.getElement(p), "Random ES " + p + " of " + r);
+            }
+            // A copy each call
+            assertNotSame(rnd, lazy[r].getRndESS());
+        }
+
+        final File again = new File(tempDir, "again.esm");
+        EsMatrixFile.write(createEdb(rl, lazy), again);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(again.toPath()));
+    }
+
+    @Test
+    void write_noPermutations() throws Exception {
+        final float[][] scores = createScores(3, 0);
+        final File file = new File(tempDir, "results.esm");
+        EsMatrixFile.write(createEdb(scores), file);
+
+        final EsMatrix esMatrix = EsMatrixFile.map(file);
+        assertEquals(0, esMatrix.getNumPerms());
+        assertSameScores(scores, esMatrix);
+    }
+
+    @Test
+    void map_badFiles() throws Exception {
+        final File file = new File(tempDir, "results.esm");
+        EsMatrixFile.write(createEdb(createScores(NUM_RESULTS, NUM_PERMS)), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 4);
+        }
+        assertThrows(ParserException.class, () -> EsMatrixFile.map(file));
+
+        final File notEsm = new File(tempDir, "not.esm");
+        Files.write(notEsm.toPath(), new byte[64]);
+        assertThrows(ParserException.class, () -> EsMatrixFile.map(notEsm));
+    }
+
+    @Test
+    void esMatrix_addressesResultsAcrossSegments() {
+        final float[][] scores = createScores(7, 4);
+        final int resultsPerSegment = 3;
+
+        final FloatBuffer realES = FloatBuffer.allocate(scores.length);
+        final FloatBuffer whole = FloatBuffer.allocate(scores.length * 5);
+        for (float[] row : scores) {
+            realES.put(row[0]);
+            whole.put(row[0]);
+        }
+        final FloatBuffer[] segments = new FloatBuffer[3];
+        for (int s = 0; s < segments.length; s++) {
+            final int results = Math.min(resultsPerSegment, scores.length - s * resultsPerSegment);
+            segments[s] = FloatBuffer.allocate(results * 4);
+            for (int r = s * resultsPerSegment; r < s * resultsPerSegment + results; r++) {
+                segments[s].put(scores[r], 1, 4);
+                whole.put(scores[r], 1, 4);
+            }
+        }
+
+        assertSameScores(scores, new EsMatrix(realES, segments, resultsPerSegment, scores.length, 4));
+        assertSameScores(scores, new EsMatrix(whole, scores.length, 4));
+
+        // Too few segments for the results
+        assertThrows(IllegalArgumentException.class, () -> new EsMatrix(realES,
+                new FloatBuffer[]{segments[0], segments[1]}, resultsPerSegment, scores.length, 4));
+    }
+
+    @Test
+    void resultsPerSegment_keepsSegmentsUnder2GB() {
+        assertEquals(10, EsMatrixFile.resultsPerSegment(10, 1000));
+        assertEquals(1, EsMatrixFile.resultsPerSegment(0, 1000));
+        assertEquals(7, EsMatrixFile.resultsPerSegment(7, 0));
+
+        // 20000 gene sets with a million permutations each is about 80GB of random scores
+        final int resultsPerSegment = EsMatrixFile.resultsPerSegment(20000, 1000000);
+        assertEquals(536, resultsPerSegment);
+        assertTrue(4L * resultsPerSegment * 1000000 <= Integer.MAX_VALUE);
+        assertTrue(4L * (resultsPerSegment + 1) * 1000000 > Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.GeneSetMatrix;
+import edu.mit.broad.genome.objects.SymbolTable;
+
+/**
+ * Gene sets made with members interned in a SymbolTable must be those made from the member Strings.
+ */
+public class GeneSetInternerTest {
+
+    @Test
+    void create_leavesOutDuplicatesInOrderAndReportsThem() {
+        final GeneSetInterner interner = new GeneSetInterner(new SymbolTable());
+        final List<String> members = Arrays.asList("A", "B", "A", "C", "B", "A");
+        final List<String> duplicates = new ArrayList<String>();
+        final GeneSet gset = interner.create("S1", "first", members, true, null, duplicates);
+
+        final GeneSet expected = new GeneSet("S1", "first", members, true);
+        assertEquals(expected.getMembers(), gset.getMembers());
+        assertEquals(Arrays.asList("A", "B", "C"), gset.getMembers());
+        assertEquals(Arrays.asList("A", "B", "A"), duplicates);
+        assertEquals(expected.getMembersS(), gset.getMembersS());
+        assertEquals(3, gset.getNumMembers());
+    }
+
+    @Test
+    void create_duplicatesAreOnlyThoseWithinASet() {
+        final GeneSetInterner interner = new GeneSetInterner(new SymbolTable());
+        final List<String> duplicates = new ArrayList<String>();
+        final GeneSet first = interner.create("S1", "na", Arrays.asList("A", "B"), true, null, duplicates);
+        final GeneSet second = interner.create("S2", "na", Arrays.asList("B", "C", "A"), true, null, duplicates);
+        assertTrue(duplicates.isEmpty());
+        assertEquals(Arrays.asList("A", "B"), first.getMembers());
+        assertEquals(Arrays.asList("B", "C", "A"), second.getMembers());
+    }
+
+    @Test
+    void create_keepsDuplicatesWhenNotChecking() {
+        final GeneSetInterner interner = new GeneSetInterner(new SymbolTable());
+        final List<String> members = Arrays.asList("A", "B", "A");
+        final GeneSet gset = interner.create("S1", "na", members, false, null, null);
+
+        final GeneSet expected = new GeneSet("S1", "na", members, false);
+        assertEquals(expected.getMembers(), gset.getMembers());
+        assertEquals(expected.getNumMembers(), gset.getNumMembers());
+        assertEquals(new HashSet<String>(members), gset.getMembersS());
+    }
+
+    @Test
+    void create_symbolsStoredOncePerTable() {
+        final SymbolTable table = new SymbolTable();
+        final GeneSetInterner interner = new GeneSetInterner(table);
+        final GeneSet first = interner.create("S1", "na", Arrays.asList("A", "B", "C"), true, null, null);
+        final GeneSet second = interner.create("S2", "na", Arrays.asList(new String("C"), new String("A")), true, null, null);
+
+        assertEquals(3, table.getSize());
+        assertSame(first.getMember(2), second.getMember(0));
+        assertSame(first.getMember(0), second.getMember(1));
+        assertTrue(second.isMember("A"));
+        assertFalse(second.isMember("B"));
+        assertFalse(second.isMember("Z"));
+    }
+
+    @Test
+    void parse_filesShareTheTable() throws Exception {
+        final String gmt = "S1\tfirst\tA\tB\tA\n"
+                + "S2\tsecond\tC\tB\n";
+        final GeneSetMatrix gm = parseGmt(gmt);
+        final SymbolTable shared = SymbolTable.getShared();
+        final GeneSetMatrix other = parseGmt(gmt.replace("C", "D"));
+        final GeneSetMatrix gmx = (GeneSetMatrix) new GmxParser().parse("test.gmx",
+                new ByteArrayInputStream("G1\tG2\nna\tna\nD\tA\nB\t\n".getBytes(StandardCharsets.UTF_8))).get(0);
+
+        // The shared table is held while any of its gene sets are
+        assertSame(shared, SymbolTable.getShared());
+        assertTrue(shared.getId("D") >= 0);
+        assertEquals(Arrays.asList("A", "B"), gm.getGeneSet(0).getMembers());
+        assertEquals(Arrays.asList("C", "B"), gm.getGeneSet(1).getMembers());
+        assertEquals(Arrays.asList("D", "B"), other.getGeneSet(1).getMembers());
+        assertEquals(Arrays.asList("D", "B"), gmx.getGeneSet(0).getMembers());
+
+        // A symbol in the gene sets of several files is one String
+        assertSame(gm.getGeneSet(0).getMember(1), gm.getGeneSet(1).getMember(1));
+        assertSame(gm.getGeneSet(0).getMember(1), other.getGeneSet(0).getMember(1));
+        assertSame(other.getGeneSet(1).getMember(0), gmx.getGeneSet(0).getMember(0));
+        assertSame(gm.getGeneSet(0).getMember(0), gmx.getGeneSet(1).getMember(0));
+
+        // Membership is still that of the set alone
+        assertFalse(gm.getGeneSet(1).isMember("D"));
+        assertTrue(other.getGeneSet(1).isMember("D"));
+    }
+
+    private static GeneSetMatrix parseGmt(final String content) throws Exception {
+        return (GeneSetMatrix) new GmtParser().parse("test.gmt",
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).get(0);
+    }
+}
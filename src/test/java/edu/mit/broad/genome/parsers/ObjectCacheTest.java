@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.swing.ComboBoxModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.objects.FeatureAnnot;
+import edu.mit.broad.genome.objects.GeneSet;
+
+/**
+ * Eviction order of the ObjectCache, and the pinning of objects selected in the UI.
+ */
+public class ObjectCacheTest {
+
+    private static final long FOOTPRINT = ObjectCache.estimateFootprint(createSet("x"));
+
+    private static GeneSet createSet(final String name) {
+        return new GeneSet(name, new String[]{"A", "B", "C"});
+    }
+
+    // Holds three of the sets before evicting
+    private static ObjectCache createCache() {
+        return new ObjectCache("root", 3 * FOOTPRINT);
+    }
+
+    private static GeneSet add(final ObjectCache cache, final String name) {
+        final GeneSet gset = createSet(name);
+        cache.add(name + ".grp", gset, GeneSet.class, false);
+        return gset;
+    }
+
+    private static boolean isHeld(final ObjectCache cache, final String name) {
+        return cache.get(name + ".grp", GeneSet.class) != null;
+    }
+
+    @Test
+    void evict_leastRecentlyUsedFirst() {
+        final ObjectCache cache = createCache();
+        add(cache, "a");
+        add(cache, "b");
+        add(cache, "c");
+        assertTrue(cache.isCached("a.grp", GeneSet.class));    // a is now more recent than b and c
+
+        add(cache, "d");
+        assertEquals(1, cache.getNumEvictions());
+        assertFalse(cache.isCached("b.grp", GeneSet.class));
+        assertTrue(isHeld(cache, "a"));
+        assertTrue(isHeld(cache, "c"));
+        assertTrue(isHeld(cache, "d"));
+
+        // The lookups above leave a least recently used
+        add(cache, "e");
+        assertEquals(2, cache.getNumEvictions());
+        assertFalse(isHeld(cache, "a"));
+    }
+
+    @Test
+    void evict_hidesFromBoxModel() {
+        final ObjectCache cache = createCache();
+        final ComboBoxModel model = cache.createBoxModel(GeneSet.class);
+        add(cache, "a");
+        add(cache, "b");
+        add(cache, "c");
+        assertEquals(3, model.getSize());
+
+        add(cache, "d");
+        assertEquals(3, model.getSize());
+    }
+
+    @Test
+    void evict_notPreventedByListenersOnTheModels() {
+        final ObjectCache cache = createCache();
+        // As the desktop's object tree and parameter boxes always listen
+        cache.createTreeModel().addTreeModelListener(new TreeModelListener() {
+            public void treeNodesChanged(TreeModelEvent e) {}
+            public void treeNodesInserted(TreeModelEvent e) {}
+            public void treeNodesRemoved(TreeModelEvent e) {}
+            public void treeStructureChanged(TreeModelEvent e) {}
+        });
+        cache.createBoxModel(GeneSet.class).addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) {}
+            public void intervalRemoved(ListDataEvent e) {}
+            public void contentsChanged(ListDataEvent e) {}
+        });
+
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            add(cache, name);
+        }
+        assertEquals(2, cache.getNumEvictions());
+    }
+
+    @Test
+    void pin_selectedInBoxModelIsKept() {
+        final ObjectCache cache = createCache();
+        final ComboBoxModel model = cache.createBoxModel(GeneSet.class);
+        final GeneSet a = add(cache, "a");
+        add(cache, "b");
+        add(cache, "c");
+        model.setSelectedItem(a);
+
+        add(cache, "d");
+        assertTrue(isHeld(cache, "a"));
+        assertFalse(isHeld(cache, "b"));
+        assertSame(a, model.getSelectedItem());
+
+        // Once another is selected, a is evicted in its turn
+        model.setSelectedItem(cache.get("d.grp", GeneSet.class));
+        add(cache, "e");
+        add(cache, "f");
+        assertFalse(isHeld(cache, "a"));
+        assertTrue(isHeld(cache, "d"));
+    }
+
+    @Test
+    void pin_byOwnerUntilCleared() {
+        final ObjectCache cache = createCache();
+        final Object owner = new Object();
+        final GeneSet a = add(cache, "a");
+        final GeneSet b = add(cache, "b");
+        add(cache, "c");
+        cache.setPinned(owner, Arrays.asList(a, b));
+
+        add(cache, "d");
+        add(cache, "e");
+        assertTrue(isHeld(cache, "a"));
+        assertTrue(isHeld(cache, "b"));
+        assertFalse(isHeld(cache, "c"));
+
+        cache.setPinned(owner, Collections.emptyList());
+        add(cache, "f");
+        add(cache, "g");
+        add(cache, "h");
+        assertFalse(isHeld(cache, "a"));
+        assertFalse(isHeld(cache, "b"));
+        assertTrue(isHeld(cache, "h"));
+    }
+
+    @Test
+    void getCached_countsEachLookupOnce() {
+        final ObjectCache cache = createCache();
+        final GeneSet a = add(cache, "a");
+        assertSame(a, cache.getCached("a.grp", GeneSet.class));
+        assertNull(cache.getCached("b.grp", GeneSet.class));
+        assertNull(cache.getCached("a.grp", FeatureAnnot.class));
+        assertEquals(1, cache.getNumHits());
+        assertEquals(2, cache.getNumMisses());
+    }
+
+    @Test
+    void getCached_hitsAreTheObjectsReturnedWhileOthersAreAdded() throws Exception {
+        final ObjectCache cache = createCache();
+        final GeneSet a = add(cache, "a");
+
+        // The adding thread evicts a from time to time, and a miss puts it back as a reader would
+        final Thread adder = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                add(cache, "x" + i);
+            }
+        });
+        adder.start();
+        long found = 0;
+        long lookups = 0;
+        while (adder.isAlive()) {
+            final Object cached = cache.getCached("a.grp", GeneSet.class);
+            lookups++;
+            if (cached != null) {
+                assertSame(a, cached);
+                found++;
+            } else {
+                cache.add("a.grp", a, GeneSet.class, false);
+            }
+        }
+        adder.join();
+        assertEquals(found, cache.getNumHits());
+        assertEquals(lookups - found, cache.getNumMisses());
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.parsers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.FeatureAnnot;
+
+/**
+ * The GCT and TXT datasets read by the TextMatrixReader must be those of the line-by-line parsers it replaced.
+ * The expected values below are those the earlier GctParser and TxtDatasetParser gave for the same text.
+ */
+public class TextMatrixReaderTest {
+
+    private static final String GCT = "#1.2\n6\t3\n"
+            + "NAME\tDescription\tA\tB\tC\n"
+            + "g1\tfirst gene\t1.5\t-2\t3.25\n"
+            + "g2\t\tNaN\tNA\t\n"
+            + "g3\tthird\t\t\t\n"
+            + "\"g4\"\tfourth\t1e-3\t\"2.5\"\t-0\n"
+            + " g5 \t fifth \t 0.1\t1E+2\t.5\n"
+            + "g6\tsixth\tInfinity\t-7.\t123456789012\n";
+
+    private static final String[] GCT_ROWS = {"g1", "g4", "g5", "g6"};
+    private static final String[] GCT_DESCS = {"first gene", "fourth", "fifth", "sixth"};
+    private static final float[][] GCT_VALUES = {
+            {1.5f, -2f, 3.25f},
+            {0.001f, 2.5f, -0f},
+            {0.1f, 100f, 0.5f},
+            {Float.POSITIVE_INFINITY, -7f, 1.23456791E11f}};
+
+    private static final String TXT_WITH_DESCS = "# a comment\n"
+            + "NAME\tDESCRIPTION\tA\tB\n"
+            + "g1\tsome desc\t1\t2\n"
+            + "\n"
+            + "g2\tother\t-3.5\tNA\n"
+            + "#mid comment\n"
+            + "g3\t\tna\t\n"
+            + "g4\tlast\t0.30000001\t1e-40\t\t\n";
+
+    // CRLF line ends, and no line end after the last line
+    private static final String TXT_WITHOUT_DESCS = "NAME\tA\tB\tC\r\n"
+            + "g1\t1\t2\t3\r\n"
+            + "g2\t4\t\t6\r\n"
+            + "g3\t7\t8";
+
+    @TempDir
+    File tempDir;
+
+    private File write(final String fileName, final String content) throws Exception {
+        final File file = new File(tempDir, fileName);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // A new parser each time, as in ParserFactory: a parser collects the comments of every file it reads
+    private static Dataset parseStream(final Parser parser, final String fileName, final String content) throws Exception {
+        return (Dataset) parser.parse(fileName, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).get(0);
+    }
+
+    private Dataset parseFile(final Parser parser, final String fileName, final String content) throws Exception {
+        return (Dataset) parser.parse(fileName, write(fileName, content)).get(0);
+    }
+
+    private static void assertDataset(final String[] rowNames, final String[] descs_opt, final float[][] values,
+                                      final Dataset ds) {
+        assertEquals(Arrays.asList(rowNames), ds.getRowNames());
+        final FeatureAnnot ann = ds.getAnnot().getFeatureAnnot();
+        assertEquals(descs_opt != null, ann.hasNativeDescriptions());
+        for (int r = 0; r < rowNames.length; r++) {
+            if (descs_opt != null) {
+                assertEquals(descs_opt[r], ann.getNativeDesc(rowNames[r]));
+            }
+            for (int c = 0; c < values[r].length; c++) {
+                assertEquals(Float.floatToIntBits(values[r][c]), Float.floatToIntBits(ds.getElement(r, c)),
+                        "row " + r + " col " + c);
+            }
+        }
+    }
+
+    private static void assertWarned(final Dataset ds, final String... phrases) {
+        final List<String> warnings = ds.getWarnings();
+        assertEquals(phrases.length, warnings.size(), warnings.toString());
+        for (int i = 0; i < phrases.length; i++) {
+            assertTrue(warnings.get(i).contains(phrases[i]), warnings.get(i));
+        }
+    }
+
+    private void assertGct(final String content) throws Exception {
+        for (Dataset ds : new Dataset[]{parseStream(new GctParser(), "a.gct", content),
+                parseFile(new GctParser(), "a.gct", content)}) {
+            assertEquals(Arrays.asList("A", "B", "C"), ds.getColumnNames());
+            assertDataset(GCT_ROWS, GCT_DESCS, GCT_VALUES, ds);
+            assertEquals("1.2\n", ds.getComment());
+            assertWarned(ds, "Loaded dataset with 4 features", "Infinite values detected",
+                    "There were 2 row(s) in total with all data missing");
+        }
+    }
+
+    @Test
+    void gct_missingQuotedAndInfiniteValues() throws Exception {
+        assertGct(GCT);
+    }
+
+    @Test
+    void gct_crlfAndCrLineEnds() throws Exception {
+        assertGct(GCT.replace("\n", "\r\n"));
+        assertGct(GCT.replace("\n", "\r"));
+    }
+
+    @Test
+    void txt_withDescriptionsCommentsAndBlankLines() throws Exception {
+        for (Dataset ds : new Dataset[]{parseStream(new TxtDatasetParser(), "a.txt", TXT_WITH_DESCS),
+                parseFile(new TxtDatasetParser(), "a.txt", TXT_WITH_DESCS)}) {
+            assertEquals(Arrays.asList("A", "B"), ds.getColumnNames());
+            assertDataset(new String[]{"g1", "g2", "g4"}, new String[]{"some desc", "other", "last"},
+                    new float[][]{{1f, 2f}, {-3.5f, Float.NaN}, {0.3f, 1.0E-40f}}, ds);
+            assertEquals(" a comment\nmid comment\n", ds.getComment());
+            assertWarned(ds, "Loaded dataset with 3 features", "There were 1 row(s) in total with partially missing data",
+                    "There were 1 row(s) in total with all data missing");
+        }
+    }
+
+    @Test
+    void txt_withoutDescriptionsCrlfAndNoLastLineEnd() throws Exception {
+        for (Dataset ds : new Dataset[]{parseStream(new TxtDatasetParser(), "b.txt", TXT_WITHOUT_DESCS),
+                parseFile(new TxtDatasetParser(), "b.txt", TXT_WITHOUT_DESCS)}) {
+            assertEquals(Arrays.asList("A", "B", "C"), ds.getColumnNames());
+            assertDataset(new String[]{"g1", "g2", "g3"}, null,
+                    new float[][]{{1f, 2f, 3f}, {4f, Float.NaN, 6f}, {7f, 8f, Float.NaN}}, ds);
+            assertEquals("", ds.getComment());
+            assertWarned(ds, "Loaded dataset with 3 features", "There were 2 row(s) in total with partially missing data");
+        }
+    }
+
+    @Test
+    void gct_rowCountOfHeaderIsChecked() throws Exception {
+        final String tooFew = GCT.replace("6\t3", "7\t3");
+        assertThrows(ParserException.class, () -> parseStream(new GctParser(), "a.gct", tooFew));
+        assertThrows(ParserException.class, () -> parseFile(new GctParser(), "a.gct", tooFew));
+        final String negative = GCT.replace("6\t3", "-6\t3");
+        assertThrows(ParserException.class, () -> parseStream(new GctParser(), "a.gct", negative));
+
+        // Storage is not made for all the rows a header claims before they are read
+        final String huge = GCT.replace("6\t3", "700000000\t3");
+        final ParserException pe = assertThrows(ParserException.class, () -> parseStream(new GctParser(), "a.gct", huge));
+        assertTrue(pe.getMessage().contains("found in data: 6"), pe.getMessage());
+        assertThrows(ParserException.class, () -> parseFile(new GctParser(), "a.gct", huge));
+    }
+
+    @Test
+    void gct_storageGrowsPastItsFirstSizeToTheHeaderCount() throws Exception {
+        // More values than are allocated before any line is read
+        final StringBuilder sb = new StringBuilder();
+        final int nrows = 3000;
+        final int ncols = 7000;
+        sb.append("#1.2\n").append(nrows).append('\t').append(ncols).append("\nNAME\tDescription");
+        for (int c = 0; c < ncols; c++) {
+            sb.append("\tS").append(c);
+        }
+        sb.append('\n');
+        for (int r = 0; r < nrows; r++) {
+            sb.append('g').append(r).append("\td");
+            for (int c = 0; c < ncols; c++) {
+                sb.append('\t').append((r * 31 + c) % 1000);
+            }
+            sb.append('\n');
+        }
+
+        final Dataset ds = parseStream(new GctParser(), "big.gct", sb.toString());
+        assertEquals(nrows, ds.getNumRow());
+        for (int r = 0; r < nrows; r += 97) {
+            for (int c = 0; c < ncols; c += 101) {
+                assertEquals((r * 31 + c) % 1000, ds.getElement(r, c), 0f);
+            }
+        }
+    }
+
+    @Test
+    void readData_rangesOfAFileGiveTheRowsOfOneReading() throws Exception {
+        final Random rnd = new Random(5);
+        final int nrows = 2000;
+        final StringBuilder sb = new StringBuilder("#1.2\n").append(nrows).append("\t4\nNAME\tDescription\tA\tB\tC\tD\n");
+        for (int r = 0; r < nrows; r++) {
+            if (rnd.nextInt(40) == 0) { sb.append("#comment ").append(r).append('\n'); }
+            if (rnd.nextInt(40) == 0) { sb.append('\n'); }
+            sb.append('g').append(r).append('\t').append(rnd.nextBoolean() ? "desc" + r : "");
+            final boolean allMissing = rnd.nextInt(30) == 0;
+            for (int c = 0; c < 4; c++) {
+                sb.append('\t');
+                if (allMissing || rnd.nextInt(20) == 0) {
+                    sb.append(rnd.nextBoolean() ? "NA" : "");
+                } else {
+                    sb.append((float) rnd.nextGaussian());
+                }
+            }
+            sb.append(rnd.nextInt(5) == 0 ? "\r\n" : "\n");
+        }
+        final String content = sb.toString();
+        final Dataset expected = parseStream(new GctParser(), "r.gct", content);
+        final File file = write("r.gct", content);
+
+        for (long rangeBytes : new long[]{1, 100, 4096, 1L << 20}) {
+            final GctParser parser = new GctParser();
+            try (TextMatrixReader reader = new TextMatrixReader(parser, file, rangeBytes, 7)) {
+                reader.nextLine();
+                reader.nextLine();
+                final TextMatrixReader.Data data = reader.readData(4, true, nrows);
+                assertEquals(nrows, data.getNumLines());
+                assertEquals(expected.getRowNames(), data.getRowNames());
+
+                final FeatureAnnot ann = expected.getAnnot().getFeatureAnnot();
+                final Matrix matrix = data.getMatrix();
+                assertEquals(expected.getNumRow(), matrix.getNumRow());
+                for (int r = 0; r < expected.getNumRow(); r++) {
+                    assertEquals(ann.getNativeDesc(expected.getRowName(r)), data.getRowDescs().get(r));
+                    for (int c = 0; c < 4; c++) {
+                        assertEquals(Float.floatToIntBits(expected.getElement(r, c)),
+                                Float.floatToIntBits(matrix.getElement(r, c)), "range bytes " + rangeBytes + " row " + r);
+                    }
+                }
+                // The comments between the data lines, in order
+                assertEquals(expected.getComment(), parser.fComment.toString());
+            }
+        }
+    }
+
+    private static float parseSimpleDecimal(final String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return TextMatrixReader.parseSimpleDecimal(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void parseSimpleDecimal_plainDecimalsAsParseFloat() {
+        for (String s : new String[]{"0", "-0", "+0", "0.0", "1.5", "-2", "+3", ".5", "5.", "-7.", "0.1", "1e-3",
+                "1E+2", "3.25e0", "0001.2500", "123456789012", "0.30000001", "9007199254740991", "-1.5e-20",
+                "3.4028235e22"}) {
+            final float value = parseSimpleDecimal(s);
+            assertFalse(Float.isNaN(value), s);
+            assertEquals(Float.floatToIntBits(Float.parseFloat(s)), Float.floatToIntBits(value), s);
+        }
+    }
+
+    @Test
+    void parseSimpleDecimal_leavesTheRestToParseFloat() {
+        for (String s : new String[]{"", "NA", "na", "NaN", "Infinity", "-", "+", ".", "-.", "1e", "1e+", "e5",
+                "0x1p3", "1.5f", "\"2.5\"", "1,5", "1.2.3", "1 2", "99999999999999999", "1234567890123456789", "1e-45", "-1.17549435E-38", "1e39",
+                "16777217", "1.00000005960464477539"}) {
+            assertTrue(Float.isNaN(parseSimpleDecimal(s)), s);
+        }
+    }
+
+    @Test
+    void parseSimpleDecimal_randomDecimalsAsParseFloat() {
+        final Random rnd = new Random(1);
+        int handled = 0;
+        for (int i = 0; i < 200000; i++) {
+            final String s;
+            switch (i % 4) {
+                case 0:
+                    s = String.format("%." + rnd.nextInt(10) + "f", (rnd.nextDouble() - 0.5) * Math.pow(10, rnd.nextInt(12) - 4));
+                    break;
+                case 1:
+                    s = Float.toString(Float.intBitsToFloat(rnd.nextInt()));
+                    break;
+                case 2:
+                    s = Double.toString(rnd.nextGaussian() * Math.pow(10, rnd.nextInt(40) - 20));
+                    break;
+                default:
+                    // Near the halfway points between floats
+                    final float f = Float.intBitsToFloat(rnd.nextInt(0x7f000000));
+                    s = new BigDecimal(f).add(new BigDecimal(Math.nextUp(f))).divide(BigDecimal.valueOf(2))
+                            .round(new MathContext(1 + rnd.nextInt(17))).toString();
+                    break;
+            }
+            final float value = parseSimpleDecimal(s);
+            if (Float.isNaN(value)) { continue; }
+            handled++;
+            assertEquals(Float.floatToIntBits(Float.parseFloat(s)), Float.floatToIntBits(value), s);
+        }
+        assertTrue(handled > 100000, "only " + handled + " taken without parseFloat");
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package edu.mit.broad.genome.reports;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.alg.gsea.GeneSetCohort;
+import edu.mit.broad.genome.alg.gsea.GeneSetScoringTables;
+import edu.mit.broad.genome.alg.gsea.KSCore;
+import edu.mit.broad.genome.math.Vector;
+import edu.mit.broad.genome.objects.DefaultRankedList;
+import edu.mit.broad.genome.objects.GeneSet;
+import edu.mit.broad.genome.objects.RankedList;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScoreImpl;
+import edu.mit.broad.genome.reports.api.PicFile;
+
+/**
+ * The gene set details pages made one after another and on a pool, which must name and fill them the same.
+ */
+public class EnrichmentReportsTest {
+
+    @TempDir
+    File tempDir;
+
+    private static final int FIRST_IMAGE = 100;
+
+    private static RankedList createRankedList() {
+        final List<String> names = new ArrayList<String>();
+        final float[] scores = new float[60];
+        for (int i = 0; i < scores.length; i++) {
+            names.add("G" + i);
+            scores[i] = 3.0f - i * 0.1f;
+        }
+        return new DefaultRankedList("ranks", names, new Vector(scores, true));
+    }
+
+    private static GeneSet createGeneSet(final String name, final int first, final int step) {
+        final String[] members = new String[8];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = "G" + (first + i * step);
+        }
+        return new GeneSet(name, members);
+    }
+
+    // Results for the sets with random scores, but none for noRndIndex; the score of shortIndex doesn't match its
+    // set, so its page is made with an error and none of its images
+    private static EnrichmentResult[] createResults(final int noRndIndex, final int shortIndex) {
+        final RankedList rl = createRankedList();
+        final GeneSet[] gsets = new GeneSet[6];
+        for (int g = 0; g < gsets.length; g++) {
+            gsets[g] = createGeneSet("SET_" + g, g * 3, g + 1);
+        }
+        final GeneSetCohort gcoh = new GeneSetCohort.Generator(new GeneSetScoringTables.Weighted(), 1, 1000)
+                .createGeneSetCohort(rl, gsets, true);
+        final EnrichmentScore[] scores = new KSCore().calculateKSScore(gcoh, true);
+
+        final Random random = new Random(5);
+        final EnrichmentResult[] results = new EnrichmentResult[gsets.length];
+        for (int g = 0; g < gsets.length; g++) {
+            EnrichmentScore score = new EnrichmentScoreImpl(scores[g], scores[g].getES() * 2, 0.01f * g, 0.1f, 0.2f);
+            if (g == shortIndex) {
+                score = new EnrichmentScoreImpl(score.getES(), score.getRankAtES(), score.getRankScoreAtES(), 1, 0, 0, 0,
+                        1, new int[]{0}, score.getESProfile(), null);
+            }
+            Vector rndESS = null;
+            if (g != noRndIndex) {
+                final float[] rnd = new float[30];
+                for (int p = 0; p < rnd.length; p++) {
+                    rnd[p] = random.nextFloat() - 0.5f;
+                }
+                rndESS = new Vector(rnd, true);
+            }
+            results[g] = new EnrichmentResult(rl, null, gsets[g], null, score, rndESS, null);
+        }
+        return results;
+    }
+
+    // Makes the pages into a dir of their own, starting from the same image number each time
+    private File createDetailsPages(final String name, final EnrichmentResult[] results, final int numThreads) {
+        final File dir = new File(tempDir, name);
+        assertTrue(dir.mkdir());
+        PicFile.setNextImageNumber(FIRST_IMAGE);
+        final EnrichmentReports.BasicReportStruc struc = EnrichmentReports.createReport(results, "ds", "pheno", "A", "B",
+                results[0].getRankedList(), null, null, "Details", results.length, true, false, false, dir, null,
+                numThreads);
+        assertNotNull(struc.rdf);
+        return dir;
+    }
+
+    // The page with an error shows the stack trace, which differs with the thread that made it
+    private static String withoutTrace(final byte[] html) {
+        final String text = new String(html, StandardCharsets.UTF_8);
+        final int trace = text.indexOf("\tat ");
+        return (trace < 0) ? text : text.substring(0, trace);
+    }
+
+    private static void assertSameFiles(final File expectedDir, final File actualDir) throws Exception {
+        final String[] expected = expectedDir.list();
+        final String[] actual = actualDir.list();
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        assertArrayEquals(expected, actual);
+        for (String name : expected) {
+            if (name.endsWith(".png")) { continue; } // charts are compared by name only
+            assertEquals(withoutTrace(Files.readAllBytes(new File(expectedDir, name).toPath())),
+                    withoutTrace(Files.readAllBytes(new File(actualDir, name).toPath())), name);
+        }
+    }
+
+    private static int countImages(final File dir) {
+        return dir.list((d, name) -> name.endsWith(".png")).length;
+    }
+
+    @Test
+    void createReport_poolNamesAndFillsPagesAsInOrder() throws Exception {
+        final EnrichmentResult[] results = createResults(2, -1);
+        final File sequential = createDetailsPages("sequential", results, 1);
+        final int nextImage = PicFile.getNextImageNumber();
+        final File pooled = createDetailsPages("pooled", results, 4);
+
+        // An enrichment plot for each page and a null distribution for all but the one without random scores
+        assertEquals(2 * results.length - 1, countImages(sequential));
+        assertEquals(FIRST_IMAGE + 2 * results.length - 1, nextImage);
+        assertEquals(nextImage, PicFile.getNextImageNumber());
+        assertSameFiles(sequential, pooled);
+    }
+
+    @Test
+    void createReport_poolRedoesPagesAfterOneComingUpShort() throws Exception {
+        final EnrichmentResult[] results = createResults(4, 1);
+        final File sequential = createDetailsPages("sequential", results, 1);
+        final int nextImage = PicFile.getNextImageNumber();
+        final File pooled = createDetailsPages("pooled", results, 3);
+
+        assertEquals(2 * results.length - 3, countImages(sequential));
+        assertEquals(FIRST_IMAGE + 2 * results.length - 3, nextImage);
+        assertEquals(nextImage, PicFile.getNextImageNumber());
+        assertTrue(new String(Files.readAllBytes(new File(pooled, "SET_1.html").toPath()), StandardCharsets.UTF_8)
+                .contains("Trouble making HtmlPage"));
+        assertSameFiles(sequential, pooled);
+    }
+
+    @Test
+    void numberImagesFrom_leavesTheGlobalCounter() throws Exception {
+        PicFile.setNextImageNumber(7);
+        final String[][] names = new String[2][];
+        final Thread other = new Thread(() -> {
+            final String[] otherNames = new String[2];
+            assertEquals(2, PicFile.numberImagesFrom(50, () -> {
+                otherNames[0] = PicFile.generateNameForImage("b");
+                otherNames[1] = PicFile.generateNameForImage("b");
+            }));
+            names[1] = otherNames;
+        });
+        final String[] ownNames = new String[3];
+        assertEquals(3, PicFile.numberImagesFrom(20, () -> {
+            ownNames[0] = PicFile.generateNameForImage("a");
+            other.start();
+            try {
+                other.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            ownNames[1] = PicFile.generateNameForImage("a");
+            ownNames[2] = PicFile.generateNameForImage("a");
+        }));
+        names[0] = ownNames;
+
+        assertArrayEquals(new String[]{"a_20", "a_21", "a_22"}, names[0]);
+        assertArrayEquals(new String[]{"b_50", "b_51"}, names[1]);
+        assertEquals(7, PicFile.getNextImageNumber());
+        assertEquals("c_7", PicFile.generateNameForImage("c"));
+        assertEquals(8, PicFile.getNextImageNumber());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package org.genepattern.gsea;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.objects.Dataset;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.GPWrappers;
+
+/**
+ * Leaf orders of the HCL clustering.  The orders expected of the small matrices are those of the MeV HCL it replaced.
+ */
+public class HCLAlgorithmTest {
+
+    private static final float N = Float.NaN;
+
+    private static final float[][] M1 = {
+            {1.2f, 3.4f, 0.5f, 2.2f, 4.1f},
+            {0.3f, 2.9f, 1.7f, 0.8f, 3.3f},
+            {4.0f, 1.1f, 2.6f, 3.9f, 0.2f},
+            {1.0f, 3.8f, 0.9f, 2.0f, 3.7f},
+            {3.5f, 0.7f, 3.1f, 4.4f, 0.6f},
+            {2.4f, 2.1f, 1.3f, 0.4f, 2.8f}};
+
+    // M1 with some values missing
+    private static final float[][] M2 = {
+            {1.2f, 3.4f, N, 2.2f, 4.1f},
+            {0.3f, 2.9f, 1.7f, 0.8f, 3.3f},
+            {4.0f, N, 2.6f, 3.9f, 0.2f},
+            {1.0f, 3.8f, 0.9f, 2.0f, 3.7f},
+            {3.5f, 0.7f, 3.1f, N, 0.6f},
+            {2.4f, 2.1f, 1.3f, 0.4f, 2.8f}};
+
+    private static final float[][] M3 = {
+            {1.5f, -2.8f, -11.7f, 6.9f, 1.1f, -8.9f, -13.7f},
+            {-21.0f, -5.3f, -8.2f, -0.2f, 6.9f, 9.8f, 0.9f},
+            {4.6f, -15.7f, 0.3f, 0.8f, -8.4f, -12.1f, -2.2f},
+            {-10.1f, 16.5f, -2.1f, -12.6f, -1.8f, -18.3f, 0.1f},
+            {38.5f, -5.8f, -11.4f, -12.5f, 4.9f, 2.8f, 3.0f},
+            {-14.6f, 14.0f, 20.9f, -10.3f, 9.9f, -4.6f, 6.7f},
+            {-0.1f, -11.5f, 13.1f, 13.9f, 8.0f, 11.6f, -11.9f},
+            {-1.8f, -3.2f, -10.7f, 5.9f, -3.3f, -8.9f, 5.4f},
+            {1.6f, -6.4f, -5.4f, -21.1f, -2.6f, -0.4f, -6.1f},
+            {3.9f, 18.0f, -2.3f, -15.2f, -6.3f, -3.7f, 1.5f},
+            {5.8f, 5.7f, 5.9f, 10.5f, -10.9f, -5.8f, 13.3f},
+            {-8.5f, -0.9f, -7.1f, -13.4f, 8.7f, 4.1f, -6.2f}};
+
+    private static Dataset createDataset(final float[][] values) {
+        final Matrix matrix = new Matrix(values.length, values[0].length);
+        final String[] rowNames = new String[values.length];
+        final String[] colNames = new String[values[0].length];
+        for (int r = 0; r < values.length; r++) {
+            rowNames[r] = "r" + r;
+            for (int c = 0; c < values[r].length; c++) {
+                matrix.setElement(r, c, values[r][c]);
+            }
+        }
+        for (int c = 0; c < colNames.length; c++) {
+            colNames[c] = "c" + c;
+        }
+        return new DefaultDataset("test", matrix, rowNames, colNames, null);
+    }
+
+    private static HCLAlgorithm cluster(final float[][] values) {
+        return new HCLAlgorithm(GPWrappers.createIExpressionData(createDataset(values)));
+    }
+
+    @Test
+    void cluster_ordersAsMeV() {
+        final HCLAlgorithm m1 = cluster(M1);
+        assertArrayEquals(new int[]{2, 4, 1, 0, 3, 5}, m1.getGenes_order());
+        assertArrayEquals(new int[]{0, 2, 3, 1, 4}, m1.getSamples_order());
+
+        final HCLAlgorithm m3 = cluster(M3);
+        assertArrayEquals(new int[]{6, 0, 2, 7, 10, 5, 3, 9, 4, 8, 1, 11}, m3.getGenes_order());
+        assertArrayEquals(new int[]{0, 3, 4, 5, 2, 1, 6}, m3.getSamples_order());
+    }
+
+    @Test
+    void cluster_missingValuesAsMeV() {
+        final HCLAlgorithm m2 = cluster(M2);
+        assertArrayEquals(new int[]{2, 4, 0, 1, 3, 5}, m2.getGenes_order());
+        assertArrayEquals(new int[]{0, 2, 3, 1, 4}, m2.getSamples_order());
+    }
+
+    @Test
+    void cluster_datasetInLeafOrder() {
+        final Dataset clustered = HCLAlgorithm.cluster(createDataset(M1));
+        assertEquals(Arrays.asList("r2", "r4", "r1", "r0", "r3", "r5"), clustered.getRowNames());
+        assertEquals(Arrays.asList("c0", "c2", "c3", "c1", "c4"), clustered.getColumnNames());
+        assertEquals(M1[4][3], clustered.getElement(1, 2));
+    }
+
+    @Test
+    void cluster_identicalRowsOfABinaryMatrixStayTogether() {
+        // As in the leading edge matrices: many tied distances
+        final float[][] binary = {
+                {1, 0, 1, 0, 0, 1},
+                {0, 1, 0, 1, 1, 0},
+                {1, 0, 1, 0, 0, 1},
+                {1, 1, 0, 0, 0, 0},
+                {0, 1, 0, 1, 1, 0},
+                {1, 0, 1, 0, 0, 1},
+                {0, 0, 0, 1, 1, 1}};
+        final HCLAlgorithm hcl = cluster(binary);
+        final int[] genes = hcl.getGenes_order();
+        assertIsPermutation(genes, binary.length);
+        assertIsPermutation(hcl.getSamples_order(), binary[0].length);
+        assertContiguous(genes, 0, 2, 5);
+        assertContiguous(genes, 1, 4);
+
+        // The same every time
+        assertArrayEquals(genes, cluster(binary).getGenes_order());
+    }
+
+    private static void assertIsPermutation(final int[] order, final int n) {
+        final int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        final int[] expected = new int[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = i;
+        }
+        assertArrayEquals(expected, sorted);
+    }
+
+    private static void assertContiguous(final int[] order, final int... items) {
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (int item : items) {
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] == item) {
+                    min = Math.min(min, i);
+                    max = Math.max(max, i);
+                }
+            }
+        }
+        assertEquals(items.length - 1, max - min, Arrays.toString(order));
+    }
+
+    // Condensed distances (i > j) of points on a line
+    private static float[] lineDistances(final float... x) {
+        final float[] dist = new float[x.length * (x.length - 1) / 2];
+        for (int i = 1, p = 0; i < x.length; i++) {
+            for (int j = 0; j < i; j++, p++) {
+                dist[p] = Math.abs(x[i] - x[j]);
+            }
+        }
+        return dist;
+    }
+
+    @Test
+    void getLeafOrder_singleAndAverageLinkage() {
+        // C, A, D and B at 4.5, 0, 7.2 and 2: single linkage chains A-B, C, then D; WPGMA pairs A-B and C-D
+        final float[] x = {4.5f, 0f, 7.2f, 2f};
+        assertArrayEquals(new int[]{2, 0, 1, 3}, HCLAlgorithm.getLeafOrder(lineDistances(x), 4, HCLAlgorithm.Linkage.SINGLE));
+        assertArrayEquals(new int[]{0, 2, 1, 3}, HCLAlgorithm.getLeafOrder(lineDistances(x), 4, HCLAlgorithm.Linkage.AVERAGE));
+    }
+
+    @Test
+    void getLeafOrder_tiesKeepTheOriginalOrder() {
+        for (HCLAlgorithm.Linkage linkage : HCLAlgorithm.Linkage.values()) {
+            final float[] dist = new float[6 * 5 / 2];
+            Arrays.fill(dist, 1f);
+            assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, HCLAlgorithm.getLeafOrder(dist, 6, linkage));
+        }
+    }
+
+    @Test
+    void getLeafOrder_trivialSizes() {
+        assertArrayEquals(new int[0], HCLAlgorithm.getLeafOrder(new float[0], 0, HCLAlgorithm.Linkage.SINGLE));
+        assertArrayEquals(new int[]{0}, HCLAlgorithm.getLeafOrder(new float[0], 1, HCLAlgorithm.Linkage.AVERAGE));
+        assertArrayEquals(new int[]{0, 1}, HCLAlgorithm.getLeafOrder(new float[]{0.5f}, 2, HCLAlgorithm.Linkage.SINGLE));
+    }
+
+    /**
+     * Merges the closest pair of all each time, in the slots and child order of getLeafOrder
+     */
+    private static int[] closestPairLeafOrder(final float[] distances, final int n, final HCLAlgorithm.Linkage linkage) {
+        final float[][] d = new float[n][n];
+        for (int i = 1, p = 0; i < n; i++) {
+            for (int j = 0; j < i; j++, p++) {
+                d[i][j] = d[j][i] = distances[p];
+            }
+        }
+        final int[][] members = new int[n][];
+        for (int i = 0; i < n; i++) {
+            members[i] = new int[]{i};
+        }
+        for (int m = 0; m < n - 1; m++) {
+            int lo = -1;
+            int hi = -1;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    if (members[i] != null && members[j] != null && (lo == -1 || d[i][j] < d[lo][hi])) {
+                        lo = i;
+                        hi = j;
+                    }
+                }
+            }
+            for (int k = 0; k < n; k++) {
+                if (k == lo || k == hi || members[k] == null) { continue; }
+                d[hi][k] = d[k][hi] = (linkage == HCLAlgorithm.Linkage.SINGLE) ? Math.min(d[hi][k], d[lo][k])
+                        : (float) ((d[hi][k] + d[lo][k]) / 2.0);
+            }
+            final int[] merged = Arrays.copyOf(members[lo], members[lo].length + members[hi].length);
+            System.arraycopy(members[hi], 0, merged, members[lo].length, members[hi].length);
+            members[hi] = merged;
+            members[lo] = null;
+        }
+        return members[n - 1];
+    }
+
+    @Test
+    void getLeafOrder_sameAsMergingTheClosestPair() {
+        final Random rnd = new Random(9);
+        for (int t = 0; t < 200; t++) {
+            final int n = 2 + rnd.nextInt(30);
+            final float[] dist = new float[n * (n - 1) / 2];
+            for (int i = 0; i < dist.length; i++) {
+                dist[i] = rnd.nextFloat() * 2 - 1;
+            }
+            for (HCLAlgorithm.Linkage linkage : HCLAlgorithm.Linkage.values()) {
+                assertArrayEquals(closestPairLeafOrder(dist, n, linkage),
+                        HCLAlgorithm.getLeafOrder(dist.clone(), n, linkage), "n " + n + " " + linkage);
+            }
+        }
+    }
+}
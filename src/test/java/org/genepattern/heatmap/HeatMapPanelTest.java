@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package org.genepattern.heatmap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.GPWrappers;
+import org.genepattern.data.expr.IExpressionData;
+
+/**
+ * The tiles of the heat map panel against the panel printed whole.
+ */
+public class HeatMapPanelTest {
+
+    private static IExpressionData createData(final int rows, final int columns) {
+        final Random random = new Random(5);
+        final Matrix matrix = new Matrix(rows, columns);
+        final String[] rowNames = new String[rows];
+        final String[] colNames = new String[columns];
+        for (int r = 0; r < rows; r++) {
+            rowNames[r] = "gene" + r;
+            for (int c = 0; c < columns; c++) {
+                matrix.setElement(r, c, (float) random.nextGaussian());
+            }
+        }
+        for (int c = 0; c < columns; c++) {
+            colNames[c] = "sample" + c;
+        }
+        return GPWrappers.createIExpressionData(new DefaultDataset("test", matrix, rowNames, colNames, null));
+    }
+
+    private static HeatMapPanel createPanel(final IExpressionData data, final int cellSize) {
+        final HeatMapPanel panel = new HeatMapPanel(data);
+        panel.setRowSize(cellSize);
+        panel.setColumnSize(cellSize);
+        panel.setSize(panel.getPreferredSize());
+        return panel;
+    }
+
+    private static BufferedImage print(final HeatMapPanel panel) {
+        final BufferedImage image = new BufferedImage(panel.getWidth(), panel.getHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        try {
+            panel.printAll(g2);
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    // Each drawn pixel of every tile is as printed
+    private static void assertTilesMatchPrint(final HeatMapPanel panel) {
+        final BufferedImage printed = print(panel);
+        final int size = HeatMapPanel.TILE_SIZE;
+        for (int tileY = 0; tileY * size < panel.getHeight(); tileY++) {
+            for (int tileX = 0; tileX * size < panel.getWidth(); tileX++) {
+                final BufferedImage tile = panel.drawTile(tileX, tileY);
+                assertNotNull(tile);
+                for (int y = 0; y < size && tileY * size + y < panel.getHeight(); y++) {
+                    for (int x = 0; x < size && tileX * size + x < panel.getWidth(); x++) {
+                        final int rgb = tile.getRGB(x, y);
+                        if ((rgb >>> 24) != 0 && rgb != printed.getRGB(tileX * size + x, tileY * size + y)) {
+                            fail("Pixel " + (tileX * size + x) + ", " + (tileY * size + y) + " of tile " + tileX
+                                    + ", " + tileY + " differs");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void drawTile_matchesPrint() {
+        // Cells of 7 pixels, so that cells and grid lines straddle the tile edges
+        assertTilesMatchPrint(createPanel(createData(90, 80), 7));
+    }
+
+    @Test
+    void drawTile_upperTriangularGridMatchesPrintAtTileEdges() {
+        // Cells of 8 pixels put the tile edges on the grid lines
+        final HeatMapPanel aligned = createPanel(createData(100, 100), 8);
+        aligned.setUpperTriangular(true);
+        assertTilesMatchPrint(aligned);
+
+        final HeatMapPanel panel = createPanel(createData(100, 100), 7);
+        panel.setUpperTriangular(true);
+        assertTilesMatchPrint(panel);
+
+        // The grid lines to the diagonal are drawn in the tiles below and right of the first
+        final BufferedImage printed = print(panel);
+        final int size = HeatMapPanel.TILE_SIZE;
+        final BufferedImage tile = panel.drawTile(1, 1);
+        int gridPixels = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (tile.getRGB(x, y) == Color.black.getRGB()) {
+                    gridPixels++;
+                }
+            }
+        }
+        assertTrue(gridPixels > 0);
+        // Nothing is drawn below the diagonal, in the tiles or printed
+        assertEquals(0, panel.drawTile(0, 2).getRGB(0, size - 1) >>> 24);
+        assertNotEquals(Color.black.getRGB(), printed.getRGB(2, 2 * size + 100));
+    }
+
+    @Test
+    void drawTile_aggregatedIsTheMeanColorOfTheCells() {
+        final IExpressionData data = createData(600, 500);
+        final HeatMapPanel panel = createPanel(data, 1);
+        panel.setRowsPerPixel(3);
+        panel.setColumnsPerPixel(2);
+        panel.setSize(panel.getPreferredSize());
+        assertEquals(250 + 1, panel.getPreferredSize().width);
+        assertTilesMatchPrint(panel);
+
+        // The panel's color scheme as of whole cells, of a pixel each
+        final HeatMapPanel cells = createPanel(data, 1);
+        cells.setDrawGrid(false);
+        final BufferedImage full = print(cells);
+        final BufferedImage tile = panel.drawTile(0, 0);
+        for (int y = 0; y < 50; y += 7) {
+            for (int x = 0; x < 50; x += 5) {
+                int r = 0, g = 0, b = 0;
+                for (int row = 3 * y; row < 3 * y + 3; row++) {
+                    for (int column = 2 * x; column < 2 * x + 2; column++) {
+                        final int rgb = full.getRGB(column, row);
+                        r += (rgb >> 16) & 0xff;
+                        g += (rgb >> 8) & 0xff;
+                        b += rgb & 0xff;
+                    }
+                }
+                final Color expected = new Color((r + 3) / 6, (g + 3) / 6, (b + 3) / 6);
+                assertEquals(expected.getRGB(), tile.getRGB(x, y), "Pixel " + x + ", " + y);
+            }
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> panel.setRowsPerPixel(0));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package org.genepattern.heatmap.image;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.math.Matrix;
+import edu.mit.broad.genome.objects.DefaultDataset;
+import edu.mit.broad.genome.objects.GPWrappers;
+
+/**
+ * The strips of the tiled heat map image against the heat map drawn in one image.
+ */
+public class HeatMapImageTest {
+
+    @TempDir
+    File tempDir;
+
+    private static HeatMap createHeatMap(final int rows, final int columns, final boolean upperTriangular) {
+        final Random random = new Random(17);
+        final Matrix matrix = new Matrix(rows, columns);
+        final String[] rowNames = new String[rows];
+        final String[] colNames = new String[columns];
+        for (int r = 0; r < rows; r++) {
+            rowNames[r] = "gene" + r;
+            for (int c = 0; c < columns; c++) {
+                matrix.setElement(r, c, (float) random.nextGaussian());
+            }
+        }
+        for (int c = 0; c < columns; c++) {
+            colNames[c] = "sample" + c;
+        }
+        final DisplaySettings ds = new DisplaySettings();
+        ds.upperTriangular = upperTriangular;
+        return HeatMap.createHeatMap(GPWrappers.createIExpressionData(
+                new DefaultDataset("test", matrix, rowNames, colNames, null)), ds, null, null);
+    }
+
+    private static void assertSamePixels(final BufferedImage expected, final BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    fail("Pixel " + x + ", " + y + " differs");
+                }
+            }
+        }
+    }
+
+    private static void assertSamePixels(final BufferedImage expected, final Raster actual) {
+        final Raster raster = expected.getRaster();
+        final Rectangle bounds = actual.getBounds();
+        final int[] pixel = new int[3];
+        final int[] actualPixel = new int[3];
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                assertArrayEquals(raster.getPixel(x, y, pixel), actual.getPixel(x, y, actualPixel),
+                        "Pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void tiledSnapshot_pngMatchesSnapshot() throws Exception {
+        // Wide enough to take several strips, and not a whole number of them
+        final HeatMap heatMap = createHeatMap(230, 320, false);
+        try (HeatMapImage image = heatMap.tiledSnapshot()) {
+            assertTrue(image.getNumYTiles() > 1);
+            assertNotEquals(0, image.getHeight() % image.getTileHeight());
+
+            final File tiled = new File(tempDir, "tiled.png");
+            final File whole = new File(tempDir, "whole.png");
+            assertTrue(ImageIO.write(image, "png", tiled));
+            assertTrue(ImageIO.write(heatMap.snapshot(), "png", whole));
+            assertSamePixels(ImageIO.read(whole), ImageIO.read(tiled));
+        }
+    }
+
+    @Test
+    void tiledSnapshot_upperTriangularPngMatchesSnapshot() throws Exception {
+        final HeatMap heatMap = createHeatMap(300, 300, true);
+        try (HeatMapImage image = heatMap.tiledSnapshot()) {
+            assertTrue(image.getNumYTiles() > 1);
+
+            final File tiled = new File(tempDir, "tiled.png");
+            final File whole = new File(tempDir, "whole.png");
+            assertTrue(ImageIO.write(image, "png", tiled));
+            assertTrue(ImageIO.write(heatMap.snapshot(), "png", whole));
+            assertSamePixels(ImageIO.read(whole), ImageIO.read(tiled));
+        }
+    }
+
+    @Test
+    void getData_spanningStripsMatchesSnapshot() {
+        final HeatMap heatMap = createHeatMap(230, 320, false);
+        final BufferedImage whole = heatMap.snapshot();
+        try (HeatMapImage image = heatMap.tiledSnapshot()) {
+            final int tileHeight = image.getTileHeight();
+            assertTrue(image.getNumYTiles() > 2);
+
+            // From inside the first strip to inside the third, not starting at the left edge
+            final Rectangle rect = new Rectangle(37, tileHeight - 5, 300, tileHeight + 20);
+            final Raster data = image.getData(rect);
+            assertEquals(rect, data.getBounds());
+            assertSamePixels(whole, data);
+
+            // The last, short strip and the one before
+            final Rectangle end = new Rectangle(0, image.getHeight() - tileHeight - 3, image.getWidth(),
+                    tileHeight + 3);
+            assertSamePixels(whole, image.copyData(
+                    image.getData(end).createCompatibleWritableRaster(end.x, end.y, end.width, end.height)));
+
+            assertSamePixels(whole, image.getData());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.api.param;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.objects.Template;
+import edu.mit.broad.genome.objects.TemplateMode;
+import edu.mit.broad.xbench.core.api.Application;
+import xtools.api.XToolsApplication;
+
+/**
+ * The phenotypes of a batch, named after the path of their CLS file.
+ */
+public class TemplateSingleChooserParamTest {
+
+    @TempDir
+    File tempDir;
+
+    // ParserFactory looks up its cache dirs through the application
+    @BeforeAll
+    static void registerApplication() {
+        if (!Application.isHandlerSet()) {
+            Application.registerHandler(new XToolsApplication());
+        }
+    }
+
+    private File writeCls(final String name) throws Exception {
+        final File cls = new File(tempDir, name);
+        Files.write(cls.toPath(), "12 3 1\n# A B C\nA A A A B B B B C C C C\n".getBytes(StandardCharsets.UTF_8));
+        return cls;
+    }
+
+    private static TemplateSingleChooserParam createParam() {
+        return new TemplateSingleChooserParam(Param.CLS, "Phenotype labels", TemplateMode.CATEGORICAL_2_CLASS_AND_NUMERIC, true);
+    }
+
+    private static void assertTemplate(final String expectedA, final String expectedB, final Template template) {
+        assertEquals(2, template.getNumClasses());
+        assertEquals(expectedA, template.getClassName(0));
+        assertEquals(expectedB, template.getClassName(1));
+        assertEquals(8, template.getNumItems());
+    }
+
+    @Test
+    void getTemplates_namesAfterAPathReadFromIt() throws Exception {
+        final File cls = writeCls("ph.cls");
+        final TemplateSingleChooserParam param = createParam();
+        param.setValue(cls.getPath() + "#A_versus_B,A_versus_C,B_versus_C");
+
+        final Template[] templates = param.getTemplates();
+        assertEquals(3, templates.length);
+        assertTrue(templates[0].getName().endsWith("#A_versus_B"), templates[0].getName());
+        assertTrue(templates[1].getName().endsWith("#A_versus_C"), templates[1].getName());
+        assertTrue(templates[2].getName().endsWith("#B_versus_C"), templates[2].getName());
+        assertTemplate("A", "B", templates[0]);
+        assertTemplate("A", "C", templates[1]);
+        assertTemplate("B", "C", templates[2]);
+        assertEquals(templates[0].getName(), param.getTemplate().getName());
+    }
+
+    @Test
+    void getTemplates_namesFollowTheLatestPath() throws Exception {
+        final File first = writeCls("first.cls");
+        final File second = writeCls("second.cls");
+        final TemplateSingleChooserParam param = createParam();
+        param.setValue(first.getPath() + "#A_versus_B," + second.getPath() + "#B_versus_C,A_versus_C");
+
+        final Template[] templates = param.getTemplates();
+        assertEquals(3, templates.length);
+        assertTrue(templates[0].getName().startsWith("first"), templates[0].getName());
+        assertTrue(templates[1].getName().startsWith("second"), templates[1].getName());
+        assertTrue(templates[2].getName().startsWith("second"), templates[2].getName());
+        assertTrue(templates[2].getName().endsWith("#A_versus_C"), templates[2].getName());
+        assertTemplate("A", "C", templates[2]);
+    }
+}
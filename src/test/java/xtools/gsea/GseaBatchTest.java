@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2003-2025 Broad Institute, Inc., Massachusetts Institute of Technology, and Regents of the University of California.  All rights reserved.
+ */
+package xtools.gsea;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.mit.broad.genome.math.RandomSeedGenerators;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentDb;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentResult;
+import edu.mit.broad.genome.objects.esmatrix.db.EnrichmentScore;
+import edu.mit.broad.genome.parsers.ParserFactory;
+
+/**
+ * Several phenotypes run as a batch against separate runs of the tool, on a small dataset with three classes.
+ */
+public class GseaBatchTest {
+
+    @TempDir
+    File tempDir;
+
+    private File writeInputs() throws Exception {
+        final Random random = new Random(3);
+        final int numGenes = 120;
+        final int numSamples = 12;
+        final StringBuilder gct = new StringBuilder("#1.2\n" + numGenes + "\t" + numSamples + "\nNAME\tDescription");
+        for (int s = 0; s < numSamples; s++) {
+            gct.append("\tS").append(s);
+        }
+        gct.append('\n');
+        for (int g = 0; g < numGenes; g++) {
+            gct.append('G').append(g).append("\tna");
+            for (int s = 0; s < numSamples; s++) {
+                final int cls = s / 4;
+                // Genes up in class A, and others up in class C
+                final double shift = (g < 20 && cls == 0) || (g >= 20 && g < 40 && cls == 2) ? 1.5 : 0;
+                gct.append('\t').append(String.format("%.4f", random.nextGaussian() + shift));
+            }
+            gct.append('\n');
+        }
+        write(new File(tempDir, "ds.gct"), gct.toString());
+        write(new File(tempDir, "ph.cls"), numSamples + " 3 1\n# A B C\nA A A A B B B B C C C C\n");
+
+        final StringBuilder gmt = new StringBuilder();
+        for (int k = 0; k < 6; k++) {
+            gmt.append("SET_").append(k).append("\tna");
+            for (int i = 0; i < 15; i++) {
+                gmt.append("\tG").append((k < 3) ? k * 15 + i : random.nextInt(numGenes));
+            }
+            gmt.append('\n');
+        }
+        write(new File(tempDir, "sets.gmt"), gmt.toString());
+        return tempDir;
+    }
+
+    private static void write(final File file, final String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(final File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    // Runs the tool into a new output folder, returning it
+    private File runGsea(final String name, final String phenotypes, final String seed) throws Exception {
+        final File out = new File(tempDir, name);
+        final String[] args = {
+                "-res", new File(tempDir, "ds.gct").getPath(),
+                "-cls", new File(tempDir, "ph.cls").getPath() + "#" + phenotypes,
+                "-gmx", new File(tempDir, "sets.gmt").getPath(),
+                "-collapse", "No_Collapse", "-permute", "gene_set", "-nperm", "20", "-rnd_seed", seed,
+                "-set_min", "5", "-set_max", "100", "-plot_top_x", "2", "-num", "10",
+                "-rpt_label", "t", "-out", out.getPath(),
+                "-gui", "false", "-zip_report", "false", "-make_sets", "false"};
+        new Gsea(args).execute();
+        return out;
+    }
+
+    // The report folder whose name starts with the label and tool
+    private static File reportDir(final File out, final String label) {
+        final File[] dirs = out.listFiles((dir, name) -> name.startsWith(label + ".Gsea."));
+        assertNotNull(dirs);
+        assertEquals(1, dirs.length, Arrays.toString(out.list()));
+        return dirs[0];
+    }
+
+    private static void assertSameResults(final File expectedDir, final File actualDir) throws Exception {
+        final EnrichmentDb expected = ParserFactory.readEdb(expectedDir, false);
+        final EnrichmentDb actual = ParserFactory.readEdb(actualDir, false);
+        assertEquals(expected.getNumResults(), actual.getNumResults());
+        for (EnrichmentResult e : expected.getResults()) {
+            final EnrichmentResult a = actual.getResultForGeneSet(e.getGeneSetName());
+            assertNotNull(a, e.getGeneSetName());
+            final EnrichmentScore es = e.getScore();
+            final EnrichmentScore as = a.getScore();
+            assertEquals(es.getES(), as.getES(), e.getGeneSetName());
+            assertEquals(es.getNES(), as.getNES(), e.getGeneSetName());
+            assertEquals(es.getNP(), as.getNP(), e.getGeneSetName());
+            assertEquals(es.getFDR(), as.getFDR(), e.getGeneSetName());
+            assertEquals(es.getFWER(), as.getFWER(), e.getGeneSetName());
+            assertArrayEquals(e.getRndESS().toArrayDouble(), a.getRndESS().toArrayDouble(), e.getGeneSetName());
+        }
+    }
+
+    @Test
+    void batch_reportsEachPhenotypeLikeASeparateRun() throws Exception {
+        writeInputs();
+        final File batch = runGsea("batch", "A_versus_B,A_versus_C", "149");
+
+        assertEquals(3, batch.list().length, Arrays.toString(batch.list()));
+        final File main = reportDir(batch, "t");
+        final File ab = reportDir(batch, "t_A_versus_B");
+        final File ac = reportDir(batch, "t_A_versus_C");
+
+        // The main report links to each phenotype's, in the order given
+        final String index = read(new File(main, "index.html"));
+        final int abLink = index.indexOf("href='../" + ab.getName() + "/index.html'>ph.cls#A_versus_B<");
+        final int acLink = index.indexOf("href='../" + ac.getName() + "/index.html'>ph.cls#A_versus_C<");
+        assertTrue(abLink >= 0, index);
+        assertTrue(acLink > abLink, index);
+        assertTrue(read(new File(ab, "index.html")).contains("Phenotype 1 of 2 run as a batch; see " + main.getName()));
+        assertTrue(read(new File(ac, "index.html")).contains("Phenotype 2 of 2 run as a batch; see " + main.getName()));
+
+        // With a fixed seed each phenotype uses it, as a run of its own would
+        assertSameResults(reportDir(runGsea("ab", "A_versus_B", "149"), "t"), ab);
+        assertSameResults(reportDir(runGsea("ac", "A_versus_C", "149"), "t"), ac);
+    }
+
+    @Test
+    void batch_timestampSeedsAPhenotypeAsARunWithItsChildSeed() throws Exception {
+        writeInputs();
+        final File batch = runGsea("batch", "A_versus_B,A_versus_C", "timestamp");
+        final File main = reportDir(batch, "t");
+        final long timestamp = Long.parseLong(main.getName().substring("t.Gsea.".length()));
+
+        final File[] phenotypeDirs = {reportDir(batch, "t_A_versus_B"), reportDir(batch, "t_A_versus_C")};
+        final String[] phenotypes = {"A_versus_B", "A_versus_C"};
+        final List<String> seeds = new ArrayList<String>();
+        for (int i = 0; i < phenotypes.length; i++) {
+            final String seed = RandomSeedGenerators.createChildren(
+                    new RandomSeedGenerators.Timestamp(timestamp), i + 1)[i].toString();
+            assertTrue(read(new File(phenotypeDirs[i], "index.html")).contains("Random seed: " + seed
+                    + " (drawn for phenotype " + (i + 1) + " of the batch from the timestamp " + timestamp + ")"));
+            seeds.add(seed);
+        }
+        assertNotEquals(seeds.get(0), seeds.get(1));
+
+        assertSameResults(reportDir(runGsea("ac", phenotypes[1], seeds.get(1)), "t"), phenotypeDirs[1]);
+    }
+
+    @Test
+    void batch_rejectsAPhenotypeGivenTwice() throws Exception {
+        writeInputs();
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> runGsea("batch", "A_versus_B,A_versus_C,A_versus_B", "149"));
+        assertTrue(e.getMessage().contains("A_versus_B"), e.getMessage());
+    }
+}